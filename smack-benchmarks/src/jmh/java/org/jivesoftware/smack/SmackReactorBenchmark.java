@@ -0,0 +1,261 @@
+/**
+ *
+ * Copyright 2021 Florian Schmaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Measures the number of messages per second a {@link SmackReactor} is able to handle, once with a single shared
+ * selector and once in sharded mode. A local echo server stands in for the XMPP server. A fraction of the connections
+ * is active and performs a ping-pong of small messages with the echo server, while the remaining connections are idle.
+ * <p>
+ * Note that every connection requires two file descriptors, hence the limit of open files may need to be raised for
+ * the larger connection counts. The benchmark is in the package of the reactor, as its constructors are
+ * package-private.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class SmackReactorBenchmark {
+
+    private static final int MESSAGE_SIZE = 64;
+
+    private static final int MESSAGE_BATCH_SIZE = 10_000;
+
+    @Param({"sharedSelector", "sharded"})
+    public String reactorMode;
+
+    @Param({"1000", "10000"})
+    public int connectionCount;
+
+    @Param({"0.1"})
+    public double activeFraction;
+
+    /**
+     * The number of reactor threads, respectively shards. Zero means the number of available processors, but at
+     * least two.
+     */
+    @Param({"0"})
+    public int shardCount;
+
+    private final AtomicLong receivedMessages = new AtomicLong();
+
+    private final List<BenchmarkConnection> connections = new ArrayList<>();
+
+    private EchoServer echoServer;
+
+    private static final class EchoServer extends Thread {
+        private final Selector selector;
+        private final ServerSocketChannel serverSocketChannel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+        private volatile boolean shutdownRequested;
+
+        private EchoServer() throws IOException {
+            super("Benchmark Echo Server");
+            setDaemon(true);
+            selector = Selector.open();
+            serverSocketChannel = ServerSocketChannel.open();
+            serverSocketChannel.socket().bind(new InetSocketAddress("127.0.0.1", 0), 4096);
+            serverSocketChannel.configureBlocking(false);
+            serverSocketChannel.register(selector, SelectionKey.OP_ACCEPT);
+        }
+
+        private InetSocketAddress getAddress() {
+            return (InetSocketAddress) serverSocketChannel.socket().getLocalSocketAddress();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!shutdownRequested) {
+                    selector.select();
+                    for (SelectionKey selectionKey : selector.selectedKeys()) {
+                        if (!selectionKey.isValid()) {
+                            continue;
+                        }
+                        if (selectionKey.isAcceptable()) {
+                            SocketChannel socketChannel;
+                            while ((socketChannel = serverSocketChannel.accept()) != null) {
+                                socketChannel.configureBlocking(false);
+                                socketChannel.register(selector, SelectionKey.OP_READ);
+                            }
+                        } else if (selectionKey.isReadable()) {
+                            echo(selectionKey);
+                        }
+                    }
+                    selector.selectedKeys().clear();
+                }
+                selector.close();
+                serverSocketChannel.close();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private void echo(SelectionKey selectionKey) {
+            SocketChannel socketChannel = (SocketChannel) selectionKey.channel();
+            buffer.clear();
+            try {
+                int read = socketChannel.read(buffer);
+                if (read < 0) {
+                    selectionKey.cancel();
+                    socketChannel.close();
+                    return;
+                }
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    socketChannel.write(buffer);
+                }
+            } catch (IOException e) {
+                selectionKey.cancel();
+            }
+        }
+
+        private void shutdown() throws InterruptedException {
+            shutdownRequested = true;
+            selector.wakeup();
+            join();
+        }
+    }
+
+    private static final class BenchmarkConnection implements SmackReactor.ChannelSelectedCallback {
+        private final SmackReactor reactor;
+        private final SocketChannel socketChannel;
+        private final AtomicLong receivedMessages;
+        private final ByteBuffer incoming = ByteBuffer.allocate(MESSAGE_SIZE);
+        private final ByteBuffer outgoing = ByteBuffer.allocate(MESSAGE_SIZE);
+
+        private BenchmarkConnection(SmackReactor reactor, InetSocketAddress address, AtomicLong receivedMessages)
+                        throws IOException {
+            this.reactor = reactor;
+            this.receivedMessages = receivedMessages;
+            socketChannel = SocketChannel.open(address);
+            socketChannel.configureBlocking(false);
+            reactor.registerWithSelector(socketChannel, SelectionKey.OP_READ, this);
+        }
+
+        private void sendMessage() throws IOException {
+            outgoing.clear();
+            while (outgoing.hasRemaining()) {
+                socketChannel.write(outgoing);
+            }
+        }
+
+        @Override
+        public void onChannelSelected(SelectableChannel channel, SelectionKey selectionKey) {
+            try {
+                while (true) {
+                    int read = socketChannel.read(incoming);
+                    if (read <= 0) {
+                        break;
+                    }
+                    if (!incoming.hasRemaining()) {
+                        incoming.clear();
+                        receivedMessages.incrementAndGet();
+                        sendMessage();
+                    }
+                }
+            } catch (IOException e) {
+                return;
+            }
+            SmackReactor.SelectionKeyAttachment attachment = (SmackReactor.SelectionKeyAttachment) selectionKey.attachment();
+            attachment.resetReactorThreadRacing();
+            reactor.setInterestOps(selectionKey, SelectionKey.OP_READ);
+        }
+    }
+
+    private SmackReactor newReactor() {
+        int threads = shardCount > 0 ? shardCount : Math.max(2, Runtime.getRuntime().availableProcessors());
+        switch (reactorMode) {
+        case "sharedSelector":
+            SmackReactor reactor = new SmackReactor("SharedSelectorBenchmark");
+            reactor.setReactorThreadCount(threads);
+            return reactor;
+        case "sharded":
+            return new SmackReactor("ShardedBenchmark", threads, new SmackReactor.RoundRobinShardAssignmentPolicy());
+        default:
+            throw new IllegalArgumentException(reactorMode);
+        }
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        SmackReactor reactor = newReactor();
+
+        echoServer = new EchoServer();
+        echoServer.start();
+
+        for (int i = 0; i < connectionCount; i++) {
+            connections.add(new BenchmarkConnection(reactor, echoServer.getAddress(), receivedMessages));
+        }
+
+        int activeConnectionCount = (int) (connectionCount * activeFraction);
+        for (int i = 0; i < activeConnectionCount; i++) {
+            connections.get(i).sendMessage();
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException, InterruptedException {
+        for (BenchmarkConnection connection : connections) {
+            connection.socketChannel.close();
+        }
+        connections.clear();
+        echoServer.shutdown();
+    }
+
+    /**
+     * Wait until the active connections have received another batch of messages from the echo server. The messages
+     * keep flowing between the invocations, the benchmark thread only observes the progress.
+     *
+     * @return the number of received messages.
+     */
+    @Benchmark
+    @OperationsPerInvocation(MESSAGE_BATCH_SIZE)
+    public long receiveMessages() {
+        long target = receivedMessages.get() + MESSAGE_BATCH_SIZE;
+        long received;
+        while ((received = receivedMessages.get()) < target) {
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(10));
+        }
+        return received;
+    }
+}
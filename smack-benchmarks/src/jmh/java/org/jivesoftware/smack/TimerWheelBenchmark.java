@@ -0,0 +1,148 @@
+/**
+ *
+ * Copyright 2021 Florian Schmaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack;
+
+import java.util.Date;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures the cost of scheduling and rescheduling actions, once with the delay queue and once with the timer wheel
+ * holding the scheduled actions of {@link SmackReactor}. The queue is filled with a large number of actions, which
+ * are then rescheduled in random order, i.e. cancelled and scheduled again, as done for example when the ping
+ * interval of a connection is reset by incoming traffic.
+ * <p>
+ * The benchmark is in the package of the reactor, as the scheduled action queues are package-private.
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TimerWheelBenchmark {
+
+    private static final Runnable NO_OP = () -> { };
+
+    private static final int INDEX_MASK = (1 << 16) - 1;
+
+    private static final int SCHEDULE_BATCH_SIZE = 10_000;
+
+    @Param({"delayQueue", "timerWheel"})
+    public String queueType;
+
+    @Param({"100000"})
+    public int timers;
+
+    @Param({"10"})
+    public long tickMillis;
+
+    private ScheduledActionQueue queue;
+
+    private ScheduledAction[] actions;
+
+    private ScheduledAction spareAction;
+
+    private long[] delaysNanos;
+
+    private int[] indexes;
+
+    private int next;
+
+    private ScheduledActionQueue newQueue() {
+        switch (queueType) {
+        case "delayQueue":
+            return new DelayScheduledActionQueue();
+        case "timerWheel":
+            return new TimerWheel(tickMillis, TimeUnit.MILLISECONDS);
+        default:
+            throw new IllegalArgumentException(queueType);
+        }
+    }
+
+    private static ScheduledAction newAction(long delayNanos) {
+        long releaseTimeNanos = System.nanoTime() + delayNanos;
+        Date releaseTime = new Date(System.currentTimeMillis() + TimeUnit.NANOSECONDS.toMillis(delayNanos));
+        return new ScheduledAction(NO_OP, releaseTime, releaseTimeNanos, null, ScheduledAction.Kind.NonBlocking, null);
+    }
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        Random random = new Random(42);
+
+        delaysNanos = new long[INDEX_MASK + 1];
+        indexes = new int[INDEX_MASK + 1];
+        for (int i = 0; i < delaysNanos.length; i++) {
+            // Delays between one second and 30 minutes, like ping intervals and back-off timers.
+            delaysNanos[i] = TimeUnit.SECONDS.toNanos(1) + (long) (random.nextDouble() * TimeUnit.MINUTES.toNanos(30));
+            indexes[i] = random.nextInt(timers);
+        }
+
+        queue = newQueue();
+        actions = new ScheduledAction[timers];
+        for (int i = 0; i < timers; i++) {
+            actions[i] = newAction(delaysNanos[i & INDEX_MASK]);
+            queue.add(actions[i]);
+        }
+        spareAction = newAction(delaysNanos[0]);
+    }
+
+    /**
+     * Schedule a batch of actions with a new queue, including the allocation of the scheduled actions, as done by
+     * {@link SmackReactor#schedule(Runnable, long, TimeUnit, ScheduledAction.Kind)}.
+     *
+     * @return the queue, so that the scheduling is not eliminated.
+     */
+    @Benchmark
+    @OperationsPerInvocation(SCHEDULE_BATCH_SIZE)
+    public ScheduledActionQueue schedule() {
+        ScheduledActionQueue queue = newQueue();
+        for (int i = 0; i < SCHEDULE_BATCH_SIZE; i++) {
+            queue.add(newAction(delaysNanos[i]));
+        }
+        return queue;
+    }
+
+    /**
+     * Cancel a random action of the filled queue and schedule another one in its place. Then poll for due actions
+     * and determine the time to the next due action, like the reactor does every time it is woken up.
+     *
+     * @return the time to the next due action.
+     */
+    @Benchmark
+    public long reschedule() {
+        int index = indexes[next++ & INDEX_MASK];
+        ScheduledAction cancelledAction = actions[index];
+        queue.remove(cancelledAction);
+        queue.add(spareAction);
+        actions[index] = spareAction;
+        // The cancelled action is scheduled again by the next invocation, so that no action is allocated here.
+        spareAction = cancelledAction;
+
+        queue.poll();
+        return queue.getTimeToNextDueMillis();
+    }
+}
@@ -0,0 +1,75 @@
+/**
+ *
+ * Copyright 2021 Florian Schmaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jivesoftware.smack.util.ArrayBlockingQueueWithShutdown;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures {@link ArrayBlockingQueueWithShutdown} uncontended, and with one producer and one consumer thread. The
+ * producer and consumer use the non-blocking methods, so that neither of them is left blocked once the other one has
+ * finished its iteration.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ArrayBlockingQueueWithShutdownBenchmark {
+
+    private static final Object ELEMENT = new Object();
+
+    @Param({"16", "1024"})
+    public int capacity;
+
+    private ArrayBlockingQueueWithShutdown<Object> queue;
+
+    @Setup
+    public void setup() {
+        queue = new ArrayBlockingQueueWithShutdown<>(capacity);
+    }
+
+    @Benchmark
+    public Object offerAndPoll() {
+        queue.offer(ELEMENT);
+        return queue.poll();
+    }
+
+    @Benchmark
+    @Group("producerConsumer")
+    @GroupThreads(1)
+    public boolean offer() {
+        return queue.offer(ELEMENT);
+    }
+
+    @Benchmark
+    @Group("producerConsumer")
+    @GroupThreads(1)
+    public Object poll() {
+        return queue.poll();
+    }
+}
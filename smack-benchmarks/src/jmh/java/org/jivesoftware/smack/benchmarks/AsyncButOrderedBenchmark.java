@@ -0,0 +1,71 @@
+/**
+ *
+ * Copyright 2021 Florian Schmaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.benchmarks;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.jivesoftware.smack.AsyncButOrdered;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Submits a batch of runnables, distributed over the given number of keys, to an {@link AsyncButOrdered} and waits
+ * until all of them have been run.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class AsyncButOrderedBenchmark {
+
+    private static final int BATCH_SIZE = 1000;
+
+    @Param({"1", "16"})
+    public int keys;
+
+    private AsyncButOrdered<Integer> asyncButOrdered;
+
+    private Integer[] keyObjects;
+
+    @Setup
+    public void setup() {
+        asyncButOrdered = new AsyncButOrdered<>();
+        keyObjects = new Integer[keys];
+        for (int i = 0; i < keys; i++) {
+            keyObjects[i] = i;
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void performAsyncButOrdered() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(BATCH_SIZE);
+        Runnable countDown = latch::countDown;
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            asyncButOrdered.performAsyncButOrdered(keyObjects[i % keys], countDown);
+        }
+        latch.await();
+    }
+}
@@ -0,0 +1,85 @@
+/**
+ *
+ * Copyright 2021 Florian Schmaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jivesoftware.smack.c2s.internal.IncomingStreamParser;
+import org.jivesoftware.smack.packet.Stanza;
+import org.jivesoftware.smack.packet.XmlEnvironment;
+import org.jivesoftware.smack.test.util.SmackTestUtil;
+import org.jivesoftware.smack.util.PacketParserUtils;
+import org.jivesoftware.smack.xml.SmackXmlParser;
+import org.jivesoftware.smack.xml.XmlPullParser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Compares parsing of top-level elements by wrapping every element into the stream open and close tags and creating a
+ * new parser for it, with parsing all elements using a single {@link IncomingStreamParser}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class IncomingStreamParserBenchmark {
+
+    private static final String STREAM_CLOSE = "</stream:stream>";
+
+    @Param
+    public SmackTestUtil.XmlPullParserKind parser;
+
+    private IncomingStreamParser incomingStreamParser;
+
+    private XmlEnvironment streamEnvironment;
+
+    @Setup
+    public void setup() throws Exception {
+        SmackXmlParser.setXmlPullParserFactory(parser.factory);
+
+        incomingStreamParser = new IncomingStreamParser();
+        XmlPullParser xmlPullParser = incomingStreamParser.streamOpened(Stanzas.STREAM_OPEN);
+        streamEnvironment = XmlEnvironment.from(xmlPullParser);
+    }
+
+    @TearDown
+    public void tearDown() {
+        incomingStreamParser.streamClosed();
+    }
+
+    @Benchmark
+    public Stanza wrapAndReparse() throws Exception {
+        String wrappedCompleteElement = Stanzas.STREAM_OPEN + Stanzas.MESSAGE + STREAM_CLOSE;
+        XmlPullParser xmlPullParser = PacketParserUtils.getParserFor(wrappedCompleteElement);
+        XmlEnvironment streamEnvironment = XmlEnvironment.from(xmlPullParser);
+        xmlPullParser.next();
+        return PacketParserUtils.parseStanza(xmlPullParser, streamEnvironment);
+    }
+
+    @Benchmark
+    public Stanza incrementalParser() throws Exception {
+        XmlPullParser xmlPullParser = incomingStreamParser.nextTopLevelElement(Stanzas.MESSAGE);
+        return PacketParserUtils.parseStanza(xmlPullParser, streamEnvironment);
+    }
+}
@@ -0,0 +1,115 @@
+/**
+ *
+ * Copyright 2021 Florian Schmaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jivesoftware.smack.DummyConnection;
+import org.jivesoftware.smack.StanzaListener;
+import org.jivesoftware.smack.filter.StanzaExtensionFilter;
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.packet.Stanza;
+import org.jivesoftware.smack.util.PacketParserUtils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Dispatches an incoming message to the stanza listeners of a connection with the given number of listeners, where
+ * only one listener's filter matches. The message carries no extension elements the managers of Smack would react
+ * to, e.g. by sending a delivery receipt.
+ * <p>
+ * The listeners are invoked asynchronously. To keep the backlog of pending listener invocations bounded, the benchmark
+ * waits for the listeners to catch up once too many invocations are pending. Hence this measures the throughput of
+ * the whole dispatch, not only of the hand-off.
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ListenerDispatchBenchmark {
+
+    private static final int MAX_PENDING_INVOCATIONS = 10_000;
+
+    private static final String NAMESPACE = "urn:example:benchmark";
+
+    private static final String MESSAGE = "<message xmlns='jabber:client' from='juliet@example.com/balcony'"
+                    + " to='romeo@example.net/orchard' id='ktx72v49' type='chat'>"
+                    + "<body>Art thou not Romeo, and a Montague?</body>"
+                    + "<benchmark xmlns='" + NAMESPACE + ":0'/>"
+                    + "</message>";
+
+    @Param({"1", "10", "100"})
+    public int listeners;
+
+    private final AtomicLong invoked = new AtomicLong();
+
+    private long dispatched;
+
+    private DummyConnection connection;
+
+    private Message message;
+
+    @Setup
+    public void setup() throws Exception {
+        connection = new DummyConnection();
+        connection.connect();
+        connection.login();
+
+        StanzaListener nonMatchingListener = stanza -> {
+            throw new AssertionError("Listener with non-matching filter invoked for " + stanza);
+        };
+        for (int i = 1; i < listeners; i++) {
+            connection.addSyncStanzaListener(nonMatchingListener,
+                            new StanzaExtensionFilter("benchmark", NAMESPACE + ":" + i));
+        }
+        connection.addSyncStanzaListener(stanza -> invoked.incrementAndGet(),
+                        new StanzaExtensionFilter("benchmark", NAMESPACE + ":0"));
+
+        message = PacketParserUtils.parseStanza(MESSAGE);
+    }
+
+    @TearDown
+    public void tearDown() {
+        awaitInvocations(0);
+        connection.disconnect();
+    }
+
+    private void awaitInvocations(long maxPendingInvocations) {
+        while (dispatched - invoked.get() > maxPendingInvocations) {
+            Thread.yield();
+        }
+    }
+
+    @Benchmark
+    public Stanza dispatch() {
+        connection.processStanza(message);
+        dispatched++;
+        if (dispatched - invoked.get() > MAX_PENDING_INVOCATIONS) {
+            awaitInvocations(MAX_PENDING_INVOCATIONS / 2);
+        }
+        return message;
+    }
+}
@@ -0,0 +1,100 @@
+/**
+ *
+ * Copyright 2021 Florian Schmaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.benchmarks;
+
+import java.nio.charset.StandardCharsets;
+import java.security.Security;
+import java.util.concurrent.TimeUnit;
+
+import org.jivesoftware.smackx.omemo.element.OmemoElement;
+import org.jivesoftware.smackx.omemo.internal.CipherAndAuthTag;
+import org.jivesoftware.smackx.omemo.internal.OmemoAesCipher;
+import org.jivesoftware.smackx.omemo.internal.OmemoDevice;
+import org.jivesoftware.smackx.omemo.util.OmemoConstants;
+import org.jivesoftware.smackx.omemo.util.OmemoMessageBuilder;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.jxmpp.jid.impl.JidCreate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Encrypts a message into an OMEMO element with {@link OmemoMessageBuilder} and decrypts an OMEMO payload.
+ * <p>
+ * Only the symmetric encryption of the payload is measured. Encrypting the message key for the recipient devices is
+ * done by the double ratchet of an OMEMO service implementation, and hence not part of this benchmark.
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class OmemoBenchmark {
+
+    static {
+        // The JDK's AES/GCM implementation does not accept the IvParameterSpec used by OmemoAesCipher.
+        Security.addProvider(new BouncyCastleProvider());
+    }
+
+    @Param({"64", "4096"})
+    public int messageLength;
+
+    private OmemoDevice userDevice;
+
+    private String message;
+
+    private byte[] messageKey;
+
+    private byte[] initializationVector;
+
+    private byte[] ciphertextWithAuthTag;
+
+    @Setup
+    public void setup() throws Exception {
+        userDevice = new OmemoDevice(JidCreate.bareFrom("juliet@example.com"), 1337);
+
+        StringBuilder sb = new StringBuilder(messageLength);
+        while (sb.length() < messageLength) {
+            sb.append("Art thou not Romeo, and a Montague? ");
+        }
+        sb.setLength(messageLength);
+        message = sb.toString();
+
+        messageKey = OmemoMessageBuilder.generateKey(OmemoConstants.Crypto.KEYTYPE, OmemoConstants.Crypto.KEYLENGTH);
+        initializationVector = OmemoMessageBuilder.generateIv();
+        ciphertextWithAuthTag = OmemoAesCipher.encryptAesGcmNoPadding(message.getBytes(StandardCharsets.UTF_8),
+                        messageKey, initializationVector);
+    }
+
+    @Benchmark
+    public OmemoElement encrypt() throws Exception {
+        OmemoMessageBuilder<?, ?, ?, ?, ?, ?, ?, ?, ?> builder = new OmemoMessageBuilder<>(userDevice, null, null,
+                        messageKey, initializationVector, message);
+        return builder.finish();
+    }
+
+    @Benchmark
+    public String decrypt() throws Exception {
+        CipherAndAuthTag cipherAndAuthTag = new CipherAndAuthTag(messageKey, initializationVector, null, false);
+        return cipherAndAuthTag.decrypt(ciphertextWithAuthTag);
+    }
+}
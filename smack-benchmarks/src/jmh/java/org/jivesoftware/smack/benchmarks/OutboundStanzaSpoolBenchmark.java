@@ -0,0 +1,151 @@
+/**
+ *
+ * Copyright 2021 Florian Schmaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.packet.MessageBuilder;
+import org.jivesoftware.smack.sm.OutboundStanzaSpool;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Compares the throughput of sending stanzas directly with sending them via an {@link OutboundStanzaSpool}.
+ * <p>
+ * The stanzas are sent in bursts over a loopback socket, like the writer thread of a connection sends the stanzas which
+ * were queued meanwhile. With the spool, every stanza is appended to the spool before it is sent, every burst is made
+ * durable by a single group commit, and every stanza is acknowledged afterwards, as if the server acknowledged it.
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class OutboundStanzaSpoolBenchmark {
+
+    private static final int STANZAS_PER_INVOCATION = 256;
+
+    @Param({"false", "true"})
+    public boolean spooled;
+
+    @Param({"1", "16", "256"})
+    public int burstSize;
+
+    private final Message[] messages = new Message[STANZAS_PER_INVOCATION];
+
+    private long[] recordIds;
+
+    private ServerSocket serverSocket;
+
+    private Socket socket;
+
+    private OutputStream outputStream;
+
+    private File spoolDirectory;
+
+    private OutboundStanzaSpool spool;
+
+    @Setup
+    public void setup() throws IOException {
+        for (int i = 0; i < messages.length; i++) {
+            messages[i] = MessageBuilder.buildMessage("benchmark-" + i)
+                            .setBody("Notification number " + i + " of the outbound stanza spool benchmark")
+                            .build();
+        }
+        recordIds = new long[burstSize];
+
+        serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        Thread drain = new Thread(() -> {
+            byte[] buffer = new byte[64 * 1024];
+            try (Socket socket = serverSocket.accept(); InputStream inputStream = socket.getInputStream()) {
+                while (inputStream.read(buffer) >= 0) {
+                    // Discard the sent stanzas.
+                }
+            } catch (IOException e) {
+                // The benchmark finished.
+            }
+        }, "Benchmark Drain");
+        drain.setDaemon(true);
+        drain.start();
+
+        socket = new Socket(serverSocket.getInetAddress(), serverSocket.getLocalPort());
+        outputStream = socket.getOutputStream();
+
+        if (spooled) {
+            spoolDirectory = Files.createTempDirectory("smack-spool-benchmark").toFile();
+            spool = OutboundStanzaSpool.open(spoolDirectory);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        socket.close();
+        serverSocket.close();
+
+        if (spool != null) {
+            spool.close();
+            File[] files = spoolDirectory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    Files.delete(file.toPath());
+                }
+            }
+            Files.delete(spoolDirectory.toPath());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(STANZAS_PER_INVOCATION)
+    public void send() throws IOException {
+        for (int burstStart = 0; burstStart < messages.length; burstStart += burstSize) {
+            int burstEnd = Math.min(burstStart + burstSize, messages.length);
+            if (spool != null) {
+                for (int i = burstStart; i < burstEnd; i++) {
+                    recordIds[i - burstStart] = spool.append(messages[i].toXML());
+                }
+                spool.awaitDurable(recordIds[burstEnd - burstStart - 1]);
+            }
+            for (int i = burstStart; i < burstEnd; i++) {
+                outputStream.write(messages[i].toXML().toString().getBytes(StandardCharsets.UTF_8));
+            }
+            outputStream.flush();
+            if (spool != null) {
+                for (int i = burstStart; i < burstEnd; i++) {
+                    spool.acknowledge(recordIds[i - burstStart]);
+                }
+            }
+        }
+    }
+}
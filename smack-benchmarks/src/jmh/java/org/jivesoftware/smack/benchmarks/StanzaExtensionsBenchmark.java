@@ -0,0 +1,163 @@
+/**
+ *
+ * Copyright 2021 Florian Schmaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.namespace.QName;
+
+import org.jivesoftware.smack.filter.StanzaExtensionFilter;
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.util.PacketParserUtils;
+import org.jivesoftware.smack.xml.XmlPullParser;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures the throughput of parsing a message with a few extension elements and dispatching it, i.e. matching it
+ * against a few extension filters, looking up its extensions and copying it into a builder, as an interceptor would
+ * do. Also measures the heap retained per parsed message.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class StanzaExtensionsBenchmark {
+
+    private static final int STANZAS_PER_STREAM = 1000;
+
+    private static final String MESSAGE = "<message xmlns='jabber:client' from='juliet@example.com/balcony'"
+                    + " to='romeo@example.net/orchard' id='ktx72v49' type='chat'>"
+                    + "<body>Art thou not Romeo, and a Montague?</body>"
+                    + "<thread>e0ffe42b28561960c6b12b944a092794b9683a38</thread>"
+                    + "<active xmlns='urn:example:chatstates'/>"
+                    + "<request xmlns='urn:example:receipts'/>"
+                    + "<markable xmlns='urn:example:markers'/>"
+                    + "<origin-id xmlns='urn:example:sid' id='de305d54-75b4-431b-adb2-eb6b9e546014'/>"
+                    + "</message>";
+
+    private static final QName[] DISPATCH_QNAMES = new QName[] {
+        new QName("urn:example:chatstates", "active"),
+        new QName("urn:example:receipts", "request"),
+        new QName("urn:example:unknown", "unknown"),
+    };
+
+    private static final StanzaExtensionFilter[] FILTERS = new StanzaExtensionFilter[DISPATCH_QNAMES.length];
+
+    static {
+        for (int i = 0; i < DISPATCH_QNAMES.length; i++) {
+            QName qname = DISPATCH_QNAMES[i];
+            FILTERS[i] = new StanzaExtensionFilter(qname.getLocalPart(), qname.getNamespaceURI());
+        }
+    }
+
+    /**
+     * The heap retained per parsed message, reported next to the time of the {@link #retainMessages(RetainedHeap)}
+     * benchmark.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class RetainedHeap {
+        public long retainedBytesPerStanza;
+    }
+
+    private String stream;
+
+    @Setup
+    public void setup() {
+        StringBuilder sb = new StringBuilder(STANZAS_PER_STREAM * MESSAGE.length() + 100);
+        sb.append("<stream:stream xmlns='jabber:client' xmlns:stream='http://etherx.jabber.org/streams'>");
+        for (int i = 0; i < STANZAS_PER_STREAM; i++) {
+            sb.append(MESSAGE);
+        }
+        sb.append("</stream:stream>");
+        stream = sb.toString();
+    }
+
+    private static Message parseNext(XmlPullParser parser) throws Exception {
+        while (parser.next() != XmlPullParser.Event.START_ELEMENT) {
+            // Skip to the next message.
+        }
+        return PacketParserUtils.parseMessage(parser);
+    }
+
+    /**
+     * Parse and dispatch a stream of messages. The creation of the parser for the stream is included, but amortized
+     * over all messages of the stream.
+     *
+     * @return the number of matched filters and extensions, so that the dispatching is not eliminated.
+     * @throws Exception if an exception occurs.
+     */
+    @Benchmark
+    @OperationsPerInvocation(STANZAS_PER_STREAM)
+    public int parseAndDispatch() throws Exception {
+        XmlPullParser parser = PacketParserUtils.getParserFor(stream);
+        int matched = 0;
+        for (int i = 0; i < STANZAS_PER_STREAM; i++) {
+            Message message = parseNext(parser);
+            for (StanzaExtensionFilter filter : FILTERS) {
+                if (filter.accept(message)) {
+                    matched++;
+                }
+            }
+            for (QName qname : DISPATCH_QNAMES) {
+                if (message.getExtension(qname) != null) {
+                    matched++;
+                }
+            }
+            matched += message.asBuilder().build().getExtensions().size();
+        }
+        return matched;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Parse a stream of messages and keep them, in order to determine the heap retained per message. As the heap
+     * usage is determined after explicit garbage collections, the time of this benchmark is meaningless.
+     *
+     * @param retainedHeap the counter of the retained heap.
+     * @return the parsed messages, so that they are retained.
+     * @throws Exception if an exception occurs.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public Message[] retainMessages(RetainedHeap retainedHeap) throws Exception {
+        XmlPullParser parser = PacketParserUtils.getParserFor(stream);
+        Message[] messages = new Message[STANZAS_PER_STREAM];
+        long before = usedHeap();
+        for (int i = 0; i < STANZAS_PER_STREAM; i++) {
+            messages[i] = parseNext(parser);
+        }
+        retainedHeap.retainedBytesPerStanza = (usedHeap() - before) / STANZAS_PER_STREAM;
+        return messages;
+    }
+}
@@ -0,0 +1,87 @@
+/**
+ *
+ * Copyright 2021 Florian Schmaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.benchmarks;
+
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import org.jivesoftware.smack.packet.Stanza;
+import org.jivesoftware.smack.packet.XmlEnvironment;
+import org.jivesoftware.smack.util.PacketParserUtils;
+import org.jivesoftware.smack.util.ParserUtils;
+import org.jivesoftware.smack.xml.XmlPullParser;
+import org.jivesoftware.smack.xml.XmlPullParserFactory;
+import org.jivesoftware.smack.xml.stax.StaxXmlPullParserFactory;
+import org.jivesoftware.smack.xml.xmpp.XmppXmlPullParserFactory;
+import org.jivesoftware.smack.xml.xpp3.Xpp3XmlPullParserFactory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Parses a message, a presence and an IQ stanza with every XML pull parser implementation, including the creation of
+ * the parser.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class StanzaParsingBenchmark {
+
+    public enum ParserKind {
+        xpp3(new Xpp3XmlPullParserFactory()),
+        stax(new StaxXmlPullParserFactory()),
+        xmpp(new XmppXmlPullParserFactory()),
+        ;
+
+        private final XmlPullParserFactory factory;
+
+        ParserKind(XmlPullParserFactory factory) {
+            this.factory = factory;
+        }
+    }
+
+    public enum StanzaKind {
+        message(Stanzas.MESSAGE),
+        presence(Stanzas.PRESENCE),
+        iq(Stanzas.IQ),
+        ;
+
+        private final String xml;
+
+        StanzaKind(String xml) {
+            this.xml = xml;
+        }
+    }
+
+    @Param
+    public ParserKind parser;
+
+    @Param
+    public StanzaKind stanza;
+
+    @Benchmark
+    public Stanza parseStanza() throws Exception {
+        XmlPullParser xmlPullParser = parser.factory.newXmlPullParser(new StringReader(stanza.xml));
+        ParserUtils.forwardToStartElement(xmlPullParser);
+        return PacketParserUtils.parseStanza(xmlPullParser, XmlEnvironment.EMPTY);
+    }
+}
@@ -0,0 +1,63 @@
+/**
+ *
+ * Copyright 2021 Florian Schmaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.benchmarks;
+
+/**
+ * Representative stanzas used by the benchmarks.
+ */
+final class Stanzas {
+
+    static final String MESSAGE = "<message xmlns='jabber:client' from='juliet@example.com/balcony'"
+                    + " to='romeo@example.net/orchard' id='ktx72v49' type='chat'>"
+                    + "<body>Art thou not Romeo, and a Montague? \u2014 Neither, fair maid, if either thee dislike.</body>"
+                    + "<thread>e0ffe42b28561960c6b12b944a092794b9683a38</thread>"
+                    + "<active xmlns='http://jabber.org/protocol/chatstates'/>"
+                    + "<request xmlns='urn:xmpp:receipts'/>"
+                    + "<origin-id xmlns='urn:xmpp:sid:0' id='de305d54-75b4-431b-adb2-eb6b9e546014'/>"
+                    + "<delay xmlns='urn:xmpp:delay' from='capulet.lit' stamp='2002-09-10T23:08:25Z'/>"
+                    + "</message>";
+
+    static final String PRESENCE = "<presence xmlns='jabber:client' from='juliet@example.com/balcony'"
+                    + " to='romeo@example.net' id='pres1'>"
+                    + "<show>away</show>"
+                    + "<status>Walking on the balcony</status>"
+                    + "<priority>5</priority>"
+                    + "<c xmlns='http://jabber.org/protocol/caps' hash='sha-1' node='https://igniterealtime.org/projects/smack'"
+                    + " ver='QgayPKawpkPSDYmwT/WM94uAlu0='/>"
+                    + "<delay xmlns='urn:xmpp:delay' from='example.com' stamp='2002-09-10T23:41:07Z'/>"
+                    + "</presence>";
+
+    static final String IQ = "<iq xmlns='jabber:client' from='example.com' to='juliet@example.com/balcony'"
+                    + " id='info1' type='result'>"
+                    + "<query xmlns='http://jabber.org/protocol/disco#info'>"
+                    + "<identity category='server' type='im' name='Capulet Server'/>"
+                    + "<feature var='http://jabber.org/protocol/disco#info'/>"
+                    + "<feature var='http://jabber.org/protocol/disco#items'/>"
+                    + "<feature var='urn:xmpp:ping'/>"
+                    + "<feature var='urn:xmpp:carbons:2'/>"
+                    + "<feature var='urn:xmpp:mam:2'/>"
+                    + "<feature var='vcard-temp'/>"
+                    + "</query>"
+                    + "</iq>";
+
+    static final String STREAM_OPEN = "<stream:stream xmlns='jabber:client'"
+                    + " xmlns:stream='http://etherx.jabber.org/streams' from='example.com' id='++TR84Sm6A3hnt3Q065SnAbbk3Y='"
+                    + " version='1.0' xml:lang='en'>";
+
+    private Stanzas() {
+    }
+}
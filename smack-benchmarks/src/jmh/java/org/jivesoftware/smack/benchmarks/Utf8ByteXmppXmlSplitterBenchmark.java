@@ -0,0 +1,95 @@
+/**
+ *
+ * Copyright 2021 Florian Schmaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.benchmarks;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.jxmpp.xml.splitter.Utf8ByteXmppXmlSplitter;
+import org.jxmpp.xml.splitter.XmppElementCallback;
+import org.jxmpp.xml.splitter.XmppXmlSplitter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Feeds the bytes of an incoming stream of stanzas into a {@link Utf8ByteXmppXmlSplitter}, in chunks of the given
+ * size, as the TCP transport does with the bytes read from the socket.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class Utf8ByteXmppXmlSplitterBenchmark {
+
+    private static final int STANZAS_PER_INVOCATION = 100;
+
+    private static final int MAX_ELEMENT_SIZE = 10000;
+
+    @Param({"64", "4096"})
+    public int chunkSize;
+
+    private final XmppElementCallback callback = new XmppElementCallback() {
+        @Override
+        public void onCompleteElement(String completeElement) {
+            completedElementsLength += completeElement.length();
+        }
+
+        @Override
+        public void streamOpened(String prefix, Map<String, String> attributes) {
+        }
+
+        @Override
+        public void streamClosed() {
+        }
+    };
+
+    private long completedElementsLength;
+
+    private Utf8ByteXmppXmlSplitter splitter;
+
+    private byte[] stanzas;
+
+    @Setup
+    public void setup() throws Exception {
+        splitter = new Utf8ByteXmppXmlSplitter(new XmppXmlSplitter(MAX_ELEMENT_SIZE, callback));
+        splitter.write(Stanzas.STREAM_OPEN.getBytes(StandardCharsets.UTF_8));
+
+        StringBuilder sb = new StringBuilder();
+        String[] stanzaTemplates = new String[] { Stanzas.MESSAGE, Stanzas.PRESENCE, Stanzas.IQ };
+        for (int i = 0; i < STANZAS_PER_INVOCATION; i++) {
+            sb.append(stanzaTemplates[i % stanzaTemplates.length]);
+        }
+        stanzas = sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(STANZAS_PER_INVOCATION)
+    public long feed() throws Exception {
+        for (int offset = 0; offset < stanzas.length; offset += chunkSize) {
+            int length = Math.min(chunkSize, stanzas.length - offset);
+            splitter.write(stanzas, offset, length);
+        }
+        return completedElementsLength;
+    }
+}
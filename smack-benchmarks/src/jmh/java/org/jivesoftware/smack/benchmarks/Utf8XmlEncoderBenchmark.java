@@ -0,0 +1,88 @@
+/**
+ *
+ * Copyright 2021 Florian Schmaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.packet.MessageBuilder;
+import org.jivesoftware.smack.packet.StreamOpen;
+import org.jivesoftware.smack.packet.XmlEnvironment;
+import org.jivesoftware.smack.util.UTF8;
+import org.jivesoftware.smack.util.Utf8XmlEncoder;
+import org.jivesoftware.smack.util.XmlStringBuilder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Compares encoding the XML of an outgoing stanza by flattening its {@link XmlStringBuilder} into a list and encoding
+ * every part into a new buffer, with encoding it using a {@link Utf8XmlEncoder}. The XML of the stanza is created
+ * once, so that only the cost of the encoding is measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class Utf8XmlEncoderBenchmark {
+
+    private static final XmlEnvironment OUTGOING_STREAM_XML_ENVIRONMENT = new XmlEnvironment(StreamOpen.CLIENT_NAMESPACE);
+
+    private final Utf8XmlEncoder encoder = new Utf8XmlEncoder();
+
+    private XmlStringBuilder xml;
+
+    @Setup
+    public void setup() throws Exception {
+        Message message = MessageBuilder.buildMessage("ktx72v49")
+                        .from("juliet@example.com/balcony")
+                        .to("romeo@example.net/orchard")
+                        .ofType(Message.Type.chat)
+                        .setBody("Art thou not Romeo, and a Montague? Neither, fair maid, if either thee dislike.")
+                        .build();
+        xml = message.toXML(OUTGOING_STREAM_XML_ENVIRONMENT);
+    }
+
+    @Benchmark
+    public int listAndEncodeParts() {
+        int encodedBytes = 0;
+        for (CharSequence part : xml.toList(OUTGOING_STREAM_XML_ENVIRONMENT)) {
+            ByteBuffer buffer = UTF8.encode(part);
+            encodedBytes += buffer.remaining();
+        }
+        return encodedBytes;
+    }
+
+    @Benchmark
+    public int utf8XmlEncoder() {
+        int encodedBytes = 0;
+        encoder.encode(xml, OUTGOING_STREAM_XML_ENVIRONMENT);
+        List<ByteBuffer> buffers = encoder.drainBuffers();
+        for (int i = 0; i < buffers.size(); i++) {
+            ByteBuffer buffer = buffers.get(i);
+            encodedBytes += buffer.remaining();
+            encoder.recycle(buffer);
+        }
+        return encodedBytes;
+    }
+}
@@ -0,0 +1,163 @@
+/**
+ *
+ * Copyright 2021 Florian Schmaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.jivesoftware.smack.xml.XmlPullParser;
+import org.jivesoftware.smack.xml.XmlPullParserException;
+import org.jivesoftware.smack.xml.stax.StaxXmlPullParserFactory;
+import org.jivesoftware.smack.xml.xmpp.XmppXmlPullParserFactory;
+import org.jivesoftware.smack.xml.xpp3.Xpp3XmlPullParserFactory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Compares the throughput of the XML pull parser implementations, when parsing a stream of typical XMPP stanzas. The
+ * score is the time per stanza.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class XmlPullParserThroughputBenchmark {
+
+    private static final int STANZAS_PER_STREAM = 10_000;
+
+    private static final String[] STANZAS = {
+        "<message xmlns='jabber:client' from='romeo@example.net/orchard' to='juliet@example.org/balcony' "
+            + "type='chat' id='ktx72v49'><body>Art thou not Romeo, and a Montague?</body>"
+            + "<thread>e0ffe42b28561960c6b12b944a092794b9683a38</thread>"
+            + "<active xmlns='http://jabber.org/protocol/chatstates'/>"
+            + "<request xmlns='urn:xmpp:receipts'/><origin-id xmlns='urn:xmpp:sid:0' id='de305d54'/></message>",
+        "<presence xmlns='jabber:client' from='juliet@example.org/balcony' to='romeo@example.net'>"
+            + "<show>away</show><status>I &lt;3 Romeo</status><priority>5</priority>"
+            + "<c xmlns='http://jabber.org/protocol/caps' hash='sha-1' node='https://igniterealtime.org/projects/smack'"
+            + " ver='QgayPKawpkPSDYmwT/WM94uAlu0='/></presence>",
+        "<iq xmlns='jabber:client' type='result' id='roster_1' to='juliet@example.org/balcony'>"
+            + "<query xmlns='jabber:iq:roster' ver='ver11'>"
+            + "<item jid='romeo@example.net' name='Romeo' subscription='both'><group>Friends</group></item>"
+            + "<item jid='mercutio@example.com' name='Mercutio' subscription='from'/>"
+            + "<item jid='benvolio@example.net' name='Benvolio' subscription='both'/></query></iq>",
+    };
+
+    private static final Xpp3XmlPullParserFactory XPP3 = new Xpp3XmlPullParserFactory();
+
+    private static final StaxXmlPullParserFactory STAX = new StaxXmlPullParserFactory();
+
+    private static final XmppXmlPullParserFactory XMPP = new XmppXmlPullParserFactory();
+
+    public enum ParserKind {
+        xpp3Reader {
+            @Override
+            XmlPullParser newParser(byte[] xml) throws XmlPullParserException {
+                return XPP3.newXmlPullParser(newReader(xml));
+            }
+        },
+        staxReader {
+            @Override
+            XmlPullParser newParser(byte[] xml) throws XmlPullParserException {
+                return STAX.newXmlPullParser(newReader(xml));
+            }
+        },
+        xmppReader {
+            @Override
+            XmlPullParser newParser(byte[] xml) {
+                return XMPP.newXmlPullParser(newReader(xml));
+            }
+        },
+        xmppInputStream {
+            @Override
+            XmlPullParser newParser(byte[] xml) {
+                return XMPP.newXmlPullParser(new ByteArrayInputStream(xml));
+            }
+        },
+        ;
+
+        abstract XmlPullParser newParser(byte[] xml) throws XmlPullParserException;
+    }
+
+    @Param
+    public ParserKind parser;
+
+    private byte[] xml;
+
+    private static Reader newReader(byte[] xml) {
+        return new InputStreamReader(new ByteArrayInputStream(xml), StandardCharsets.UTF_8);
+    }
+
+    private static long parse(XmlPullParser parser) throws XmlPullParserException, IOException {
+        // Access names, attributes and text like a typical provider would do.
+        long checksum = 0;
+        XmlPullParser.Event event;
+        do {
+            event = parser.next();
+            switch (event) {
+            case START_ELEMENT:
+                checksum += parser.getName().length() + parser.getNamespace().length();
+                for (int i = 0; i < parser.getAttributeCount(); i++) {
+                    checksum += parser.getAttributeValue(i).length();
+                }
+                break;
+            case TEXT_CHARACTERS:
+                checksum += parser.getText().length();
+                break;
+            default:
+                break;
+            }
+        } while (event != XmlPullParser.Event.END_DOCUMENT);
+        return checksum;
+    }
+
+    @Setup
+    public void setup() throws XmlPullParserException, IOException {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<stream:stream xmlns='jabber:client' xmlns:stream='http://etherx.jabber.org/streams'"
+                        + " from='example.org' id='++TR84Sm6A3hnt3Q065SnAbbk3Y=' version='1.0'>");
+        for (int i = 0; i < STANZAS_PER_STREAM; i++) {
+            sb.append(STANZAS[i % STANZAS.length]);
+        }
+        sb.append("</stream:stream>");
+        String stream = sb.toString();
+        xml = stream.getBytes(StandardCharsets.UTF_8);
+
+        // Ensure that the parser agrees with the reference implementation before measuring it.
+        long expected = parse(XPP3.newXmlPullParser(new StringReader(stream)));
+        if (parse(parser.newParser(xml)) != expected) {
+            throw new IllegalStateException("Parser " + parser + " does not agree with XPP3");
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(STANZAS_PER_STREAM)
+    public long parseStream() throws XmlPullParserException, IOException {
+        return parse(parser.newParser(xml));
+    }
+}
@@ -0,0 +1,113 @@
+/**
+ *
+ * Copyright 2021 Florian Schmaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.benchmarks;
+
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.packet.StreamOpen;
+import org.jivesoftware.smack.packet.XmlEnvironment;
+import org.jivesoftware.smack.util.PacketParserUtils;
+import org.jivesoftware.smack.util.Utf8XmlEncoder;
+import org.jivesoftware.smack.util.XmlStringBuilder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Serializes a message with a few extension elements: building its {@link XmlStringBuilder}, flattening it into a
+ * String, writing it to a {@link Writer} and encoding it to UTF-8 with a {@link Utf8XmlEncoder}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class XmlStringBuilderBenchmark {
+
+    private static final XmlEnvironment OUTGOING_STREAM_XML_ENVIRONMENT = new XmlEnvironment(StreamOpen.CLIENT_NAMESPACE);
+
+    /**
+     * A writer discarding everything written to it.
+     */
+    private static final class NullWriter extends Writer {
+        private int written;
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            written += len;
+        }
+
+        @Override
+        public void write(String str, int off, int len) {
+            written += len;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private final NullWriter writer = new NullWriter();
+
+    private final Utf8XmlEncoder encoder = new Utf8XmlEncoder();
+
+    private Message message;
+
+    @Setup
+    public void setup() throws Exception {
+        message = PacketParserUtils.parseStanza(Stanzas.MESSAGE);
+    }
+
+    @Benchmark
+    public XmlStringBuilder toXml() {
+        return message.toXML(OUTGOING_STREAM_XML_ENVIRONMENT);
+    }
+
+    @Benchmark
+    public String toXmlString() {
+        return message.toXML(OUTGOING_STREAM_XML_ENVIRONMENT).toString();
+    }
+
+    @Benchmark
+    public int writeToWriter() throws Exception {
+        message.toXML(OUTGOING_STREAM_XML_ENVIRONMENT).write(writer, OUTGOING_STREAM_XML_ENVIRONMENT);
+        return writer.written;
+    }
+
+    @Benchmark
+    public void encodeUtf8(Blackhole blackhole) {
+        encoder.encode(message.toXML(OUTGOING_STREAM_XML_ENVIRONMENT), OUTGOING_STREAM_XML_ENVIRONMENT);
+        List<ByteBuffer> buffers = encoder.drainBuffers();
+        for (int i = 0; i < buffers.size(); i++) {
+            ByteBuffer buffer = buffers.get(i);
+            blackhole.consume(buffer.remaining());
+            encoder.recycle(buffer);
+        }
+    }
+}
@@ -0,0 +1,24 @@
+/**
+ *
+ * Copyright 2021 Florian Schmaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/**
+ * JMH benchmarks of Smack's hot paths.
+ * <p>
+ * Run them with {@code gradle :smack-benchmarks:jmh}. The GC profiler is enabled, so that the results also contain
+ * the bytes allocated per operation.
+ * </p>
+ */
+package org.jivesoftware.smack.benchmarks;
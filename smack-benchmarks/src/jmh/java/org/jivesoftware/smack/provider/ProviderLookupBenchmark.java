@@ -0,0 +1,151 @@
+/**
+ *
+ * Copyright 2021 Florian Schmaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.provider;
+
+import java.io.StringReader;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.namespace.QName;
+
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.parsing.StandardExtensionElementProvider;
+import org.jivesoftware.smack.util.PacketParserUtils;
+import org.jivesoftware.smack.xml.XmlPullParser;
+import org.jivesoftware.smack.xml.xpp3.Xpp3XmlPullParserFactory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Compares looking up providers in a map keyed by a {@link QName} created for every lookup, as Smack used to do, with
+ * the allocation-free lookup of {@link ProviderRegistry}, which backs {@link ProviderManager}. Also measures the whole
+ * parse path of a message with extension elements.
+ * <p>
+ * The benchmark is in the package of the provider registry, as it is package-private.
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ProviderLookupBenchmark {
+
+    private static final String[][] ELEMENTS = {
+        { "body", "jabber:client" },
+        { "thread", "jabber:client" },
+        { "active", "http://jabber.org/protocol/chatstates" },
+        { "request", "urn:xmpp:receipts" },
+        { "origin-id", "urn:xmpp:sid:0" },
+        { "stanza-id", "urn:xmpp:sid:0" },
+        { "delay", "urn:xmpp:delay" },
+        { "unknown", "urn:example:unknown" },
+    };
+
+    private static final String MESSAGE = "<message xmlns='jabber:client' from='romeo@example.net/orchard'"
+                    + " to='juliet@example.org/balcony' type='chat' id='ktx72v49'>"
+                    + "<body>Art thou not Romeo, and a Montague?</body>"
+                    + "<active xmlns='http://jabber.org/protocol/chatstates'/>"
+                    + "<request xmlns='urn:xmpp:receipts'/>"
+                    + "<origin-id xmlns='urn:xmpp:sid:0' id='de305d54-75b4-431b-adb2-eb6b9e546014'/>"
+                    + "<stanza-id xmlns='urn:xmpp:sid:0' id='5f3dbc5e' by='juliet@example.org'/>"
+                    + "</message>";
+
+    private static final Xpp3XmlPullParserFactory XPP3 = new Xpp3XmlPullParserFactory();
+
+    @Param({"500"})
+    public int registeredProviders;
+
+    private final Map<QName, Object> qnameMap = new ConcurrentHashMap<>();
+
+    private final ProviderRegistry<Object> providerRegistry = new ProviderRegistry<>();
+
+    @Setup
+    public void setup() {
+        // Register as many providers as a typical Smack setup, including all but the last of the looked up
+        // elements. The registered names are not interned, as they are usually obtained from a providers file.
+        for (int i = 0; i < registeredProviders; i++) {
+            String elementName, namespace;
+            if (i < ELEMENTS.length - 1) {
+                elementName = new String(ELEMENTS[i][0]);
+                namespace = new String(ELEMENTS[i][1]);
+            } else {
+                elementName = "element-" + i;
+                namespace = "urn:example:namespace:" + i / 2;
+            }
+            Object provider = new Object();
+            qnameMap.put(new QName(namespace, elementName), provider);
+            providerRegistry.put(elementName, namespace, provider);
+        }
+
+        // Also register a provider for the elements of the parsed message, for the case that they are not known.
+        for (int i = 0; i < ELEMENTS.length - 1; i++) {
+            if (ProviderManager.getExtensionProvider(ELEMENTS[i][0], ELEMENTS[i][1]) == null) {
+                ProviderManager.addExtensionProvider(ELEMENTS[i][0], ELEMENTS[i][1],
+                                StandardExtensionElementProvider.INSTANCE);
+            }
+        }
+    }
+
+    /**
+     * Look up the providers of all eight elements, of which all but the last are registered.
+     *
+     * @return the number of found providers.
+     */
+    @Benchmark
+    @OperationsPerInvocation(8)
+    public int qnameMap() {
+        int found = 0;
+        for (String[] element : ELEMENTS) {
+            if (qnameMap.get(new QName(element[1], element[0])) != null) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Look up the providers of all eight elements, of which all but the last are registered.
+     *
+     * @return the number of found providers.
+     */
+    @Benchmark
+    @OperationsPerInvocation(8)
+    public int providerRegistry() {
+        int found = 0;
+        for (String[] element : ELEMENTS) {
+            if (providerRegistry.get(element[0], element[1]) != null) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    @Benchmark
+    public Message parseMessage() throws Exception {
+        XmlPullParser parser = XPP3.newXmlPullParser(new StringReader(MESSAGE));
+        parser.next();
+        return PacketParserUtils.parseMessage(parser);
+    }
+}
@@ -22,7 +22,6 @@ import java.io.Writer;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -70,6 +69,9 @@ import org.jivesoftware.smack.filter.StanzaFilter;
 import org.jivesoftware.smack.filter.StanzaIdFilter;
 import org.jivesoftware.smack.internal.SmackTlsContext;
 import org.jivesoftware.smack.iqrequest.IQRequestHandler;
+import org.jivesoftware.smack.metrics.ConnectionMetrics;
+import org.jivesoftware.smack.metrics.SmackMetrics;
+import org.jivesoftware.smack.metrics.SmackTracer;
 import org.jivesoftware.smack.packet.AbstractStreamOpen;
 import org.jivesoftware.smack.packet.Bind;
 import org.jivesoftware.smack.packet.ErrorIQ;
@@ -201,17 +203,24 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
      */
     private final Collection<StanzaCollector> collectors = new ConcurrentLinkedQueue<>();
 
-    private final Map<StanzaListener, ListenerWrapper> recvListeners = new LinkedHashMap<>();
+    /**
+     * The stanza collectors waiting for a response with a particular stanza ID, e.g. the ones created by
+     * {@link #createStanzaCollectorAndSend(IQ)}. Those are not part of {@link #collectors}, as they can be looked up
+     * in constant time using the stanza ID of an incoming stanza.
+     */
+    private final PendingResponseTable pendingResponses = new PendingResponseTable();
+
+    private final StanzaListenerIndex recvListeners = new StanzaListenerIndex();
 
     /**
      * List of PacketListeners that will be notified synchronously when a new stanza was received.
      */
-    private final Map<StanzaListener, ListenerWrapper> syncRecvListeners = new LinkedHashMap<>();
+    private final StanzaListenerIndex syncRecvListeners = new StanzaListenerIndex();
 
     /**
      * List of PacketListeners that will be notified asynchronously when a new stanza was received.
      */
-    private final Map<StanzaListener, ListenerWrapper> asyncRecvListeners = new LinkedHashMap<>();
+    private final StanzaListenerIndex asyncRecvListeners = new StanzaListenerIndex();
 
     /**
      * List of PacketListeners that will be notified when a new stanza was sent.
@@ -318,6 +327,17 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
      */
     protected final ConnectionConfiguration config;
 
+    /**
+     * The metrics of this connection. Only recording if enabled in the connection configuration.
+     */
+    protected final ConnectionMetrics metrics;
+
+    /**
+     * The size of the incoming stanza which is currently processed, as reported to the {@link SmackTracer}. Only
+     * accessed by the thread processing the incoming stream.
+     */
+    private long incomingStanzaSize = SmackTracer.SIZE_UNKNOWN;
+
     /**
      * Defines how the from attribute of outgoing stanzas should be handled.
      */
@@ -349,6 +369,25 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
 
     protected static final AsyncButOrdered<AbstractXMPPConnection> ASYNC_BUT_ORDERED = new AsyncButOrdered<>();
 
+    static {
+        ASYNC_BUT_ORDERED.setBackpressureListener(new AsyncButOrdered.BackpressureListener<AbstractXMPPConnection>() {
+            @Override
+            public void queueOverflowed(AbstractXMPPConnection connection, int queueDepth) {
+                connection.listenerQueueOverflowed();
+            }
+
+            @Override
+            public void queueRelieved(AbstractXMPPConnection connection, int queueDepth) {
+                connection.listenerQueueRelieved();
+            }
+
+            @Override
+            public void runnableDropped(AbstractXMPPConnection connection, Runnable runnable) {
+                inboundDispatchDropped(runnable);
+            }
+        });
+    }
+
     protected final AsyncButOrdered<StanzaListener> inOrderListeners = new AsyncButOrdered<>();
 
     /**
@@ -391,6 +430,33 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
         saslAuthentication = new SASLAuthentication(this, configuration);
         config = configuration;
 
+        metrics = new ConnectionMetrics(this, configuration.isMetricsEnabled());
+        metrics.registerGauge("pendingIqResponses", this::getPendingResponseCount);
+        metrics.registerGauge("pendingInboundDispatches", this::getPendingInboundDispatchCount);
+        inOrderListeners.setBackpressureListener(new AsyncButOrdered.BackpressureListener<StanzaListener>() {
+            @Override
+            public void queueOverflowed(StanzaListener stanzaListener, int queueDepth) {
+                listenerQueueOverflowed();
+            }
+
+            @Override
+            public void queueRelieved(StanzaListener stanzaListener, int queueDepth) {
+                listenerQueueRelieved();
+            }
+
+            @Override
+            public void runnableDropped(StanzaListener stanzaListener, Runnable runnable) {
+                inboundDispatchDropped(runnable);
+            }
+        });
+        metrics.registerGauge("asyncButOrderedBacklog", () -> {
+            long backlog = ASYNC_BUT_ORDERED.getQueueDepth(this);
+            for (Integer queueDepth : inOrderListeners.getQueueDepths().values()) {
+                backlog += queueDepth;
+            }
+            return backlog;
+        });
+
         // Install the SASL Nonza callbacks.
         buildNonzaCallback()
             .listenFor(SaslNonza.Challenge.class, c -> {
@@ -434,6 +500,11 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
         return config;
     }
 
+    @Override
+    public final ConnectionMetrics getMetrics() {
+        return metrics;
+    }
+
     @Override
     public DomainBareJid getXMPPServiceDomain() {
         if (xmppServiceDomain != null) {
@@ -761,8 +832,17 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
         // Note that we can not use IQReplyFilter here, since the users full JID is not yet
         // available. It will become available right after the resource has been successfully bound.
         Bind bindResource = Bind.newSet(resource);
-        StanzaCollector packetCollector = createStanzaCollectorAndSend(new StanzaIdFilter(bindResource), bindResource);
-        Bind response = packetCollector.nextResultOrThrow();
+        SmackTracer.Span span = SmackMetrics.getTracer().connectionPhaseStarted(this,
+                        SmackTracer.ConnectionPhase.resourceBinding);
+        Bind response;
+        try {
+            StanzaCollector packetCollector = createStanzaCollectorAndSend(new StanzaIdFilter(bindResource), bindResource);
+            response = packetCollector.nextResultOrThrow();
+        } catch (Exception e) {
+            span.fail(e);
+            throw e;
+        }
+        span.end();
         // Set the connections user to the result of resource binding. It is important that we don't infer the user
         // from the login() arguments and the configurations service name, as, for example, when SASL External is used,
         // the username is not given to login but taken from the 'external' certificate.
@@ -774,7 +854,7 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
         // For more information see http://tools.ietf.org/html/draft-cridland-xmpp-session-01
         if (sessionFeature != null && !sessionFeature.isOptional()) {
             Session session = new Session();
-            packetCollector = createStanzaCollectorAndSend(new StanzaIdFilter(session), session);
+            StanzaCollector packetCollector = createStanzaCollectorAndSend(new StanzaIdFilter(session), session);
             packetCollector.nextResultOrThrow();
         }
 
@@ -880,7 +960,26 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
         // Invoke interceptors for the new stanza that is about to be sent. Interceptors may modify
         // the content of the stanza.
         Stanza stanzaAfterInterceptors = firePacketInterceptors(stanza);
+        // Record the stanza before handing it to the transport, as the response to an IQ request may be processed
+        // before sendStanzaInternal() returns.
+        metrics.stanzaSent(stanzaAfterInterceptors);
+        SmackMetrics.getTracer().stanzaSent(this, stanzaAfterInterceptors);
         sendStanzaInternal(stanzaAfterInterceptors);
+        if (!tracesWrittenStanzas()) {
+            SmackMetrics.getTracer().stanzaWritten(this, stanzaAfterInterceptors, SmackTracer.SIZE_UNKNOWN);
+        }
+    }
+
+    /**
+     * Check if this connection invokes {@link SmackTracer#stanzaWritten(XMPPConnection, Stanza, long)} itself, once an
+     * outgoing stanza was written. Connections which encode the outgoing stanzas themselves override this, in order to
+     * report the size of the encoded stanza.
+     *
+     * @return <code>true</code> if this connection reports written stanzas to the tracer.
+     * @since 4.5.0
+     */
+    protected boolean tracesWrittenStanzas() {
+        return false;
     }
 
     /**
@@ -904,7 +1003,16 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
     protected final SASLMechanism authenticate(String username, String password, EntityBareJid authzid,
                     SSLSession sslSession) throws XMPPErrorException, SASLErrorException, SmackSaslException,
                     NotConnectedException, NoResponseException, IOException, InterruptedException, SmackWrappedException {
-        SASLMechanism saslMechanism = saslAuthentication.authenticate(username, password, authzid, sslSession);
+        SmackTracer.Span span = SmackMetrics.getTracer().connectionPhaseStarted(this,
+                        SmackTracer.ConnectionPhase.saslAuthentication);
+        SASLMechanism saslMechanism;
+        try {
+            saslMechanism = saslAuthentication.authenticate(username, password, authzid, sslSession);
+        } catch (Exception e) {
+            span.fail(e);
+            throw e;
+        }
+        span.end();
         afterSaslAuthenticationSuccess();
         return saslMechanism;
     }
@@ -1004,6 +1112,9 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
             for (StanzaCollector collector : collectors) {
                 collector.notifyConnectionError(exception);
             }
+            for (StanzaCollector collector : pendingResponses.getAll()) {
+                collector.notifyConnectionError(exception);
+            }
 
             Async.go(() -> {
                 // Notify connection listeners of the error.
@@ -1091,14 +1202,29 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
     @Override
     public StanzaCollector createStanzaCollector(StanzaCollector.Configuration configuration) {
         StanzaCollector collector = new StanzaCollector(this, configuration);
-        // Add the collector to the list of active collectors.
-        collectors.add(collector);
+        // Add the collector to the pending responses if it waits for a stanza with a particular ID, otherwise add it
+        // to the list of active collectors.
+        if (!pendingResponses.add(collector)) {
+            collectors.add(collector);
+        }
         return collector;
     }
 
     @Override
     public void removeStanzaCollector(StanzaCollector collector) {
-        collectors.remove(collector);
+        if (!pendingResponses.remove(collector)) {
+            collectors.remove(collector);
+        }
+    }
+
+    /**
+     * Get the number of stanza collectors which are waiting for a response to a request with a particular stanza ID,
+     * e.g. because of {@link #sendIqRequestAndWaitForResponse(IQ)}.
+     *
+     * @return the number of pending responses.
+     */
+    public int getPendingResponseCount() {
+        return pendingResponses.getPendingCount();
     }
 
     @Override
@@ -1106,17 +1232,12 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
         if (stanzaListener == null) {
             throw new NullPointerException("Given stanza listener must not be null");
         }
-        ListenerWrapper wrapper = new ListenerWrapper(stanzaListener, stanzaFilter);
-        synchronized (recvListeners) {
-            recvListeners.put(stanzaListener, wrapper);
-        }
+        recvListeners.put(stanzaListener, stanzaFilter);
     }
 
     @Override
     public final boolean removeStanzaListener(StanzaListener stanzaListener) {
-        synchronized (recvListeners) {
-            return recvListeners.remove(stanzaListener) != null;
-        }
+        return recvListeners.remove(stanzaListener);
     }
 
     @Override
@@ -1124,17 +1245,12 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
         if (packetListener == null) {
             throw new NullPointerException("Packet listener is null.");
         }
-        ListenerWrapper wrapper = new ListenerWrapper(packetListener, packetFilter);
-        synchronized (syncRecvListeners) {
-            syncRecvListeners.put(packetListener, wrapper);
-        }
+        syncRecvListeners.put(packetListener, packetFilter);
     }
 
     @Override
     public boolean removeSyncStanzaListener(StanzaListener packetListener) {
-        synchronized (syncRecvListeners) {
-            return syncRecvListeners.remove(packetListener) != null;
-        }
+        return syncRecvListeners.remove(packetListener);
     }
 
     @Override
@@ -1142,17 +1258,12 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
         if (packetListener == null) {
             throw new NullPointerException("Packet listener is null.");
         }
-        ListenerWrapper wrapper = new ListenerWrapper(packetListener, packetFilter);
-        synchronized (asyncRecvListeners) {
-            asyncRecvListeners.put(packetListener, wrapper);
-        }
+        asyncRecvListeners.put(packetListener, packetFilter);
     }
 
     @Override
     public boolean removeAsyncStanzaListener(StanzaListener packetListener) {
-        synchronized (asyncRecvListeners) {
-            return asyncRecvListeners.remove(packetListener) != null;
-        }
+        return asyncRecvListeners.remove(packetListener);
     }
 
     @Override
@@ -1453,11 +1564,32 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
 
     protected void parseAndProcessStanza(XmlPullParser parser)
                     throws XmlPullParserException, IOException, InterruptedException {
+        parseAndProcessStanza(parser, SmackTracer.SIZE_UNKNOWN);
+    }
+
+    /**
+     * Parse and process the stanza the parser is positioned at.
+     *
+     * @param parser the parser positioned at the start tag of the stanza.
+     * @param size the number of characters of the stanza's XML as it was received, or
+     *        {@link SmackTracer#SIZE_UNKNOWN}.
+     * @throws XmlPullParserException if an error in the XML parser occurred.
+     * @throws IOException if an I/O error occurred.
+     * @throws InterruptedException if the calling thread was interrupted.
+     * @since 4.5.0
+     */
+    protected void parseAndProcessStanza(XmlPullParser parser, long size)
+                    throws XmlPullParserException, IOException, InterruptedException {
         ParserUtils.assertAtStartTag(parser);
         int parserDepth = parser.getDepth();
         Stanza stanza = null;
+        final boolean metricsEnabled = metrics.isEnabled();
+        final long parseStart = metricsEnabled ? System.nanoTime() : 0;
         try {
             stanza = PacketParserUtils.parseStanza(parser, incomingStreamXmlEnvironment);
+            if (metricsEnabled) {
+                metrics.stanzaParsed(System.nanoTime() - parseStart);
+            }
         }
         catch (XmlPullParserException | SmackParsingException | IOException | IllegalArgumentException e) {
             CharSequence content = PacketParserUtils.parseContentDepth(parser,
@@ -1470,7 +1602,12 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
         }
         ParserUtils.assertAtEndTag(parser);
         if (stanza != null) {
-            processStanza(stanza);
+            incomingStanzaSize = size;
+            try {
+                processStanza(stanza);
+            } finally {
+                incomingStanzaSize = SmackTracer.SIZE_UNKNOWN;
+            }
         }
     }
 
@@ -1504,6 +1641,9 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
      * @param packet the stanza to notify the StanzaCollectors and receive listeners about.
      */
     protected void invokeStanzaCollectorsAndNotifyRecvListeners(final Stanza packet) {
+        metrics.stanzaReceived(packet);
+        SmackMetrics.getTracer().stanzaReceived(this, packet, incomingStanzaSize);
+
         if (packet instanceof IQ) {
             final IQ iq = (IQ) packet;
             if (iq.isRequestIQ()) {
@@ -1568,10 +1708,17 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
                         break;
                     }
                     final IQRequestHandler finalIqRequestHandler = iqRequestHandler;
-                    executorService.execute(new Runnable() {
+                    executorService.execute(trackInboundDispatch(new Runnable() {
                         @Override
                         public void run() {
-                            IQ response = finalIqRequestHandler.handleIQRequest(iq);
+                            SmackTracer.Span span = SmackMetrics.getTracer().listenerExecutionStarted(
+                                            AbstractXMPPConnection.this, finalIqRequestHandler, iq);
+                            IQ response;
+                            try {
+                                response = finalIqRequestHandler.handleIQRequest(iq);
+                            } finally {
+                                span.end();
+                            }
                             if (response == null) {
                                 // It is not ideal if the IQ request handler does not return an IQ response, because RFC
                                 // 6120 § 8.1.2 does specify that a response is mandatory. But some APIs, mostly the
@@ -1592,7 +1739,7 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
                                 LOGGER.log(Level.WARNING, "Exception while sending response to IQ request", e);
                             }
                         }
-                    });
+                    }));
                 }
                 // The following returns makes it impossible for packet listeners and collectors to
                 // filter for IQ request stanzas, i.e. IQs of type 'set' or 'get'. This is the
@@ -1605,31 +1752,33 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
         // the only difference is that asyncRecvListeners is used here and that the packet listeners are started in
         // their own thread.
         final Collection<StanzaListener> listenersToNotify = new LinkedList<>();
-        extractMatchingListeners(packet, asyncRecvListeners, listenersToNotify);
+        asyncRecvListeners.extractMatchingListeners(packet, listenersToNotify);
         for (final StanzaListener listener : listenersToNotify) {
-            asyncGoLimited(new Runnable() {
+            asyncGoLimited(trackInboundDispatch(new Runnable() {
                 @Override
                 public void run() {
                     try {
-                        listener.processStanza(packet);
+                        invokeStanzaListener(listener, packet);
                     } catch (Exception e) {
                         LOGGER.log(Level.SEVERE, "Exception in async packet listener", e);
                     }
                 }
-            });
+            }));
         }
 
-        // Loop through all collectors and notify the appropriate ones.
+        // Notify the collectors waiting for a response with the stanza's ID, then loop through all other collectors
+        // and notify the appropriate ones.
+        pendingResponses.processStanza(packet);
         for (StanzaCollector collector : collectors) {
             collector.processStanza(packet);
         }
 
         listenersToNotify.clear();
-        extractMatchingListeners(packet, recvListeners, listenersToNotify);
+        recvListeners.extractMatchingListeners(packet, listenersToNotify);
         for (StanzaListener stanzaListener : listenersToNotify) {
-            inOrderListeners.performAsyncButOrdered(stanzaListener, () -> {
+            inOrderListeners.performAsyncButOrdered(stanzaListener, trackInboundDispatch(() -> {
                 try {
-                    stanzaListener.processStanza(packet);
+                    invokeStanzaListener(stanzaListener, packet);
                 }
                 catch (NotConnectedException e) {
                     LOGGER.log(Level.WARNING, "Got not connected exception, aborting", e);
@@ -1637,33 +1786,31 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
                 catch (Exception e) {
                     LOGGER.log(Level.SEVERE, "Exception in packet listener", e);
                 }
-            });
+            }));
         }
 
         // Notify the receive listeners interested in the packet
         listenersToNotify.clear();
-        extractMatchingListeners(packet, syncRecvListeners, listenersToNotify);
+        syncRecvListeners.extractMatchingListeners(packet, listenersToNotify);
         // Decouple incoming stanza processing from listener invocation. Unlike async listeners, this uses a single
         // threaded executor service and therefore keeps the order.
-        ASYNC_BUT_ORDERED.performAsyncButOrdered(this, new Runnable() {
+        ASYNC_BUT_ORDERED.performAsyncButOrdered(this, trackInboundDispatch(new Runnable() {
             @Override
             public void run() {
                 // As listeners are able to remove themselves and because the timepoint where it is decided to invoke a
                 // listener is a different timepoint where the listener is actually invoked (here), we have to check
                 // again if the listener is still active.
                 Iterator<StanzaListener> it = listenersToNotify.iterator();
-                synchronized (syncRecvListeners) {
-                    while (it.hasNext()) {
-                        StanzaListener stanzaListener = it.next();
-                        if (!syncRecvListeners.containsKey(stanzaListener)) {
-                            // The listener was removed from syncRecvListener, also remove him from listenersToNotify.
-                            it.remove();
-                        }
+                while (it.hasNext()) {
+                    StanzaListener stanzaListener = it.next();
+                    if (!syncRecvListeners.contains(stanzaListener)) {
+                        // The listener was removed from syncRecvListener, also remove him from listenersToNotify.
+                        it.remove();
                     }
                 }
                 for (StanzaListener listener : listenersToNotify) {
                     try {
-                        listener.processStanza(packet);
+                        invokeStanzaListener(listener, packet);
                     } catch (NotConnectedException e) {
                         LOGGER.log(Level.WARNING, "Got not connected exception, aborting", e);
                         break;
@@ -1672,17 +1819,16 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
                     }
                 }
             }
-        });
+        }));
     }
 
-    private static void extractMatchingListeners(Stanza stanza, Map<StanzaListener, ListenerWrapper> listeners,
-                    Collection<StanzaListener> listenersToNotify) {
-        synchronized (listeners) {
-            for (ListenerWrapper listenerWrapper : listeners.values()) {
-                if (listenerWrapper.filterMatches(stanza)) {
-                    listenersToNotify.add(listenerWrapper.getListener());
-                }
-            }
+    private void invokeStanzaListener(StanzaListener listener, Stanza packet)
+                    throws NotConnectedException, InterruptedException, NotLoggedInException {
+        SmackTracer.Span span = SmackMetrics.getTracer().listenerExecutionStarted(this, listener, packet);
+        try {
+            listener.processStanza(packet);
+        } finally {
+            span.end();
         }
     }
 
@@ -1705,6 +1851,7 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
     }
 
     protected void callConnectionConnectedListener() {
+        metrics.connected();
         for (ConnectionListener listener : connectionListeners) {
             listener.connected(this);
         }
@@ -1723,6 +1870,7 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
     }
 
     void callConnectionClosedListener() {
+        metrics.closed();
         for (ConnectionListener listener : connectionListeners) {
             try {
                 listener.connectionClosed();
@@ -1749,6 +1897,7 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
         if (logWarning) {
             LOGGER.log(Level.WARNING, "Connection " + this + " closed with error", e);
         }
+        metrics.closed();
         for (ConnectionListener listener : connectionListeners) {
             try {
                 listener.connectionClosedOnError(e);
@@ -1988,7 +2137,7 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
                 }
             }
         };
-        schedule(new Runnable() {
+        SMACK_REACTOR.schedule(new Runnable() {
             @Override
             public void run() {
                 boolean removed = removeAsyncStanzaListener(stanzaListener);
@@ -2010,7 +2159,7 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
                 }
                 future.setException(exception);
             }
-        }, timeout, TimeUnit.MILLISECONDS);
+        }, timeout, TimeUnit.MILLISECONDS, getReactorShard());
 
         addAsyncStanzaListener(stanzaListener, replyFilter);
         try {
@@ -2037,12 +2186,12 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
             }
         };
         addSyncStanzaListener(packetListener, packetFilter);
-        schedule(new Runnable() {
+        SMACK_REACTOR.schedule(new Runnable() {
             @Override
             public void run() {
                 removeSyncStanzaListener(packetListener);
             }
-        }, getReplyTimeout(), TimeUnit.MILLISECONDS);
+        }, getReplyTimeout(), TimeUnit.MILLISECONDS, getReactorShard());
     }
 
     @Override
@@ -2235,8 +2384,220 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
         }
     }
 
+    /**
+     * The number of runnables, e.g. stanza listener invocations, which resulted from incoming stanzas and did not yet
+     * finish.
+     */
+    private final AtomicInteger pendingInboundDispatches = new AtomicInteger();
+
+    private final Object inboundFlowControlLock = new Object();
+
+    private volatile int inboundHighWatermark;
+
+    private volatile int inboundLowWatermark;
+
+    private volatile boolean readingPaused;
+
+    // The following fields are guarded by inboundFlowControlLock.
+    private long readPauseCount;
+
+    private long readResumeCount;
+
+    private int overflowedListenerQueues;
+
+    /**
+     * Enable inbound flow control. If the number of pending dispatches of incoming stanzas, e.g. invocations of stanza
+     * listeners and IQ request handlers, reaches the high watermark, then the connection stops reading from the
+     * underlying transport. Reading is resumed once the number of pending dispatches dropped to the low watermark. This
+     * allows the transport, e.g. TCP, to push back on the server instead of buffering an unbounded number of stanzas.
+     * <p>
+     * Note that stanza listeners which wait for a response from the server may wait in vain while reading is paused.
+     * Hence the high watermark should be chosen generously. Inbound flow control is disabled by default and is only
+     * supported by some connection types, for example by {@link org.jivesoftware.smack.c2s.ModularXmppClientToServerConnection}
+     * with the TCP transport.
+     * </p>
+     *
+     * @param highWatermark the number of pending dispatches at which reading is paused, or 0 to disable flow control.
+     * @param lowWatermark the number of pending dispatches at which reading is resumed.
+     * @since 4.5.0
+     */
+    public void setInboundFlowControlWatermarks(int highWatermark, int lowWatermark) {
+        if (highWatermark < 0 || lowWatermark < 0) {
+            throw new IllegalArgumentException("Watermarks must not be negative");
+        }
+        if (highWatermark > 0 && lowWatermark >= highWatermark) {
+            throw new IllegalArgumentException("The low watermark must be smaller than the high watermark");
+        }
+
+        inboundLowWatermark = lowWatermark;
+        inboundHighWatermark = highWatermark;
+        updateInboundFlowControl();
+    }
+
+    /**
+     * Bound the number of pending invocations of every stanza listener added via
+     * {@link #addStanzaListener(StanzaListener, StanzaFilter)}. With {@link AsyncButOrdered.OverflowPolicy#signal},
+     * reading from the underlying transport is paused while the pending invocations of a listener exceed the bound, and
+     * resumed once they drained to half of it. This requires a connection which supports inbound flow control, see
+     * {@link #setInboundFlowControlWatermarks(int, int)}. By default, the number of pending invocations is unbounded.
+     *
+     * @param maxQueueSize the maximum number of pending invocations per stanza listener.
+     * @param overflowPolicy the policy applied if a listener has the maximum number of pending invocations.
+     * @since 4.5.0
+     */
+    public void setStanzaListenerQueueBound(int maxQueueSize, AsyncButOrdered.OverflowPolicy overflowPolicy) {
+        inOrderListeners.setMaxQueueSizePerKey(maxQueueSize, overflowPolicy);
+    }
+
+    /**
+     * Get the number of dispatches of incoming stanzas, e.g. stanza listener invocations, which did not yet finish.
+     *
+     * @return the number of pending inbound dispatches.
+     * @since 4.5.0
+     */
+    public int getPendingInboundDispatchCount() {
+        return pendingInboundDispatches.get();
+    }
+
+    /**
+     * Check if reading from the underlying transport is currently paused due to inbound flow control.
+     *
+     * @return <code>true</code> if reading is paused.
+     * @since 4.5.0
+     * @see #setInboundFlowControlWatermarks(int, int)
+     */
+    public boolean isReadingPaused() {
+        return readingPaused;
+    }
+
+    /**
+     * Get how often reading from the underlying transport was paused due to inbound flow control.
+     *
+     * @return the number of times reading was paused.
+     * @since 4.5.0
+     */
+    public long getReadPauseCount() {
+        synchronized (inboundFlowControlLock) {
+            return readPauseCount;
+        }
+    }
+
+    /**
+     * Get how often reading from the underlying transport was resumed after it was paused due to inbound flow control.
+     *
+     * @return the number of times reading was resumed.
+     * @since 4.5.0
+     */
+    public long getReadResumeCount() {
+        synchronized (inboundFlowControlLock) {
+            return readResumeCount;
+        }
+    }
+
+    private Runnable trackInboundDispatch(final Runnable runnable) {
+        int pending = pendingInboundDispatches.incrementAndGet();
+        int highWatermark = inboundHighWatermark;
+        if (highWatermark > 0 && pending >= highWatermark && !readingPaused) {
+            updateInboundFlowControl();
+        }
+
+        return new InboundDispatch(runnable);
+    }
+
+    private final class InboundDispatch implements Runnable {
+        private final Runnable runnable;
+
+        private InboundDispatch(Runnable runnable) {
+            this.runnable = runnable;
+        }
+
+        @Override
+        public void run() {
+            final boolean metricsEnabled = metrics.isEnabled();
+            final long start = metricsEnabled ? System.nanoTime() : 0;
+            try {
+                runnable.run();
+            } finally {
+                if (metricsEnabled) {
+                    metrics.listenerExecuted(System.nanoTime() - start);
+                }
+                finished();
+            }
+        }
+
+        private void finished() {
+            int pending = pendingInboundDispatches.decrementAndGet();
+            if (readingPaused && pending <= inboundLowWatermark) {
+                updateInboundFlowControl();
+            }
+        }
+    }
+
+    private static void inboundDispatchDropped(Runnable runnable) {
+        // A dropped dispatch will never run, hence it is no longer pending.
+        if (runnable instanceof InboundDispatch) {
+            ((InboundDispatch) runnable).finished();
+        }
+    }
+
+    private void listenerQueueOverflowed() {
+        synchronized (inboundFlowControlLock) {
+            overflowedListenerQueues++;
+            updateInboundFlowControl();
+        }
+    }
+
+    private void listenerQueueRelieved() {
+        synchronized (inboundFlowControlLock) {
+            overflowedListenerQueues--;
+            updateInboundFlowControl();
+        }
+    }
+
+    private void updateInboundFlowControl() {
+        synchronized (inboundFlowControlLock) {
+            int pending = pendingInboundDispatches.get();
+            int highWatermark = inboundHighWatermark;
+            if (!readingPaused) {
+                boolean dispatchesBacklogged = highWatermark > 0 && pending >= highWatermark;
+                if (!dispatchesBacklogged && overflowedListenerQueues == 0) {
+                    return;
+                }
+                readingPaused = true;
+                readPauseCount++;
+                LOGGER.fine(this + " pauses reading, " + pending + " inbound dispatches pending");
+            } else {
+                boolean dispatchesBacklogged = highWatermark > 0 && pending > inboundLowWatermark;
+                if (dispatchesBacklogged || overflowedListenerQueues > 0) {
+                    return;
+                }
+                readingPaused = false;
+                readResumeCount++;
+                LOGGER.fine(this + " resumes reading, " + pending + " inbound dispatches pending");
+            }
+            // Note that we invoke the callback while holding the lock, so that the pause and resume requests are
+            // delivered in order.
+            onReadingPausedChanged(readingPaused);
+        }
+    }
+
+    /**
+     * Invoked when reading from the underlying transport should be paused or resumed due to inbound flow control.
+     * Connections supporting inbound flow control override this method. Note that this method is invoked while holding
+     * a lock and therefore must not block.
+     *
+     * @param readingPaused <code>true</code> if reading should be paused, <code>false</code> if it should be resumed.
+     * @since 4.5.0
+     */
+    protected void onReadingPausedChanged(boolean readingPaused) {
+    }
+
     protected static void asyncGo(Runnable runnable) {
-        CACHED_EXECUTOR_SERVICE.execute(runnable);
+        Executor asyncExecutor = SmackConfiguration.getAsyncExecutor();
+        if (asyncExecutor == null) {
+            asyncExecutor = CACHED_EXECUTOR_SERVICE;
+        }
+        asyncExecutor.execute(runnable);
     }
 
     @SuppressWarnings("static-method")
@@ -2244,8 +2605,34 @@ public abstract class AbstractXMPPConnection implements XMPPConnection {
         return SMACK_REACTOR;
     }
 
-    protected static ScheduledAction schedule(Runnable runnable, long delay, TimeUnit unit) {
-        return SMACK_REACTOR.schedule(runnable, delay, unit, ScheduledAction.Kind.NonBlocking);
+    /**
+     * Get the shard of Smack's reactor this connection is assigned to. Actions scheduled for this connection, like reply
+     * timeouts, are performed by this shard.
+     *
+     * @return the reactor shard of this connection, or <code>null</code> if this connection has no shard assigned.
+     * @since 4.5.0
+     * @see SmackConfiguration#setReactorShards(int, SmackReactor.ShardAssignmentPolicy)
+     */
+    protected SmackReactor.Shard getReactorShard() {
+        return null;
+    }
+
+    /**
+     * Schedule the given non-blocking action. The action is performed by the reactor shard of this connection, so that
+     * all actions of a connection are performed by the same shard.
+     *
+     * @param runnable the action.
+     * @param delay the delay after which the action is performed.
+     * @param unit the unit of the delay.
+     * @return the scheduled action.
+     * @see #getReactorShard()
+     */
+    protected ScheduledAction schedule(Runnable runnable, long delay, TimeUnit unit) {
+        return schedule(runnable, delay, unit, ScheduledAction.Kind.NonBlocking);
+    }
+
+    ScheduledAction schedule(Runnable runnable, long delay, TimeUnit unit, ScheduledAction.Kind scheduledActionKind) {
+        return SMACK_REACTOR.schedule(runnable, delay, unit, scheduledActionKind, getReactorShard());
     }
 
     /**
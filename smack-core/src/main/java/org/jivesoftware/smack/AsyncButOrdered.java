@@ -16,12 +16,19 @@
  */
 package org.jivesoftware.smack;
 
+import java.util.ArrayDeque;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Queue;
-import java.util.WeakHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.jivesoftware.smack.util.Objects;
 
 /**
  * Helper class to perform an operation asynchronous but keeping the order in respect to a given key.
@@ -46,6 +53,13 @@ import java.util.concurrent.Executor;
  * runnables of subsequent invocations are always executed after the runnables of previous invocations using the same
  * key.
  * </p>
+ * <p>
+ * By default, the number of pending runnables per key is unbounded. Use {@link #setMaxQueueSizePerKey(int,
+ * OverflowPolicy)} to bound the queues, so that a slow consumer of a key can not cause an unlimited number of runnables
+ * to be buffered in memory. What happens if a queue is full is determined by the {@link OverflowPolicy}. The current
+ * number of pending runnables of a key can be retrieved via {@link #getQueueDepth(Object)}, which helps to identify slow
+ * consumers.
+ * </p>
  *
  * @param <K> the type of the key
  * @since 4.3
@@ -53,19 +67,82 @@ import java.util.concurrent.Executor;
 public class AsyncButOrdered<K> {
 
     /**
-     * A map with the currently pending runnables for a given key. Note that this is a weak hash map so we do not have
-     * to take care of removing the keys ourselfs from the map.
+     * The policy applied if a runnable is submitted for a key whose queue is full.
+     *
+     * @since 4.5.0
+     */
+    public enum OverflowPolicy {
+        /**
+         * Block the thread submitting the runnable until there is room in the queue of the key. Note that a runnable
+         * submitted from within a runnable of the same key is always enqueued, as blocking would cause a deadlock.
+         */
+        block,
+
+        /**
+         * Drop the oldest pending runnable of the key in favor of the submitted one. The {@link BackpressureListener} is
+         * notified about the dropped runnable.
+         */
+        dropOldest,
+
+        /**
+         * Enqueue the runnable nevertheless, but notify the {@link BackpressureListener}, which is expected to throttle
+         * the producer, e.g. by no longer reading from the connection.
+         */
+        signal,
+    }
+
+    /**
+     * A listener notified about queues exceeding their bound when using {@link OverflowPolicy#signal}, and about
+     * runnables dropped when using {@link OverflowPolicy#dropOldest}. The methods of this listener are invoked while
+     * holding the lock of the queue, hence they must not block.
+     *
+     * @param <K> the type of the key
+     * @since 4.5.0
      */
-    private final Map<K, Queue<Runnable>> pendingRunnables = new WeakHashMap<>();
+    public interface BackpressureListener<K> {
+        /**
+         * Invoked once the queue of the given key exceeded its maximum size.
+         *
+         * @param key the key.
+         * @param queueDepth the current number of pending runnables of the key.
+         */
+        void queueOverflowed(K key, int queueDepth);
+
+        /**
+         * Invoked once the queue of a key, which previously overflowed, has been drained to half of its maximum size.
+         *
+         * @param key the key.
+         * @param queueDepth the current number of pending runnables of the key.
+         */
+        void queueRelieved(K key, int queueDepth);
+
+        /**
+         * Invoked once a pending runnable of the given key was dropped, and will therefore never be run.
+         *
+         * @param key the key.
+         * @param runnable the dropped runnable.
+         */
+        default void runnableDropped(K key, Runnable runnable) {
+        }
+    }
 
     /**
-     * A marker map if there is an active thread for the given key. Holds the responsible handler thread if one is
-     * active, otherwise the key is non-existend in the map.
+     * A map with the queues of pending runnables for the keys. A queue is removed from the map, and retired, once it
+     * becomes empty, so we do not have to hold on the keys. Since every queue has its own lock, different keys do not
+     * contend with each other.
      */
-    private final Map<K, Handler> threadActiveMap = new HashMap<>();
+    private final ConcurrentMap<K, KeyQueue> keyQueues = new ConcurrentHashMap<>();
+
+    private final AtomicLong droppedRunnables = new AtomicLong();
 
     private final Executor executor;
 
+    private volatile int maxQueueSizePerKey = Integer.MAX_VALUE;
+
+    private volatile OverflowPolicy overflowPolicy = OverflowPolicy.block;
+
+    private volatile BackpressureListener<K> backpressureListener;
+
     public AsyncButOrdered() {
         this(null);
     }
@@ -74,11 +151,36 @@ public class AsyncButOrdered<K> {
         this.executor = executor;
     }
 
-    private void scheduleHandler(Handler handler) {
+    /**
+     * Bound the number of pending runnables per key.
+     *
+     * @param maxQueueSizePerKey the maximum number of pending runnables per key.
+     * @param overflowPolicy the policy applied if a queue is full.
+     * @since 4.5.0
+     */
+    public void setMaxQueueSizePerKey(int maxQueueSizePerKey, OverflowPolicy overflowPolicy) {
+        if (maxQueueSizePerKey < 1) {
+            throw new IllegalArgumentException("The maximum queue size must be at least one");
+        }
+        this.overflowPolicy = Objects.requireNonNull(overflowPolicy, "The overflow policy must not be null");
+        this.maxQueueSizePerKey = maxQueueSizePerKey;
+    }
+
+    /**
+     * Set the listener notified about overflowing queues and dropped runnables.
+     *
+     * @param backpressureListener the listener, or <code>null</code> to remove the current one.
+     * @since 4.5.0
+     */
+    public void setBackpressureListener(BackpressureListener<K> backpressureListener) {
+        this.backpressureListener = backpressureListener;
+    }
+
+    private void scheduleHandler(KeyQueue keyQueue) {
         if (executor == null) {
-            AbstractXMPPConnection.asyncGo(handler);
+            AbstractXMPPConnection.asyncGo(keyQueue);
         } else {
-            executor.execute(handler);
+            executor.execute(keyQueue);
         }
     }
 
@@ -90,37 +192,43 @@ public class AsyncButOrdered<K> {
      * @return true if a new thread was created
      */
     public boolean performAsyncButOrdered(K key, Runnable runnable) {
-        // First check if a key queue already exists, create one if not.
-        Queue<Runnable> keyQueue;
-        synchronized (pendingRunnables) {
-            keyQueue = pendingRunnables.get(key);
+        while (true) {
+            // First check if a key queue already exists, create one if not.
+            KeyQueue keyQueue = keyQueues.get(key);
             if (keyQueue == null) {
-                keyQueue = new ConcurrentLinkedQueue<>();
-                pendingRunnables.put(key, keyQueue);
+                KeyQueue newKeyQueue = new KeyQueue(key);
+                keyQueue = keyQueues.putIfAbsent(key, newKeyQueue);
+                if (keyQueue == null) {
+                    keyQueue = newKeyQueue;
+                }
             }
-        }
 
-        // Then add the task to the queue.
-        keyQueue.add(runnable);
+            boolean scheduleHandler = false;
+            keyQueue.lock.lock();
+            try {
+                if (!keyQueue.makeRoomForOneMore()) {
+                    // The queue got retired in the meantime, retry with a fresh one.
+                    continue;
+                }
 
-        // Finally check if there is already a handler working on that queue, create one if not.
-        Handler newlyCreatedHandler = null;
-        synchronized (threadActiveMap) {
-            if (!threadActiveMap.containsKey(key)) {
-                newlyCreatedHandler = new Handler(keyQueue, key);
+                // Then add the task to the queue.
+                keyQueue.runnables.add(runnable);
+                keyQueue.depth = keyQueue.runnables.size();
 
-                // Mark that there is thread active for the given key. Note that this has to be done before scheduling
-                // the handler thread.
-                threadActiveMap.put(key, newlyCreatedHandler);
+                // Finally check if there is already a handler working on that queue, create one if not.
+                if (!keyQueue.handlerActive) {
+                    keyQueue.handlerActive = true;
+                    scheduleHandler = true;
+                }
+            } finally {
+                keyQueue.lock.unlock();
             }
-        }
 
-        if (newlyCreatedHandler != null) {
-            scheduleHandler(newlyCreatedHandler);
-            return true;
+            if (scheduleHandler) {
+                scheduleHandler(keyQueue);
+            }
+            return scheduleHandler;
         }
-
-        return false;
     }
 
     public Executor asExecutorFor(final K key) {
@@ -132,43 +240,174 @@ public class AsyncButOrdered<K> {
         };
     }
 
-    private class Handler implements Runnable {
-        private final Queue<Runnable> keyQueue;
+    /**
+     * Get the number of pending runnables of the given key. The runnable which is currently executed is not included.
+     *
+     * @param key the key.
+     * @return the number of pending runnables.
+     * @since 4.5.0
+     */
+    public int getQueueDepth(K key) {
+        KeyQueue keyQueue = keyQueues.get(key);
+        if (keyQueue == null) {
+            return 0;
+        }
+        return keyQueue.depth;
+    }
+
+    /**
+     * Get the number of pending runnables of all keys with a non-empty queue.
+     *
+     * @return a map from the keys to their number of pending runnables.
+     * @since 4.5.0
+     */
+    public Map<K, Integer> getQueueDepths() {
+        Map<K, Integer> queueDepths = new HashMap<>(keyQueues.size());
+        for (KeyQueue keyQueue : keyQueues.values()) {
+            int depth = keyQueue.depth;
+            if (depth > 0) {
+                queueDepths.put(keyQueue.key, depth);
+            }
+        }
+        return queueDepths;
+    }
+
+    /**
+     * Get the number of runnables dropped due to {@link OverflowPolicy#dropOldest}.
+     *
+     * @return the number of dropped runnables.
+     * @since 4.5.0
+     */
+    public long getDroppedCount() {
+        return droppedRunnables.get();
+    }
+
+    /**
+     * The queue of a key, which also acts as the handler working on it.
+     */
+    private final class KeyQueue implements Runnable {
         private final K key;
 
-        Handler(Queue<Runnable> keyQueue, K key) {
-            this.keyQueue = keyQueue;
+        private final Lock lock = new ReentrantLock();
+
+        private final Condition notFull = lock.newCondition();
+
+        // The following fields are guarded by 'lock'.
+        private final Queue<Runnable> runnables = new ArrayDeque<>();
+
+        private boolean handlerActive;
+
+        private Thread handlerThread;
+
+        private boolean overflowSignalled;
+
+        private boolean retired;
+
+        /**
+         * The number of pending runnables, may be read without holding the lock.
+         */
+        private volatile int depth;
+
+        private KeyQueue(K key) {
             this.key = key;
         }
 
-        @Override
-        public void run() {
-            mainloop:
-            while (true) {
-                Runnable runnable = null;
-                while ((runnable = keyQueue.poll()) != null) {
-                    try {
-                        runnable.run();
-                    } catch (Throwable t) {
-                        // The run() method threw, this handler thread is going to terminate because of that. We create
-                        // a new handler to continue working on the queue while throwing the throwable so that the
-                        // executor can handle it.
-                        Handler newlyCreatedHandler = new Handler(keyQueue, key);
-                        synchronized (threadActiveMap) {
-                            threadActiveMap.put(key, newlyCreatedHandler);
-                        }
-                        scheduleHandler(newlyCreatedHandler);
-                        throw t;
+        /**
+         * Apply the overflow policy if this queue is full. Must be called while holding the lock.
+         *
+         * @return <code>false</code> if this queue is retired.
+         */
+        private boolean makeRoomForOneMore() {
+            if (retired) {
+                return false;
+            }
+
+            int maxQueueSize = maxQueueSizePerKey;
+            if (runnables.size() < maxQueueSize) {
+                return true;
+            }
+
+            switch (overflowPolicy) {
+            case block:
+                if (handlerThread == Thread.currentThread()) {
+                    // Blocking the handler of this queue would cause a deadlock.
+                    break;
+                }
+                while (runnables.size() >= maxQueueSizePerKey) {
+                    notFull.awaitUninterruptibly();
+                }
+                // The queue may have been drained and retired while we were waiting.
+                return !retired;
+            case dropOldest:
+                Runnable droppedRunnable = runnables.poll();
+                droppedRunnables.incrementAndGet();
+                BackpressureListener<K> droppedRunnableListener = backpressureListener;
+                if (droppedRunnableListener != null) {
+                    droppedRunnableListener.runnableDropped(key, droppedRunnable);
+                }
+                break;
+            case signal:
+                if (!overflowSignalled) {
+                    overflowSignalled = true;
+                    BackpressureListener<K> listener = backpressureListener;
+                    if (listener != null) {
+                        listener.queueOverflowed(key, runnables.size() + 1);
                     }
                 }
+                break;
+            }
+            return true;
+        }
+
+        /**
+         * Poll the next runnable of this queue, or retire this queue if it is empty.
+         *
+         * @return the next runnable or <code>null</code> if this queue got retired.
+         */
+        private Runnable poll() {
+            lock.lock();
+            try {
+                Runnable runnable = runnables.poll();
+                int currentDepth = runnables.size();
+                depth = currentDepth;
+                notFull.signalAll();
 
-                synchronized (threadActiveMap) {
-                    // If the queue is empty, stop this handler, otherwise continue looping.
-                    if (keyQueue.isEmpty()) {
-                        threadActiveMap.remove(key);
-                        break mainloop;
+                if (overflowSignalled && currentDepth <= maxQueueSizePerKey / 2) {
+                    overflowSignalled = false;
+                    BackpressureListener<K> listener = backpressureListener;
+                    if (listener != null) {
+                        listener.queueRelieved(key, currentDepth);
                     }
                 }
+
+                if (runnable == null) {
+                    // The queue is empty, stop this handler.
+                    handlerActive = false;
+                    handlerThread = null;
+                    retired = true;
+                    keyQueues.remove(key, this);
+                } else {
+                    handlerThread = Thread.currentThread();
+                }
+                return runnable;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void run() {
+            Runnable runnable;
+            while ((runnable = poll()) != null) {
+                try {
+                    runnable.run();
+                } catch (Throwable t) {
+                    // The run() method threw, this handler thread is going to terminate because of that. We schedule
+                    // the handler again to continue working on the queue while throwing the throwable so that the
+                    // executor can handle it.
+                    scheduleHandler(this);
+                    throw t;
+                }
             }
         }
     }
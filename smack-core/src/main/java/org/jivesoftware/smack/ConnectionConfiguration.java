@@ -184,18 +184,25 @@ public abstract class ConnectionConfiguration {
 
     private final boolean compressionEnabled;
 
+    private final boolean metricsEnabled;
+
     private final StanzaIdSourceFactory stanzaIdSourceFactory;
 
     protected ConnectionConfiguration(Builder<?, ?> builder) {
-        try {
-            smackTlsContext = getSmackTlsContext(builder.dnssecMode, builder.sslContextFactory,
-                            builder.customX509TrustManager, builder.keystoreType, builder.keystorePath,
-                            builder.callbackHandler, builder.pkcs11Library);
-        } catch (UnrecoverableKeyException | KeyManagementException | NoSuchAlgorithmException | CertificateException
-                        | KeyStoreException | NoSuchProviderException | IOException | NoSuchMethodException
-                        | SecurityException | ClassNotFoundException | InstantiationException | IllegalAccessException
-                        | IllegalArgumentException | InvocationTargetException | UnsupportedCallbackException e) {
-            throw new IllegalArgumentException(e);
+        if (builder.sharedSmackTlsContext != null) {
+            smackTlsContext = builder.sharedSmackTlsContext;
+        } else {
+            try {
+                smackTlsContext = getSmackTlsContext(builder.dnssecMode, builder.sslContextFactory,
+                                builder.customX509TrustManager, builder.keystoreType, builder.keystorePath,
+                                builder.callbackHandler, builder.pkcs11Library);
+            } catch (UnrecoverableKeyException | KeyManagementException | NoSuchAlgorithmException
+                            | CertificateException | KeyStoreException | NoSuchProviderException | IOException
+                            | NoSuchMethodException | SecurityException | ClassNotFoundException
+                            | InstantiationException | IllegalAccessException | IllegalArgumentException
+                            | InvocationTargetException | UnsupportedCallbackException e) {
+                throw new IllegalArgumentException(e);
+            }
         }
 
         authzid = builder.authzid;
@@ -244,6 +251,7 @@ public abstract class ConnectionConfiguration {
         enabledSaslMechanisms = builder.enabledSaslMechanisms;
 
         compressionEnabled = builder.compressionEnabled;
+        metricsEnabled = builder.metricsEnabled;
 
         stanzaIdSourceFactory = builder.stanzaIdSourceFactory;
 
@@ -639,6 +647,17 @@ public abstract class ConnectionConfiguration {
         return compressionEnabled;
     }
 
+    /**
+     * Returns true if the connection records metrics.
+     *
+     * @return true if the connection records metrics.
+     * @since 4.5.0
+     * @see org.jivesoftware.smack.metrics.ConnectionMetrics
+     */
+    public boolean isMetricsEnabled() {
+        return metricsEnabled;
+    }
+
     /**
      * Check if the given SASL mechansism is enabled in this connection configuration.
      *
@@ -692,6 +711,7 @@ public abstract class ConnectionConfiguration {
         private String keystoreType;
         private String pkcs11Library = "pkcs11.config";
         private SslContextFactory sslContextFactory;
+        private SmackTlsContext sharedSmackTlsContext;
         private String[] enabledSSLProtocols;
         private String[] enabledSSLCiphers;
         private HostnameVerifier hostnameVerifier;
@@ -714,6 +734,7 @@ public abstract class ConnectionConfiguration {
         private Set<String> enabledSaslMechanisms;
         private X509TrustManager customX509TrustManager;
         private boolean compressionEnabled = false;
+        private boolean metricsEnabled = false;
         private StanzaIdSourceFactory stanzaIdSourceFactory = new StandardStanzaIdSource.Factory();
 
         protected Builder() {
@@ -1040,6 +1061,20 @@ public abstract class ConnectionConfiguration {
             return getThis();
         }
 
+        /**
+         * Use the given, already initialized, TLS context instead of creating a new one for the built configuration.
+         * This allows multiple connections to share a single {@link SSLContext}, and hence its TLS session cache. Any
+         * other TLS context related setting of this builder is ignored if a shared TLS context is set.
+         *
+         * @param sharedSmackTlsContext the shared TLS context.
+         * @return a reference to this builder.
+         * @see ConnectionFarm#configure(Builder)
+         */
+        B setSharedSmackTlsContext(SmackTlsContext sharedSmackTlsContext) {
+            this.sharedSmackTlsContext = sharedSmackTlsContext;
+            return getThis();
+        }
+
         /**
          * Set the enabled SSL/TLS protocols.
          *
@@ -1261,6 +1296,20 @@ public abstract class ConnectionConfiguration {
             return getThis();
         }
 
+        /**
+         * Sets if the connection records metrics (default false). If disabled, recording metrics comes with
+         * negligible overhead.
+         *
+         * @param metricsEnabled if the connection records metrics.
+         * @return a reference to this object.
+         * @since 4.5.0
+         * @see org.jivesoftware.smack.metrics.ConnectionMetrics
+         */
+        public B setMetricsEnabled(boolean metricsEnabled) {
+            this.metricsEnabled = metricsEnabled;
+            return getThis();
+        }
+
         /**
          * Set the factory for stanza ID sources to use.
          *
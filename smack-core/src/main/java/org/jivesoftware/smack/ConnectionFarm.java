@@ -0,0 +1,709 @@
+/**
+ *
+ * Copyright 2021 Florian Schmaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack;
+
+import java.io.IOException;
+import java.security.KeyManagementException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.net.ssl.SSLContext;
+
+import org.jivesoftware.smack.internal.SmackTlsContext;
+import org.jivesoftware.smack.metrics.LatencyHistogram;
+import org.jivesoftware.smack.sasl.core.ScramMechanism;
+
+/**
+ * A farm of connections, typically of many different accounts, hosted within one JVM.
+ * <p>
+ * Connections added to the farm are logged in by the farm. Logins are admitted by a rate limited scheduler, which
+ * bounds the number of logins per second as well as the number of concurrent logins. Hence starting thousands of
+ * connections, or thousands of connections losing their connection at the same time, does not result in a thundering
+ * herd hitting the server, the DNS resolver and the local CPU. Connections which got disconnected due to an error
+ * are reconnected after an exponentially increasing and randomly jittered delay, and the reconnection again passes
+ * the login scheduler. The timers of the farm are run by Smack's reactor, and the logins are performed by a
+ * farm-owned executor whose size is bounded by the maximum number of concurrent logins.
+ * </p>
+ * <p>
+ * The configuration of the farm's connections should be built using {@link #configure(ConnectionConfiguration.Builder)},
+ * which makes all connections share the farm's TLS context and therefore its TLS session cache. Furthermore, the
+ * farm grows the cache of derived SCRAM keys to the number of managed connections, so that re-authenticating after a
+ * reconnect does not repeat the expensive key derivation (see {@link ScramMechanism#setKeysCacheSize(int)}).
+ * Consider installing a {@link org.jivesoftware.smack.util.dns.CachingDNSResolver}, so that the connections of the
+ * farm share their DNS lookups.
+ * </p>
+ * <p>
+ * The farm takes over the reconnection of its connections, therefore the {@link ReconnectionManager} of every added
+ * connection gets disabled. Use {@link #getHealth()} to obtain aggregated health information about the connections.
+ * </p>
+ * <pre>{@code
+ * ConnectionFarm farm = ConnectionFarm.builder()
+ *     .setMaxLoginsPerSecond(50)
+ *     .build();
+ * for (Account account : accounts) {
+ *     XMPPTCPConnectionConfiguration.Builder builder = XMPPTCPConnectionConfiguration.builder()
+ *         .setUsernameAndPassword(account.getUsername(), account.getPassword())
+ *         .setXmppDomain(account.getDomain());
+ *     farm.add(new XMPPTCPConnection(farm.configure(builder).build()));
+ * }
+ * }</pre>
+ *
+ * @since 4.5.0
+ */
+public final class ConnectionFarm {
+
+    private static final Logger LOGGER = Logger.getLogger(ConnectionFarm.class.getName());
+
+    private enum State {
+        /**
+         * The connection is not connected, or got disconnected on purpose, and will not be logged in by the farm.
+         */
+        idle,
+
+        /**
+         * The connection waits to be admitted by the login scheduler.
+         */
+        queued,
+
+        /**
+         * The connection is currently logging in.
+         */
+        loggingIn,
+
+        /**
+         * The connection is logged in.
+         */
+        online,
+
+        /**
+         * A reconnect of the connection is scheduled.
+         */
+        reconnectScheduled,
+
+        /**
+         * The connection is no longer managed by the farm.
+         */
+        removed,
+    }
+
+    private final class ManagedConnection implements ConnectionListener {
+        private final AbstractXMPPConnection connection;
+
+        private State state = State.idle;
+
+        private int failedAttempts;
+
+        private long enqueuedNanos;
+
+        private ScheduledAction scheduledReconnect;
+
+        private ManagedConnection(AbstractXMPPConnection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public void authenticated(XMPPConnection connection, boolean resumed) {
+            onAuthenticated(this);
+        }
+
+        @Override
+        public void connectionClosed() {
+            onConnectionClosed(this);
+        }
+
+        @Override
+        public void connectionClosedOnError(Exception e) {
+            onConnectionClosedOnError(this, e);
+        }
+    }
+
+    private final SmackReactor reactor = SmackReactor.getInstance();
+
+    private final SmackTlsContext smackTlsContext;
+
+    private final int maxConcurrentLogins;
+
+    private final long loginIntervalNanos;
+
+    private final long reconnectBaseDelayMillis;
+
+    private final long reconnectMaxDelayMillis;
+
+    private final ThreadPoolExecutor loginExecutor;
+
+    private final Random random = new Random();
+
+    private final Map<AbstractXMPPConnection, ManagedConnection> managedConnections = new HashMap<>();
+
+    private final ArrayDeque<ManagedConnection> pendingLogins = new ArrayDeque<>();
+
+    private final LatencyHistogram loginQueueTimes = new LatencyHistogram();
+
+    private final LatencyHistogram loginTimes = new LatencyHistogram();
+
+    private int loginsInProgress;
+
+    private long nextLoginPermitNanos = System.nanoTime();
+
+    private ScheduledAction scheduledAdmission;
+
+    private long successfulLogins;
+
+    private long failedLogins;
+
+    private long connectionsLostOnError;
+
+    private boolean shutdown;
+
+    private ConnectionFarm(Builder builder) {
+        smackTlsContext = new SmackTlsContext(builder.sslContext, null);
+        maxConcurrentLogins = builder.maxConcurrentLogins;
+        if (builder.maxLoginsPerSecond > 0) {
+            loginIntervalNanos = TimeUnit.SECONDS.toNanos(1) / builder.maxLoginsPerSecond;
+        } else {
+            loginIntervalNanos = 0;
+        }
+        reconnectBaseDelayMillis = builder.reconnectBaseDelayMillis;
+        reconnectMaxDelayMillis = builder.reconnectMaxDelayMillis;
+
+        loginExecutor = new ThreadPoolExecutor(maxConcurrentLogins, maxConcurrentLogins, 60, TimeUnit.SECONDS,
+                        new LinkedBlockingQueue<Runnable>(), runnable -> {
+                            Thread thread = new Thread(runnable);
+                            thread.setName("Smack Connection Farm Login");
+                            thread.setDaemon(true);
+                            thread.setUncaughtExceptionHandler((t, e) -> {
+                                LOGGER.log(Level.WARNING, t + " encountered uncaught exception", e);
+                            });
+                            return thread;
+                        });
+        loginExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Configure the given connection configuration builder to use the shared TLS context of this farm. Note that this
+     * overrides all other TLS context related settings of the builder, like a custom trust manager.
+     *
+     * @param <B> the type of the builder.
+     * @param builder the connection configuration builder.
+     * @return the given builder.
+     */
+    public <B extends ConnectionConfiguration.Builder<B, ?>> B configure(B builder) {
+        return builder.setSharedSmackTlsContext(smackTlsContext);
+    }
+
+    /**
+     * Add the given connection to this farm. Unless the connection is already authenticated, it is queued for being
+     * logged in by the farm's login scheduler.
+     *
+     * @param connection the connection to add.
+     * @return <code>true</code> if the connection was added, <code>false</code> if it was already part of this farm.
+     * @throws IllegalStateException if this farm was shut down.
+     */
+    public boolean add(AbstractXMPPConnection connection) {
+        ReconnectionManager.getInstanceFor(connection).disableAutomaticReconnection();
+
+        synchronized (this) {
+            if (shutdown) {
+                throw new IllegalStateException("The connection farm was shut down");
+            }
+            if (managedConnections.containsKey(connection)) {
+                return false;
+            }
+
+            ManagedConnection managedConnection = new ManagedConnection(connection);
+            managedConnections.put(connection, managedConnection);
+            connection.addConnectionListener(managedConnection);
+
+            int managedConnectionCount = managedConnections.size();
+            if (ScramMechanism.getKeysCacheSize() < managedConnectionCount) {
+                ScramMechanism.setKeysCacheSize(managedConnectionCount);
+            }
+
+            if (connection.isAuthenticated()) {
+                managedConnection.state = State.online;
+            } else {
+                enqueueLogin(managedConnection);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Remove the given connection from this farm. The connection is neither disconnected, nor is its
+     * {@link ReconnectionManager} re-enabled.
+     *
+     * @param connection the connection to remove.
+     * @return <code>true</code> if the connection was removed, <code>false</code> if it was not part of this farm.
+     */
+    public synchronized boolean remove(AbstractXMPPConnection connection) {
+        ManagedConnection managedConnection = managedConnections.remove(connection);
+        if (managedConnection == null) {
+            return false;
+        }
+        release(managedConnection);
+        return true;
+    }
+
+    /**
+     * Shut down this farm. All connections are removed from the farm and disconnected.
+     */
+    public void shutdown() {
+        List<AbstractXMPPConnection> connections;
+        synchronized (this) {
+            if (shutdown) {
+                return;
+            }
+            shutdown = true;
+
+            if (scheduledAdmission != null) {
+                scheduledAdmission.cancel();
+                scheduledAdmission = null;
+            }
+
+            connections = new ArrayList<>(managedConnections.size());
+            for (ManagedConnection managedConnection : managedConnections.values()) {
+                release(managedConnection);
+                connections.add(managedConnection.connection);
+            }
+            managedConnections.clear();
+
+            loginExecutor.shutdown();
+        }
+
+        for (AbstractXMPPConnection connection : connections) {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Get a snapshot of the health of this farm and its connections.
+     *
+     * @return the current health of this farm.
+     */
+    public synchronized Health getHealth() {
+        int connected = 0, authenticated = 0, reconnectsScheduled = 0;
+        for (ManagedConnection managedConnection : managedConnections.values()) {
+            AbstractXMPPConnection connection = managedConnection.connection;
+            if (connection.isConnected()) {
+                connected++;
+            }
+            if (connection.isAuthenticated()) {
+                authenticated++;
+            }
+            if (managedConnection.state == State.reconnectScheduled) {
+                reconnectsScheduled++;
+            }
+        }
+        return new Health(managedConnections.size(), connected, authenticated, pendingLogins.size(), loginsInProgress,
+                        reconnectsScheduled, successfulLogins, failedLogins, connectionsLostOnError,
+                        loginQueueTimes.snapshot(), loginTimes.snapshot());
+    }
+
+    private void release(ManagedConnection managedConnection) {
+        if (managedConnection.state == State.queued) {
+            pendingLogins.remove(managedConnection);
+        }
+        if (managedConnection.scheduledReconnect != null) {
+            managedConnection.scheduledReconnect.cancel();
+            managedConnection.scheduledReconnect = null;
+        }
+        managedConnection.state = State.removed;
+        managedConnection.connection.removeConnectionListener(managedConnection);
+    }
+
+    private void enqueueLogin(ManagedConnection managedConnection) {
+        assert Thread.holdsLock(this);
+
+        managedConnection.state = State.queued;
+        managedConnection.enqueuedNanos = System.nanoTime();
+        pendingLogins.add(managedConnection);
+        admitPendingLogins();
+    }
+
+    private void admitPendingLogins() {
+        assert Thread.holdsLock(this);
+
+        // If an admission is already scheduled, then it will take care of the pending logins.
+        if (scheduledAdmission != null) {
+            return;
+        }
+
+        while (!pendingLogins.isEmpty() && loginsInProgress < maxConcurrentLogins) {
+            long now = System.nanoTime();
+            long waitNanos = nextLoginPermitNanos - now;
+            if (waitNanos > 0) {
+                scheduledAdmission = reactor.schedule(this::onScheduledAdmission, waitNanos, TimeUnit.NANOSECONDS,
+                                ScheduledAction.Kind.NonBlocking);
+                return;
+            }
+
+            // Catch up by at most one permit if the admission was performed late, but do not accumulate permits
+            // while there are no pending logins.
+            long earliestLoginPermitNanos = now - loginIntervalNanos;
+            if (nextLoginPermitNanos - earliestLoginPermitNanos < 0) {
+                nextLoginPermitNanos = earliestLoginPermitNanos;
+            }
+            nextLoginPermitNanos += loginIntervalNanos;
+
+            ManagedConnection managedConnection = pendingLogins.poll();
+            managedConnection.state = State.loggingIn;
+            loginQueueTimes.record(now - managedConnection.enqueuedNanos);
+            loginsInProgress++;
+            loginExecutor.execute(() -> performLogin(managedConnection));
+        }
+    }
+
+    private synchronized void onScheduledAdmission() {
+        scheduledAdmission = null;
+        if (shutdown) {
+            return;
+        }
+        admitPendingLogins();
+    }
+
+    private void performLogin(ManagedConnection managedConnection) {
+        AbstractXMPPConnection connection = managedConnection.connection;
+        long startNanos = System.nanoTime();
+        Exception failure = null;
+        try {
+            if (!connection.isConnected()) {
+                connection.connect();
+            }
+            if (!connection.isAuthenticated()) {
+                connection.login();
+            }
+        } catch (SmackException | IOException | XMPPException | InterruptedException e) {
+            failure = e;
+        } catch (RuntimeException e) {
+            // Treat it as a failed login, so that the connection is retried and the login slot is released.
+            LOGGER.log(Level.WARNING, "Login of " + connection + " threw unexpected exception", e);
+            failure = e;
+        }
+        long loginNanos = System.nanoTime() - startNanos;
+
+        if (failure != null && connection.isConnected()) {
+            // Start the next attempt with a fresh connection.
+            connection.disconnect();
+        }
+
+        boolean disconnect;
+        synchronized (this) {
+            loginsInProgress--;
+            disconnect = onLoginFinished(managedConnection, failure, loginNanos);
+            if (!shutdown) {
+                admitPendingLogins();
+            }
+        }
+
+        if (disconnect) {
+            connection.disconnect();
+        }
+    }
+
+    private boolean onLoginFinished(ManagedConnection managedConnection, Exception failure, long loginNanos) {
+        assert Thread.holdsLock(this);
+
+        AbstractXMPPConnection connection = managedConnection.connection;
+        if (managedConnection.state != State.loggingIn) {
+            // The connection was removed while it was logging in. Disconnect it if the farm was shut down, as
+            // otherwise the connection would outlive the farm.
+            return shutdown && failure == null;
+        }
+
+        if (failure == null && !connection.isAuthenticated()) {
+            failure = new SmackException.NotConnectedException("Connection lost while logging in");
+        }
+
+        if (failure == null) {
+            successfulLogins++;
+            loginTimes.record(loginNanos);
+            managedConnection.failedAttempts = 0;
+            managedConnection.state = State.online;
+        } else {
+            failedLogins++;
+            LOGGER.log(Level.FINE, "Login of " + connection + " failed", failure);
+            scheduleReconnect(managedConnection);
+        }
+        return false;
+    }
+
+    private synchronized void onAuthenticated(ManagedConnection managedConnection) {
+        // A connection which got disconnected on purpose was logged in again by the user.
+        if (managedConnection.state == State.idle) {
+            managedConnection.state = State.online;
+        }
+    }
+
+    private synchronized void onConnectionClosed(ManagedConnection managedConnection) {
+        if (managedConnection.state == State.online) {
+            managedConnection.state = State.idle;
+        }
+    }
+
+    private synchronized void onConnectionClosedOnError(ManagedConnection managedConnection, Exception e) {
+        if (managedConnection.state != State.online) {
+            return;
+        }
+        connectionsLostOnError++;
+        LOGGER.log(Level.FINE, managedConnection.connection + " closed on error, scheduling reconnect", e);
+        scheduleReconnect(managedConnection);
+    }
+
+    private void scheduleReconnect(ManagedConnection managedConnection) {
+        assert Thread.holdsLock(this);
+
+        managedConnection.failedAttempts++;
+        long delayMillis = nextReconnectDelayMillis(managedConnection.failedAttempts);
+        managedConnection.state = State.reconnectScheduled;
+        // Perform the reconnect on the reactor shard of the connection.
+        managedConnection.scheduledReconnect = managedConnection.connection.schedule(
+                        () -> onReconnectDue(managedConnection), delayMillis, TimeUnit.MILLISECONDS,
+                        ScheduledAction.Kind.NonBlocking);
+    }
+
+    long nextReconnectDelayMillis(int failedAttempts) {
+        int exponent = Math.min(failedAttempts - 1, 30);
+        long ceilingMillis = reconnectBaseDelayMillis << exponent;
+        if (ceilingMillis >>> exponent != reconnectBaseDelayMillis || ceilingMillis > reconnectMaxDelayMillis) {
+            ceilingMillis = reconnectMaxDelayMillis;
+        }
+        // Spread the reconnects uniformly over the whole interval, so that connections which were lost at the same
+        // time do not reconnect at the same time.
+        return (long) (random.nextDouble() * ceilingMillis);
+    }
+
+    private synchronized void onReconnectDue(ManagedConnection managedConnection) {
+        if (managedConnection.state != State.reconnectScheduled) {
+            return;
+        }
+        managedConnection.scheduledReconnect = null;
+        enqueueLogin(managedConnection);
+    }
+
+    /**
+     * A snapshot of the health of a connection farm.
+     */
+    public static final class Health {
+        private final int managedConnections;
+        private final int connectedConnections;
+        private final int authenticatedConnections;
+        private final int pendingLogins;
+        private final int loginsInProgress;
+        private final int scheduledReconnects;
+        private final long successfulLogins;
+        private final long failedLogins;
+        private final long connectionsLostOnError;
+        private final LatencyHistogram.Snapshot loginQueueTimes;
+        private final LatencyHistogram.Snapshot loginTimes;
+
+        private Health(int managedConnections, int connectedConnections, int authenticatedConnections,
+                        int pendingLogins, int loginsInProgress, int scheduledReconnects, long successfulLogins,
+                        long failedLogins, long connectionsLostOnError, LatencyHistogram.Snapshot loginQueueTimes,
+                        LatencyHistogram.Snapshot loginTimes) {
+            this.managedConnections = managedConnections;
+            this.connectedConnections = connectedConnections;
+            this.authenticatedConnections = authenticatedConnections;
+            this.pendingLogins = pendingLogins;
+            this.loginsInProgress = loginsInProgress;
+            this.scheduledReconnects = scheduledReconnects;
+            this.successfulLogins = successfulLogins;
+            this.failedLogins = failedLogins;
+            this.connectionsLostOnError = connectionsLostOnError;
+            this.loginQueueTimes = loginQueueTimes;
+            this.loginTimes = loginTimes;
+        }
+
+        public int getManagedConnections() {
+            return managedConnections;
+        }
+
+        public int getConnectedConnections() {
+            return connectedConnections;
+        }
+
+        public int getAuthenticatedConnections() {
+            return authenticatedConnections;
+        }
+
+        /**
+         * Get the number of connections waiting to be admitted by the login scheduler.
+         *
+         * @return the number of pending logins.
+         */
+        public int getPendingLogins() {
+            return pendingLogins;
+        }
+
+        public int getLoginsInProgress() {
+            return loginsInProgress;
+        }
+
+        public int getScheduledReconnects() {
+            return scheduledReconnects;
+        }
+
+        public long getSuccessfulLogins() {
+            return successfulLogins;
+        }
+
+        public long getFailedLogins() {
+            return failedLogins;
+        }
+
+        /**
+         * Get the number of times a logged in connection of the farm was closed due to an error.
+         *
+         * @return the number of connections lost on error.
+         */
+        public long getConnectionsLostOnError() {
+            return connectionsLostOnError;
+        }
+
+        /**
+         * Get the times connections waited to be admitted by the login scheduler.
+         *
+         * @return the login queue times.
+         */
+        public LatencyHistogram.Snapshot getLoginQueueTimes() {
+            return loginQueueTimes;
+        }
+
+        /**
+         * Get the times successful logins took, including connecting to the server.
+         *
+         * @return the login times.
+         */
+        public LatencyHistogram.Snapshot getLoginTimes() {
+            return loginTimes;
+        }
+
+        @Override
+        public String toString() {
+            return "managed=" + managedConnections
+                            + " connected=" + connectedConnections
+                            + " authenticated=" + authenticatedConnections
+                            + " pendingLogins=" + pendingLogins
+                            + " loginsInProgress=" + loginsInProgress
+                            + " scheduledReconnects=" + scheduledReconnects
+                            + " successfulLogins=" + successfulLogins
+                            + " failedLogins=" + failedLogins
+                            + " lostOnError=" + connectionsLostOnError
+                            + " loginQueueTimes=[" + loginQueueTimes + ']'
+                            + " loginTimes=[" + loginTimes + ']';
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static final class Builder {
+        private int maxLoginsPerSecond = 10;
+        private int maxConcurrentLogins = 4;
+        private long reconnectBaseDelayMillis = 1000;
+        private long reconnectMaxDelayMillis = TimeUnit.MINUTES.toMillis(5);
+        private SSLContext sslContext;
+
+        private Builder() {
+        }
+
+        /**
+         * Set the maximum number of logins, including reconnects, the farm starts per second. A value of zero
+         * disables the rate limit. The default is 10.
+         *
+         * @param maxLoginsPerSecond the maximum number of logins per second.
+         * @return a reference to this builder.
+         */
+        public Builder setMaxLoginsPerSecond(int maxLoginsPerSecond) {
+            if (maxLoginsPerSecond < 0) {
+                throw new IllegalArgumentException("The maximum number of logins per second must not be negative");
+            }
+            this.maxLoginsPerSecond = maxLoginsPerSecond;
+            return this;
+        }
+
+        /**
+         * Set the maximum number of logins the farm performs concurrently. The default is 4.
+         *
+         * @param maxConcurrentLogins the maximum number of concurrent logins.
+         * @return a reference to this builder.
+         */
+        public Builder setMaxConcurrentLogins(int maxConcurrentLogins) {
+            if (maxConcurrentLogins < 1) {
+                throw new IllegalArgumentException("The maximum number of concurrent logins must be at least one");
+            }
+            this.maxConcurrentLogins = maxConcurrentLogins;
+            return this;
+        }
+
+        /**
+         * Set the delay of reconnects. The delay before the n-th consecutive reconnect attempt of a connection is
+         * chosen randomly between zero and <code>baseDelay * 2^(n-1)</code>, but never exceeds the given maximum
+         * delay. The default is a base delay of one second and a maximum delay of five minutes.
+         *
+         * @param baseDelay the base delay.
+         * @param maxDelay the maximum delay.
+         * @param unit the unit of the delays.
+         * @return a reference to this builder.
+         */
+        public Builder setReconnectDelay(long baseDelay, long maxDelay, TimeUnit unit) {
+            long baseDelayMillis = unit.toMillis(baseDelay);
+            long maxDelayMillis = unit.toMillis(maxDelay);
+            if (baseDelayMillis < 1 || maxDelayMillis < baseDelayMillis) {
+                throw new IllegalArgumentException(
+                                "The base delay must be at least one millisecond and not exceed the maximum delay");
+            }
+            reconnectBaseDelayMillis = baseDelayMillis;
+            reconnectMaxDelayMillis = maxDelayMillis;
+            return this;
+        }
+
+        /**
+         * Set the TLS context shared by all connections of the farm. The context must already be initialized. If
+         * no context is set, then a context with the platform's default key and trust managers is used.
+         *
+         * @param sslContext the initialized TLS context.
+         * @return a reference to this builder.
+         */
+        public Builder setSslContext(SSLContext sslContext) {
+            this.sslContext = sslContext;
+            return this;
+        }
+
+        public ConnectionFarm build() {
+            if (sslContext == null) {
+                try {
+                    sslContext = SSLContext.getInstance("TLS");
+                    sslContext.init(null, null, null);
+                } catch (NoSuchAlgorithmException | KeyManagementException e) {
+                    throw new IllegalStateException("Could not create the default TLS context", e);
+                }
+            }
+            return new ConnectionFarm(this);
+        }
+    }
+}
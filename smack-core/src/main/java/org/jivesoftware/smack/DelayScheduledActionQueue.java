@@ -0,0 +1,57 @@
+/**
+ *
+ * Copyright 2021 Florian Schmaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack;
+
+import java.util.concurrent.DelayQueue;
+
+/**
+ * A scheduled action queue backed by a {@link DelayQueue}. Adding an action costs O(log n), but removing an action
+ * costs O(n), as the queue has to be searched for it. In exchange, actions become due with millisecond precision.
+ */
+final class DelayScheduledActionQueue implements ScheduledActionQueue {
+
+    private final DelayQueue<ScheduledAction> scheduledActions = new DelayQueue<>();
+
+    @Override
+    public void add(ScheduledAction scheduledAction) {
+        scheduledActions.add(scheduledAction);
+    }
+
+    @Override
+    public boolean remove(ScheduledAction scheduledAction) {
+        return scheduledActions.remove(scheduledAction);
+    }
+
+    @Override
+    public ScheduledAction poll() {
+        return scheduledActions.poll();
+    }
+
+    @Override
+    public long getTimeToNextDueMillis() {
+        ScheduledAction nextScheduledAction = scheduledActions.peek();
+        if (nextScheduledAction == null) {
+            return NOTHING_SCHEDULED;
+        }
+        return nextScheduledAction.getTimeToDueMillis();
+    }
+
+    @Override
+    public int size() {
+        return scheduledActions.size();
+    }
+}
@@ -53,15 +53,29 @@ public abstract class Manager {
         return connection;
     }
 
-    protected static final ScheduledAction schedule(Runnable runnable, long delay, TimeUnit unit) {
+    protected final ScheduledAction schedule(Runnable runnable, long delay, TimeUnit unit) {
         return schedule(runnable, delay, unit, ScheduledAction.Kind.NonBlocking);
     }
 
-    protected static final ScheduledAction scheduleBlocking(Runnable runnable, long delay, TimeUnit unit) {
+    protected final ScheduledAction scheduleBlocking(Runnable runnable, long delay, TimeUnit unit) {
         return schedule(runnable, delay, unit, ScheduledAction.Kind.Blocking);
     }
 
-    protected static final ScheduledAction schedule(Runnable runnable, long delay, TimeUnit unit, ScheduledAction.Kind scheduledActionKind) {
+    /**
+     * Schedule the given action. If the connection of this manager is assigned to a shard of Smack's reactor, then the
+     * action is performed by this shard.
+     *
+     * @param runnable the action.
+     * @param delay the delay after which the action is performed.
+     * @param unit the unit of the delay.
+     * @param scheduledActionKind the kind of the action.
+     * @return the scheduled action.
+     */
+    protected final ScheduledAction schedule(Runnable runnable, long delay, TimeUnit unit, ScheduledAction.Kind scheduledActionKind) {
+        XMPPConnection connection = connection();
+        if (connection instanceof AbstractXMPPConnection) {
+            return ((AbstractXMPPConnection) connection).schedule(runnable, delay, unit, scheduledActionKind);
+        }
         return AbstractXMPPConnection.SMACK_REACTOR.schedule(runnable, delay, unit, scheduledActionKind);
     }
 }
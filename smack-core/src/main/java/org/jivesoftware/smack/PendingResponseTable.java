@@ -0,0 +1,171 @@
+/**
+ *
+ * Copyright 2021 Florian Schmaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jivesoftware.smack.filter.IQReplyFilter;
+import org.jivesoftware.smack.filter.StanzaFilter;
+import org.jivesoftware.smack.filter.StanzaIdFilter;
+import org.jivesoftware.smack.packet.Stanza;
+
+/**
+ * A table of stanza collectors waiting for a response, keyed by the stanza ID of the request. Looking up the
+ * collectors interested in an incoming stanza is a constant time operation, as opposed to offering the stanza to
+ * every collector. The collectors still apply their filter, so that e.g. the 'from' validation of
+ * {@link IQReplyFilter} continues to take place.
+ * <p>
+ * Only collectors with an {@link IQReplyFilter} or a {@link StanzaIdFilter} are kept in this table. See
+ * {@link #getStanzaIdOf(StanzaFilter)}.
+ * </p>
+ */
+final class PendingResponseTable {
+
+    /**
+     * Maps stanza IDs to the collectors waiting for a stanza with that ID. Most of the time there is exactly one
+     * collector per ID, hence we use copy-on-write arrays as values. Modifications are guarded by this table's
+     * monitor, while lookups are lock free.
+     */
+    private final Map<String, StanzaCollector[]> collectors = new ConcurrentHashMap<>();
+
+    private final AtomicInteger pendingCount = new AtomicInteger();
+
+    /**
+     * Get the stanza ID which every stanza accepted by the given filter must have.
+     *
+     * @param filter the stanza filter.
+     * @return the stanza ID or <code>null</code> if the filter does not solely match on stanzas with a given ID.
+     */
+    static String getStanzaIdOf(StanzaFilter filter) {
+        if (filter instanceof IQReplyFilter) {
+            return ((IQReplyFilter) filter).getStanzaId();
+        }
+        if (filter instanceof StanzaIdFilter) {
+            return ((StanzaIdFilter) filter).getStanzaId();
+        }
+        return null;
+    }
+
+    /**
+     * Try to add the given collector to this table.
+     *
+     * @param collector the stanza collector.
+     * @return <code>true</code> if the collector was added, <code>false</code> if its filter is not ID-based.
+     */
+    boolean add(StanzaCollector collector) {
+        String stanzaId = getStanzaIdOf(collector.getStanzaFilter());
+        if (stanzaId == null) {
+            return false;
+        }
+
+        synchronized (this) {
+            StanzaCollector[] existing = collectors.get(stanzaId);
+            StanzaCollector[] updated;
+            if (existing == null) {
+                updated = new StanzaCollector[] { collector };
+            } else {
+                updated = Arrays.copyOf(existing, existing.length + 1);
+                updated[existing.length] = collector;
+            }
+            collectors.put(stanzaId, updated);
+        }
+        pendingCount.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Remove the given collector from this table.
+     *
+     * @param collector the stanza collector.
+     * @return <code>true</code> if the collector was part of this table.
+     */
+    boolean remove(StanzaCollector collector) {
+        String stanzaId = getStanzaIdOf(collector.getStanzaFilter());
+        if (stanzaId == null) {
+            return false;
+        }
+
+        synchronized (this) {
+            StanzaCollector[] existing = collectors.get(stanzaId);
+            if (existing == null) {
+                return false;
+            }
+            for (int i = 0; i < existing.length; i++) {
+                if (existing[i] != collector) {
+                    continue;
+                }
+                if (existing.length == 1) {
+                    collectors.remove(stanzaId);
+                } else {
+                    StanzaCollector[] updated = new StanzaCollector[existing.length - 1];
+                    System.arraycopy(existing, 0, updated, 0, i);
+                    System.arraycopy(existing, i + 1, updated, i, existing.length - i - 1);
+                    collectors.put(stanzaId, updated);
+                }
+                pendingCount.decrementAndGet();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Offer the given stanza to the collectors waiting for a stanza with its ID.
+     *
+     * @param stanza the incoming stanza.
+     */
+    void processStanza(Stanza stanza) {
+        String stanzaId = stanza.getStanzaId();
+        if (stanzaId == null) {
+            return;
+        }
+        StanzaCollector[] matchingCollectors = collectors.get(stanzaId);
+        if (matchingCollectors == null) {
+            return;
+        }
+        for (StanzaCollector collector : matchingCollectors) {
+            collector.processStanza(stanza);
+        }
+    }
+
+    /**
+     * Get all collectors in this table.
+     *
+     * @return all collectors.
+     */
+    List<StanzaCollector> getAll() {
+        List<StanzaCollector> res = new ArrayList<>(pendingCount.get());
+        for (StanzaCollector[] stanzaCollectors : collectors.values()) {
+            res.addAll(Arrays.asList(stanzaCollectors));
+        }
+        return res;
+    }
+
+    /**
+     * Get the number of collectors waiting for a response.
+     *
+     * @return the number of pending responses.
+     */
+    int getPendingCount() {
+        return pendingCount.get();
+    }
+}
@@ -20,8 +20,6 @@ import java.util.Date;
 import java.util.concurrent.Delayed;
 import java.util.concurrent.TimeUnit;
 
-import org.jivesoftware.smack.util.Async;
-
 public class ScheduledAction implements Delayed {
 
     enum Kind {
@@ -31,14 +29,25 @@ public class ScheduledAction implements Delayed {
 
     private final Runnable action;
     final Date releaseTime;
+    final long releaseTimeNanos;
     final SmackReactor smackReactor;
     final Kind kind;
+    final SmackReactor.Shard shard;
+
+    // The following fields are owned by the TimerWheel holding this action, if any.
+    TimerWheel.Bucket timerWheelBucket;
+    ScheduledAction timerWheelPrevious;
+    ScheduledAction timerWheelNext;
+    long timerWheelReleaseTick;
 
-    ScheduledAction(Runnable action, Date releaseTime, SmackReactor smackReactor, Kind kind) {
+    ScheduledAction(Runnable action, Date releaseTime, long releaseTimeNanos, SmackReactor smackReactor, Kind kind,
+                    SmackReactor.Shard shard) {
         this.action = action;
         this.releaseTime = releaseTime;
+        this.releaseTimeNanos = releaseTimeNanos;
         this.smackReactor = smackReactor;
         this.kind = kind;
+        this.shard = shard;
     }
 
     /**
@@ -84,7 +93,7 @@ public class ScheduledAction implements Delayed {
             action.run();
             break;
         case Blocking:
-            Async.go(() -> action.run());
+            AbstractXMPPConnection.asyncGo(action);
             break;
         }
     }
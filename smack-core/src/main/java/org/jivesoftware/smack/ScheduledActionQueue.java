@@ -0,0 +1,49 @@
+/**
+ *
+ * Copyright 2021 Florian Schmaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack;
+
+/**
+ * A queue of scheduled actions, from which the actions can be polled once they are due.
+ */
+interface ScheduledActionQueue {
+
+    /**
+     * Returned by {@link #getTimeToNextDueMillis()} if the queue contains no scheduled actions.
+     */
+    long NOTHING_SCHEDULED = Long.MAX_VALUE;
+
+    void add(ScheduledAction scheduledAction);
+
+    boolean remove(ScheduledAction scheduledAction);
+
+    /**
+     * Retrieve and remove a due scheduled action.
+     *
+     * @return a due scheduled action, or <code>null</code> if there is none.
+     */
+    ScheduledAction poll();
+
+    /**
+     * Get the time in milliseconds until the queue needs to be polled again. A non-positive value means that it should
+     * be polled right away.
+     *
+     * @return the time until the next scheduled action becomes due, or {@link #NOTHING_SCHEDULED}.
+     */
+    long getTimeToNextDueMillis();
+
+    int size();
+}
@@ -25,6 +25,8 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 import javax.net.ssl.HostnameVerifier;
 
@@ -371,6 +373,114 @@ public final class SmackConfiguration {
         return defaultConcurrencyLevelLimit;
     }
 
+    private static volatile Executor asyncExecutor;
+
+    /**
+     * Set the executor used to run Smack's asynchronous operations. This includes asynchronous stanza listeners, IQ
+     * request handlers, the handlers of {@link AsyncButOrdered} without an explicit executor and blocking scheduled
+     * actions. If <code>null</code> is set, which is the default, then Smack's internal cached thread pool is used.
+     * <p>
+     * For example, the smack-java21 module provides a mode where those operations are executed on virtual threads.
+     * </p>
+     *
+     * @param executor the executor to use or <code>null</code> for Smack's internal default.
+     * @since 4.5.0
+     */
+    public static void setAsyncExecutor(Executor executor) {
+        asyncExecutor = executor;
+    }
+
+    /**
+     * Get the executor set via {@link #setAsyncExecutor(Executor)}.
+     *
+     * @return the executor or <code>null</code> if Smack's internal default is used.
+     * @since 4.5.0
+     */
+    public static Executor getAsyncExecutor() {
+        return asyncExecutor;
+    }
+
+    private static int reactorShardCount;
+
+    private static SmackReactor.ShardAssignmentPolicy reactorShardAssignmentPolicy = new SmackReactor.RoundRobinShardAssignmentPolicy();
+
+    /**
+     * Let Smack's reactor operate in sharded mode, where every reactor thread has its own selector. Channels, and the
+     * actions scheduled for them, are assigned to the shards by the given policy. This improves the throughput of
+     * processes hosting thousands of connections. Note that this must be set before the first connection is created.
+     *
+     * @param shardCount the number of shards, or 0 to disable the sharded mode (the default).
+     * @param shardAssignmentPolicy the policy assigning channels to shards.
+     * @since 4.5.0
+     * @see SmackReactor.RoundRobinShardAssignmentPolicy
+     * @see SmackReactor.LeastLoadedShardAssignmentPolicy
+     */
+    public static void setReactorShards(int shardCount, SmackReactor.ShardAssignmentPolicy shardAssignmentPolicy) {
+        if (shardCount < 0) {
+            throw new IllegalArgumentException("The shard count must not be negative");
+        }
+        reactorShardAssignmentPolicy = Objects.requireNonNull(shardAssignmentPolicy, "Must set shard assignment policy");
+        reactorShardCount = shardCount;
+    }
+
+    static int getReactorShardCount() {
+        return reactorShardCount;
+    }
+
+    static SmackReactor.ShardAssignmentPolicy getReactorShardAssignmentPolicy() {
+        return reactorShardAssignmentPolicy;
+    }
+
+    private static long reactorTimerWheelTickNanos;
+
+    /**
+     * Let Smack's reactor hold its scheduled actions in a hierarchical timing wheel with the given tick resolution,
+     * instead of a delay queue. Scheduling and cancelling an action then costs O(1), which helps processes hosting
+     * thousands of connections, but actions are released up to one tick resolution after their scheduled time. Note
+     * that this must be set before the first connection is created.
+     *
+     * @param tickResolution the tick resolution, or 0 to use a delay queue (the default).
+     * @param unit the unit of the tick resolution.
+     * @since 4.5.0
+     */
+    public static void setReactorTimerWheel(long tickResolution, TimeUnit unit) {
+        if (tickResolution < 0) {
+            throw new IllegalArgumentException("The tick resolution must not be negative");
+        }
+        reactorTimerWheelTickNanos = unit.toNanos(tickResolution);
+    }
+
+    static long getReactorTimerWheelTickNanos() {
+        return reactorTimerWheelTickNanos;
+    }
+
+    private static boolean lazyExtensionElementParsing;
+
+    /**
+     * Enable or disable lazy parsing of the extension elements of received messages and presences. If enabled, the
+     * extension elements are retained as raw XML and only handed to their provider once they are requested from the
+     * stanza. This avoids the cost of parsing extension elements the application is not interested in. Note that
+     * with lazy parsing, errors of extension element providers do no longer cause the whole stanza to be rejected.
+     * Instead, they are logged and the extension is removed from the stanza once it is requested.
+     *
+     * @param lazyExtensionElementParsing <code>true</code> to enable lazy parsing, the default is <code>false</code>.
+     * @since 4.5.0
+     */
+    public static void setLazyExtensionElementParsing(boolean lazyExtensionElementParsing) {
+        SmackConfiguration.lazyExtensionElementParsing = lazyExtensionElementParsing;
+    }
+
+    /**
+     * Check if lazy parsing of extension elements is enabled.
+     *
+     * @return <code>true</code> if lazy parsing of extension elements is enabled.
+     * @since 4.5.0
+     * @see #setLazyExtensionElementParsing(boolean)
+     */
+    public static boolean isLazyExtensionElementParsing() {
+        return lazyExtensionElementParsing;
+    }
+
     private static final Set<Class<? extends ModularXmppClientToServerConnectionModuleDescriptor>> KNOWN_MODULES = new HashSet<>();
 
     public static boolean addModule(Class<? extends ModularXmppClientToServerConnectionModuleDescriptor> moduleDescriptor) {
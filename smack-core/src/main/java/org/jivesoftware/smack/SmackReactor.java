@@ -31,15 +31,18 @@ import java.util.List;
 import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.DelayQueue;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.jivesoftware.smack.metrics.SmackMetrics;
+import org.jivesoftware.smack.metrics.SmackTracer;
+
 /**
  * The SmackReactor for non-blocking I/O.
  * <p>
@@ -47,7 +50,23 @@ import java.util.logging.Logger;
  * <ul>
  * <li>Multiple reactor threads</li>
  * <li>Scheduled actions</li>
+ * <li>An optional sharded mode</li>
+ * <li>An optional hierarchical timing wheel for the scheduled actions</li>
  * </ul>
+ * <p>
+ * By default, all reactor threads share a single selector. In sharded mode, see
+ * {@link SmackConfiguration#setReactorShards(int, ShardAssignmentPolicy)}, every reactor thread has its own selector.
+ * Channels are assigned to a {@link Shard} by a {@link ShardAssignmentPolicy}, and all I/O of a channel is performed
+ * by the thread of its shard. This avoids the coordination between the reactor threads, which becomes a bottleneck if
+ * a process hosts thousands of connections.
+ * </p>
+ * <p>
+ * By default, scheduled actions are held in a {@link java.util.concurrent.DelayQueue}, where scheduling an action costs
+ * O(log n) and cancelling an action costs O(n). With many connections, each contributing a few actions, e.g. for
+ * pinging the server, the queue becomes large and is frequently modified. A hierarchical timing wheel, see
+ * {@link SmackConfiguration#setReactorTimerWheel(long, TimeUnit)}, schedules and cancels actions in O(1), at the
+ * cost of releasing the actions with the precision of the wheel's tick resolution.
+ * </p>
  *
  * <pre>
  *
@@ -77,7 +96,14 @@ public class SmackReactor {
 
     static synchronized SmackReactor getInstance() {
         if (INSTANCE == null) {
-            INSTANCE = new SmackReactor("DefaultReactor");
+            int shardCount = SmackConfiguration.getReactorShardCount();
+            long timerWheelTickNanos = SmackConfiguration.getReactorTimerWheelTickNanos();
+            if (shardCount > 0) {
+                INSTANCE = new SmackReactor("DefaultReactor", shardCount,
+                                SmackConfiguration.getReactorShardAssignmentPolicy(), timerWheelTickNanos);
+            } else {
+                INSTANCE = new SmackReactor("DefaultReactor", timerWheelTickNanos);
+            }
         }
         return INSTANCE;
     }
@@ -85,9 +111,22 @@ public class SmackReactor {
     private final Selector selector;
     private final String reactorName;
 
+    /**
+     * The shards of this reactor, or <code>null</code> if this reactor does not operate in sharded mode.
+     */
+    private final List<Shard> shards;
+
+    private final ShardAssignmentPolicy shardAssignmentPolicy;
+
     private final List<Reactor> reactorThreads = Collections.synchronizedList(new ArrayList<>());
 
-    private final DelayQueue<ScheduledAction> scheduledActions = new DelayQueue<>();
+    /**
+     * The tick resolution of the timer wheels holding the scheduled actions in nanoseconds, or 0 if the scheduled actions
+     * are held in a delay queue.
+     */
+    private final long timerWheelTickNanos;
+
+    private final ScheduledActionQueue scheduledActions;
 
     private final Lock registrationLock = new ReentrantLock();
 
@@ -103,21 +142,128 @@ public class SmackReactor {
     private final Queue<SetInterestOps> pendingSetInterestOps = new ConcurrentLinkedQueue<>();
 
     SmackReactor(String reactorName) {
+        this(reactorName, 0);
+    }
+
+    SmackReactor(String reactorName, long timerWheelTickNanos) {
         this.reactorName = reactorName;
+        this.shards = null;
+        this.shardAssignmentPolicy = null;
+        this.timerWheelTickNanos = timerWheelTickNanos;
+        this.scheduledActions = newScheduledActionQueue();
+
+        selector = openSelector();
+
+        setReactorThreadCount(DEFAULT_REACTOR_THREAD_COUNT);
+    }
 
+    SmackReactor(String reactorName, int shardCount, ShardAssignmentPolicy shardAssignmentPolicy) {
+        this(reactorName, shardCount, shardAssignmentPolicy, 0);
+    }
+
+    SmackReactor(String reactorName, int shardCount, ShardAssignmentPolicy shardAssignmentPolicy,
+                    long timerWheelTickNanos) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("Must have at least one shard, but you requested " + shardCount);
+        }
+
+        this.reactorName = reactorName;
+        this.shardAssignmentPolicy = shardAssignmentPolicy;
+        this.selector = null;
+        this.timerWheelTickNanos = timerWheelTickNanos;
+        this.scheduledActions = null;
+
+        List<Shard> shards = new ArrayList<>(shardCount);
+        for (int i = 0; i < shardCount; i++) {
+            shards.add(new Shard(i));
+        }
+        this.shards = Collections.unmodifiableList(shards);
+
+        for (Shard shard : shards) {
+            shard.thread.start();
+        }
+    }
+
+    private ScheduledActionQueue newScheduledActionQueue() {
+        if (timerWheelTickNanos > 0) {
+            return new TimerWheel(timerWheelTickNanos, TimeUnit.NANOSECONDS);
+        }
+        return new DelayScheduledActionQueue();
+    }
+
+    private static Selector openSelector() {
         try {
-            selector = Selector.open();
+            return Selector.open();
         }
         catch (IOException e) {
             throw new IllegalStateException(e);
         }
+    }
 
-        setReactorThreadCount(DEFAULT_REACTOR_THREAD_COUNT);
+    /**
+     * Check if this reactor operates in sharded mode.
+     *
+     * @return <code>true</code> if this reactor is sharded.
+     * @since 4.5.0
+     */
+    public boolean isSharded() {
+        return shards != null;
+    }
+
+    /**
+     * Get the shards of this reactor.
+     *
+     * @return the shards, or an empty list if this reactor does not operate in sharded mode.
+     * @since 4.5.0
+     */
+    public List<Shard> getShards() {
+        if (shards == null) {
+            return Collections.emptyList();
+        }
+        return shards;
+    }
+
+    /**
+     * Assign a shard using this reactor's shard assignment policy. The returned shard can be used to register all
+     * channels of, and schedule all actions for, a given entity, like a connection, on the same shard.
+     *
+     * @return the assigned shard, or <code>null</code> if this reactor does not operate in sharded mode.
+     * @since 4.5.0
+     */
+    public Shard assignShard() {
+        if (shards == null) {
+            return null;
+        }
+        return shardAssignmentPolicy.assignShard(shards);
     }
 
     public SelectionKey registerWithSelector(SelectableChannel channel, int ops, ChannelSelectedCallback callback)
             throws ClosedChannelException {
-        SelectionKeyAttachment selectionKeyAttachment = new SelectionKeyAttachment(callback);
+        return registerWithSelector(channel, ops, callback, null);
+    }
+
+    /**
+     * Register the given channel with this reactor.
+     *
+     * @param channel the channel to register.
+     * @param ops the initial interest ops.
+     * @param callback the callback invoked once the channel got selected.
+     * @param shard the shard to register the channel with, or <code>null</code> to let the shard assignment policy
+     *        decide. Ignored if this reactor does not operate in sharded mode.
+     * @return the selection key of the channel.
+     * @throws ClosedChannelException if the channel is closed.
+     * @since 4.5.0
+     */
+    public SelectionKey registerWithSelector(SelectableChannel channel, int ops, ChannelSelectedCallback callback,
+                    Shard shard) throws ClosedChannelException {
+        if (shards != null) {
+            if (shard == null) {
+                shard = assignShard();
+            }
+            return shard.register(channel, ops, new SelectionKeyAttachment(callback, shard));
+        }
+
+        SelectionKeyAttachment selectionKeyAttachment = new SelectionKeyAttachment(callback, null);
 
         registrationLock.lock();
         try {
@@ -129,6 +275,13 @@ public class SmackReactor {
     }
 
     public void setInterestOps(SelectionKey selectionKey, int interestOps) {
+        SelectionKeyAttachment selectionKeyAttachment = (SelectionKeyAttachment) selectionKey.attachment();
+        Shard shard = selectionKeyAttachment.shard;
+        if (shard != null) {
+            shard.setInterestOps(selectionKey, interestOps);
+            return;
+        }
+
         SetInterestOps setInterestOps = new SetInterestOps(selectionKey, interestOps);
         pendingSetInterestOps.add(setInterestOps);
         selector.wakeup();
@@ -145,9 +298,42 @@ public class SmackReactor {
     }
 
     ScheduledAction schedule(Runnable runnable, long delay, TimeUnit unit, ScheduledAction.Kind scheduledActionKind) {
+        return schedule(runnable, delay, unit, scheduledActionKind, null);
+    }
+
+    /**
+     * Schedule the given non-blocking action. If this reactor operates in sharded mode, then the action is executed by
+     * the given shard, which allows keeping all actions of a connection on the same shard.
+     *
+     * @param runnable the action.
+     * @param delay the delay after which the action is executed.
+     * @param unit the unit of the delay.
+     * @param shard the shard to execute the action, or <code>null</code> to let the shard assignment policy decide.
+     * @return the scheduled action.
+     * @since 4.5.0
+     */
+    public ScheduledAction schedule(Runnable runnable, long delay, TimeUnit unit, Shard shard) {
+        return schedule(runnable, delay, unit, ScheduledAction.Kind.NonBlocking, shard);
+    }
+
+    ScheduledAction schedule(Runnable runnable, long delay, TimeUnit unit, ScheduledAction.Kind scheduledActionKind,
+                    Shard shard) {
         long releaseTimeEpoch = System.currentTimeMillis() + unit.toMillis(delay);
         Date releaseTimeDate = new Date(releaseTimeEpoch);
-        ScheduledAction scheduledAction = new ScheduledAction(runnable, releaseTimeDate, this, scheduledActionKind);
+        long releaseTimeNanos = System.nanoTime() + unit.toNanos(delay);
+
+        if (shards != null) {
+            if (shard == null) {
+                shard = assignShard();
+            }
+            ScheduledAction scheduledAction = new ScheduledAction(runnable, releaseTimeDate, releaseTimeNanos, this, scheduledActionKind,
+                            shard);
+            shard.schedule(scheduledAction);
+            return scheduledAction;
+        }
+
+        ScheduledAction scheduledAction = new ScheduledAction(runnable, releaseTimeDate, releaseTimeNanos, this, scheduledActionKind,
+                        null);
         scheduledActions.add(scheduledAction);
         selector.wakeup();
         return scheduledAction;
@@ -160,6 +346,10 @@ public class SmackReactor {
      * @return <code>true</code> if the scheduled action was still pending and got removed, <code>false</code> otherwise.
      */
     boolean cancel(ScheduledAction scheduledAction) {
+        Shard shard = scheduledAction.shard;
+        if (shard != null) {
+            return shard.scheduledActions.remove(scheduledAction);
+        }
         return scheduledActions.remove(scheduledAction);
     }
 
@@ -205,27 +395,25 @@ public class SmackReactor {
             }
 
             if (dueScheduledAction != null) {
-                dueScheduledAction.run();
+                runScheduledAction(dueScheduledAction);
                 return;
             }
 
             int newSelectedKeysCount = 0;
             List<SelectionKey> selectedKeys;
             synchronized (selector) {
-                ScheduledAction nextScheduledAction = scheduledActions.peek();
+                long timeToNextDue = scheduledActions.getTimeToNextDueMillis();
 
                 long selectWait;
-                if (nextScheduledAction == null) {
+                if (timeToNextDue == ScheduledActionQueue.NOTHING_SCHEDULED) {
                     // There is no next scheduled action, wait indefinitely in select() or until another thread invokes
                     // selector.wakeup().
                     selectWait = 0;
-                } else {
-                    selectWait = nextScheduledAction.getTimeToDueMillis();
-                }
-
-                if (selectWait < 0) {
+                } else if (timeToNextDue <= 0) {
                     // A scheduled action was just released and became ready to execute.
                     return;
+                } else {
+                    selectWait = timeToNextDue;
                 }
 
                 // Before we call select, we handle the pending the interest Ops. This will not block since no other
@@ -346,29 +534,43 @@ public class SmackReactor {
             handleSelectedKeys(selectedKeys);
         }
 
-        private void setInterestOpsCancelledKeySafe(SelectionKey selectionKey, int interestOps) {
-            try {
-                selectionKey.interestOps(interestOps);
-            }
-            catch (CancelledKeyException e) {
-                final Level keyCancelledLogLevel = Level.FINER;
-                if (LOGGER.isLoggable(keyCancelledLogLevel)) {
-                    LOGGER.log(keyCancelledLogLevel, "Key '" + selectionKey + "' has been cancelled", e);
-                }
-            }
-        }
-
         void requestShutdown() {
             shutdownRequestTimestamp = System.currentTimeMillis();
         }
     }
 
+    private static void setInterestOpsCancelledKeySafe(SelectionKey selectionKey, int interestOps) {
+        try {
+            selectionKey.interestOps(interestOps);
+        }
+        catch (CancelledKeyException e) {
+            final Level keyCancelledLogLevel = Level.FINER;
+            if (LOGGER.isLoggable(keyCancelledLogLevel)) {
+                LOGGER.log(keyCancelledLogLevel, "Key '" + selectionKey + "' has been cancelled", e);
+            }
+        }
+    }
+
     private static void handleSelectedKeys(Collection<SelectionKey> selectedKeys) {
-        for (SelectionKey selectionKey : selectedKeys) {
-            SelectableChannel channel = selectionKey.channel();
-            SelectionKeyAttachment selectionKeyAttachment = (SelectionKeyAttachment) selectionKey.attachment();
-            ChannelSelectedCallback channelSelectedCallback = selectionKeyAttachment.channelSelectedCallback;
-            channelSelectedCallback.onChannelSelected(channel, selectionKey);
+        SmackTracer.Span span = SmackMetrics.getTracer().reactorSelectedKeysHandlingStarted(selectedKeys.size());
+        try {
+            for (SelectionKey selectionKey : selectedKeys) {
+                SelectableChannel channel = selectionKey.channel();
+                SelectionKeyAttachment selectionKeyAttachment = (SelectionKeyAttachment) selectionKey.attachment();
+                ChannelSelectedCallback channelSelectedCallback = selectionKeyAttachment.channelSelectedCallback;
+                channelSelectedCallback.onChannelSelected(channel, selectionKey);
+            }
+        } finally {
+            span.end();
+        }
+    }
+
+    private static void runScheduledAction(ScheduledAction scheduledAction) {
+        SmackTracer.Span span = SmackMetrics.getTracer().reactorScheduledActionStarted();
+        try {
+            scheduledAction.run();
+        } finally {
+            span.end();
         }
     }
 
@@ -377,6 +579,9 @@ public class SmackReactor {
     }
 
     public void setReactorThreadCount(int reactorThreadCount) {
+        if (shards != null) {
+            throw new IllegalStateException("The thread count of a sharded reactor is determined by its shard count");
+        }
         if (reactorThreadCount < 2) {
             throw new IllegalArgumentException("Must have at least two reactor threads, but you requested " + reactorThreadCount);
         }
@@ -415,12 +620,198 @@ public class SmackReactor {
         }
     }
 
+    /**
+     * A policy assigning channels and scheduled actions to the shards of a sharded reactor.
+     *
+     * @since 4.5.0
+     */
+    public interface ShardAssignmentPolicy {
+        /**
+         * Select one of the given shards.
+         *
+         * @param shards the shards of the reactor.
+         * @return the selected shard.
+         */
+        Shard assignShard(List<Shard> shards);
+    }
+
+    /**
+     * Assigns the shards in a round robin fashion.
+     *
+     * @since 4.5.0
+     */
+    public static final class RoundRobinShardAssignmentPolicy implements ShardAssignmentPolicy {
+        private final AtomicInteger next = new AtomicInteger();
+
+        @Override
+        public Shard assignShard(List<Shard> shards) {
+            int index = (next.getAndIncrement() & Integer.MAX_VALUE) % shards.size();
+            return shards.get(index);
+        }
+    }
+
+    /**
+     * Assigns the shard with the lowest number of registered channels.
+     *
+     * @since 4.5.0
+     */
+    public static final class LeastLoadedShardAssignmentPolicy implements ShardAssignmentPolicy {
+        @Override
+        public Shard assignShard(List<Shard> shards) {
+            Shard leastLoadedShard = null;
+            int leastLoad = Integer.MAX_VALUE;
+            for (Shard shard : shards) {
+                int load = shard.getRegisteredChannelCount();
+                if (load < leastLoad) {
+                    leastLoad = load;
+                    leastLoadedShard = shard;
+                }
+            }
+            return leastLoadedShard;
+        }
+    }
+
+    /**
+     * A shard of a sharded reactor. Every shard has its own selector, scheduled actions and thread.
+     *
+     * @since 4.5.0
+     */
+    public final class Shard {
+        private final int index;
+
+        private final Selector shardSelector = openSelector();
+
+        private final Thread thread;
+
+        private final ScheduledActionQueue scheduledActions = newScheduledActionQueue();
+
+        private final Queue<SetInterestOps> pendingSetInterestOps = new ConcurrentLinkedQueue<>();
+
+        private final Lock shardRegistrationLock = new ReentrantLock();
+
+        /**
+         * The number of channels which are currently in the process of being registered with this shard.
+         */
+        private final AtomicInteger pendingRegistrations = new AtomicInteger();
+
+        private Shard(int index) {
+            this.index = index;
+            thread = new Thread(this::shardLoop, "Smack " + reactorName + " Shard #" + index);
+            thread.setDaemon(true);
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        /**
+         * Get the number of channels registered with this shard.
+         *
+         * @return the number of registered channels.
+         */
+        public int getRegisteredChannelCount() {
+            // Note that the key set of a selector contains the keys of cancelled channels until the next selection
+            // operation.
+            return shardSelector.keys().size() + pendingRegistrations.get();
+        }
+
+        private SelectionKey register(SelectableChannel channel, int ops, SelectionKeyAttachment attachment)
+                        throws ClosedChannelException {
+            pendingRegistrations.incrementAndGet();
+            shardRegistrationLock.lock();
+            try {
+                shardSelector.wakeup();
+                return channel.register(shardSelector, ops, attachment);
+            } finally {
+                shardRegistrationLock.unlock();
+                pendingRegistrations.decrementAndGet();
+            }
+        }
+
+        private void setInterestOps(SelectionKey selectionKey, int interestOps) {
+            if (Thread.currentThread() == thread) {
+                // We are not in select(), hence we can set the interest ops right away.
+                setInterestOpsCancelledKeySafe(selectionKey, interestOps);
+                return;
+            }
+
+            pendingSetInterestOps.add(new SetInterestOps(selectionKey, interestOps));
+            shardSelector.wakeup();
+        }
+
+        private void schedule(ScheduledAction scheduledAction) {
+            scheduledActions.add(scheduledAction);
+            if (Thread.currentThread() != thread) {
+                shardSelector.wakeup();
+            }
+        }
+
+        private void shardLoop() {
+            while (true) {
+                for (ScheduledAction dueScheduledAction; (dueScheduledAction = scheduledActions.poll()) != null;) {
+                    runScheduledAction(dueScheduledAction);
+                }
+
+                for (SetInterestOps setInterestOps; (setInterestOps = pendingSetInterestOps.poll()) != null;) {
+                    setInterestOpsCancelledKeySafe(setInterestOps.selectionKey, setInterestOps.interestOps);
+                }
+
+                long selectWait;
+                long timeToNextDue = scheduledActions.getTimeToNextDueMillis();
+                if (timeToNextDue == ScheduledActionQueue.NOTHING_SCHEDULED) {
+                    selectWait = 0;
+                } else if (timeToNextDue <= 0) {
+                    continue;
+                } else {
+                    selectWait = timeToNextDue;
+                }
+
+                // See the comment about the registration lock in Reactor.handleScheduledActionsOrPerformSelect().
+                shardRegistrationLock.lock();
+                shardRegistrationLock.unlock();
+
+                int selectedKeysCount;
+                try {
+                    selectedKeysCount = shardSelector.select(selectWait);
+                } catch (IOException e) {
+                    LOGGER.log(Level.SEVERE, "IOException while using select()", e);
+                    continue;
+                }
+
+                if (selectedKeysCount == 0) {
+                    continue;
+                }
+
+                Set<SelectionKey> selectedKeySet = shardSelector.selectedKeys();
+                List<SelectionKey> selectedKeys = new ArrayList<>(selectedKeySet);
+                selectedKeySet.clear();
+
+                // Keep the semantics of the non-sharded mode: While a channel selected callback is pending, the
+                // reactor thread is racing and the channel has no interest ops.
+                for (SelectionKey selectionKey : selectedKeys) {
+                    SelectionKeyAttachment selectionKeyAttachment = (SelectionKeyAttachment) selectionKey.attachment();
+                    selectionKeyAttachment.setRacing();
+                    setInterestOpsCancelledKeySafe(selectionKey, 0);
+                }
+
+                handleSelectedKeys(selectedKeys);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return thread.getName();
+        }
+    }
+
     public static final class SelectionKeyAttachment {
         private final ChannelSelectedCallback channelSelectedCallback;
+        private final Shard shard;
         private final AtomicBoolean reactorThreadRacing = new AtomicBoolean();
 
-        private SelectionKeyAttachment(ChannelSelectedCallback channelSelectedCallback) {
+        private SelectionKeyAttachment(ChannelSelectedCallback channelSelectedCallback, Shard shard) {
             this.channelSelectedCallback = channelSelectedCallback;
+            this.shard = shard;
         }
 
         private void setRacing() {
@@ -20,6 +20,10 @@ package org.jivesoftware.smack;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.jivesoftware.smack.SmackException.NoResponseException;
 import org.jivesoftware.smack.SmackException.NotConnectedException;
@@ -62,6 +66,14 @@ public final class StanzaCollector implements AutoCloseable {
 
     private Exception connectionException;
 
+    /**
+     * Guards the result queue. We use an explicit lock instead of this collector's monitor, as waiting on a monitor
+     * would pin the carrier thread if the waiting thread is a virtual thread.
+     */
+    private final Lock lock = new ReentrantLock();
+
+    private final Condition resultQueueChanged = lock.newCondition();
+
     /**
      * Creates a new stanza collector. If the stanza filter is <code>null</code>, then
      * all packets will match this collector.
@@ -83,15 +95,20 @@ public final class StanzaCollector implements AutoCloseable {
      * queued up. Once a stanza collector has been cancelled, it cannot be
      * re-enabled. Instead, a new stanza collector must be created.
      */
-    public synchronized void cancel() {
-        // If the packet collector has already been cancelled, do nothing.
-        if (cancelled) {
-            return;
-        }
+    public void cancel() {
+        lock.lock();
+        try {
+            // If the packet collector has already been cancelled, do nothing.
+            if (cancelled) {
+                return;
+            }
 
-        cancelled = true;
-        connection.removeStanzaCollector(this);
-        notifyAll();
+            cancelled = true;
+            connection.removeStanzaCollector(this);
+            resultQueueChanged.signalAll();
+        } finally {
+            lock.unlock();
+        }
 
         if (collectorToReset != null) {
             collectorToReset.cancel();
@@ -118,8 +135,13 @@ public final class StanzaCollector implements AutoCloseable {
      *      results.
      */
     @SuppressWarnings("unchecked")
-    public synchronized <P extends Stanza> P pollResult() {
-        return (P) resultQueue.poll();
+    public <P extends Stanza> P pollResult() {
+        lock.lock();
+        try {
+            return (P) resultQueue.poll();
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
@@ -152,18 +174,23 @@ public final class StanzaCollector implements AutoCloseable {
      */
     @SuppressWarnings("unchecked")
     // TODO: Consider removing this method as it is hardly ever useful.
-    public synchronized <P extends Stanza> P nextResultBlockForever() throws InterruptedException {
+    public <P extends Stanza> P nextResultBlockForever() throws InterruptedException {
         throwIfCancelled();
 
-        while (true) {
-            P res = (P) resultQueue.poll();
-            if (res != null) {
-                return res;
-            }
-            if (cancelled) {
-                return null;
+        lock.lock();
+        try {
+            while (true) {
+                P res = (P) resultQueue.poll();
+                if (res != null) {
+                    return res;
+                }
+                if (cancelled) {
+                    return null;
+                }
+                resultQueueChanged.await();
             }
-            wait();
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -198,12 +225,15 @@ public final class StanzaCollector implements AutoCloseable {
         long remainingWait = timeout;
         waitStart = System.currentTimeMillis();
         while (remainingWait > 0 && connectionException == null && !cancelled) {
-            synchronized (this) {
+            lock.lock();
+            try {
                 res = (P) resultQueue.poll();
                 if (res != null) {
                     return res;
                 }
-                wait(remainingWait);
+                resultQueueChanged.await(remainingWait, TimeUnit.MILLISECONDS);
+            } finally {
+                lock.unlock();
             }
             remainingWait = timeout - (System.currentTimeMillis() - waitStart);
         }
@@ -313,8 +343,13 @@ public final class StanzaCollector implements AutoCloseable {
      * @return the count of collected stanzas.
      * @since 4.1
      */
-    public synchronized int getCollectedCount() {
-        return resultQueue.size();
+    public int getCollectedCount() {
+        lock.lock();
+        try {
+            return resultQueue.size();
+        } finally {
+            lock.unlock();
+        }
     }
 
     private String stringCache;
@@ -332,9 +367,14 @@ public final class StanzaCollector implements AutoCloseable {
         return stringCache;
     }
 
-    synchronized void notifyConnectionError(Exception exception) {
-        connectionException = exception;
-        notifyAll();
+    void notifyConnectionError(Exception exception) {
+        lock.lock();
+        try {
+            connectionException = exception;
+            resultQueueChanged.signalAll();
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
@@ -345,13 +385,16 @@ public final class StanzaCollector implements AutoCloseable {
      */
     void processStanza(Stanza packet) {
         if (packetFilter == null || packetFilter.accept(packet)) {
-            synchronized (this) {
+            lock.lock();
+            try {
                 if (resultQueue.size() == maxQueueSize) {
                     Stanza rolledOverStanza = resultQueue.poll();
                     assert rolledOverStanza != null;
                 }
                 resultQueue.add(packet);
-                notifyAll();
+                resultQueueChanged.signalAll();
+            } finally {
+                lock.unlock();
             }
             if (collectorToReset != null) {
                 collectorToReset.waitStart = System.currentTimeMillis();
@@ -0,0 +1,400 @@
+/**
+ *
+ * Copyright 2021 Florian Schmaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.xml.namespace.QName;
+
+import org.jivesoftware.smack.AbstractXMPPConnection.ListenerWrapper;
+import org.jivesoftware.smack.filter.AndFilter;
+import org.jivesoftware.smack.filter.FlexibleStanzaTypeFilter;
+import org.jivesoftware.smack.filter.FromMatchesFilter;
+import org.jivesoftware.smack.filter.IQReplyFilter;
+import org.jivesoftware.smack.filter.MessageTypeFilter;
+import org.jivesoftware.smack.filter.StanzaExtensionFilter;
+import org.jivesoftware.smack.filter.StanzaFilter;
+import org.jivesoftware.smack.filter.StanzaIdFilter;
+import org.jivesoftware.smack.filter.StanzaTypeFilter;
+import org.jivesoftware.smack.packet.IQ;
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.packet.Presence;
+import org.jivesoftware.smack.packet.Stanza;
+
+import org.jxmpp.jid.Jid;
+
+/**
+ * An index of stanza listeners which buckets the listeners by statically known properties of their filters. When a
+ * stanza is dispatched, only the filters of the listeners in the buckets matching the stanza are evaluated, plus the
+ * filters of listeners whose filter could not be indexed.
+ * <p>
+ * The following filters are indexed, in the order of preference: {@link IQReplyFilter} and {@link StanzaIdFilter}
+ * by their stanza ID, {@link FromMatchesFilter} by its address,
+ * {@link StanzaExtensionFilter} by its qualified name or namespace, {@link MessageTypeFilter} by its message type and
+ * {@link StanzaTypeFilter} as well as {@link FlexibleStanzaTypeFilter} by their stanza type. Instances of
+ * {@link AndFilter} are indexed by their most selective indexable filter. All other filters are considered opaque and
+ * end up in the fallback bucket.
+ * </p>
+ * <p>
+ * Dispatching via {@link #extractMatchingListeners(Stanza, Collection)} and {@link #contains(StanzaListener)} is lock
+ * free. Adding and removing listeners is serialized.
+ * </p>
+ */
+final class StanzaListenerIndex {
+
+    private static final Comparator<IndexedListener> SEQUENCE_COMPARATOR = new Comparator<IndexedListener>() {
+        @Override
+        public int compare(IndexedListener o1, IndexedListener o2) {
+            return Long.compare(o1.sequenceNumber, o2.sequenceNumber);
+        }
+    };
+
+    private enum StanzaKind {
+        message,
+        presence,
+        iq,
+        ;
+
+        private static StanzaKind from(Class<?> stanzaType) {
+            if (Message.class.isAssignableFrom(stanzaType)) {
+                return message;
+            }
+            if (Presence.class.isAssignableFrom(stanzaType)) {
+                return presence;
+            }
+            if (IQ.class.isAssignableFrom(stanzaType)) {
+                return iq;
+            }
+            return null;
+        }
+    }
+
+    private final Map<StanzaListener, IndexedListener> listeners = new ConcurrentHashMap<>();
+
+    private final Map<String, List<IndexedListener>> byStanzaId = new ConcurrentHashMap<>();
+
+    private final Map<Jid, List<IndexedListener>> byFrom = new ConcurrentHashMap<>();
+
+    private final List<IndexedListener> noFrom = new CopyOnWriteArrayList<>();
+
+    private final Map<QName, List<IndexedListener>> byExtensionQName = new ConcurrentHashMap<>();
+
+    private final Map<String, List<IndexedListener>> byExtensionNamespace = new ConcurrentHashMap<>();
+
+    private final Map<Message.Type, List<IndexedListener>> byMessageType = new ConcurrentHashMap<>();
+
+    private final Map<StanzaKind, List<IndexedListener>> byStanzaKind = new ConcurrentHashMap<>();
+
+    private final List<IndexedListener> fallback = new CopyOnWriteArrayList<>();
+
+    private long nextSequenceNumber;
+
+    void put(StanzaListener listener, StanzaFilter filter) {
+        ListenerWrapper wrapper = new ListenerWrapper(listener, filter);
+        synchronized (this) {
+            IndexedListener previous = listeners.get(listener);
+            long sequenceNumber;
+            if (previous != null) {
+                removeFromBucket(previous);
+                // Keep the position of the listener, like a LinkedHashMap would do.
+                sequenceNumber = previous.sequenceNumber;
+            } else {
+                sequenceNumber = nextSequenceNumber++;
+            }
+
+            IndexedListener indexedListener = new IndexedListener(wrapper, sequenceNumber);
+            putIntoBucket(indexedListener, filter);
+            addSorted(indexedListener.bucket, indexedListener);
+            listeners.put(listener, indexedListener);
+        }
+    }
+
+    boolean remove(StanzaListener listener) {
+        synchronized (this) {
+            IndexedListener indexedListener = listeners.remove(listener);
+            if (indexedListener == null) {
+                return false;
+            }
+            removeFromBucket(indexedListener);
+            return true;
+        }
+    }
+
+    boolean contains(StanzaListener listener) {
+        return listeners.containsKey(listener);
+    }
+
+    int size() {
+        return listeners.size();
+    }
+
+    /**
+     * Add all listeners whose filter matches the given stanza to the given collection. The listeners are added in the
+     * order they were put into this index.
+     *
+     * @param stanza the stanza.
+     * @param listenersToNotify the collection the matching listeners are added to.
+     */
+    void extractMatchingListeners(Stanza stanza, Collection<StanzaListener> listenersToNotify) {
+        if (listeners.isEmpty()) {
+            return;
+        }
+
+        List<IndexedListener> candidates = new ArrayList<>();
+        int contributingBuckets = 0;
+
+        contributingBuckets += addAll(candidates, fallback);
+
+        StanzaKind stanzaKind = StanzaKind.from(stanza.getClass());
+        if (stanzaKind != null) {
+            contributingBuckets += addAll(candidates, byStanzaKind.get(stanzaKind));
+        }
+
+        if (stanza instanceof Message) {
+            Message.Type messageType = ((Message) stanza).getType();
+            contributingBuckets += addAll(candidates, byMessageType.get(messageType));
+        }
+
+        String stanzaId = stanza.getStanzaId();
+        if (stanzaId != null && !byStanzaId.isEmpty()) {
+            contributingBuckets += addAll(candidates, byStanzaId.get(stanzaId));
+        }
+
+        Jid from = stanza.getFrom();
+        if (from == null) {
+            contributingBuckets += addAll(candidates, noFrom);
+        } else if (!byFrom.isEmpty()) {
+            contributingBuckets += addAll(candidates, byFrom.get(from));
+            Jid bareFrom = from.asBareJid();
+            if (!bareFrom.equals(from)) {
+                contributingBuckets += addAll(candidates, byFrom.get(bareFrom));
+            }
+        }
+
+        if (!byExtensionQName.isEmpty() || !byExtensionNamespace.isEmpty()) {
+            // Only look at the qualified names, so that extension elements whose parsing was deferred stay unparsed.
+            for (QName qname : stanza.getExtensionQNames()) {
+                contributingBuckets += addAll(candidates, byExtensionQName.get(qname));
+                contributingBuckets += addAll(candidates, byExtensionNamespace.get(qname.getNamespaceURI()));
+            }
+        }
+
+        if (contributingBuckets > 1) {
+            Collections.sort(candidates, SEQUENCE_COMPARATOR);
+        }
+
+        IndexedListener previousCandidate = null;
+        for (IndexedListener candidate : candidates) {
+            // The same bucket may have been looked up multiple times, e.g. if the stanza contains multiple extension
+            // elements of the same namespace. After sorting, duplicates are adjacent.
+            if (candidate == previousCandidate) {
+                continue;
+            }
+            previousCandidate = candidate;
+
+            if (candidate.wrapper.filterMatches(stanza)) {
+                listenersToNotify.add(candidate.wrapper.getListener());
+            }
+        }
+    }
+
+    private static int addAll(List<IndexedListener> candidates, List<IndexedListener> bucket) {
+        if (bucket == null || bucket.isEmpty()) {
+            return 0;
+        }
+        candidates.addAll(bucket);
+        return 1;
+    }
+
+    private static void addSorted(List<IndexedListener> bucket, IndexedListener indexedListener) {
+        int index = Collections.binarySearch(bucket, indexedListener, SEQUENCE_COMPARATOR);
+        assert index < 0;
+        bucket.add(-(index + 1), indexedListener);
+    }
+
+    private static void removeFromBucket(IndexedListener indexedListener) {
+        List<IndexedListener> bucket = indexedListener.bucket;
+        bucket.remove(indexedListener);
+        if (bucket.isEmpty() && indexedListener.buckets != null) {
+            // Drop empty buckets, so that their keys do not pile up over time.
+            indexedListener.buckets.remove(indexedListener.bucketKey);
+        }
+    }
+
+    private void putIntoBucket(IndexedListener indexedListener, StanzaFilter filter) {
+        IndexKey indexKey = IndexKey.from(filter);
+        if (indexKey == null) {
+            indexedListener.bucket = fallback;
+            return;
+        }
+
+        final Map<?, List<IndexedListener>> buckets;
+        switch (indexKey.type) {
+        case stanzaId:
+            buckets = byStanzaId;
+            break;
+        case from:
+            if (indexKey.key == null) {
+                indexedListener.bucket = noFrom;
+                return;
+            }
+            buckets = byFrom;
+            break;
+        case extensionQName:
+            buckets = byExtensionQName;
+            break;
+        case extensionNamespace:
+            buckets = byExtensionNamespace;
+            break;
+        case messageType:
+            buckets = byMessageType;
+            break;
+        case stanzaKind:
+            buckets = byStanzaKind;
+            break;
+        default:
+            throw new AssertionError();
+        }
+
+        @SuppressWarnings("unchecked")
+        Map<Object, List<IndexedListener>> untypedBuckets = (Map<Object, List<IndexedListener>>) buckets;
+        List<IndexedListener> bucket = untypedBuckets.get(indexKey.key);
+        if (bucket == null) {
+            bucket = new CopyOnWriteArrayList<>();
+            untypedBuckets.put(indexKey.key, bucket);
+        }
+
+        indexedListener.bucket = bucket;
+        indexedListener.buckets = untypedBuckets;
+        indexedListener.bucketKey = indexKey.key;
+    }
+
+    private static final class IndexedListener {
+        private final ListenerWrapper wrapper;
+        private final long sequenceNumber;
+
+        // The following fields describe the bucket this listener was put in. They are only accessed while holding
+        // the index's monitor.
+        private List<IndexedListener> bucket;
+        private Map<Object, List<IndexedListener>> buckets;
+        private Object bucketKey;
+
+        private IndexedListener(ListenerWrapper wrapper, long sequenceNumber) {
+            this.wrapper = wrapper;
+            this.sequenceNumber = sequenceNumber;
+        }
+    }
+
+    private static final class IndexKey {
+
+        /**
+         * The index key types, ordered by their selectivity, i.e. the most selective type comes first.
+         */
+        private enum Type {
+            stanzaId,
+            from,
+            extensionQName,
+            extensionNamespace,
+            messageType,
+            stanzaKind,
+        }
+
+        private final Type type;
+        private final Object key;
+
+        private IndexKey(Type type, Object key) {
+            this.type = type;
+            this.key = key;
+        }
+
+        /**
+         * Derive the index key of a filter. The key must describe a property that every stanza accepted by the filter
+         * has, otherwise listeners would not be invoked for stanzas they are interested in.
+         *
+         * @param filter the filter.
+         * @return the index key or <code>null</code> if the filter is opaque.
+         */
+        private static IndexKey from(StanzaFilter filter) {
+            if (filter == null) {
+                return null;
+            }
+
+            String stanzaId = PendingResponseTable.getStanzaIdOf(filter);
+            if (stanzaId != null) {
+                return new IndexKey(Type.stanzaId, stanzaId);
+            }
+
+            if (filter instanceof FromMatchesFilter) {
+                return new IndexKey(Type.from, ((FromMatchesFilter) filter).getAddress());
+            }
+
+            // Only consider the exact classes of non-final filters, as subclasses may override accept().
+            if (filter.getClass() == StanzaExtensionFilter.class) {
+                StanzaExtensionFilter stanzaExtensionFilter = (StanzaExtensionFilter) filter;
+                String elementName = stanzaExtensionFilter.getElementName();
+                String namespace = stanzaExtensionFilter.getNamespace();
+                if (elementName == null) {
+                    return new IndexKey(Type.extensionNamespace, namespace);
+                }
+                return new IndexKey(Type.extensionQName, new QName(namespace, elementName));
+            }
+
+            if (filter instanceof MessageTypeFilter) {
+                return new IndexKey(Type.messageType, ((MessageTypeFilter) filter).getType());
+            }
+
+            Class<?> stanzaType = null;
+            if (filter instanceof StanzaTypeFilter) {
+                stanzaType = ((StanzaTypeFilter) filter).getStanzaType();
+            } else if (filter instanceof FlexibleStanzaTypeFilter) {
+                stanzaType = ((FlexibleStanzaTypeFilter<?>) filter).getStanzaType();
+            }
+            if (stanzaType != null) {
+                StanzaKind stanzaKind = StanzaKind.from(stanzaType);
+                if (stanzaKind == null) {
+                    return null;
+                }
+                return new IndexKey(Type.stanzaKind, stanzaKind);
+            }
+
+            if (filter.getClass() == AndFilter.class) {
+                // Every filter of an AND filter must accept the stanza, hence we can use the key of the most selective
+                // one.
+                IndexKey mostSelectiveKey = null;
+                for (StanzaFilter andedFilter : ((AndFilter) filter).getFilters()) {
+                    IndexKey indexKey = from(andedFilter);
+                    if (indexKey == null) {
+                        continue;
+                    }
+                    if (mostSelectiveKey == null || indexKey.type.ordinal() < mostSelectiveKey.type.ordinal()) {
+                        mostSelectiveKey = indexKey;
+                    }
+                }
+                return mostSelectiveKey;
+            }
+
+            return null;
+        }
+    }
+}
@@ -0,0 +1,336 @@
+/**
+ *
+ * Copyright 2021 Florian Schmaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A hierarchical timing wheel holding scheduled actions.
+ * <p>
+ * Time is divided into ticks of a fixed resolution. The wheel consists of {@value #LEVELS} levels with 64 slots each,
+ * where a slot of level 0 spans a single tick, and a slot of level n spans 64<sup>n</sup> ticks. Actions are put in
+ * the slot of the lowest level covering their release time, and are moved, "cascaded", to the next lower level once
+ * the wheel reaches the start of their slot. Every slot is an intrusive doubly linked list, hence adding and
+ * cancelling an action costs O(1) and does not allocate. A bitmap of the non-empty slots of every level allows to
+ * determine the next tick where something happens in O(1), so that the wheel skips idle ticks instead of walking
+ * them.
+ * </p>
+ * <p>
+ * Actions never become due before their release time, but up to one tick resolution after it. Actions scheduled
+ * further in the future than the range of the wheel, which is 2<sup>24</sup> ticks, are cascaded within the highest
+ * level until they are in range. All actions that became due since the last poll are expired in one batch.
+ * </p>
+ */
+final class TimerWheel implements ScheduledActionQueue {
+
+    private static final int SLOT_BITS = 6;
+
+    private static final int SLOTS = 1 << SLOT_BITS;
+
+    private static final int SLOT_MASK = SLOTS - 1;
+
+    static final int LEVELS = 4;
+
+    private static final long RANGE_TICKS = 1L << (SLOT_BITS * LEVELS);
+
+    static final class Bucket {
+        private final int level;
+        private final int slot;
+
+        private ScheduledAction head;
+        private ScheduledAction tail;
+        private int size;
+
+        private Bucket(int level, int slot) {
+            this.level = level;
+            this.slot = slot;
+        }
+
+        private void append(ScheduledAction scheduledAction) {
+            scheduledAction.timerWheelBucket = this;
+            scheduledAction.timerWheelPrevious = tail;
+            scheduledAction.timerWheelNext = null;
+            if (tail == null) {
+                head = scheduledAction;
+            } else {
+                tail.timerWheelNext = scheduledAction;
+            }
+            tail = scheduledAction;
+            size++;
+        }
+
+        private void unlink(ScheduledAction scheduledAction) {
+            ScheduledAction previous = scheduledAction.timerWheelPrevious;
+            ScheduledAction next = scheduledAction.timerWheelNext;
+            if (previous == null) {
+                head = next;
+            } else {
+                previous.timerWheelNext = next;
+            }
+            if (next == null) {
+                tail = previous;
+            } else {
+                next.timerWheelPrevious = previous;
+            }
+            scheduledAction.timerWheelBucket = null;
+            scheduledAction.timerWheelPrevious = null;
+            scheduledAction.timerWheelNext = null;
+            size--;
+        }
+
+        /**
+         * Remove all actions from this bucket.
+         *
+         * @return the first action of the removed actions, which are still linked with each other.
+         */
+        private ScheduledAction removeAll() {
+            ScheduledAction first = head;
+            head = null;
+            tail = null;
+            size = 0;
+            return first;
+        }
+    }
+
+    private final long tickNanos;
+
+    private final long originNanos;
+
+    private final Bucket[][] buckets = new Bucket[LEVELS][SLOTS];
+
+    /**
+     * The bitmaps of the non-empty slots of every level.
+     */
+    private final long[] occupiedSlots = new long[LEVELS];
+
+    private final Bucket expired = new Bucket(-1, -1);
+
+    /**
+     * The next tick to process.
+     */
+    private long currentTick;
+
+    private int size;
+
+    TimerWheel(long tickResolution, TimeUnit unit) {
+        this(unit.toNanos(tickResolution), System.nanoTime());
+    }
+
+    TimerWheel(long tickNanos, long originNanos) {
+        if (tickNanos <= 0) {
+            throw new IllegalArgumentException("The tick resolution must be positive");
+        }
+        this.tickNanos = tickNanos;
+        this.originNanos = originNanos;
+        for (int level = 0; level < LEVELS; level++) {
+            for (int slot = 0; slot < SLOTS; slot++) {
+                buckets[level][slot] = new Bucket(level, slot);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void add(ScheduledAction scheduledAction) {
+        if (scheduledAction.timerWheelBucket != null) {
+            throw new IllegalStateException("Scheduled action " + scheduledAction + " already added");
+        }
+        long releaseNanos = scheduledAction.releaseTimeNanos - originNanos;
+        if (releaseNanos <= 0) {
+            scheduledAction.timerWheelReleaseTick = 0;
+        } else {
+            // Round up, so that the action never becomes due before its release time.
+            scheduledAction.timerWheelReleaseTick = (releaseNanos - 1) / tickNanos + 1;
+        }
+        place(scheduledAction);
+        size++;
+    }
+
+    @Override
+    public synchronized boolean remove(ScheduledAction scheduledAction) {
+        Bucket bucket = scheduledAction.timerWheelBucket;
+        if (bucket == null) {
+            return false;
+        }
+        bucket.unlink(scheduledAction);
+        if (bucket.head == null && bucket != expired) {
+            occupiedSlots[bucket.level] &= ~(1L << bucket.slot);
+        }
+        size--;
+        return true;
+    }
+
+    @Override
+    public ScheduledAction poll() {
+        return poll(System.nanoTime());
+    }
+
+    synchronized ScheduledAction poll(long nowNanos) {
+        advanceTo(tickAt(nowNanos));
+
+        ScheduledAction scheduledAction = expired.head;
+        if (scheduledAction == null) {
+            return null;
+        }
+        expired.unlink(scheduledAction);
+        size--;
+        return scheduledAction;
+    }
+
+    @Override
+    public long getTimeToNextDueMillis() {
+        long timeToNextDueNanos = getTimeToNextDueNanos(System.nanoTime());
+        if (timeToNextDueNanos == NOTHING_SCHEDULED || timeToNextDueNanos <= 0) {
+            return timeToNextDueNanos;
+        }
+        // Round up, so that callers waiting for the returned time do not wake up too early.
+        return (timeToNextDueNanos - 1) / 1000000 + 1;
+    }
+
+    synchronized long getTimeToNextDueNanos(long nowNanos) {
+        if (expired.head != null) {
+            return 0;
+        }
+        if (size == 0) {
+            return NOTHING_SCHEDULED;
+        }
+        long nextTick = nextTickToProcess();
+        return originNanos + nextTick * tickNanos - nowNanos;
+    }
+
+    @Override
+    public synchronized int size() {
+        return size;
+    }
+
+    long getTickNanos() {
+        return tickNanos;
+    }
+
+    private long tickAt(long nanos) {
+        long sinceOrigin = nanos - originNanos;
+        if (sinceOrigin <= 0) {
+            return 0;
+        }
+        return sinceOrigin / tickNanos;
+    }
+
+    private void place(ScheduledAction scheduledAction) {
+        long releaseTick = Math.max(scheduledAction.timerWheelReleaseTick, currentTick);
+        long ticksAhead = releaseTick - currentTick;
+        if (ticksAhead >= RANGE_TICKS) {
+            // Out of range: Put the action in the last slot of the wheel's range. It will be cascaded within the
+            // highest level until its release time is in range.
+            releaseTick = currentTick + RANGE_TICKS - 1;
+            ticksAhead = RANGE_TICKS - 1;
+        }
+
+        int level = 0;
+        if (ticksAhead > 0) {
+            level = (63 - Long.numberOfLeadingZeros(ticksAhead)) / SLOT_BITS;
+        }
+        int slot = (int) (releaseTick >>> (level * SLOT_BITS)) & SLOT_MASK;
+
+        buckets[level][slot].append(scheduledAction);
+        occupiedSlots[level] |= 1L << slot;
+    }
+
+    private void advanceTo(long targetTick) {
+        while (currentTick <= targetTick) {
+            if (size == expired.size) {
+                // There is nothing left in the wheel, hence there is no need to process the ticks.
+                currentTick = targetTick + 1;
+                return;
+            }
+
+            long nextTick = nextTickToProcess();
+            if (nextTick > targetTick) {
+                currentTick = targetTick + 1;
+                return;
+            }
+
+            // Skip the ticks where nothing would happen.
+            currentTick = nextTick;
+            processCurrentTick();
+            currentTick++;
+        }
+    }
+
+    /**
+     * Determine the next tick at which a slot of level 0 expires or a slot of a higher level needs to be cascaded.
+     *
+     * @return the next tick to process.
+     */
+    private long nextTickToProcess() {
+        long nextTick = Long.MAX_VALUE;
+        for (int level = 0; level < LEVELS; level++) {
+            long occupied = occupiedSlots[level];
+            if (occupied == 0) {
+                continue;
+            }
+            int shift = level * SLOT_BITS;
+            long levelTickMask = (1L << shift) - 1;
+            // The first tick, at or after the current tick, at which a slot of this level starts.
+            long slotStartTick = (currentTick + levelTickMask) & ~levelTickMask;
+            int slotAtStartTick = (int) (slotStartTick >>> shift) & SLOT_MASK;
+            int slotsUntilOccupied = Long.numberOfTrailingZeros(Long.rotateRight(occupied, slotAtStartTick));
+            long tick = slotStartTick + ((long) slotsUntilOccupied << shift);
+            if (tick < nextTick) {
+                nextTick = tick;
+            }
+        }
+        return nextTick;
+    }
+
+    private void processCurrentTick() {
+        int slot = (int) currentTick & SLOT_MASK;
+        if (slot == 0) {
+            for (int level = 1; level < LEVELS; level++) {
+                int levelSlot = (int) (currentTick >>> (level * SLOT_BITS)) & SLOT_MASK;
+                cascade(level, levelSlot);
+                if (levelSlot != 0) {
+                    break;
+                }
+            }
+        }
+
+        Bucket bucket = buckets[0][slot];
+        if (bucket.head == null) {
+            return;
+        }
+        occupiedSlots[0] &= ~(1L << slot);
+        ScheduledAction scheduledAction = bucket.removeAll();
+        while (scheduledAction != null) {
+            ScheduledAction next = scheduledAction.timerWheelNext;
+            expired.append(scheduledAction);
+            scheduledAction = next;
+        }
+    }
+
+    private void cascade(int level, int slot) {
+        Bucket bucket = buckets[level][slot];
+        if (bucket.head == null) {
+            return;
+        }
+        occupiedSlots[level] &= ~(1L << slot);
+        ScheduledAction scheduledAction = bucket.removeAll();
+        while (scheduledAction != null) {
+            ScheduledAction next = scheduledAction.timerWheelNext;
+            place(scheduledAction);
+            scheduledAction = next;
+        }
+    }
+}
@@ -26,6 +26,7 @@ import org.jivesoftware.smack.XMPPException.XMPPErrorException;
 import org.jivesoftware.smack.filter.IQReplyFilter;
 import org.jivesoftware.smack.filter.StanzaFilter;
 import org.jivesoftware.smack.iqrequest.IQRequestHandler;
+import org.jivesoftware.smack.metrics.ConnectionMetrics;
 import org.jivesoftware.smack.packet.ExtensionElement;
 import org.jivesoftware.smack.packet.IQ;
 import org.jivesoftware.smack.packet.Message;
@@ -715,4 +716,19 @@ public interface XMPPConnection {
      * @return the timestamp in milliseconds
      */
     long getLastStanzaReceived();
+
+    /**
+     * Get the metrics of this connection. Note that metrics are only recorded if they were enabled in the connection's
+     * configuration.
+     * <p>
+     * The default implementation returns disabled metrics, which record nothing. Connections that record metrics
+     * override this method.
+     * </p>
+     *
+     * @return the metrics of this connection.
+     * @since 4.5.0
+     */
+    default ConnectionMetrics getMetrics() {
+        return new ConnectionMetrics(this, false);
+    }
 }
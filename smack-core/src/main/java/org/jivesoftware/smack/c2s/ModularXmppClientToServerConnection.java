@@ -34,10 +34,12 @@ import java.util.logging.Logger;
 import javax.net.ssl.SSLSession;
 
 import org.jivesoftware.smack.AbstractXMPPConnection;
+import org.jivesoftware.smack.NonzaCallback;
 import org.jivesoftware.smack.SmackException;
 import org.jivesoftware.smack.SmackException.NoResponseException;
 import org.jivesoftware.smack.SmackException.NotConnectedException;
 import org.jivesoftware.smack.SmackFuture;
+import org.jivesoftware.smack.SmackReactor;
 import org.jivesoftware.smack.XMPPException;
 import org.jivesoftware.smack.XMPPException.FailedNonzaException;
 import org.jivesoftware.smack.XMPPException.StreamErrorException;
@@ -47,6 +49,7 @@ import org.jivesoftware.smack.c2s.XmppClientToServerTransport.LookupConnectionEn
 import org.jivesoftware.smack.c2s.XmppClientToServerTransport.LookupConnectionEndpointsResult;
 import org.jivesoftware.smack.c2s.XmppClientToServerTransport.LookupConnectionEndpointsSuccess;
 import org.jivesoftware.smack.c2s.internal.ModularXmppClientToServerConnectionInternal;
+import org.jivesoftware.smack.c2s.internal.StreamElementTracker;
 import org.jivesoftware.smack.c2s.internal.WalkStateGraphContext;
 import org.jivesoftware.smack.fsm.ConnectionStateEvent;
 import org.jivesoftware.smack.fsm.ConnectionStateMachineListener;
@@ -61,6 +64,7 @@ import org.jivesoftware.smack.fsm.StateTransitionResult;
 import org.jivesoftware.smack.fsm.StateTransitionResult.AttemptResult;
 import org.jivesoftware.smack.internal.AbstractStats;
 import org.jivesoftware.smack.internal.SmackTlsContext;
+import org.jivesoftware.smack.metrics.SmackTracer;
 import org.jivesoftware.smack.packet.AbstractStreamClose;
 import org.jivesoftware.smack.packet.AbstractStreamOpen;
 import org.jivesoftware.smack.packet.IQ;
@@ -101,6 +105,14 @@ public final class ModularXmppClientToServerConnection extends AbstractXMPPConne
 
     private boolean streamResumed;
 
+    private volatile StreamElementTracker streamElementTracker;
+
+    /**
+     * Serializes the invocations of the {@link StreamElementTracker} with queuing the elements, so that the tracker
+     * observes the outgoing elements in the order they are sent.
+     */
+    private final Object streamElementTrackerLock = new Object();
+
     private GraphVertex<State> currentStateVertex;
 
     private List<State> walkFromDisconnectToAuthenticated;
@@ -125,6 +137,8 @@ public final class ModularXmppClientToServerConnection extends AbstractXMPPConne
 
         this.configuration = configuration;
 
+        metrics.registerGauge("writerQueueDepth", outgoingElementsQueue::size);
+
         // Construct the internal connection API.
         connectionInternal = new ModularXmppClientToServerConnectionInternal(this, getReactor(), debugger, outgoingElementsQueue) {
 
@@ -133,6 +147,11 @@ public final class ModularXmppClientToServerConnection extends AbstractXMPPConne
                 ModularXmppClientToServerConnection.this.parseAndProcessElement(wrappedCompleteElement);
             }
 
+            @Override
+            public void parseAndProcessElement(XmlPullParser parser, long elementSize) {
+                ModularXmppClientToServerConnection.this.parseAndProcessElement(parser, elementSize);
+            }
+
             @Override
             public void notifyConnectionError(Exception e) {
                 ModularXmppClientToServerConnection.this.notifyConnectionError(e);
@@ -222,10 +241,34 @@ public final class ModularXmppClientToServerConnection extends AbstractXMPPConne
                 ModularXmppClientToServerConnection.this.compressionEnabled = compressionEnabled;
             }
 
+            @Override
+            public NonzaCallback.Builder buildNonzaCallback() {
+                return ModularXmppClientToServerConnection.this.buildNonzaCallback();
+            }
+
+            @Override
+            public void setStreamElementTracker(StreamElementTracker streamElementTracker) {
+                ModularXmppClientToServerConnection.this.streamElementTracker = streamElementTracker;
+            }
+
+            @Override
+            public void sendUntracked(Collection<? extends TopLevelStreamElement> elements)
+                            throws NotConnectedException, InterruptedException {
+                ModularXmppClientToServerConnection.this.sendUntracked(elements);
+            }
+
+            @Override
+            public void setStreamResumed(boolean streamResumed) {
+                ModularXmppClientToServerConnection.this.streamResumed = streamResumed;
+            }
+
             @Override
             public void setTransport(XmppClientToServerTransport xmppTransport) {
                 ModularXmppClientToServerConnection.this.activeTransport = xmppTransport;
                 ModularXmppClientToServerConnection.this.connected = true;
+                if (isReadingPaused()) {
+                    xmppTransport.setReadingPaused(true);
+                }
             }
 
         };
@@ -453,7 +496,31 @@ public final class ModularXmppClientToServerConnection extends AbstractXMPPConne
             throw new NotConnectedException();
         }
 
-        outgoingElementsQueue.put(element);
+        final StreamElementTracker tracker = streamElementTracker;
+        if (tracker == null) {
+            outgoingElementsQueue.put(element);
+        } else {
+            synchronized (streamElementTrackerLock) {
+                // Note that the element has to be tracked before it is queued, as the reactor may send it, and the
+                // server may acknowledge it, before the put() below returns.
+                tracker.beforeOutgoingElementQueued(element);
+                outgoingElementsQueue.put(element);
+                tracker.afterOutgoingElementQueued(element);
+            }
+        }
+        transport.notifyAboutNewOutgoingElements();
+    }
+
+    private void sendUntracked(Collection<? extends TopLevelStreamElement> elements)
+                    throws NotConnectedException, InterruptedException {
+        final XmppClientToServerTransport transport = activeTransport;
+        if (transport == null) {
+            throw new NotConnectedException();
+        }
+
+        synchronized (streamElementTrackerLock) {
+            outgoingElementsQueue.putAll(elements);
+        }
         transport.notifyAboutNewOutgoingElements();
     }
 
@@ -491,6 +558,20 @@ public final class ModularXmppClientToServerConnection extends AbstractXMPPConne
         }
     }
 
+    @Override
+    protected SmackReactor.Shard getReactorShard() {
+        return connectionInternal.getReactorShard();
+    }
+
+    @Override
+    protected void onReadingPausedChanged(boolean readingPaused) {
+        final XmppClientToServerTransport transport = activeTransport;
+        if (transport == null) {
+            return;
+        }
+        transport.setReadingPaused(readingPaused);
+    }
+
     private SSLSession getSSLSession() {
         final XmppClientToServerTransport transport = activeTransport;
         if (transport == null) {
@@ -516,33 +597,7 @@ public final class ModularXmppClientToServerConnection extends AbstractXMPPConne
             outerloop: while (true) {
                 switch (event) {
                 case START_ELEMENT:
-                    final String name = parser.getName();
-                    // Note that we don't handle "stream" here as it's done in the splitter.
-                    switch (name) {
-                    case Message.ELEMENT:
-                    case IQ.IQ_ELEMENT:
-                    case Presence.ELEMENT:
-                        try {
-                            parseAndProcessStanza(parser);
-                        } finally {
-                            // TODO: Here would be the following stream management code.
-                            // clientHandledStanzasCount = SMUtils.incrementHeight(clientHandledStanzasCount);
-                        }
-                        break;
-                    case "error":
-                        StreamError streamError = PacketParserUtils.parseStreamError(parser, null);
-                        StreamErrorException streamErrorException = new StreamErrorException(streamError);
-                        currentXmppException = streamErrorException;
-                        notifyWaitingThreads();
-                        throw streamErrorException;
-                    case "features":
-                        parseFeatures(parser);
-                        afterFeaturesReceived();
-                        break;
-                    default:
-                        parseAndProcessNonza(parser);
-                        break;
-                    }
+                    parseAndProcessTopLevelElement(parser, SmackTracer.SIZE_UNKNOWN);
                     break;
                 case END_DOCUMENT:
                     break outerloop;
@@ -556,6 +611,48 @@ public final class ModularXmppClientToServerConnection extends AbstractXMPPConne
         }
     }
 
+    private void parseAndProcessElement(XmlPullParser parser, long elementSize) {
+        try {
+            parseAndProcessTopLevelElement(parser, elementSize);
+        } catch (XmlPullParserException | IOException | InterruptedException | StreamErrorException
+                        | SmackParsingException e) {
+            notifyConnectionError(e);
+        }
+    }
+
+    private void parseAndProcessTopLevelElement(XmlPullParser parser, long elementSize) throws XmlPullParserException, IOException,
+                    InterruptedException, StreamErrorException, SmackParsingException {
+        final String name = parser.getName();
+        // Note that we don't handle "stream" here as it's done in the splitter.
+        switch (name) {
+        case Message.ELEMENT:
+        case IQ.IQ_ELEMENT:
+        case Presence.ELEMENT:
+            try {
+                parseAndProcessStanza(parser, elementSize);
+            } finally {
+                final StreamElementTracker tracker = streamElementTracker;
+                if (tracker != null) {
+                    tracker.onIncomingStanzaHandled();
+                }
+            }
+            break;
+        case "error":
+            StreamError streamError = PacketParserUtils.parseStreamError(parser, null);
+            StreamErrorException streamErrorException = new StreamErrorException(streamError);
+            currentXmppException = streamErrorException;
+            notifyWaitingThreads();
+            throw streamErrorException;
+        case "features":
+            parseFeatures(parser);
+            afterFeaturesReceived();
+            break;
+        default:
+            parseAndProcessNonza(parser);
+            break;
+        }
+    }
+
     private synchronized void prepareToWaitForFeaturesReceived() {
         featuresReceived = false;
     }
@@ -847,8 +944,8 @@ public final class ModularXmppClientToServerConnection extends AbstractXMPPConne
             LoginContext loginContext = walkStateGraphContext.getLoginContext();
             Resourcepart resource = bindResourceAndEstablishSession(loginContext.resource);
 
-            // TODO: This should be a field in the Stream Management (SM) module. Here should be hook which the SM
-            // module can use to set the field instead.
+            // We bound a new resource, hence the stream was not resumed. Note that the Stream Management (SM) module
+            // marks the stream as resumed, in which case this state is not visited.
             streamResumed = false;
 
             return new ResourceBoundResult(resource, loginContext.resource);
@@ -1014,6 +1111,10 @@ public final class ModularXmppClientToServerConnection extends AbstractXMPPConne
             activeTransport.disconnect();
             activeTransport = null;
 
+            // Discard the elements which have not been sent, they must not end up in the next stream. If Stream
+            // Management is used, then the stanzas among them are still tracked as unacknowledged and will be resent.
+            outgoingElementsQueue.clear();
+
             authenticated = connected = false;
 
             return StateTransitionResult.Success.EMPTY_INSTANCE;
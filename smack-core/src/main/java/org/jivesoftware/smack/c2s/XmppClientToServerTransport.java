@@ -52,6 +52,16 @@ public abstract class XmppClientToServerTransport {
 
     protected abstract void notifyAboutNewOutgoingElements();
 
+    /**
+     * Pause or resume reading from the underlying connection, in order to apply inbound flow control. The default
+     * implementation does nothing, i.e. transports which do not support inbound flow control keep on reading.
+     *
+     * @param readingPaused <code>true</code> if reading should be paused, <code>false</code> if it should be resumed.
+     * @since 4.5.0
+     */
+    protected void setReadingPaused(boolean readingPaused) {
+    }
+
     public abstract SSLSession getSslSession();
 
     public boolean isTransportSecured() {
@@ -0,0 +1,185 @@
+/**
+ *
+ * Copyright 2021 Florian Schmaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.c2s.internal;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+import org.jivesoftware.smack.util.ParserUtils;
+import org.jivesoftware.smack.xml.SmackXmlParser;
+import org.jivesoftware.smack.xml.XmlPullParser;
+import org.jivesoftware.smack.xml.XmlPullParserException;
+import org.jivesoftware.smack.xml.XmlPullParserFactory;
+
+/**
+ * Parses all top-level elements of an incoming XML stream with a single, long-lived, XML pull parser.
+ * <p>
+ * Transports which split the incoming XML stream into complete top-level elements, like the TCP transport, used to
+ * wrap every element into the stream open and close tags and create a new parser for the resulting String. Instead,
+ * the transport can feed the elements to an instance of this class, which appends them to the input of the parser
+ * of the current stream. Since only complete elements are fed to the parser, it will never block waiting for
+ * further input, and the parser's namespace context of the stream open is retained.
+ * </p>
+ * <p>
+ * Instances of this class are not thread-safe and are meant to be used by the thread processing the incoming data
+ * of a transport.
+ * </p>
+ *
+ * @since 4.5.0
+ */
+public final class IncomingStreamParser {
+
+    private static final int TOP_LEVEL_ELEMENT_DEPTH = 2;
+
+    private final XmlPullParserFactory xmlPullParserFactory;
+
+    private final CompleteElementsReader reader = new CompleteElementsReader();
+
+    private XmlPullParser parser;
+
+    private boolean topLevelElementPending;
+
+    public IncomingStreamParser() {
+        this(SmackXmlParser.getXmlPullParserFactory());
+    }
+
+    public IncomingStreamParser(XmlPullParserFactory xmlPullParserFactory) {
+        this.xmlPullParserFactory = xmlPullParserFactory;
+    }
+
+    /**
+     * Signal that a new stream was opened. This creates a new parser for the stream.
+     *
+     * @param streamOpen the stream open tag.
+     * @return the parser positioned on the start element of the stream open.
+     * @throws XmlPullParserException if an XML pull parser exception occurs.
+     * @throws IOException if an I/O error occurs.
+     */
+    public XmlPullParser streamOpened(String streamOpen) throws XmlPullParserException, IOException {
+        reader.clear();
+        topLevelElementPending = false;
+
+        // Some parser implementations, like StAX ones, start reading when they are created.
+        reader.feed(streamOpen);
+        parser = xmlPullParserFactory.newXmlPullParser(reader);
+        ParserUtils.forwardToStartElement(parser);
+        return parser;
+    }
+
+    /**
+     * Feed the next complete top-level element of the stream to the parser.
+     * <p>
+     * If the previous top-level element was not completely consumed, then the parser is forwarded to its end first.
+     * </p>
+     *
+     * @param completeElement the next complete top-level element.
+     * @return the parser positioned on the start element of the top-level element.
+     * @throws XmlPullParserException if an XML pull parser exception occurs.
+     * @throws IOException if an I/O error occurs.
+     */
+    public XmlPullParser nextTopLevelElement(String completeElement) throws XmlPullParserException, IOException {
+        if (parser == null) {
+            throw new IllegalStateException("No stream opened");
+        }
+
+        if (topLevelElementPending) {
+            ParserUtils.forwardToEndTagOfDepth(parser, TOP_LEVEL_ELEMENT_DEPTH);
+        }
+
+        reader.feed(completeElement);
+
+        XmlPullParser.Event event;
+        do {
+            event = parser.next();
+            if (event == XmlPullParser.Event.END_ELEMENT || event == XmlPullParser.Event.END_DOCUMENT) {
+                throw new XmlPullParserException("Expected the start of a top-level element, but got " + event);
+            }
+        } while (event != XmlPullParser.Event.START_ELEMENT);
+
+        topLevelElementPending = true;
+        return parser;
+    }
+
+    /**
+     * Signal that the stream was closed. This releases the parser of the stream.
+     */
+    public void streamClosed() {
+        reader.clear();
+        parser = null;
+        topLevelElementPending = false;
+    }
+
+    /**
+     * A reader returning the characters of the complete elements fed to it. It signals the end of the input if
+     * no more characters are available, which does not happen as long as the parser consumes only complete elements.
+     */
+    private static final class CompleteElementsReader extends Reader {
+
+        private final Queue<String> elements = new ArrayDeque<>();
+
+        private String current;
+
+        private int currentPosition;
+
+        private void feed(String element) {
+            if (current == null) {
+                current = element;
+                currentPosition = 0;
+            } else {
+                elements.add(element);
+            }
+        }
+
+        private void clear() {
+            elements.clear();
+            current = null;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+
+            int read = 0;
+            while (current != null && read < len) {
+                int remaining = current.length() - currentPosition;
+                int count = Math.min(remaining, len - read);
+                current.getChars(currentPosition, currentPosition + count, cbuf, off + read);
+                currentPosition += count;
+                read += count;
+
+                if (currentPosition == current.length()) {
+                    current = elements.poll();
+                    currentPosition = 0;
+                }
+            }
+
+            if (read == 0) {
+                return -1;
+            }
+            return read;
+        }
+
+        @Override
+        public void close() {
+            clear();
+        }
+    }
+}
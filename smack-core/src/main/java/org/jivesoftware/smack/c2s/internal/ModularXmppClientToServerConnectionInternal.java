@@ -20,9 +20,13 @@ import java.io.IOException;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.SelectableChannel;
 import java.nio.channels.SelectionKey;
+import java.util.Collection;
 import java.util.ListIterator;
 import java.util.Queue;
+import java.util.concurrent.TimeUnit;
 
+import org.jivesoftware.smack.NonzaCallback;
+import org.jivesoftware.smack.ScheduledAction;
 import org.jivesoftware.smack.SmackException;
 import org.jivesoftware.smack.SmackException.NoResponseException;
 import org.jivesoftware.smack.SmackException.NotConnectedException;
@@ -49,6 +53,8 @@ public abstract class ModularXmppClientToServerConnectionInternal {
 
     private final SmackReactor reactor;
 
+    private volatile SmackReactor.Shard reactorShard;
+
     public final ModularXmppClientToServerConnection connection;
 
     public final SmackDebugger smackDebugger;
@@ -65,7 +71,39 @@ public abstract class ModularXmppClientToServerConnectionInternal {
 
     public SelectionKey registerWithSelector(SelectableChannel channel, int ops, ChannelSelectedCallback callback)
                     throws ClosedChannelException {
-        return reactor.registerWithSelector(channel, ops, callback);
+        return reactor.registerWithSelector(channel, ops, callback, getOrAssignReactorShard());
+    }
+
+    /**
+     * Schedule the given non-blocking action with the reactor. The action is performed by the reactor shard of this
+     * connection, if the reactor operates in sharded mode.
+     *
+     * @param runnable the action.
+     * @param delay the delay after which the action is performed.
+     * @param unit the unit of the delay.
+     * @return the scheduled action.
+     * @since 4.5.0
+     */
+    public ScheduledAction schedule(Runnable runnable, long delay, TimeUnit unit) {
+        return reactor.schedule(runnable, delay, unit, getOrAssignReactorShard());
+    }
+
+    private SmackReactor.Shard getOrAssignReactorShard() {
+        // Once assigned, we keep the reactor shard, so that the channels of subsequent connection attempts are also
+        // handled by this shard.
+        if (reactorShard == null) {
+            reactorShard = reactor.assignShard();
+        }
+        return reactorShard;
+    }
+
+    /**
+     * Get the reactor shard assigned to this connection.
+     *
+     * @return the reactor shard or <code>null</code>.
+     */
+    public SmackReactor.Shard getReactorShard() {
+        return reactorShard;
     }
 
     public void setInterestOps(SelectionKey selectionKey, int interestOps) {
@@ -86,6 +124,15 @@ public abstract class ModularXmppClientToServerConnectionInternal {
     // of type string. But would this also work for BOSH or WebSocket?
     public abstract void parseAndProcessElement(String wrappedCompleteIncomingElement);
 
+    /**
+     * Parse and process the top-level element the given parser is positioned on. This is used by transports which
+     * parse the incoming stream with a single parser, see {@link IncomingStreamParser}.
+     *
+     * @param parser the parser positioned on the start element of a top-level element.
+     * @param elementSize the number of characters of the element's XML as it was received.
+     */
+    public abstract void parseAndProcessElement(XmlPullParser parser, long elementSize);
+
     public abstract void notifyConnectionError(Exception e);
 
     public final String onStreamOpen(String streamOpen) {
@@ -133,6 +180,45 @@ public abstract class ModularXmppClientToServerConnectionInternal {
 
     public abstract void setCompressionEnabled(boolean compressionEnabled);
 
+    /**
+     * Build a new nonza callback for the connection.
+     *
+     * @return a new nonza callback builder.
+     * @since 4.5.0
+     */
+    public abstract NonzaCallback.Builder buildNonzaCallback();
+
+    /**
+     * Set the tracker of the top-level stream elements of the connection. There can only be one tracker per
+     * connection.
+     *
+     * @param streamElementTracker the tracker, or <code>null</code> to remove the current tracker.
+     * @since 4.5.0
+     */
+    public abstract void setStreamElementTracker(StreamElementTracker streamElementTracker);
+
+    /**
+     * Queue the given elements for sending without invoking the {@link StreamElementTracker}. This is used to resend
+     * elements which are already tracked, e.g. the stanzas not acknowledged prior a stream resumption. The elements
+     * are queued as one block, i.e. they are not interleaved with other elements.
+     *
+     * @param elements the elements to send.
+     * @throws NotConnectedException if the connection is not connected.
+     * @throws InterruptedException if the calling thread was interrupted.
+     * @since 4.5.0
+     */
+    public abstract void sendUntracked(Collection<? extends TopLevelStreamElement> elements)
+                    throws NotConnectedException, InterruptedException;
+
+    /**
+     * Mark if the stream of the connection was resumed, instead of establishing a new session. A resumed stream
+     * requires neither the initial presence nor a roster reload.
+     *
+     * @param streamResumed <code>true</code> if the stream was resumed.
+     * @since 4.5.0
+     */
+    public abstract void setStreamResumed(boolean streamResumed);
+
     /**
      * Set the active transport (TCP, BOSH, WebSocket, …) to be used for the XMPP connection. Also marks the connection
      * as connected.
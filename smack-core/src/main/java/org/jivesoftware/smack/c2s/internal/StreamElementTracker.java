@@ -0,0 +1,54 @@
+/**
+ *
+ * Copyright 2021 Florian Schmaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.c2s.internal;
+
+import org.jivesoftware.smack.SmackException.NotConnectedException;
+import org.jivesoftware.smack.packet.TopLevelStreamElement;
+
+/**
+ * Tracks the top-level stream elements sent and received by a modular connection, e.g. to implement XEP-0198 Stream
+ * Management.
+ *
+ * @since 4.5.0
+ */
+public interface StreamElementTracker {
+
+    /**
+     * Invoked right before the given element is put into the outgoing elements queue. Invocations of this method and
+     * of {@link #afterOutgoingElementQueued(TopLevelStreamElement)} are serialized, and happen in the order in which
+     * the elements are queued. Hence the tracker observes the outgoing elements in the order they are sent.
+     *
+     * @param element the element which is about to be queued.
+     */
+    void beforeOutgoingElementQueued(TopLevelStreamElement element);
+
+    /**
+     * Invoked right after the given element was put into the outgoing elements queue. The tracker may send further
+     * elements from within this method, which will be queued after the given element.
+     *
+     * @param element the element which was queued.
+     * @throws NotConnectedException if the connection is not connected.
+     * @throws InterruptedException if the calling thread was interrupted.
+     */
+    void afterOutgoingElementQueued(TopLevelStreamElement element) throws NotConnectedException, InterruptedException;
+
+    /**
+     * Invoked by the thread processing the incoming stream after an incoming stanza was handled.
+     */
+    void onIncomingStanzaHandled();
+
+}
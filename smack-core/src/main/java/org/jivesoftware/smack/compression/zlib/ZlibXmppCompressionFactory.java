@@ -1,6 +1,6 @@
 /**
  *
- * Copyright 2018 Florian Schmaus
+ * Copyright 2018-2021 Florian Schmaus
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -18,6 +18,7 @@ package org.jivesoftware.smack.compression.zlib;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
 import java.util.zip.DataFormatException;
 import java.util.zip.Deflater;
 import java.util.zip.Inflater;
@@ -27,6 +28,7 @@ import org.jivesoftware.smack.XmppInputOutputFilter;
 import org.jivesoftware.smack.compression.XMPPInputOutputStream;
 import org.jivesoftware.smack.compression.XMPPInputOutputStream.FlushMethod;
 import org.jivesoftware.smack.compression.XmppCompressionFactory;
+import org.jivesoftware.smack.util.ByteBufferPool;
 
 public final class ZlibXmppCompressionFactory extends XmppCompressionFactory {
 
@@ -41,19 +43,65 @@ public final class ZlibXmppCompressionFactory extends XmppCompressionFactory {
         return new ZlibXmppInputOutputFilter();
     }
 
+    /**
+     * A zlib filter which, once warmed up, compresses and decompresses without allocating. The output buffers are
+     * borrowed from the {@link ByteBufferPool} and recycled once the transport consumed them.
+     * <p>
+     * The compressor is flushed with a sync flush once the transport has no more data available, i.e., per element if
+     * elements are sent one by one. If the transport signals that more data is available, for example because further
+     * elements are queued and the write coalescer allows to batch them, then the data is compressed without flushing,
+     * which allows the compressor to exploit the redundancy between the elements. To bound latency and the amount of
+     * data held back, the compressor is flushed anyway once {@link #MAX_UNFLUSHED_BYTES} were held back.
+     * </p>
+     */
     private static final class ZlibXmppInputOutputFilter implements XmppInputOutputFilter {
 
-        private static final int MINIMUM_OUTPUT_BUFFER_INITIAL_SIZE = 4;
-        private static final int MINIMUM_OUTPUT_BUFFER_INCREASE = 480;
+        private static final int MINIMUM_BUFFER_SIZE = 1024;
+
+        private static final int MAX_UNFLUSHED_BYTES = 16 * 1024;
+
+        private static final int MAX_LENT_OUTPUT_BUFFERS = 16;
+
+        private final ByteBufferPool bufferPool = ByteBufferPool.getInstance();
 
         private final Deflater compressor;
         private final Inflater decompressor = new Inflater();
 
+        private final OutputResult heldBackOutput = new OutputResult(ByteBuffer.allocate(0));
+
+        /**
+         * The output buffers handed to the transport, in the order they were handed out.
+         */
+        private final ArrayDeque<ByteBuffer> lentOutputBuffers = new ArrayDeque<>();
+
+        /**
+         * The output buffer currently being filled by the compressor.
+         */
+        private ByteBuffer outputBuffer;
+
+        /**
+         * The buffer the decompressor inflates into. It is reused, as the caller consumes the inflated data before it
+         * invokes {@link #input(ByteBuffer)} again.
+         */
+        private ByteBuffer inflatedBuffer;
+
+        /**
+         * Staging arrays for input data which is not backed by an accessible array, e.g. direct buffers.
+         */
+        private byte[] compressorInputArray;
+        private byte[] decompressorInputArray;
+
+        private int unflushedBytes;
+
         private long compressorInBytes;
         private long compressorOutBytes;
+        private long compressorNanos;
+        private long syncFlushes;
+        private long fullFlushes;
 
         private long decompressorInBytes;
         private long decompressorOutBytes;
+        private long decompressorNanos;
 
         private int maxOutputOutput = -1;
         private int maxInputOutput = -1;
@@ -68,162 +116,202 @@ public final class ZlibXmppCompressionFactory extends XmppCompressionFactory {
             compressor = new Deflater(compressionLevel);
         }
 
-        private ByteBuffer outputBuffer;
-
         @Override
         public OutputResult output(ByteBuffer outputData, boolean isFinalDataOfElement, boolean destinationAddressChanged,
                         boolean moreDataAvailable) throws IOException {
-            if (destinationAddressChanged && XMPPInputOutputStream.getFlushMethod() == FlushMethod.FULL_FLUSH) {
-                outputBuffer = ByteBuffer.allocate(256);
-
-                int bytesWritten = deflate(Deflater.FULL_FLUSH);
-
-                maxBytesWrittenAfterFullFlush = Math.max(bytesWritten, maxBytesWrittenAfterFullFlush);
-                compressorOutBytes += bytesWritten;
-            }
+            recycleConsumedOutputBuffers();
 
-            if (outputData == null && outputBuffer == null) {
+            final boolean fullFlush = destinationAddressChanged
+                            && XMPPInputOutputStream.getFlushMethod() == FlushMethod.FULL_FLUSH;
+            final boolean hasInput = outputData != null && outputData.hasRemaining();
+            if (!fullFlush && !hasInput && (unflushedBytes == 0 || moreDataAvailable)) {
                 return OutputResult.NO_OUTPUT;
             }
 
-            int bytesRemaining = outputData.remaining();
+            final long startNanos = System.nanoTime();
+
             if (outputBuffer == null) {
-                final int outputBufferSize = bytesRemaining < MINIMUM_OUTPUT_BUFFER_INITIAL_SIZE ? MINIMUM_OUTPUT_BUFFER_INITIAL_SIZE : bytesRemaining;
+                int expectedOutputSize = hasInput ? outputData.remaining() : 0;
                 // We assume that the compressed data will not take more space as the uncompressed. Even if this is not
                 // always true, the automatic buffer resize mechanism of deflate() will take care.
-                outputBuffer = ByteBuffer.allocate(outputBufferSize);
+                outputBuffer = bufferPool.borrowHeap(Math.max(MINIMUM_BUFFER_SIZE, expectedOutputSize));
             }
 
-            // There is an invariant of Deflater/Inflater that input should only be set if needsInput() return true.
-            assert compressor.needsInput();
+            if (fullFlush) {
+                int bytesWritten = deflate(Deflater.FULL_FLUSH);
 
-            final byte[] compressorInputBuffer;
-            final int compressorInputBufferOffset, compressorInputBufferLength;
-            if (outputData.hasArray()) {
-                compressorInputBuffer = outputData.array();
-                compressorInputBufferOffset = outputData.arrayOffset();
-                compressorInputBufferLength = outputData.remaining();
-            } else {
-                compressorInputBuffer = new byte[outputData.remaining()];
-                compressorInputBufferOffset = 0;
-                compressorInputBufferLength = compressorInputBuffer.length;
-                outputData.get(compressorInputBuffer);
+                maxBytesWrittenAfterFullFlush = Math.max(bytesWritten, maxBytesWrittenAfterFullFlush);
+                compressorOutBytes += bytesWritten;
+                fullFlushes++;
+                unflushedBytes = 0;
             }
 
-            compressorInBytes += compressorInputBufferLength;
-
-            compressor.setInput(compressorInputBuffer, compressorInputBufferOffset, compressorInputBufferLength);
+            if (hasInput) {
+                setCompressorInput(outputData);
+            }
 
             int flushMode;
-            if (moreDataAvailable) {
-                flushMode = Deflater.NO_FLUSH;
-            } else {
+            if (unflushedBytes > 0 && (!moreDataAvailable || unflushedBytes >= MAX_UNFLUSHED_BYTES)) {
                 flushMode = Deflater.SYNC_FLUSH;
+                syncFlushes++;
+                unflushedBytes = 0;
+            } else {
+                flushMode = Deflater.NO_FLUSH;
             }
 
+            // Always deflate, even with NO_FLUSH, so that the compressor consumes the complete input, as the input
+            // arrays are reused by the caller and by this filter.
             int bytesWritten = deflate(flushMode);
+            compressorOutBytes += bytesWritten;
+            compressorNanos += System.nanoTime() - startNanos;
+
+            if (outputBuffer.position() == 0) {
+                // The compressor held the data back, keep the output buffer for the next invocation. Signal the held
+                // back data with an empty buffer instead of no output, so that subsequent filters also hold back.
+                return heldBackOutput;
+            }
 
             maxOutputOutput = Math.max(outputBuffer.position(), maxOutputOutput);
-            compressorOutBytes += bytesWritten;
 
-            OutputResult outputResult = new OutputResult(outputBuffer);
+            ByteBuffer filteredOutputData = outputBuffer;
             outputBuffer = null;
-            return outputResult;
+            lendOutputBuffer(filteredOutputData);
+            return new OutputResult(filteredOutputData);
         }
 
-        private int deflate(int flushMode) {
-//            compressor.finish();
+        private void setCompressorInput(ByteBuffer outputData) {
+            // There is an invariant of Deflater/Inflater that input should only be set if needsInput() return true.
+            assert compressor.needsInput();
+
+            final int length = outputData.remaining();
+            if (outputData.hasArray()) {
+                compressor.setInput(outputData.array(), outputData.arrayOffset() + outputData.position(), length);
+                // The compressor consumes the complete input in deflate(), mark the data as consumed, so that the
+                // caller is able to recycle the buffer.
+                outputData.position(outputData.limit());
+            } else {
+                if (compressorInputArray == null || compressorInputArray.length < length) {
+                    compressorInputArray = new byte[Math.max(MINIMUM_BUFFER_SIZE, length)];
+                }
+                outputData.get(compressorInputArray, 0, length);
+                compressor.setInput(compressorInputArray, 0, length);
+            }
 
+            compressorInBytes += length;
+            unflushedBytes += length;
+        }
+
+        private int deflate(int flushMode) {
             int totalBytesWritten = 0;
             while (true) {
                 int initialOutputBufferPosition = outputBuffer.position();
-                byte[] buffer = outputBuffer.array();
-                int length = outputBuffer.limit() - initialOutputBufferPosition;
-
-                int bytesWritten = compressor.deflate(buffer, initialOutputBufferPosition, length, flushMode);
+                int offset = outputBuffer.arrayOffset() + initialOutputBufferPosition;
+                int length = outputBuffer.remaining();
 
-                int newOutputBufferPosition = initialOutputBufferPosition + bytesWritten;
-                outputBuffer.position(newOutputBufferPosition);
+                int bytesWritten = compressor.deflate(outputBuffer.array(), offset, length, flushMode);
 
+                outputBuffer.position(initialOutputBufferPosition + bytesWritten);
                 totalBytesWritten += bytesWritten;
 
+                // If the output buffer was filled completely, then the compressor may have further output pending.
                 if (compressor.needsInput() && outputBuffer.hasRemaining()) {
                     break;
                 }
 
-                int increasedBufferSize = outputBuffer.capacity() * 2;
-                if (increasedBufferSize < MINIMUM_OUTPUT_BUFFER_INCREASE) {
-                    increasedBufferSize = MINIMUM_OUTPUT_BUFFER_INCREASE;
-                }
-                ByteBuffer newCurrentOutputBuffer = ByteBuffer.allocate(increasedBufferSize);
-                outputBuffer.flip();
-                newCurrentOutputBuffer.put(outputBuffer);
-                outputBuffer = newCurrentOutputBuffer;
+                outputBuffer = grow(outputBuffer);
             }
 
             return totalBytesWritten;
         }
 
+        private void lendOutputBuffer(ByteBuffer buffer) {
+            if (lentOutputBuffers.size() >= MAX_LENT_OUTPUT_BUFFERS) {
+                // The transport holds on to an unusual number of our buffers, leave the oldest one to the garbage
+                // collector.
+                lentOutputBuffers.pollFirst();
+            }
+            lentOutputBuffers.addLast(buffer);
+        }
+
+        private void recycleConsumedOutputBuffers() {
+            // The transport flips the returned buffers and consumes them in order.
+            while (!lentOutputBuffers.isEmpty() && !lentOutputBuffers.peekFirst().hasRemaining()) {
+                bufferPool.release(lentOutputBuffers.pollFirst());
+            }
+        }
+
+        private ByteBuffer grow(ByteBuffer buffer) {
+            ByteBuffer increasedBuffer = bufferPool.borrowHeap(buffer.capacity() * 2);
+            buffer.flip();
+            increasedBuffer.put(buffer);
+            bufferPool.release(buffer);
+            return increasedBuffer;
+        }
+
         @Override
         public ByteBuffer input(ByteBuffer inputData) throws IOException {
-            int bytesRemaining = inputData.remaining();
+            final long startNanos = System.nanoTime();
 
-            final byte[] inputBytes;
-            final int offset, length;
+            final int length = inputData.remaining();
             if (inputData.hasArray()) {
-                inputBytes = inputData.array();
-                offset = inputData.arrayOffset();
-                length = inputData.remaining();
+                decompressor.setInput(inputData.array(), inputData.arrayOffset() + inputData.position(), length);
+                inputData.position(inputData.limit());
             } else {
                 // Copy since we are dealing with a buffer whose array is not accessible (possibly a direct buffer).
-                inputBytes = new byte[bytesRemaining];
-                inputData.get(inputBytes);
-                offset = 0;
-                length = inputBytes.length;
+                if (decompressorInputArray == null || decompressorInputArray.length < length) {
+                    decompressorInputArray = new byte[Math.max(MINIMUM_BUFFER_SIZE, length)];
+                }
+                inputData.get(decompressorInputArray, 0, length);
+                decompressor.setInput(decompressorInputArray, 0, length);
             }
 
             decompressorInBytes += length;
 
-            decompressor.setInput(inputBytes, offset, length);
+            if (inflatedBuffer == null) {
+                // Assume that the inflated/decompressed result will be roughly at most twice the size of the compressed
+                // variant. It appears to hold most of the times, if not, then the buffer resize mechanism will take
+                // care of it. The buffer is kept, and hence only grows, for the lifetime of the filter.
+                inflatedBuffer = bufferPool.borrowHeap(Math.max(MINIMUM_BUFFER_SIZE, 2 * length));
+            } else {
+                inflatedBuffer.clear();
+            }
 
-            int bytesInflated;
-            // Assume that the inflated/decompressed result will be roughly at most twice the size of the compressed
-            // variant. It appears to hold most of the times, if not, then the buffer resize mechanism will take care of
-            // it.
-            ByteBuffer outputBuffer = ByteBuffer.allocate(2 * length);
             while (true) {
-                byte[] inflateOutputBuffer = outputBuffer.array();
-                int inflateOutputBufferOffset = outputBuffer.position();
-                int inflateOutputBufferLength = outputBuffer.limit() - inflateOutputBufferOffset;
+                int initialPosition = inflatedBuffer.position();
+                int offset = inflatedBuffer.arrayOffset() + initialPosition;
+                int bytesInflated;
                 try {
-                    bytesInflated = decompressor.inflate(inflateOutputBuffer, inflateOutputBufferOffset, inflateOutputBufferLength);
+                    bytesInflated = decompressor.inflate(inflatedBuffer.array(), offset, inflatedBuffer.remaining());
                 }
                 catch (DataFormatException e) {
                     throw new IOException(e);
                 }
 
-                outputBuffer.position(inflateOutputBufferOffset + bytesInflated);
+                inflatedBuffer.position(initialPosition + bytesInflated);
 
                 decompressorOutBytes += bytesInflated;
 
-                if (decompressor.needsInput()) {
+                if (decompressor.finished() || (decompressor.needsInput() && inflatedBuffer.hasRemaining())) {
                     break;
                 }
+                if (decompressor.needsDictionary()) {
+                    throw new IOException("zlib stream requires a preset dictionary");
+                }
 
-                int increasedBufferSize = outputBuffer.capacity() * 2;
-                ByteBuffer increasedOutputBuffer = ByteBuffer.allocate(increasedBufferSize);
-                outputBuffer.flip();
-                increasedOutputBuffer.put(outputBuffer);
-                outputBuffer = increasedOutputBuffer;
+                if (!inflatedBuffer.hasRemaining()) {
+                    inflatedBuffer = grow(inflatedBuffer);
+                }
             }
 
-            if (bytesInflated == 0) {
+            decompressorNanos += System.nanoTime() - startNanos;
+
+            if (inflatedBuffer.position() == 0) {
                 return null;
             }
 
-            maxInputOutput = Math.max(outputBuffer.position(), maxInputOutput);
+            maxInputOutput = Math.max(inflatedBuffer.position(), maxInputOutput);
 
-            return outputBuffer;
+            return inflatedBuffer;
         }
 
         @Override
@@ -237,14 +325,25 @@ public final class ZlibXmppCompressionFactory extends XmppCompressionFactory {
         }
     }
 
+    /**
+     * Statistics of a zlib compression filter. Use the compression ratio together with the time spent per byte to judge
+     * whether compression pays off on a given link. Note that the times are elapsed wall-clock times, measured with
+     * {@link System#nanoTime()}, and not CPU times, hence they include the time the thread was not scheduled.
+     */
     public static final class Stats {
         public final long compressorInBytes;
         public final long compressorOutBytes;
         public final double compressionRatio;
+        public final long compressorNanos;
+        public final double compressorElapsedNanosPerByte;
+        public final long syncFlushes;
+        public final long fullFlushes;
 
         public final long decompressorInBytes;
         public final long decompressorOutBytes;
         public final double decompressionRatio;
+        public final long decompressorNanos;
+        public final double decompressorElapsedNanosPerByte;
 
         public final int maxOutputOutput;
         public final int maxInputOutput;
@@ -256,10 +355,17 @@ public final class ZlibXmppCompressionFactory extends XmppCompressionFactory {
             compressorOutBytes = filter.compressorOutBytes;
             compressorInBytes = filter.compressorInBytes;
             compressionRatio = (double) compressorOutBytes / compressorInBytes;
+            compressorNanos = filter.compressorNanos;
+            // The elapsed time is related to the uncompressed bytes in both directions.
+            compressorElapsedNanosPerByte = (double) compressorNanos / compressorInBytes;
+            syncFlushes = filter.syncFlushes;
+            fullFlushes = filter.fullFlushes;
 
             decompressorOutBytes = filter.decompressorOutBytes;
             decompressorInBytes = filter.decompressorInBytes;
             decompressionRatio = (double) decompressorInBytes / decompressorOutBytes;
+            decompressorNanos = filter.decompressorNanos;
+            decompressorElapsedNanosPerByte = (double) decompressorNanos / decompressorOutBytes;
 
             maxOutputOutput = filter.maxOutputOutput;
             maxInputOutput = filter.maxInputOutput;
@@ -278,9 +384,15 @@ public final class ZlibXmppCompressionFactory extends XmppCompressionFactory {
                 "compressor-in-bytes: "  + compressorInBytes + '\n'
               + "compressor-out-bytes: " + compressorOutBytes + '\n'
               + "compression-ratio: " + compressionRatio + '\n'
+              + "compressor-nanos: " + compressorNanos + '\n'
+              + "compressor-elapsed-nanos-per-byte: " + compressorElapsedNanosPerByte + '\n'
+              + "sync-flushes: " + syncFlushes + '\n'
+              + "full-flushes: " + fullFlushes + '\n'
               + "decompressor-in-bytes: " + decompressorInBytes + '\n'
               + "decompressor-out-bytes: " + decompressorOutBytes + '\n'
               + "decompression-ratio: " + decompressionRatio + '\n'
+              + "decompressor-nanos: " + decompressorNanos + '\n'
+              + "decompressor-elapsed-nanos-per-byte: " + decompressorElapsedNanosPerByte + '\n'
               + "max-output-output: " + maxOutputOutput + '\n'
               + "max-input-output: " + maxInputOutput + '\n'
               + "max-bytes-written-after-full-flush: " + maxBytesWrittenAfterFullFlush + '\n'
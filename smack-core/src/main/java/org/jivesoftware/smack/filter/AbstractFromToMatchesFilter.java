@@ -65,6 +65,19 @@ public abstract class AbstractFromToMatchesFilter implements StanzaFilter {
 
     protected abstract Jid getAddressToCompare(Stanza stanza);
 
+    /**
+     * Get the address this filter matches. If the resourcepart is ignored, then this is the bare address.
+     *
+     * @return the address or <code>null</code> if the filter matches stanzas without an address.
+     */
+    public final Jid getAddress() {
+        return address;
+    }
+
+    public final boolean isIgnoreResourcepart() {
+        return ignoreResourcepart;
+    }
+
     @Override
     public final String toString() {
         String matchMode = ignoreResourcepart ? "ignoreResourcepart" : "full";
@@ -19,6 +19,7 @@ package org.jivesoftware.smack.filter;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import org.jivesoftware.smack.util.Objects;
@@ -71,6 +72,15 @@ public abstract class AbstractListFilter implements StanzaFilter {
         filters.add(filter);
     }
 
+    /**
+     * Get an unmodifiable view of the filters of this list filter.
+     *
+     * @return the filters.
+     */
+    public final List<StanzaFilter> getFilters() {
+        return Collections.unmodifiableList(filters);
+    }
+
     @Override
     public final String toString() {
         StringBuilder sb = new StringBuilder();
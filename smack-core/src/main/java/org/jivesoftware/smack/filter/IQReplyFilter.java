@@ -128,6 +128,16 @@ public class IQReplyFilter implements StanzaFilter {
         }
     }
 
+    /**
+     * Get the stanza ID of the IQ request. Subclasses may narrow down the set of accepted stanzas, but every stanza
+     * accepted by this filter must have this stanza ID.
+     *
+     * @return the stanza ID of the request.
+     */
+    public final String getStanzaId() {
+        return packetId;
+    }
+
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
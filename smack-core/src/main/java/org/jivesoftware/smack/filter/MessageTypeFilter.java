@@ -57,6 +57,15 @@ public final class MessageTypeFilter extends FlexibleStanzaTypeFilter<Message> {
         return message.getType() == type;
     }
 
+    /**
+     * Get the message type this filter accepts.
+     *
+     * @return the message type.
+     */
+    public Message.Type getType() {
+        return type;
+    }
+
     @Override
     public String toString() {
         return getClass().getSimpleName() + ": type=" + type;
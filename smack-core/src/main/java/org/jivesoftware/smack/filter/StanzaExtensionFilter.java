@@ -70,6 +70,19 @@ public class StanzaExtensionFilter implements StanzaFilter {
         return packet.hasExtension(elementName, namespace);
     }
 
+    /**
+     * Get the element name of the extension this filter looks for.
+     *
+     * @return the element name or <code>null</code> if only the namespace is considered.
+     */
+    public final String getElementName() {
+        return elementName;
+    }
+
+    public final String getNamespace() {
+        return namespace;
+    }
+
     @Override
     public String toString() {
         return getClass().getSimpleName() + ": element=" + elementName + " namespace=" + namespace;
@@ -52,6 +52,16 @@ public class StanzaIdFilter implements StanzaFilter {
         return stanzaId.equals(stanza.getStanzaId());
     }
 
+    /**
+     * Get the stanza ID this filter matches. Subclasses may narrow down the set of accepted stanzas, but every stanza
+     * accepted by this filter must have this stanza ID.
+     *
+     * @return the stanza ID.
+     */
+    public final String getStanzaId() {
+        return stanzaId;
+    }
+
     @Override
     public String toString() {
         return getClass().getSimpleName() + ": id=" + stanzaId;
@@ -56,6 +56,15 @@ public final class StanzaTypeFilter implements StanzaFilter {
         return packetType.isInstance(packet);
     }
 
+    /**
+     * Get the type of stanzas this filter accepts.
+     *
+     * @return the stanza type.
+     */
+    public Class<? extends Stanza> getStanzaType() {
+        return packetType;
+    }
+
     @Override
     public String toString() {
         return getClass().getSimpleName() + ": " + packetType.getSimpleName();
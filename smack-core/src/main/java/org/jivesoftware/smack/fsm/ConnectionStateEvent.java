@@ -39,6 +39,16 @@ public class ConnectionStateEvent {
         return currentStateDescriptor;
     }
 
+    /**
+     * Get the descriptor of the successor state, if this event is about a transition between two states.
+     *
+     * @return the descriptor of the successor state, or <code>null</code>.
+     * @since 4.5.0
+     */
+    public StateDescriptor getSuccessorStateDescriptor() {
+        return successorStateDescriptor;
+    }
+
     @Override
     public String toString() {
         if (successorStateDescriptor == null) {
@@ -0,0 +1,375 @@
+/**
+ *
+ * Copyright 2021 Florian Schmaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.metrics;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.jivesoftware.smack.XMPPConnection;
+import org.jivesoftware.smack.packet.IQ;
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.packet.Presence;
+import org.jivesoftware.smack.packet.Stanza;
+
+/**
+ * The metrics of a connection.
+ * <p>
+ * The connection counts the stanzas and bytes it sends and receives, records the round-trip time of IQ requests per
+ * namespace of the request's child element, the time it took to parse an incoming stanza, and the execution time of
+ * the listeners processing incoming stanzas. Additionally, connections register {@link Gauge}s, e.g. for the depth of
+ * their queues, whose values are pulled when a {@link MetricsSnapshot} is taken.
+ * </p>
+ * <p>
+ * Metrics are only recorded if they were enabled with
+ * {@link org.jivesoftware.smack.ConnectionConfiguration.Builder#setMetricsEnabled(boolean)}. Otherwise, every record
+ * method returns immediately.
+ * </p>
+ *
+ * @since 4.5.0
+ */
+public final class ConnectionMetrics {
+
+    public enum StanzaType {
+        message,
+        presence,
+        iq,
+        ;
+
+        /**
+         * Get the type of the given stanza.
+         *
+         * @param stanza the stanza.
+         * @return the type of the stanza.
+         */
+        public static StanzaType from(Stanza stanza) {
+            if (stanza instanceof Message) {
+                return message;
+            }
+            if (stanza instanceof Presence) {
+                return presence;
+            }
+            if (stanza instanceof IQ) {
+                return iq;
+            }
+            throw new IllegalArgumentException("Unknown stanza type: " + stanza);
+        }
+    }
+
+    /**
+     * The maximum number of IQ requests awaiting a response whose round-trip time is tracked.
+     */
+    static final int MAX_TRACKED_IQ_REQUESTS = 1024;
+
+    /**
+     * The time after which IQ requests are assumed to never receive a response and are no longer tracked.
+     */
+    static final long STALE_IQ_REQUEST_NANOS = TimeUnit.MINUTES.toNanos(5);
+
+    /**
+     * The maximum number of namespaces for which a separate IQ round-trip histogram is recorded. Further namespaces are
+     * recorded under {@link #OTHER_NAMESPACES}.
+     */
+    static final int MAX_IQ_NAMESPACES = 128;
+
+    public static final String OTHER_NAMESPACES = "other";
+
+    private static final class PendingIqRequest {
+        private final String namespace;
+        private final long sentNanos;
+
+        private PendingIqRequest(String namespace, long sentNanos) {
+            this.namespace = namespace;
+            this.sentNanos = sentNanos;
+        }
+    }
+
+    private final XMPPConnection connection;
+
+    private final boolean enabled;
+
+    private final AtomicLongArray stanzasSent = new AtomicLongArray(StanzaType.values().length);
+
+    private final AtomicLongArray stanzasReceived = new AtomicLongArray(StanzaType.values().length);
+
+    private final AtomicLong bytesSent = new AtomicLong();
+
+    private final AtomicLong bytesReceived = new AtomicLong();
+
+    private final LatencyHistogram parseTimes = new LatencyHistogram();
+
+    private final LatencyHistogram listenerExecutionTimes = new LatencyHistogram();
+
+    private final Map<String, LatencyHistogram> iqRoundTripTimes = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, PendingIqRequest> pendingIqRequests = new ConcurrentHashMap<>();
+
+    private final Map<String, Gauge> gauges = Collections.synchronizedMap(new LinkedHashMap<String, Gauge>());
+
+    public ConnectionMetrics(XMPPConnection connection, boolean enabled) {
+        this.connection = connection;
+        this.enabled = enabled;
+    }
+
+    public XMPPConnection getConnection() {
+        return connection;
+    }
+
+    /**
+     * Check if metrics are recorded.
+     *
+     * @return <code>true</code> if metrics are recorded.
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Register a gauge. A gauge registered under the same name is replaced.
+     *
+     * @param name the name of the gauge.
+     * @param gauge the gauge.
+     */
+    public void registerGauge(String name, Gauge gauge) {
+        gauges.put(name, gauge);
+    }
+
+    public void unregisterGauge(String name) {
+        gauges.remove(name);
+    }
+
+    /**
+     * Record an outgoing stanza. IQ requests are tracked until their response is received.
+     *
+     * @param stanza the outgoing stanza.
+     */
+    public void stanzaSent(Stanza stanza) {
+        if (!enabled) {
+            return;
+        }
+        stanzasSent.incrementAndGet(StanzaType.from(stanza).ordinal());
+
+        if (stanza instanceof IQ) {
+            IQ iq = (IQ) stanza;
+            if (iq.isRequestIQ()) {
+                iqRequestSent(iq);
+            }
+        }
+    }
+
+    /**
+     * Record an incoming stanza. IQ responses to tracked requests record the round trip time.
+     *
+     * @param stanza the incoming stanza.
+     */
+    public void stanzaReceived(Stanza stanza) {
+        if (!enabled) {
+            return;
+        }
+        stanzasReceived.incrementAndGet(StanzaType.from(stanza).ordinal());
+
+        if (stanza instanceof IQ) {
+            IQ iq = (IQ) stanza;
+            if (iq.isResponseIQ()) {
+                iqResponseReceived(iq);
+            }
+        }
+    }
+
+    /**
+     * Record bytes written to the underlying transport.
+     *
+     * @param bytes the number of bytes.
+     */
+    public void bytesSent(long bytes) {
+        if (!enabled) {
+            return;
+        }
+        bytesSent.addAndGet(bytes);
+    }
+
+    /**
+     * Record bytes read from the underlying transport.
+     *
+     * @param bytes the number of bytes.
+     */
+    public void bytesReceived(long bytes) {
+        if (!enabled) {
+            return;
+        }
+        bytesReceived.addAndGet(bytes);
+    }
+
+    /**
+     * Record the time it took to parse an incoming stanza.
+     *
+     * @param nanos the parse time in nanoseconds.
+     */
+    public void stanzaParsed(long nanos) {
+        if (!enabled) {
+            return;
+        }
+        parseTimes.record(nanos);
+    }
+
+    /**
+     * Record the time it took to execute a listener processing an incoming stanza.
+     *
+     * @param nanos the execution time in nanoseconds.
+     */
+    public void listenerExecuted(long nanos) {
+        if (!enabled) {
+            return;
+        }
+        listenerExecutionTimes.record(nanos);
+    }
+
+    private void iqRequestSent(IQ iq) {
+        String stanzaId = iq.getStanzaId();
+        if (stanzaId == null) {
+            return;
+        }
+
+        long now = System.nanoTime();
+        if (pendingIqRequests.size() >= MAX_TRACKED_IQ_REQUESTS) {
+            // Remove the requests which are unlikely to receive a response anymore.
+            for (Map.Entry<String, PendingIqRequest> entry : pendingIqRequests.entrySet()) {
+                if (now - entry.getValue().sentNanos > STALE_IQ_REQUEST_NANOS) {
+                    pendingIqRequests.remove(entry.getKey(), entry.getValue());
+                }
+            }
+            if (pendingIqRequests.size() >= MAX_TRACKED_IQ_REQUESTS) {
+                return;
+            }
+        }
+
+        pendingIqRequests.put(stanzaId, new PendingIqRequest(iq.getChildElementNamespace(), now));
+    }
+
+    private void iqResponseReceived(IQ iq) {
+        String stanzaId = iq.getStanzaId();
+        if (stanzaId == null) {
+            return;
+        }
+        PendingIqRequest request = pendingIqRequests.remove(stanzaId);
+        if (request == null) {
+            return;
+        }
+
+        long roundTripNanos = System.nanoTime() - request.sentNanos;
+        getIqRoundTripHistogram(request.namespace).record(roundTripNanos);
+    }
+
+    private LatencyHistogram getIqRoundTripHistogram(String namespace) {
+        if (namespace == null) {
+            namespace = OTHER_NAMESPACES;
+        }
+        LatencyHistogram histogram = iqRoundTripTimes.get(namespace);
+        if (histogram != null) {
+            return histogram;
+        }
+
+        synchronized (iqRoundTripTimes) {
+            histogram = iqRoundTripTimes.get(namespace);
+            if (histogram != null) {
+                return histogram;
+            }
+            if (iqRoundTripTimes.size() >= MAX_IQ_NAMESPACES) {
+                namespace = OTHER_NAMESPACES;
+                histogram = iqRoundTripTimes.get(namespace);
+                if (histogram != null) {
+                    return histogram;
+                }
+            }
+            histogram = new LatencyHistogram();
+            iqRoundTripTimes.put(namespace, histogram);
+            return histogram;
+        }
+    }
+
+    /**
+     * Get the number of IQ requests awaiting a response whose round-trip time is tracked.
+     *
+     * @return the number of tracked IQ requests.
+     */
+    public int getTrackedIqRequestCount() {
+        return pendingIqRequests.size();
+    }
+
+    /**
+     * Take a snapshot of the current metrics.
+     *
+     * @return a snapshot of the metrics.
+     */
+    public MetricsSnapshot snapshot() {
+        int stanzaTypeCount = StanzaType.values().length;
+        long[] stanzasSentSnapshot = new long[stanzaTypeCount];
+        long[] stanzasReceivedSnapshot = new long[stanzaTypeCount];
+        for (int i = 0; i < stanzaTypeCount; i++) {
+            stanzasSentSnapshot[i] = stanzasSent.get(i);
+            stanzasReceivedSnapshot[i] = stanzasReceived.get(i);
+        }
+
+        Map<String, LatencyHistogram.Snapshot> iqRoundTripTimesSnapshot = new LinkedHashMap<>(iqRoundTripTimes.size());
+        for (Map.Entry<String, LatencyHistogram> entry : iqRoundTripTimes.entrySet()) {
+            iqRoundTripTimesSnapshot.put(entry.getKey(), entry.getValue().snapshot());
+        }
+
+        Map<String, Long> gaugeValues;
+        synchronized (gauges) {
+            gaugeValues = new LinkedHashMap<>(gauges.size());
+            for (Map.Entry<String, Gauge> entry : gauges.entrySet()) {
+                gaugeValues.put(entry.getKey(), entry.getValue().getValue());
+            }
+        }
+
+        return new MetricsSnapshot(System.currentTimeMillis(), stanzasSentSnapshot, stanzasReceivedSnapshot,
+                        bytesSent.get(), bytesReceived.get(), iqRoundTripTimesSnapshot, parseTimes.snapshot(),
+                        listenerExecutionTimes.snapshot(), gaugeValues);
+    }
+
+    /**
+     * Make the metrics available to the {@link MetricsExporter}s. Invoked by the connection once it is connected.
+     */
+    public void connected() {
+        if (!enabled) {
+            return;
+        }
+        SmackMetrics.add(this);
+    }
+
+    /**
+     * Make the metrics unavailable to the {@link MetricsExporter}s. Invoked by the connection once it was closed.
+     */
+    public void closed() {
+        if (!enabled) {
+            return;
+        }
+        pendingIqRequests.clear();
+        SmackMetrics.remove(this);
+    }
+
+    @Override
+    public String toString() {
+        return "ConnectionMetrics of " + connection;
+    }
+}
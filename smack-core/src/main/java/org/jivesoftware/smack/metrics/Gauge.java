@@ -0,0 +1,34 @@
+/**
+ *
+ * Copyright 2021 Florian Schmaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.metrics;
+
+/**
+ * A metric whose current value is pulled when a {@link MetricsSnapshot} is taken, e.g. the depth of a queue.
+ *
+ * @since 4.5.0
+ */
+public interface Gauge {
+
+    /**
+     * Get the current value of this gauge. This method is invoked when a snapshot is taken, and should therefore be
+     * cheap and must not block.
+     *
+     * @return the current value.
+     */
+    long getValue();
+
+}
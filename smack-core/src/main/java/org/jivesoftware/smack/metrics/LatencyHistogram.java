@@ -0,0 +1,192 @@
+/**
+ *
+ * Copyright 2021 Florian Schmaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of durations with exponential buckets. The upper bound of bucket <i>i</i> is 2<sup>i</sup>
+ * microseconds, the last bucket holds all durations above 2<sup>24</sup> microseconds.
+ * Recording a duration does not allocate and does not block.
+ *
+ * @since 4.5.0
+ */
+public final class LatencyHistogram {
+
+    static final int MAX_BUCKET_EXPONENT = 24;
+
+    private static final int BUCKET_COUNT = MAX_BUCKET_EXPONENT + 2;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+
+    private final AtomicLong count = new AtomicLong();
+
+    private final AtomicLong sumNanos = new AtomicLong();
+
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * Record the given duration.
+     *
+     * @param nanos the duration in nanoseconds.
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        buckets.incrementAndGet(bucketIndexOf(nanos));
+        count.incrementAndGet();
+        sumNanos.addAndGet(nanos);
+
+        long max = maxNanos.get();
+        while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+            max = maxNanos.get();
+        }
+    }
+
+    static int bucketIndexOf(long nanos) {
+        long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+        if (micros <= 1) {
+            return 0;
+        }
+        // The exponent of the smallest power of two which is greater or equal to micros.
+        int exponent = Long.SIZE - Long.numberOfLeadingZeros(micros - 1);
+        return Math.min(exponent, BUCKET_COUNT - 1);
+    }
+
+    /**
+     * Get the upper bound of the bucket with the given index.
+     *
+     * @param bucketIndex the index of the bucket.
+     * @return the upper bound in microseconds, or {@link Long#MAX_VALUE} for the last bucket.
+     */
+    public static long getBucketUpperBoundMicros(int bucketIndex) {
+        if (bucketIndex >= BUCKET_COUNT - 1) {
+            return Long.MAX_VALUE;
+        }
+        return 1L << bucketIndex;
+    }
+
+    public Snapshot snapshot() {
+        long[] bucketCounts = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            bucketCounts[i] = buckets.get(i);
+        }
+        return new Snapshot(bucketCounts, count.get(), sumNanos.get(), maxNanos.get());
+    }
+
+    /**
+     * An immutable snapshot of a {@link LatencyHistogram}. As the histogram is not locked while the snapshot is taken,
+     * the count and the sum may include durations which are not yet contained in the buckets.
+     */
+    public static final class Snapshot {
+
+        private final long[] bucketCounts;
+
+        private final long count;
+
+        private final long sumNanos;
+
+        private final long maxNanos;
+
+        private Snapshot(long[] bucketCounts, long count, long sumNanos, long maxNanos) {
+            this.bucketCounts = bucketCounts;
+            this.count = count;
+            this.sumNanos = sumNanos;
+            this.maxNanos = maxNanos;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getSumNanos() {
+            return sumNanos;
+        }
+
+        public long getMaxNanos() {
+            return maxNanos;
+        }
+
+        public long getMeanNanos() {
+            if (count == 0) {
+                return 0;
+            }
+            return sumNanos / count;
+        }
+
+        public int getBucketCount() {
+            return bucketCounts.length;
+        }
+
+        /**
+         * Get the number of durations in the bucket with the given index.
+         *
+         * @param bucketIndex the index of the bucket.
+         * @return the number of durations in the bucket.
+         * @see LatencyHistogram#getBucketUpperBoundMicros(int)
+         */
+        public long getBucket(int bucketIndex) {
+            return bucketCounts[bucketIndex];
+        }
+
+        /**
+         * Get an estimate of the given percentile, which is the upper bound of the bucket containing the percentile,
+         * but at most the maximum recorded duration.
+         *
+         * @param percentile the percentile, between 0 and 1.
+         * @return the estimated percentile in nanoseconds.
+         */
+        public long getPercentileNanos(double percentile) {
+            if (percentile < 0 || percentile > 1) {
+                throw new IllegalArgumentException("Percentile must be between 0 and 1, but was " + percentile);
+            }
+            long total = 0;
+            for (long bucketCount : bucketCounts) {
+                total += bucketCount;
+            }
+            if (total == 0) {
+                return 0;
+            }
+
+            long rank = Math.max(1, (long) Math.ceil(percentile * total));
+            long seen = 0;
+            for (int i = 0; i < bucketCounts.length; i++) {
+                seen += bucketCounts[i];
+                if (seen >= rank) {
+                    long upperBoundMicros = getBucketUpperBoundMicros(i);
+                    if (upperBoundMicros == Long.MAX_VALUE) {
+                        return maxNanos;
+                    }
+                    return Math.min(TimeUnit.MICROSECONDS.toNanos(upperBoundMicros), maxNanos);
+                }
+            }
+            return maxNanos;
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + count
+                + " mean=" + TimeUnit.NANOSECONDS.toMicros(getMeanNanos()) + "us"
+                + " p50=" + TimeUnit.NANOSECONDS.toMicros(getPercentileNanos(0.5)) + "us"
+                + " p99=" + TimeUnit.NANOSECONDS.toMicros(getPercentileNanos(0.99)) + "us"
+                + " max=" + TimeUnit.NANOSECONDS.toMicros(maxNanos) + "us";
+        }
+    }
+}
@@ -0,0 +1,48 @@
+/**
+ *
+ * Copyright 2021 Florian Schmaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.metrics;
+
+/**
+ * An exporter of connection metrics, e.g. to a monitoring system.
+ * <p>
+ * Exporters are either registered with {@link SmackMetrics#addExporter(MetricsExporter)}, or discovered via
+ * {@link java.util.ServiceLoader}, by listing the implementing class in
+ * <code>META-INF/services/org.jivesoftware.smack.metrics.MetricsExporter</code>. They are notified when the metrics
+ * of a connection become available, i.e. when a connection with enabled metrics got connected, and when they are
+ * no longer available, i.e. when the connection was closed. Exporters pull {@link MetricsSnapshot}s at their own
+ * pace, and should not retain the metrics of connections they were notified about being removed.
+ * </p>
+ *
+ * @since 4.5.0
+ */
+public interface MetricsExporter {
+
+    /**
+     * Invoked when the metrics of a connection became available.
+     *
+     * @param connectionMetrics the connection metrics.
+     */
+    void connectionMetricsAdded(ConnectionMetrics connectionMetrics);
+
+    /**
+     * Invoked when the metrics of a connection are no longer available.
+     *
+     * @param connectionMetrics the connection metrics.
+     */
+    void connectionMetricsRemoved(ConnectionMetrics connectionMetrics);
+
+}
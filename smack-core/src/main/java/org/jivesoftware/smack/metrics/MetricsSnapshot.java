@@ -0,0 +1,143 @@
+/**
+ *
+ * Copyright 2021 Florian Schmaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+
+import org.jivesoftware.smack.metrics.ConnectionMetrics.StanzaType;
+
+/**
+ * An immutable snapshot of the {@link ConnectionMetrics} of a connection.
+ *
+ * @since 4.5.0
+ */
+public final class MetricsSnapshot {
+
+    private final long timestamp;
+
+    private final long[] stanzasSent;
+
+    private final long[] stanzasReceived;
+
+    private final long bytesSent;
+
+    private final long bytesReceived;
+
+    private final Map<String, LatencyHistogram.Snapshot> iqRoundTripTimes;
+
+    private final LatencyHistogram.Snapshot parseTimes;
+
+    private final LatencyHistogram.Snapshot listenerExecutionTimes;
+
+    private final Map<String, Long> gauges;
+
+    MetricsSnapshot(long timestamp, long[] stanzasSent, long[] stanzasReceived, long bytesSent, long bytesReceived,
+                    Map<String, LatencyHistogram.Snapshot> iqRoundTripTimes, LatencyHistogram.Snapshot parseTimes,
+                    LatencyHistogram.Snapshot listenerExecutionTimes, Map<String, Long> gauges) {
+        this.timestamp = timestamp;
+        this.stanzasSent = stanzasSent;
+        this.stanzasReceived = stanzasReceived;
+        this.bytesSent = bytesSent;
+        this.bytesReceived = bytesReceived;
+        this.iqRoundTripTimes = Collections.unmodifiableMap(iqRoundTripTimes);
+        this.parseTimes = parseTimes;
+        this.listenerExecutionTimes = listenerExecutionTimes;
+        this.gauges = Collections.unmodifiableMap(gauges);
+    }
+
+    /**
+     * Get the time when this snapshot was taken.
+     *
+     * @return the time in milliseconds since the epoch.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public long getStanzasSent(StanzaType stanzaType) {
+        return stanzasSent[stanzaType.ordinal()];
+    }
+
+    public long getStanzasReceived(StanzaType stanzaType) {
+        return stanzasReceived[stanzaType.ordinal()];
+    }
+
+    /**
+     * Get the number of bytes sent. Only connections which have access to the raw bytes, like the modular TCP
+     * connection, count them.
+     *
+     * @return the number of bytes sent.
+     */
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    /**
+     * Get the number of bytes received. Only connections which have access to the raw bytes, like the modular TCP
+     * connection, count them.
+     *
+     * @return the number of bytes received.
+     */
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    /**
+     * Get the round-trip times of IQ requests, keyed by the namespace of the request's child element.
+     *
+     * @return the round-trip times by namespace.
+     */
+    public Map<String, LatencyHistogram.Snapshot> getIqRoundTripTimes() {
+        return iqRoundTripTimes;
+    }
+
+    public LatencyHistogram.Snapshot getParseTimes() {
+        return parseTimes;
+    }
+
+    public LatencyHistogram.Snapshot getListenerExecutionTimes() {
+        return listenerExecutionTimes;
+    }
+
+    /**
+     * Get the values of the gauges, keyed by the name of the gauge.
+     *
+     * @return the gauge values by name.
+     */
+    public Map<String, Long> getGauges() {
+        return gauges;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("MetricsSnapshot[");
+        for (StanzaType stanzaType : StanzaType.values()) {
+            sb.append(stanzaType).append("Sent=").append(getStanzasSent(stanzaType)).append(' ');
+            sb.append(stanzaType).append("Received=").append(getStanzasReceived(stanzaType)).append(' ');
+        }
+        sb.append("bytesSent=").append(bytesSent)
+          .append(" bytesReceived=").append(bytesReceived)
+          .append(" parseTimes=(").append(parseTimes)
+          .append(") listenerExecutionTimes=(").append(listenerExecutionTimes)
+          .append(") iqRoundTripTimes=").append(iqRoundTripTimes)
+          .append(" gauges=").append(gauges)
+          .append(']');
+        return sb.toString();
+    }
+}
@@ -0,0 +1,143 @@
+/**
+ *
+ * Copyright 2021 Florian Schmaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.metrics;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The registry of {@link MetricsExporter}s and of the metrics of the currently connected connections.
+ *
+ * @since 4.5.0
+ */
+public final class SmackMetrics {
+
+    private static final Logger LOGGER = Logger.getLogger(SmackMetrics.class.getName());
+
+    private static final Set<MetricsExporter> EXPORTERS = new CopyOnWriteArraySet<>();
+
+    private static final Set<ConnectionMetrics> ADDED_CONNECTION_METRICS = new CopyOnWriteArraySet<>();
+
+    private static volatile SmackTracer tracer = SmackTracer.NO_OP;
+
+    static {
+        try {
+            Iterator<MetricsExporter> it = ServiceLoader.load(MetricsExporter.class).iterator();
+            while (it.hasNext()) {
+                EXPORTERS.add(it.next());
+            }
+        } catch (ServiceConfigurationError e) {
+            LOGGER.log(Level.WARNING, "Could not load metrics exporters", e);
+        }
+    }
+
+    private SmackMetrics() {
+    }
+
+    /**
+     * Add a metrics exporter. The exporter is notified about the metrics of all currently connected connections with
+     * enabled metrics.
+     *
+     * @param exporter the exporter to add.
+     * @return <code>true</code> if the exporter was added, <code>false</code> if it was already added.
+     */
+    public static synchronized boolean addExporter(MetricsExporter exporter) {
+        if (!EXPORTERS.add(exporter)) {
+            return false;
+        }
+        for (ConnectionMetrics connectionMetrics : ADDED_CONNECTION_METRICS) {
+            exporter.connectionMetricsAdded(connectionMetrics);
+        }
+        return true;
+    }
+
+    /**
+     * Remove a metrics exporter.
+     *
+     * @param exporter the exporter to remove.
+     * @return <code>true</code> if the exporter was removed.
+     */
+    public static boolean removeExporter(MetricsExporter exporter) {
+        return EXPORTERS.remove(exporter);
+    }
+
+    public static Set<MetricsExporter> getExporters() {
+        return Collections.unmodifiableSet(EXPORTERS);
+    }
+
+    /**
+     * Get the metrics of all currently connected connections with enabled metrics.
+     *
+     * @return the metrics of the connected connections.
+     */
+    public static Set<ConnectionMetrics> getConnectionMetrics() {
+        return Collections.unmodifiableSet(ADDED_CONNECTION_METRICS);
+    }
+
+    /**
+     * Set the tracer of all connections and reactors of this JVM.
+     *
+     * @param tracer the tracer, or <code>null</code> to disable tracing.
+     */
+    public static void setTracer(SmackTracer tracer) {
+        if (tracer == null) {
+            tracer = SmackTracer.NO_OP;
+        }
+        SmackMetrics.tracer = tracer;
+    }
+
+    /**
+     * Get the tracer. If no tracer was set, then {@link SmackTracer#NO_OP} is returned.
+     *
+     * @return the tracer.
+     */
+    public static SmackTracer getTracer() {
+        return tracer;
+    }
+
+    static synchronized void add(ConnectionMetrics connectionMetrics) {
+        if (!ADDED_CONNECTION_METRICS.add(connectionMetrics)) {
+            return;
+        }
+        for (MetricsExporter exporter : EXPORTERS) {
+            try {
+                exporter.connectionMetricsAdded(connectionMetrics);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Exception in metrics exporter " + exporter, e);
+            }
+        }
+    }
+
+    static synchronized void remove(ConnectionMetrics connectionMetrics) {
+        if (!ADDED_CONNECTION_METRICS.remove(connectionMetrics)) {
+            return;
+        }
+        for (MetricsExporter exporter : EXPORTERS) {
+            try {
+                exporter.connectionMetricsRemoved(connectionMetrics);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Exception in metrics exporter " + exporter, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/**
+ *
+ * Copyright 2021 Florian Schmaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.metrics;
+
+import org.jivesoftware.smack.XMPPConnection;
+import org.jivesoftware.smack.packet.Stanza;
+
+/**
+ * A tracer receiving fine-grained events about the connections and the reactor, e.g. to emit them as events of a
+ * profiler. The tracer is set JVM wide via {@link SmackMetrics#setTracer(SmackTracer)}.
+ * <p>
+ * The methods of the tracer are invoked from Smack's hot paths, and hence must be cheap. Implementations should only
+ * perform costly operations if the corresponding event is actually recorded. In particular, they should not serialize a
+ * stanza to determine its size, instead the size is reported by the connection if it is known. Operations with a
+ * duration return a {@link Span}, which is ended once the operation is finished. The default implementations of all
+ * methods do nothing.
+ * </p>
+ *
+ * @since 4.5.0
+ */
+public interface SmackTracer {
+
+    /**
+     * A tracer which does nothing.
+     */
+    SmackTracer NO_OP = new SmackTracer() {
+    };
+
+    /**
+     * The size reported for a stanza whose size is not known to the connection.
+     */
+    long SIZE_UNKNOWN = -1;
+
+    /**
+     * The phases of establishing a connection whose duration is traced.
+     */
+    enum ConnectionPhase {
+        tlsHandshake,
+        saslAuthentication,
+        resourceBinding,
+        streamResumption,
+    }
+
+    /**
+     * An operation with a duration.
+     */
+    interface Span {
+
+        /**
+         * A span which does nothing.
+         */
+        Span NO_OP = new Span() {
+            @Override
+            public void end() {
+            }
+
+            @Override
+            public void fail(Exception exception) {
+            }
+        };
+
+        /**
+         * End the span after the operation finished successfully.
+         */
+        void end();
+
+        /**
+         * End the span after the operation failed.
+         *
+         * @param exception the exception causing the failure.
+         */
+        void fail(Exception exception);
+    }
+
+    /**
+     * Invoked when a stanza is about to be sent, after the stanza interceptors were invoked.
+     *
+     * @param connection the connection sending the stanza.
+     * @param stanza the stanza.
+     */
+    default void stanzaSent(XMPPConnection connection, Stanza stanza) {
+    }
+
+    /**
+     * Invoked once a stanza was written. Connections which encode the outgoing stanzas themselves invoke this after the
+     * stanza was written to the transport and report the number of bytes of the encoded stanza. Other connections
+     * invoke this once the stanza was handed to the transport, and report {@link #SIZE_UNKNOWN}.
+     *
+     * @param connection the connection which sent the stanza.
+     * @param stanza the stanza.
+     * @param size the number of bytes of the encoded stanza, or {@link #SIZE_UNKNOWN}.
+     */
+    default void stanzaWritten(XMPPConnection connection, Stanza stanza, long size) {
+    }
+
+    /**
+     * Invoked when a stanza was received, before the stanza collectors and listeners are invoked.
+     *
+     * @param connection the connection which received the stanza.
+     * @param stanza the stanza.
+     * @param size the number of characters of the stanza's XML as it was received, or {@link #SIZE_UNKNOWN}.
+     */
+    default void stanzaReceived(XMPPConnection connection, Stanza stanza, long size) {
+    }
+
+    /**
+     * Invoked when a phase of establishing a connection starts.
+     *
+     * @param connection the connection.
+     * @param connectionPhase the phase.
+     * @return the span of the phase.
+     */
+    default Span connectionPhaseStarted(XMPPConnection connection, ConnectionPhase connectionPhase) {
+        return Span.NO_OP;
+    }
+
+    /**
+     * Invoked when a stanza listener, or an IQ request handler, is about to process a stanza.
+     *
+     * @param connection the connection which received the stanza.
+     * @param listener the listener or IQ request handler.
+     * @param stanza the stanza.
+     * @return the span of the listener execution.
+     */
+    default Span listenerExecutionStarted(XMPPConnection connection, Object listener, Stanza stanza) {
+        return Span.NO_OP;
+    }
+
+    /**
+     * Invoked when a reactor thread starts handling selected channels. While the reactor thread is handling the
+     * channels, it is unable to handle further channels or scheduled actions.
+     *
+     * @param selectedKeysCount the number of selected channels the thread is about to handle.
+     * @return the span of handling the selected channels.
+     */
+    default Span reactorSelectedKeysHandlingStarted(int selectedKeysCount) {
+        return Span.NO_OP;
+    }
+
+    /**
+     * Invoked when a reactor thread starts running a scheduled action.
+     *
+     * @return the span of running the scheduled action.
+     */
+    default Span reactorScheduledActionStarted() {
+        return Span.NO_OP;
+    }
+}
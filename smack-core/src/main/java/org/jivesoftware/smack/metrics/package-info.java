@@ -0,0 +1,25 @@
+/**
+ *
+ * Copyright 2021 Florian Schmaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/**
+ * Structured, low-overhead metrics of XMPP connections.
+ * <p>
+ * Every connection has a {@link ConnectionMetrics} instance, which is only recording if metrics were enabled in the
+ * connection's configuration. Metrics can be pulled as {@link MetricsSnapshot}, or exported by a
+ * {@link MetricsExporter}.
+ * </p>
+ */
+package org.jivesoftware.smack.metrics;
@@ -19,6 +19,7 @@ package org.jivesoftware.smack.packet;
 
 import static org.jivesoftware.smack.util.StringUtils.requireNotNullNorEmpty;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
@@ -64,7 +65,7 @@ public abstract class Stanza implements StanzaView, TopLevelStreamElement {
     protected static final String DEFAULT_LANGUAGE =
             java.util.Locale.getDefault().getLanguage().toLowerCase(Locale.US);
 
-    private final MultiMap<QName, XmlElement> extensionElements;
+    private final XmlElementMultiMap extensionElements;
 
     // Assume that all stanzas Smack handles are in the client namespace, since Smack is an XMPP client library. We can
     // change this behavior later if it is required.
@@ -90,7 +91,7 @@ public abstract class Stanza implements StanzaView, TopLevelStreamElement {
     protected String language;
 
     protected Stanza() {
-        extensionElements = new MultiMap<>();
+        extensionElements = new XmlElementMultiMap();
         usedStanzaIdSource = null;
         id = StandardStanzaIdSource.DEFAULT.getNewStanzaId();
     }
@@ -115,7 +116,7 @@ public abstract class Stanza implements StanzaView, TopLevelStreamElement {
 
         language = stanzaBuilder.language;
 
-        extensionElements = stanzaBuilder.extensionElements.clone();
+        extensionElements = stanzaBuilder.extensionElements.copy();
     }
 
     protected Stanza(Stanza p) {
@@ -126,7 +127,9 @@ public abstract class Stanza implements StanzaView, TopLevelStreamElement {
         from = p.getFrom();
         error = p.error;
 
-        extensionElements = p.extensionElements.clone();
+        synchronized (p.extensionElements) {
+            extensionElements = p.extensionElements.copy();
+        }
     }
 
     @Override
@@ -286,21 +289,112 @@ public abstract class Stanza implements StanzaView, TopLevelStreamElement {
     @Override
     public final List<XmlElement> getExtensions() {
         synchronized (extensionElements) {
+            parseAllExtensions();
             // No need to create a new list, values() will already create a new one for us
             return extensionElements.values();
         }
     }
 
+    /**
+     * Get the qualified name of the first extension element of this stanza. Unlike {@link #getExtensions()}, this does
+     * not parse extension elements whose parsing was deferred.
+     *
+     * @return the qualified name of the first extension element, or <code>null</code> if there is none.
+     * @since 4.5.0
+     */
+    public final QName getFirstExtensionQName() {
+        synchronized (extensionElements) {
+            if (extensionElements.isEmpty()) {
+                return null;
+            }
+            return extensionElements.getKey(0);
+        }
+    }
+
+    /**
+     * Get the qualified names of the extension elements of this stanza, in document order. Unlike
+     * {@link #getExtensions()}, this does not parse extension elements whose parsing was deferred.
+     *
+     * @return the qualified names of the extension elements.
+     * @since 4.5.0
+     */
+    public final List<QName> getExtensionQNames() {
+        synchronized (extensionElements) {
+            final int size = extensionElements.size();
+            List<QName> qnames = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                qnames.add(extensionElements.getKey(i));
+            }
+            return qnames;
+        }
+    }
+
     public final MultiMap<QName, XmlElement> getExtensionsMap() {
-        return cloneExtensionsMap();
+        synchronized (extensionElements) {
+            parseAllExtensions();
+            return extensionElements.toMultiMap();
+        }
     }
 
-    final MultiMap<QName, XmlElement> cloneExtensionsMap() {
+    final XmlElementMultiMap cloneExtensionsMap() {
         synchronized (extensionElements) {
-            return extensionElements.clone();
+            parseAllExtensions();
+            return extensionElements.copy();
         }
     }
 
+    /**
+     * Replace the {@link UnparsedExtensionElement}s with the given qualified name by their parsed elements. Elements
+     * which could not be parsed are removed.
+     *
+     * @param qname the qualified name of the extensions to parse.
+     * @param max the maximum number of extensions to parse.
+     */
+    private void parseExtensions(QName qname, int max) {
+        assert Thread.holdsLock(extensionElements);
+        int index = extensionElements.indexOf(qname);
+        if (index < 0) {
+            return;
+        }
+        int i = index;
+        int parsed = 0;
+        while (parsed < max && i < extensionElements.size() && extensionElements.getKey(i).equals(qname)) {
+            if (parseExtension(i)) {
+                parsed++;
+                i++;
+            }
+        }
+    }
+
+    private void parseAllExtensions() {
+        for (int i = 0; i < extensionElements.size();) {
+            if (parseExtension(i)) {
+                i++;
+            }
+        }
+    }
+
+    /**
+     * Parse the extension at the given index, if it is an {@link UnparsedExtensionElement}.
+     *
+     * @param index the index of the extension.
+     * @return <code>false</code> if the extension could not be parsed, and was therefore removed.
+     */
+    private boolean parseExtension(int index) {
+        XmlElement extension = extensionElements.get(index);
+        if (!(extension instanceof UnparsedExtensionElement)) {
+            return true;
+        }
+        XmlElement parsedExtension = ((UnparsedExtensionElement) extension).parse();
+        if (parsedExtension == null) {
+            // Like with eager parsing, an extension which can not be parsed is skipped.
+            extensionElements.remove(index);
+            return false;
+        }
+        extensionElements.set(index, parsedExtension);
+        return true;
+    }
+
     /**
      * Return a list of all extensions with the given element name <em>and</em> namespace.
      * <p>
@@ -323,6 +417,7 @@ public abstract class Stanza implements StanzaView, TopLevelStreamElement {
     public final List<XmlElement> getExtensions(QName qname) {
         List<XmlElement> res;
         synchronized (extensionElements) {
+            parseExtensions(qname, Integer.MAX_VALUE);
             res = extensionElements.getAll(qname);
         }
         return Collections.unmodifiableList(res);
@@ -331,7 +426,8 @@ public abstract class Stanza implements StanzaView, TopLevelStreamElement {
     @Override
     public final <E extends ExtensionElement> List<E> getExtensions(Class<E> extensionElementClass) {
         synchronized (extensionElements) {
-            return XmppElementUtil.getElementsFrom(extensionElements, extensionElementClass);
+            parseExtensions(XmppElementUtil.getQNameFor(extensionElementClass), Integer.MAX_VALUE);
+            return extensionElements.getAll(extensionElementClass);
         }
     }
 
@@ -393,6 +489,7 @@ public abstract class Stanza implements StanzaView, TopLevelStreamElement {
     @Override
     public final XmlElement getExtension(QName qname) {
         synchronized (extensionElements) {
+            parseExtensions(qname, 1);
             return extensionElements.getFirst(qname);
         }
     }
@@ -468,11 +565,24 @@ public abstract class Stanza implements StanzaView, TopLevelStreamElement {
             return hasExtension(namespace);
         }
         QName key = new QName(namespace, elementName);
+        return hasExtension(key);
+    }
+
+    // Overridden in order to not parse an unparsed extension element.
+    @Override
+    public final boolean hasExtension(QName qname) {
         synchronized (extensionElements) {
-            return extensionElements.containsKey(key);
+            return extensionElements.containsKey(qname);
         }
     }
 
+    // Overridden in order to not parse an unparsed extension element.
+    @Override
+    public final boolean hasExtension(Class<? extends ExtensionElement> extensionElementClass) {
+        QName qname = XmppElementUtil.getQNameFor(extensionElementClass);
+        return hasExtension(qname);
+    }
+
     // Overridden in order to avoid an extra copy.
     @Override
     public final boolean hasExtension(String namespace) {
@@ -497,6 +607,7 @@ public abstract class Stanza implements StanzaView, TopLevelStreamElement {
     public final XmlElement removeExtension(String elementName, String namespace) {
         QName key = new QName(namespace, elementName);
         synchronized (extensionElements) {
+            parseExtensions(key, 1);
             return extensionElements.remove(key);
         }
     }
@@ -513,8 +624,7 @@ public abstract class Stanza implements StanzaView, TopLevelStreamElement {
     public final XmlElement removeExtension(XmlElement extension)  {
         QName key = extension.getQName();
         synchronized (extensionElements) {
-            List<XmlElement> list = extensionElements.getAll(key);
-            boolean removed = list.remove(extension);
+            boolean removed = extensionElements.removeOne(key, extension);
             if (removed) {
                 return extension;
             }
@@ -23,10 +23,8 @@ import javax.xml.namespace.QName;
 
 import org.jivesoftware.smack.packet.id.StanzaIdSource;
 import org.jivesoftware.smack.util.Function;
-import org.jivesoftware.smack.util.MultiMap;
 import org.jivesoftware.smack.util.StringUtils;
 import org.jivesoftware.smack.util.ToStringUtil;
-import org.jivesoftware.smack.util.XmppElementUtil;
 
 import org.jxmpp.jid.Jid;
 import org.jxmpp.jid.impl.JidCreate;
@@ -44,7 +42,7 @@ public abstract class StanzaBuilder<B extends StanzaBuilder<B>> implements Stanz
 
     String language;
 
-    MultiMap<QName, XmlElement> extensionElements = new MultiMap<>();
+    XmlElementMultiMap extensionElements = new XmlElementMultiMap();
 
     protected StanzaBuilder(StanzaBuilder<?> other) {
         stanzaIdSource = other.stanzaIdSource;
@@ -54,7 +52,7 @@ public abstract class StanzaBuilder<B extends StanzaBuilder<B>> implements Stanz
         from = other.from;
         stanzaError = other.stanzaError;
         language = other.language;
-        extensionElements = other.extensionElements.clone();
+        extensionElements = other.extensionElements.copy();
     }
 
     protected StanzaBuilder(StanzaIdSource stanzaIdSource) {
@@ -230,7 +228,7 @@ public abstract class StanzaBuilder<B extends StanzaBuilder<B>> implements Stanz
 
     @Override
     public final <E extends ExtensionElement> List<E> getExtensions(Class<E> extensionElementClass) {
-        return XmppElementUtil.getElementsFrom(extensionElements, extensionElementClass);
+        return extensionElements.getAll(extensionElementClass);
     }
 
     public final boolean willBuildStanzaWithId() {
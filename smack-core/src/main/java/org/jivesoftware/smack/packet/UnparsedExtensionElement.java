@@ -0,0 +1,188 @@
+/**
+ *
+ * Copyright 2021 Florian Schmaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.packet;
+
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jivesoftware.smack.SmackConfiguration;
+import org.jivesoftware.smack.parsing.SmackParsingException;
+import org.jivesoftware.smack.util.PacketParserUtils;
+import org.jivesoftware.smack.util.XmlStringBuilder;
+import org.jivesoftware.smack.xml.XmlPullParser;
+import org.jivesoftware.smack.xml.XmlPullParserException;
+
+/**
+ * An extension element of a received stanza whose parsing was deferred, because lazy extension element parsing is
+ * enabled. See {@link SmackConfiguration#setLazyExtensionElementParsing(boolean)}.
+ * <p>
+ * The element is retained as raw XML, together with the namespace declarations in scope. Only once the extension is
+ * requested from the stanza, it is handed to the registered provider via {@link #parse()}. The stanza then replaces
+ * this element with the parsed one. Checking for the presence of an extension, e.g. via
+ * {@link Stanza#hasExtension(String, String)}, does not require the extension to be parsed.
+ * </p>
+ * <p>
+ * If the provider fails to parse the element, then the stanza removes the element, just like the extension would
+ * have been skipped if it was parsed eagerly. Hence an extension whose presence was reported may not be returned once
+ * it is requested.
+ * </p>
+ *
+ * @since 4.5.0
+ */
+public final class UnparsedExtensionElement implements XmlElement {
+
+    private static final Logger LOGGER = Logger.getLogger(UnparsedExtensionElement.class.getName());
+
+    private final String elementName;
+
+    private final String namespace;
+
+    private final String xml;
+
+    /**
+     * The namespace declarations in scope of the element, as pairs of prefix and namespace. The prefix of the default
+     * namespace is <code>null</code>.
+     */
+    private final String[] namespaceDeclarations;
+
+    private final XmlEnvironment outerXmlEnvironment;
+
+    private XmlElement parsedElement;
+
+    private boolean parsingFailed;
+
+    private UnparsedExtensionElement(String elementName, String namespace, String xml, String[] namespaceDeclarations,
+                    XmlEnvironment outerXmlEnvironment) {
+        this.elementName = elementName;
+        this.namespace = namespace;
+        this.xml = xml;
+        this.namespaceDeclarations = namespaceDeclarations;
+        this.outerXmlEnvironment = outerXmlEnvironment;
+    }
+
+    @Override
+    public String getElementName() {
+        return elementName;
+    }
+
+    @Override
+    public String getNamespace() {
+        return namespace;
+    }
+
+    /**
+     * Get the raw XML of this element.
+     *
+     * @return the raw XML.
+     */
+    public String getXml() {
+        return xml;
+    }
+
+    @Override
+    public CharSequence toXML(XmlEnvironment xmlEnvironment) {
+        return xml;
+    }
+
+    /**
+     * Parse this element with the provider registered for it. The result is memoized. If the provider fails to parse
+     * the element, then the failure is logged and <code>null</code> is returned.
+     *
+     * @return the parsed element, or <code>null</code> if the element could not be parsed.
+     */
+    public synchronized XmlElement parse() {
+        if (parsedElement != null || parsingFailed) {
+            return parsedElement;
+        }
+
+        XmlStringBuilder wrapper = new XmlStringBuilder();
+        wrapper.halfOpenElement("unparsed");
+        for (int i = 0; i < namespaceDeclarations.length; i += 2) {
+            String prefix = namespaceDeclarations[i];
+            String attributeName = prefix == null ? "xmlns" : "xmlns:" + prefix;
+            wrapper.attribute(attributeName, namespaceDeclarations[i + 1]);
+        }
+        wrapper.rightAngleBracket();
+        wrapper.append(xml);
+        wrapper.closeElement("unparsed");
+
+        try {
+            XmlPullParser parser = PacketParserUtils.getParserFor(wrapper.toString());
+            parser.nextTag();
+            parsedElement = PacketParserUtils.parseExtensionElement(elementName, namespace, parser,
+                            outerXmlEnvironment);
+        } catch (XmlPullParserException | IOException | SmackParsingException e) {
+            LOGGER.log(Level.WARNING, "Failed to parse deferred extension element " + xml, e);
+            parsingFailed = true;
+        }
+        return parsedElement;
+    }
+
+    /**
+     * Retain the element the parser is positioned at as unparsed extension element. Afterwards, the parser is
+     * positioned at the end of the element.
+     *
+     * @param parser the parser positioned at the start of the element.
+     * @param outerXmlEnvironment the outer XML environment.
+     * @return the unparsed extension element.
+     * @throws XmlPullParserException if an error in the XML parser occurred.
+     * @throws IOException if an I/O error occurred.
+     */
+    public static UnparsedExtensionElement from(XmlPullParser parser, XmlEnvironment outerXmlEnvironment)
+                    throws XmlPullParserException, IOException {
+        final String elementName = parser.getName();
+        final String namespace = parser.getNamespace();
+
+        // Collect the namespace declarations in scope, where inner declarations shadow outer ones.
+        final int namespaceCount = parser.getNamespaceCount();
+        String[] namespaceDeclarations = new String[2 * namespaceCount + 2];
+        int declarations = 0;
+        boolean defaultNamespaceDeclared = false;
+        outerloop: for (int i = namespaceCount - 1; i >= 0; i--) {
+            String prefix = parser.getNamespacePrefix(i);
+            if (prefix != null && prefix.isEmpty()) {
+                prefix = null;
+            }
+            for (int j = 0; j < declarations; j += 2) {
+                String declaredPrefix = namespaceDeclarations[j];
+                if (prefix == null ? declaredPrefix == null : prefix.equals(declaredPrefix)) {
+                    continue outerloop;
+                }
+            }
+            namespaceDeclarations[declarations++] = prefix;
+            namespaceDeclarations[declarations++] = parser.getNamespaceUri(i);
+            if (prefix == null) {
+                defaultNamespaceDeclared = true;
+            }
+        }
+        if (!defaultNamespaceDeclared && parser.getPrefix() == null && !namespace.isEmpty()) {
+            // Some parsers only report the declarations of the current element.
+            namespaceDeclarations[declarations++] = null;
+            namespaceDeclarations[declarations++] = namespace;
+        }
+        if (declarations < namespaceDeclarations.length) {
+            String[] trimmed = new String[declarations];
+            System.arraycopy(namespaceDeclarations, 0, trimmed, 0, declarations);
+            namespaceDeclarations = trimmed;
+        }
+
+        String xml = PacketParserUtils.parseElement(parser, true).toString();
+
+        return new UnparsedExtensionElement(elementName, namespace, xml, namespaceDeclarations, outerXmlEnvironment);
+    }
+}
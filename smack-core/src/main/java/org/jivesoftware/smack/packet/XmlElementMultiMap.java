@@ -0,0 +1,319 @@
+/**
+ *
+ * Copyright 2021 Florian Schmaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.packet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.namespace.QName;
+
+import org.jivesoftware.smack.util.MultiMap;
+import org.jivesoftware.smack.util.XmppElementUtil;
+
+/**
+ * A compact multi-map holding the extension elements of a stanza, keyed by their qualified names.
+ * <p>
+ * Most stanzas carry only a handful of extension elements. Hence the elements are held in two parallel arrays, which
+ * are searched linearly, instead of a hash map of lists as in {@link MultiMap}. Only once the map holds more than
+ * {@link #HASH_INDEX_THRESHOLD} elements, a hash index of the keys is (lazily) created. Elements with the same key
+ * are kept adjacent and in insertion order, so the order of {@link #values()} is the same as with {@link MultiMap}.
+ * </p>
+ * <p>
+ * Copies created by {@link #copy()} share the arrays with the original map, until either of them is modified. This
+ * makes copying the extension elements, e.g. when a stanza is turned into a builder, cheap.
+ * </p>
+ * <p>
+ * This class is not thread-safe.
+ * </p>
+ */
+final class XmlElementMultiMap {
+
+    static final int HASH_INDEX_THRESHOLD = 8;
+
+    private static final int INITIAL_CAPACITY = 4;
+
+    private static final QName[] NO_KEYS = new QName[0];
+
+    private static final XmlElement[] NO_VALUES = new XmlElement[0];
+
+    private QName[] keys = NO_KEYS;
+
+    private XmlElement[] values = NO_VALUES;
+
+    private int size;
+
+    /**
+     * If the arrays are shared with a copy of this map, in which case they must be copied before they are modified.
+     */
+    private boolean arraysShared;
+
+    /**
+     * Maps every key to the index of its first value. Only used if there are more than {@link #HASH_INDEX_THRESHOLD}
+     * elements. Discarded by every modification.
+     */
+    private Map<QName, Integer> hashIndex;
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    QName getKey(int index) {
+        checkIndex(index);
+        return keys[index];
+    }
+
+    XmlElement get(int index) {
+        checkIndex(index);
+        return values[index];
+    }
+
+    void set(int index, XmlElement value) {
+        checkIndex(index);
+        assert keys[index].equals(value.getQName());
+        prepareForModification(size);
+        values[index] = value;
+    }
+
+    /**
+     * Get the index of the first value with the given key.
+     *
+     * @param key the key.
+     * @return the index of the first value, or -1.
+     */
+    int indexOf(QName key) {
+        if (size > HASH_INDEX_THRESHOLD) {
+            Map<QName, Integer> hashIndex = this.hashIndex;
+            if (hashIndex == null) {
+                hashIndex = new HashMap<>(2 * size);
+                for (int i = size - 1; i >= 0; i--) {
+                    hashIndex.put(keys[i], i);
+                }
+                this.hashIndex = hashIndex;
+            }
+            Integer index = hashIndex.get(key);
+            if (index == null) {
+                return -1;
+            }
+            return index;
+        }
+
+        for (int i = 0; i < size; i++) {
+            if (isKey(i, key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private boolean isKey(int index, QName key) {
+        QName candidate = keys[index];
+        return candidate == key || candidate.equals(key);
+    }
+
+    /**
+     * Get the number of values with the given key, which are adjacent starting at the given index.
+     */
+    private int countFrom(int index, QName key) {
+        int end = index + 1;
+        while (end < size && isKey(end, key)) {
+            end++;
+        }
+        return end - index;
+    }
+
+    boolean containsKey(QName key) {
+        return indexOf(key) >= 0;
+    }
+
+    XmlElement getFirst(QName key) {
+        int index = indexOf(key);
+        if (index < 0) {
+            return null;
+        }
+        return values[index];
+    }
+
+    List<XmlElement> getAll(QName key) {
+        int index = indexOf(key);
+        if (index < 0) {
+            return Collections.emptyList();
+        }
+        int count = countFrom(index, key);
+        List<XmlElement> res = new ArrayList<>(count);
+        for (int i = index; i < index + count; i++) {
+            res.add(values[i]);
+        }
+        return res;
+    }
+
+    <E extends ExtensionElement> List<E> getAll(Class<E> extensionElementClass) {
+        QName key = XmppElementUtil.getQNameFor(extensionElementClass);
+        int index = indexOf(key);
+        if (index < 0) {
+            return Collections.emptyList();
+        }
+        int count = countFrom(index, key);
+        List<E> res = new ArrayList<>(count);
+        for (int i = index; i < index + count; i++) {
+            res.add(XmppElementUtil.castOrThrow(values[i], extensionElementClass));
+        }
+        return res;
+    }
+
+    List<XmlElement> values() {
+        List<XmlElement> res = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            res.add(values[i]);
+        }
+        return res;
+    }
+
+    void put(QName key, XmlElement value) {
+        int index = indexOf(key);
+        int insertionIndex;
+        if (index < 0) {
+            insertionIndex = size;
+        } else {
+            insertionIndex = index + countFrom(index, key);
+        }
+
+        prepareForModification(size + 1);
+        int moved = size - insertionIndex;
+        if (moved > 0) {
+            System.arraycopy(keys, insertionIndex, keys, insertionIndex + 1, moved);
+            System.arraycopy(values, insertionIndex, values, insertionIndex + 1, moved);
+        }
+        keys[insertionIndex] = key;
+        values[insertionIndex] = value;
+        size++;
+    }
+
+    /**
+     * Remove all values with the given key.
+     *
+     * @param key the key.
+     * @return the first removed value, or <code>null</code>.
+     */
+    XmlElement remove(QName key) {
+        int index = indexOf(key);
+        if (index < 0) {
+            return null;
+        }
+        XmlElement first = values[index];
+        removeRange(index, countFrom(index, key));
+        return first;
+    }
+
+    /**
+     * Remove the value at the given index.
+     *
+     * @param index the index.
+     */
+    void remove(int index) {
+        checkIndex(index);
+        removeRange(index, 1);
+    }
+
+    /**
+     * Remove the first value with the given key that is equal to the given value.
+     *
+     * @param key the key.
+     * @param value the value.
+     * @return <code>true</code> if a value was removed.
+     */
+    boolean removeOne(QName key, XmlElement value) {
+        int index = indexOf(key);
+        if (index < 0) {
+            return false;
+        }
+        int end = index + countFrom(index, key);
+        for (int i = index; i < end; i++) {
+            if (values[i].equals(value)) {
+                removeRange(i, 1);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void removeRange(int index, int count) {
+        prepareForModification(size);
+        int moved = size - index - count;
+        if (moved > 0) {
+            System.arraycopy(keys, index + count, keys, index, moved);
+            System.arraycopy(values, index + count, values, index, moved);
+        }
+        size -= count;
+        Arrays.fill(keys, size, size + count, null);
+        Arrays.fill(values, size, size + count, null);
+    }
+
+    /**
+     * Create a copy of this map. The copy shares the arrays with this map until either of them is modified.
+     *
+     * @return a copy of this map.
+     */
+    XmlElementMultiMap copy() {
+        XmlElementMultiMap copy = new XmlElementMultiMap();
+        if (size == 0) {
+            return copy;
+        }
+        copy.keys = keys;
+        copy.values = values;
+        copy.size = size;
+        copy.arraysShared = true;
+        arraysShared = true;
+        return copy;
+    }
+
+    MultiMap<QName, XmlElement> toMultiMap() {
+        MultiMap<QName, XmlElement> multiMap = new MultiMap<>(size);
+        for (int i = 0; i < size; i++) {
+            multiMap.put(keys[i], values[i]);
+        }
+        return multiMap;
+    }
+
+    private void prepareForModification(int requiredCapacity) {
+        hashIndex = null;
+        if (!arraysShared && requiredCapacity <= keys.length) {
+            return;
+        }
+
+        int capacity = keys.length;
+        if (requiredCapacity > capacity) {
+            capacity = Math.max(INITIAL_CAPACITY, Math.max(requiredCapacity, 2 * capacity));
+        }
+        keys = Arrays.copyOf(keys, capacity);
+        values = Arrays.copyOf(values, capacity);
+        arraysShared = false;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " is out of bounds for size " + size);
+        }
+    }
+}
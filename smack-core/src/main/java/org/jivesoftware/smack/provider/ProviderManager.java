@@ -17,10 +17,7 @@
 
 package org.jivesoftware.smack.provider;
 
-import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 import javax.xml.namespace.QName;
 
@@ -112,10 +109,10 @@ import org.jivesoftware.smack.util.XmppElementUtil;
  */
 public final class ProviderManager {
 
-    private static final Map<QName, ExtensionElementProvider<ExtensionElement>> extensionProviders = new ConcurrentHashMap<>();
-    private static final Map<QName, IqProvider<IQ>> iqProviders = new ConcurrentHashMap<>();
-    private static final Map<QName, ExtensionElementProvider<ExtensionElement>> streamFeatureProviders = new ConcurrentHashMap<>();
-    private static final Map<QName, NonzaProvider<? extends Nonza>> nonzaProviders = new ConcurrentHashMap<>();
+    private static final ProviderRegistry<ExtensionElementProvider<ExtensionElement>> extensionProviders = new ProviderRegistry<>();
+    private static final ProviderRegistry<IqProvider<IQ>> iqProviders = new ProviderRegistry<>();
+    private static final ProviderRegistry<ExtensionElementProvider<ExtensionElement>> streamFeatureProviders = new ProviderRegistry<>();
+    private static final ProviderRegistry<NonzaProvider<? extends Nonza>> nonzaProviders = new ProviderRegistry<>();
 
     static {
         // Ensure that Smack is initialized by calling getVersion, so that user
@@ -168,8 +165,7 @@ public final class ProviderManager {
      * @return the IQ provider.
      */
     public static IqProvider<IQ> getIQProvider(String elementName, String namespace) {
-        QName key = getQName(elementName, namespace);
-        return iqProviders.get(key);
+        return iqProviders.get(elementName, namespace);
     }
 
     /**
@@ -180,9 +176,7 @@ public final class ProviderManager {
      * @return all IQProvider instances.
      */
     public static List<IqProvider<IQ>> getIQProviders() {
-        List<IqProvider<IQ>> providers = new ArrayList<>(iqProviders.size());
-        providers.addAll(iqProviders.values());
-        return providers;
+        return iqProviders.values();
     }
 
     /**
@@ -242,8 +236,7 @@ public final class ProviderManager {
      * @return the extension provider.
      */
     public static ExtensionElementProvider<ExtensionElement> getExtensionProvider(String elementName, String namespace) {
-        QName key = getQName(elementName, namespace);
-        return getExtensionProvider(key);
+        return extensionProviders.get(elementName, namespace);
     }
 
     public static ExtensionElementProvider<ExtensionElement> getExtensionProvider(QName qname) {
@@ -295,30 +288,24 @@ public final class ProviderManager {
      * @return all PacketExtensionProvider instances.
      */
     public static List<ExtensionElementProvider<ExtensionElement>> getExtensionProviders() {
-        List<ExtensionElementProvider<ExtensionElement>> providers = new ArrayList<>(extensionProviders.size());
-        providers.addAll(extensionProviders.values());
-        return providers;
+        return extensionProviders.values();
     }
 
     public static ExtensionElementProvider<ExtensionElement> getStreamFeatureProvider(String elementName, String namespace) {
-        QName key = getQName(elementName, namespace);
-        return streamFeatureProviders.get(key);
+        return streamFeatureProviders.get(elementName, namespace);
     }
 
     public static void addStreamFeatureProvider(String elementName, String namespace, ExtensionElementProvider<ExtensionElement> provider) {
         validate(elementName, namespace);
-        QName key = getQName(elementName, namespace);
-        streamFeatureProviders.put(key, provider);
+        streamFeatureProviders.put(elementName, namespace, provider);
     }
 
     public static void removeStreamFeatureProvider(String elementName, String namespace) {
-        QName key = getQName(elementName, namespace);
-        streamFeatureProviders.remove(key);
+        streamFeatureProviders.remove(elementName, namespace);
     }
 
     public static NonzaProvider<? extends Nonza> getNonzaProvider(String elementName, String namespace) {
-        QName key = getQName(elementName, namespace);
-        return getNonzaProvider(key);
+        return nonzaProviders.get(elementName, namespace);
     }
 
     public static NonzaProvider<? extends Nonza> getNonzaProvider(QName key) {
@@ -337,8 +324,7 @@ public final class ProviderManager {
     }
 
     public static void removeNonzaProvider(String elementName, String namespace) {
-        QName key = getQName(elementName, namespace);
-        nonzaProviders.remove(key);
+        nonzaProviders.remove(elementName, namespace);
     }
 
     private static QName getQName(String elementName, String namespace) {
@@ -0,0 +1,151 @@
+/**
+ *
+ * Copyright 2021 Florian Schmaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.provider;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.xml.namespace.QName;
+
+/**
+ * A registry of providers keyed by element name and namespace.
+ * <p>
+ * Lookups are served from an immutable open-addressing table, which is indexed by the hash codes of the element name
+ * and namespace Strings. Hence looking up a provider with the element name and namespace reported by the XML pull
+ * parser does neither require to allocate a key, nor to acquire a lock. As Strings cache their hash code and the
+ * parsers intern names, a lookup usually boils down to a few array accesses and identity comparisons.
+ * </p>
+ * <p>
+ * Adding or removing a provider discards the table, which is then lazily rebuilt by the next lookup. This keeps
+ * registering the many providers during Smack's initialization cheap.
+ * </p>
+ *
+ * @param <P> the type of the providers.
+ */
+final class ProviderRegistry<P> {
+
+    private final Map<QName, P> providers = new ConcurrentHashMap<>();
+
+    private volatile LookupTable lookupTable;
+
+    P get(String elementName, String namespace) {
+        if (elementName == null) {
+            return null;
+        }
+        if (namespace == null) {
+            // Same as with QName, where a null namespace is the empty namespace.
+            namespace = "";
+        }
+
+        LookupTable lookupTable = this.lookupTable;
+        if (lookupTable == null) {
+            lookupTable = buildLookupTable();
+        }
+        @SuppressWarnings("unchecked")
+        P provider = (P) lookupTable.get(elementName, namespace);
+        return provider;
+    }
+
+    P get(QName qname) {
+        return get(qname.getLocalPart(), qname.getNamespaceURI());
+    }
+
+    synchronized P put(QName qname, P provider) {
+        P previousProvider = providers.put(qname, provider);
+        lookupTable = null;
+        return previousProvider;
+    }
+
+    P put(String elementName, String namespace, P provider) {
+        return put(new QName(namespace, elementName), provider);
+    }
+
+    synchronized P remove(QName qname) {
+        P provider = providers.remove(qname);
+        if (provider != null) {
+            lookupTable = null;
+        }
+        return provider;
+    }
+
+    P remove(String elementName, String namespace) {
+        return remove(new QName(namespace, elementName));
+    }
+
+    List<P> values() {
+        return new ArrayList<>(providers.values());
+    }
+
+    private synchronized LookupTable buildLookupTable() {
+        // Another thread may have built the table while we were waiting for the lock.
+        LookupTable lookupTable = this.lookupTable;
+        if (lookupTable == null) {
+            lookupTable = new LookupTable(providers);
+            this.lookupTable = lookupTable;
+        }
+        return lookupTable;
+    }
+
+    private static int hash(String elementName, String namespace) {
+        int hash = 31 * namespace.hashCode() + elementName.hashCode();
+        return hash ^ (hash >>> 16);
+    }
+
+    private static final class LookupTable {
+        private final String[] elementNames;
+        private final String[] namespaces;
+        private final Object[] providers;
+
+        private LookupTable(Map<QName, ?> providers) {
+            // Keep the load factor at or below 0.5, so that probe sequences stay short.
+            int size = Integer.highestOneBit(Math.max(4, providers.size()) * 2 - 1) << 1;
+            elementNames = new String[size];
+            namespaces = new String[size];
+            this.providers = new Object[size];
+
+            final int mask = size - 1;
+            for (Map.Entry<QName, ?> entry : providers.entrySet()) {
+                // XML pull parsers intern names, hence interning them here makes the lookups hit the identity
+                // comparison fast path of String.equals().
+                String elementName = entry.getKey().getLocalPart().intern();
+                String namespace = entry.getKey().getNamespaceURI().intern();
+                int i = hash(elementName, namespace) & mask;
+                while (elementNames[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                elementNames[i] = elementName;
+                namespaces[i] = namespace;
+                this.providers[i] = entry.getValue();
+            }
+        }
+
+        private Object get(String elementName, String namespace) {
+            final int mask = elementNames.length - 1;
+            for (int i = hash(elementName, namespace) & mask;; i = (i + 1) & mask) {
+                String candidateElementName = elementNames[i];
+                if (candidateElementName == null) {
+                    return null;
+                }
+                if (candidateElementName.equals(elementName) && namespaces[i].equals(namespace)) {
+                    return providers[i];
+                }
+            }
+        }
+    }
+}
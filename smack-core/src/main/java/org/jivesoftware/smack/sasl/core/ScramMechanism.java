@@ -33,7 +33,6 @@ import org.jivesoftware.smack.util.SHA1;
 import org.jivesoftware.smack.util.StringUtils;
 import org.jivesoftware.smack.util.stringencoder.Base64;
 
-import org.jxmpp.util.cache.Cache;
 import org.jxmpp.util.cache.LruCache;
 
 public abstract class ScramMechanism extends SASLMechanism {
@@ -50,7 +49,29 @@ public abstract class ScramMechanism extends SASLMechanism {
         }
     };
 
-    private static final Cache<String, Keys> CACHE = new LruCache<String, Keys>(10);
+    private static final LruCache<String, Keys> CACHE = new LruCache<String, Keys>(10);
+
+    /**
+     * Set the maximum number of entries in the cache of derived client and server keys. Deriving the keys is
+     * deliberately expensive, hence the cache should be large enough to hold an entry for every account which
+     * re-authenticates regularly, e.g. after a reconnect. The default is 10.
+     *
+     * @param keysCacheSize the maximum number of cached keys.
+     * @since 4.5.0
+     */
+    public static void setKeysCacheSize(int keysCacheSize) {
+        CACHE.setMaxCacheSize(keysCacheSize);
+    }
+
+    /**
+     * Get the maximum number of entries in the cache of derived client and server keys.
+     *
+     * @return the maximum number of cached keys.
+     * @since 4.5.0
+     */
+    public static int getKeysCacheSize() {
+        return CACHE.getMaxCacheSize();
+    }
 
     private final ScramHmac scramHmac;
 
@@ -0,0 +1,221 @@
+/**
+ *
+ * Copyright 2021 Florian Schmaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.util;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of {@link ByteBuffer}s, organized in size classes, shared by the connections using Smack's reactor.
+ * <p>
+ * Instead of holding their I/O buffers for their whole lifetime, connections borrow buffers from the pool only while
+ * data is in flight and release them once they become idle again. A borrowed buffer has at least the requested
+ * capacity, which is rounded up to the next size class. Buffers larger than the largest size class are allocated on
+ * demand and not pooled. The number of bytes pooled is bounded separately for direct and for heap buffers.
+ * </p>
+ * <p>
+ * A buffer must be released at most once, and must not be used after it was released.
+ * </p>
+ *
+ * @since 4.5.0
+ */
+public final class ByteBufferPool {
+
+    private static final int[] SIZE_CLASSES = {
+                    1024,
+                    2 * 1024,
+                    4 * 1024,
+                    6 * 1024,
+                    8 * 1024,
+                    12 * 1024,
+                    16 * 1024,
+                    24 * 1024,
+                    32 * 1024,
+                    48 * 1024,
+                    64 * 1024,
+    };
+
+    public static final long DEFAULT_MAX_POOLED_BYTES = 8 * 1024 * 1024;
+
+    private static final ByteBufferPool INSTANCE = new ByteBufferPool(DEFAULT_MAX_POOLED_BYTES, DEFAULT_MAX_POOLED_BYTES);
+
+    /**
+     * Get the pool shared by Smack's reactor transports.
+     *
+     * @return the shared pool.
+     */
+    public static ByteBufferPool getInstance() {
+        return INSTANCE;
+    }
+
+    private final Kind direct;
+    private final Kind heap;
+
+    private final AtomicLong borrowed = new AtomicLong();
+    private final AtomicLong allocated = new AtomicLong();
+
+    public ByteBufferPool(long maxPooledDirectBytes, long maxPooledHeapBytes) {
+        direct = new Kind(maxPooledDirectBytes);
+        heap = new Kind(maxPooledHeapBytes);
+    }
+
+    /**
+     * Borrow a direct buffer with at least the given capacity. The buffer is cleared.
+     *
+     * @param minCapacity the minimal capacity of the buffer.
+     * @return a direct buffer.
+     */
+    public ByteBuffer borrowDirect(int minCapacity) {
+        return borrow(direct, minCapacity);
+    }
+
+    /**
+     * Borrow a heap buffer with at least the given capacity. The buffer is cleared.
+     *
+     * @param minCapacity the minimal capacity of the buffer.
+     * @return a heap buffer.
+     */
+    public ByteBuffer borrowHeap(int minCapacity) {
+        return borrow(heap, minCapacity);
+    }
+
+    private ByteBuffer borrow(Kind kind, int minCapacity) {
+        borrowed.incrementAndGet();
+
+        int sizeClass = sizeClassFor(minCapacity);
+        ByteBuffer buffer = null;
+        if (sizeClass >= 0) {
+            buffer = kind.poll(sizeClass);
+        }
+
+        if (buffer == null) {
+            int capacity = sizeClass >= 0 ? SIZE_CLASSES[sizeClass] : minCapacity;
+            if (kind == direct) {
+                buffer = ByteBuffer.allocateDirect(capacity);
+            } else {
+                buffer = ByteBuffer.allocate(capacity);
+            }
+            allocated.incrementAndGet();
+        }
+
+        kind.bytesInUse.addAndGet(buffer.capacity());
+        return buffer;
+    }
+
+    /**
+     * Release a buffer previously borrowed from this pool.
+     *
+     * @param buffer the buffer to release.
+     */
+    public void release(ByteBuffer buffer) {
+        Kind kind = buffer.isDirect() ? direct : heap;
+        int capacity = buffer.capacity();
+        kind.bytesInUse.addAndGet(-capacity);
+
+        int sizeClass = sizeClassFor(capacity);
+        if (sizeClass < 0 || SIZE_CLASSES[sizeClass] != capacity) {
+            // Not a buffer of a size class, leave it to the garbage collector.
+            return;
+        }
+
+        buffer.clear();
+        kind.offer(sizeClass, buffer);
+    }
+
+    private static int sizeClassFor(int capacity) {
+        for (int i = 0; i < SIZE_CLASSES.length; i++) {
+            if (capacity <= SIZE_CLASSES[i]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public Stats getStats() {
+        return new Stats(this);
+    }
+
+    private static final class Kind {
+        private final long maxPooledBytes;
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private final ArrayDeque<ByteBuffer>[] pooledBuffers = new ArrayDeque[SIZE_CLASSES.length];
+
+        private final AtomicLong bytesInUse = new AtomicLong();
+
+        private long pooledBytes;
+
+        private Kind(long maxPooledBytes) {
+            this.maxPooledBytes = maxPooledBytes;
+            for (int i = 0; i < pooledBuffers.length; i++) {
+                pooledBuffers[i] = new ArrayDeque<>();
+            }
+        }
+
+        private synchronized ByteBuffer poll(int sizeClass) {
+            ByteBuffer buffer = pooledBuffers[sizeClass].pollFirst();
+            if (buffer != null) {
+                pooledBytes -= buffer.capacity();
+            }
+            return buffer;
+        }
+
+        private synchronized void offer(int sizeClass, ByteBuffer buffer) {
+            int capacity = buffer.capacity();
+            if (pooledBytes + capacity > maxPooledBytes) {
+                return;
+            }
+            pooledBytes += capacity;
+            pooledBuffers[sizeClass].addFirst(buffer);
+        }
+
+        private synchronized long getPooledBytes() {
+            return pooledBytes;
+        }
+    }
+
+    public static final class Stats {
+        public final long directBytesInUse;
+        public final long heapBytesInUse;
+        public final long directBytesPooled;
+        public final long heapBytesPooled;
+        public final long borrowed;
+        public final long allocated;
+
+        private Stats(ByteBufferPool pool) {
+            directBytesInUse = pool.direct.bytesInUse.get();
+            heapBytesInUse = pool.heap.bytesInUse.get();
+            directBytesPooled = pool.direct.getPooledBytes();
+            heapBytesPooled = pool.heap.getPooledBytes();
+            borrowed = pool.borrowed.get();
+            allocated = pool.allocated.get();
+        }
+
+        @Override
+        public String toString() {
+            return
+              "direct-bytes-in-use: " + directBytesInUse + '\n'
+            + "heap-bytes-in-use: " + heapBytesInUse + '\n'
+            + "direct-bytes-pooled: " + directBytesPooled + '\n'
+            + "heap-bytes-pooled: " + heapBytesPooled + '\n'
+            + "borrowed: " + borrowed + '\n'
+            + "allocated: " + allocated + '\n'
+            ;
+        }
+    }
+}
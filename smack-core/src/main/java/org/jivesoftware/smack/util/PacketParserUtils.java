@@ -31,6 +31,7 @@ import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.jivesoftware.smack.SmackConfiguration;
 import org.jivesoftware.smack.compress.packet.Compress;
 import org.jivesoftware.smack.packet.EmptyResultIQ;
 import org.jivesoftware.smack.packet.ErrorIQ;
@@ -47,6 +48,7 @@ import org.jivesoftware.smack.packet.StanzaBuilder;
 import org.jivesoftware.smack.packet.StanzaError;
 import org.jivesoftware.smack.packet.StartTls;
 import org.jivesoftware.smack.packet.StreamError;
+import org.jivesoftware.smack.packet.UnparsedExtensionElement;
 import org.jivesoftware.smack.packet.UnparsedIQ;
 import org.jivesoftware.smack.packet.XmlElement;
 import org.jivesoftware.smack.packet.XmlEnvironment;
@@ -184,7 +186,7 @@ public class PacketParserUtils {
                     message.setError(parseError(parser, messageXmlEnvironment));
                     break;
                  default:
-                     XmlElement extensionElement = parseExtensionElement(elementName, namespace, parser, messageXmlEnvironment);
+                     XmlElement extensionElement = parseStanzaExtensionElement(elementName, namespace, parser, messageXmlEnvironment);
                     message.addExtension(extensionElement);
                     break;
                 }
@@ -475,7 +477,7 @@ public class PacketParserUtils {
                     // Be extra robust: Skip PacketExtensions that cause Exceptions, instead of
                     // failing completely here. See SMACK-390 for more information.
                     try {
-                        XmlElement extensionElement = parseExtensionElement(elementName, namespace, parser, presenceXmlEnvironment);
+                        XmlElement extensionElement = parseStanzaExtensionElement(elementName, namespace, parser, presenceXmlEnvironment);
                         presence.addExtension(extensionElement);
                     } catch (Exception e) {
                         LOGGER.log(Level.WARNING, "Failed to parse extension element in Presence stanza: " + presence, e);
@@ -839,6 +841,14 @@ public class PacketParserUtils {
         return StandardExtensionElementProvider.INSTANCE.parse(parser, outerXmlEnvironment);
     }
 
+    private static XmlElement parseStanzaExtensionElement(String elementName, String namespace,
+                    XmlPullParser parser, XmlEnvironment outerXmlEnvironment) throws XmlPullParserException, IOException, SmackParsingException {
+        if (SmackConfiguration.isLazyExtensionElementParsing()) {
+            return UnparsedExtensionElement.from(parser, outerXmlEnvironment);
+        }
+        return parseExtensionElement(elementName, namespace, parser, outerXmlEnvironment);
+    }
+
     public static StartTls parseStartTlsFeature(XmlPullParser parser)
                     throws XmlPullParserException, IOException {
         ParserUtils.assertAtStartTag(parser);
@@ -0,0 +1,227 @@
+/**
+ *
+ * Copyright 2021 Florian Schmaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.util;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jivesoftware.smack.packet.XmlEnvironment;
+
+/**
+ * Encodes the XML of outgoing elements as UTF-8 directly into {@link ByteBuffer}s borrowed from a
+ * {@link ByteBufferPool}.
+ * <p>
+ * The parts of an {@link XmlStringBuilder}, which are already escaped when the builder is created, are encoded one
+ * after another, using a reusable {@link CharsetEncoder}, without flattening the builder into a String or a list of
+ * parts first. The resulting buffers are meant to be written using a gathering write and must be handed back via
+ * {@link #recycle(ByteBuffer)} once their content was consumed. In the steady state, encoding an element does
+ * therefore not allocate.
+ * </p>
+ * <p>
+ * Instances of this class are not thread-safe.
+ * </p>
+ *
+ * @since 4.5.0
+ */
+public final class Utf8XmlEncoder {
+
+    public static final int DEFAULT_BUFFER_SIZE = 4096;
+
+    private static final int CHAR_BUFFER_SIZE = 1024;
+
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    private final CharBuffer chars = CharBuffer.allocate(CHAR_BUFFER_SIZE);
+
+    private final Consumer<CharSequence> partEncoder = this::encodePart;
+
+    private final ByteBufferPool bufferPool;
+
+    private final int bufferSize;
+
+    private List<ByteBuffer> completedBuffers = new ArrayList<>();
+
+    private List<ByteBuffer> drainedBuffers = new ArrayList<>();
+
+    private ByteBuffer currentBuffer;
+
+    private long encodedBytes;
+
+    public Utf8XmlEncoder() {
+        this(ByteBufferPool.getInstance(), DEFAULT_BUFFER_SIZE);
+    }
+
+    public Utf8XmlEncoder(ByteBufferPool bufferPool, int bufferSize) {
+        // The buffers must be able to hold at least one encoded code point.
+        if (bufferSize < 4) {
+            throw new IllegalArgumentException("Buffer size must be at least 4");
+        }
+        this.bufferPool = bufferPool;
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Encode the given XML. The encoded bytes are appended to the bytes of the previously encoded XML, and can be
+     * retrieved using {@link #drainCompletedBuffers()} or {@link #drainBuffers()}.
+     *
+     * @param xml the XML to encode.
+     * @param enclosingXmlEnvironment the enclosing XML environment, used if the XML is a {@link XmlStringBuilder}.
+     */
+    public void encode(CharSequence xml, XmlEnvironment enclosingXmlEnvironment) {
+        if (xml instanceof XmlStringBuilder) {
+            ((XmlStringBuilder) xml).appendXmlTo(partEncoder, enclosingXmlEnvironment);
+        } else {
+            encodePart(xml);
+        }
+        encodeChars(true);
+    }
+
+    private void encodePart(CharSequence part) {
+        final int length = part.length();
+        int position = 0;
+        while (position < length) {
+            int count = Math.min(chars.remaining(), length - position);
+            int charsPosition = chars.position();
+            if (part instanceof String) {
+                ((String) part).getChars(position, position + count, chars.array(), chars.arrayOffset() + charsPosition);
+                chars.position(charsPosition + count);
+            } else if (part instanceof StringBuilder) {
+                ((StringBuilder) part).getChars(position, position + count, chars.array(), chars.arrayOffset() + charsPosition);
+                chars.position(charsPosition + count);
+            } else {
+                for (int i = position; i < position + count; i++) {
+                    chars.put(part.charAt(i));
+                }
+            }
+            position += count;
+
+            if (!chars.hasRemaining()) {
+                encodeChars(false);
+            }
+        }
+    }
+
+    private void encodeChars(boolean endOfInput) {
+        chars.flip();
+        while (true) {
+            if (currentBuffer == null) {
+                currentBuffer = obtainBuffer();
+            }
+            int bufferPosition = currentBuffer.position();
+            CoderResult coderResult = encoder.encode(chars, currentBuffer, endOfInput);
+            encodedBytes += currentBuffer.position() - bufferPosition;
+            if (coderResult.isOverflow()) {
+                completeCurrentBuffer();
+                continue;
+            }
+            // Since malformed input and unmappable characters are replaced, this is an underflow. Any remaining
+            // character is the high surrogate of a pair, whose low surrogate is part of the next input.
+            break;
+        }
+        if (endOfInput) {
+            while (true) {
+                int bufferPosition = currentBuffer.position();
+                CoderResult coderResult = encoder.flush(currentBuffer);
+                encodedBytes += currentBuffer.position() - bufferPosition;
+                if (!coderResult.isOverflow()) {
+                    break;
+                }
+                completeCurrentBuffer();
+                currentBuffer = obtainBuffer();
+            }
+            encoder.reset();
+        }
+        chars.compact();
+    }
+
+    private ByteBuffer obtainBuffer() {
+        return bufferPool.borrowHeap(bufferSize);
+    }
+
+    private void completeCurrentBuffer() {
+        currentBuffer.flip();
+        completedBuffers.add(currentBuffer);
+        currentBuffer = null;
+    }
+
+    /**
+     * Drain the completely filled buffers. The returned list is only valid until the next invocation of a draining
+     * method.
+     *
+     * @return the completely filled buffers, ready to be read.
+     */
+    public List<ByteBuffer> drainCompletedBuffers() {
+        List<ByteBuffer> res = completedBuffers;
+        completedBuffers = drainedBuffers;
+        completedBuffers.clear();
+        drainedBuffers = res;
+        return res;
+    }
+
+    /**
+     * Drain all buffers, including the partially filled one. The returned list is only valid until the next
+     * invocation of a draining method.
+     *
+     * @return all buffers holding encoded data, ready to be read.
+     */
+    public List<ByteBuffer> drainBuffers() {
+        if (currentBuffer != null && currentBuffer.position() > 0) {
+            completeCurrentBuffer();
+        }
+        return drainCompletedBuffers();
+    }
+
+    /**
+     * Get the total number of bytes encoded by this encoder, including the bytes which were discarded by
+     * {@link #reset()}.
+     *
+     * @return the total number of encoded bytes.
+     */
+    public long getEncodedBytes() {
+        return encodedBytes;
+    }
+
+    /**
+     * Discard all encoded data which was not yet drained.
+     */
+    public void reset() {
+        List<ByteBuffer> buffers = drainBuffers();
+        for (int i = 0; i < buffers.size(); i++) {
+            recycle(buffers.get(i));
+        }
+        buffers.clear();
+        chars.clear();
+        encoder.reset();
+    }
+
+    /**
+     * Hand back a buffer previously returned by this encoder to the pool, once its content was consumed.
+     *
+     * @param buffer the buffer to recycle.
+     */
+    public void recycle(ByteBuffer buffer) {
+        bufferPool.release(buffer);
+    }
+}
@@ -699,7 +699,14 @@ public class XmlStringBuilder implements Appendable, CharSequence, Element {
         return res;
     }
 
-    private void appendXmlTo(Consumer<CharSequence> charSequenceSink, XmlEnvironment enclosingXmlEnvironment) {
+    /**
+     * Pass the parts of this <code>XmlStringBuilder</code> one-by-one to the given sink, taking the given enclosing
+     * XML environment into account.
+     *
+     * @param charSequenceSink the sink consuming the parts.
+     * @param enclosingXmlEnvironment the enclosing XML environment.
+     */
+    public void appendXmlTo(Consumer<CharSequence> charSequenceSink, XmlEnvironment enclosingXmlEnvironment) {
         for (CharSequence csq : sb.getAsList()) {
             if (csq instanceof XmlStringBuilder) {
                 ((XmlStringBuilder) csq).appendXmlTo(charSequenceSink, enclosingXmlEnvironment);
@@ -0,0 +1,624 @@
+/**
+ *
+ * Copyright 2021 Florian Schmaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.util.dns;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+import org.jivesoftware.smack.ConnectionConfiguration.DnssecMode;
+import org.jivesoftware.smack.util.Objects;
+import org.jivesoftware.smack.util.rce.RemoteConnectionEndpointLookupFailure;
+
+import org.minidns.dnsname.DnsName;
+import org.minidns.record.SRV;
+
+/**
+ * A DNS resolver which caches the results of another DNS resolver.
+ * <p>
+ * Results are cached for the time to live reported by the wrapped resolver, clamped to the configured minimum and
+ * maximum TTL. If the wrapped resolver does not report the TTL, then the configured default TTL is used. Failed
+ * lookups, and lookups which returned no records, are cached for the negative TTL. Concurrent lookups of the same
+ * name are coalesced into a single lookup performed by the wrapped resolver. If the wrapped resolver fails to
+ * resolve a name whose previous result has expired, then the expired result is served for up to the configured
+ * maximum staleness, as the addresses of an XMPP service rarely change and are likely still valid.
+ * </p>
+ * <p>
+ * Caching is especially beneficial when many connections to the same service are established, for example when
+ * using a {@link org.jivesoftware.smack.ConnectionFarm}. Install the caching resolver after Smack has been
+ * initialized:
+ * </p>
+ * <pre>{@code
+ * CachingDNSResolver resolver = CachingDNSResolver.builder(DNSUtil.getDNSResolver()).build();
+ * DNSUtil.setDNSResolver(resolver);
+ * resolver.prewarm(DnsName.from("_xmpp-client._tcp.example.org"), DnssecMode.disabled);
+ * }</pre>
+ *
+ * @since 4.5.0
+ */
+public class CachingDNSResolver extends DNSResolver {
+
+    private enum RecordKind {
+        srv,
+        hostAddress,
+    }
+
+    private final DNSResolver delegate;
+
+    private final long defaultTtlNanos;
+    private final long negativeTtlNanos;
+    private final long minTtlNanos;
+    private final long maxTtlNanos;
+    private final long maxStaleNanos;
+    private final int maxEntries;
+
+    private final ConcurrentHashMap<Key, Slot> slots = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong negativeHits = new AtomicLong();
+    private final AtomicLong staleHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong coalescedLookups = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    CachingDNSResolver(Builder builder) {
+        super(builder.delegate.isDnssecSupported());
+        delegate = builder.delegate;
+        defaultTtlNanos = builder.defaultTtlNanos;
+        negativeTtlNanos = builder.negativeTtlNanos;
+        minTtlNanos = builder.minTtlNanos;
+        maxTtlNanos = builder.maxTtlNanos;
+        maxStaleNanos = builder.maxStaleNanos;
+        maxEntries = builder.maxEntries;
+    }
+
+    /**
+     * Get the DNS resolver whose results are cached.
+     *
+     * @return the wrapped DNS resolver.
+     */
+    public DNSResolver getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    protected Collection<SRV> lookupSrvRecords0(DnsName name,
+                    List<RemoteConnectionEndpointLookupFailure> lookupFailures, DnssecMode dnssecMode) {
+        return lookupSrvRecordsWithTtl0(name, lookupFailures, dnssecMode).result;
+    }
+
+    @Override
+    protected LookupResult<Collection<SRV>> lookupSrvRecordsWithTtl0(final DnsName name,
+                    List<RemoteConnectionEndpointLookupFailure> lookupFailures, final DnssecMode dnssecMode) {
+        Key key = new Key(RecordKind.srv, name, dnssecMode);
+        LookupResult<List<SRV>> lookupResult = lookup(key, lookupFailures,
+                        failures -> delegate.lookupSrvRecordsWithTtl0(name, failures, dnssecMode));
+        return new LookupResult<Collection<SRV>>(lookupResult.result, lookupResult.ttlSeconds);
+    }
+
+    @Override
+    protected List<InetAddress> lookupHostAddress0(DnsName name,
+                    List<RemoteConnectionEndpointLookupFailure> lookupFailures, DnssecMode dnssecMode) {
+        return lookupHostAddressWithTtl0(name, lookupFailures, dnssecMode).result;
+    }
+
+    @Override
+    protected LookupResult<List<InetAddress>> lookupHostAddressWithTtl0(final DnsName name,
+                    List<RemoteConnectionEndpointLookupFailure> lookupFailures, final DnssecMode dnssecMode) {
+        Key key = new Key(RecordKind.hostAddress, name, dnssecMode);
+        return lookup(key, lookupFailures, failures -> delegate.lookupHostAddressWithTtl0(name, failures, dnssecMode));
+    }
+
+    /**
+     * Resolve the given SRV name and the addresses of all its targets, so that later lookups are answered from the
+     * cache. This method blocks until all lookups are done, hence it is typically invoked from a background thread.
+     *
+     * @param srvName the SRV name, for example <code>_xmpp-client._tcp.example.org</code>.
+     * @param dnssecMode the DNSSEC mode used by the connections which will perform the lookups.
+     */
+    public void prewarm(DnsName srvName, DnssecMode dnssecMode) {
+        List<RemoteConnectionEndpointLookupFailure> lookupFailures = new ArrayList<>();
+        Collection<SRV> srvRecords = lookupSrvRecords(srvName, lookupFailures, dnssecMode);
+        if (srvRecords == null) {
+            LOGGER.log(Level.FINE, "Could not pre-warm the DNS cache for " + srvName + ": " + lookupFailures);
+            return;
+        }
+        for (SRV srvRecord : srvRecords) {
+            prewarmHostAddress(srvRecord.target, dnssecMode);
+        }
+    }
+
+    /**
+     * Resolve the addresses of the given host, so that later lookups are answered from the cache.
+     *
+     * @param name the name of the host.
+     * @param dnssecMode the DNSSEC mode used by the connections which will perform the lookup.
+     */
+    public void prewarmHostAddress(DnsName name, DnssecMode dnssecMode) {
+        List<RemoteConnectionEndpointLookupFailure> lookupFailures = new ArrayList<>();
+        List<InetAddress> hostAddresses = lookupHostAddress(name, lookupFailures, dnssecMode);
+        if (hostAddresses == null) {
+            LOGGER.log(Level.FINE, "Could not pre-warm the DNS cache for " + name + ": " + lookupFailures);
+        }
+    }
+
+    /**
+     * Remove all cached results.
+     */
+    public void clear() {
+        slots.clear();
+    }
+
+    /**
+     * Get the statistics of this cache.
+     *
+     * @return a snapshot of the cache statistics.
+     */
+    public Statistics getStatistics() {
+        return new Statistics(slots.size(), hits.get(), negativeHits.get(), staleHits.get(), misses.get(),
+                        coalescedLookups.get(), evictions.get());
+    }
+
+    long nanoTime() {
+        return System.nanoTime();
+    }
+
+    private <E> LookupResult<List<E>> lookup(Key key, List<RemoteConnectionEndpointLookupFailure> lookupFailures,
+                    DelegateLookup<E> delegateLookup) {
+        Slot slot = getSlot(key);
+
+        boolean coalesced = false;
+        synchronized (slot) {
+            while (true) {
+                CachedResult<E> cached = slot.getCached();
+                long now = nanoTime();
+                if (cached != null && cached.isValid(now)) {
+                    if (!coalesced) {
+                        recordHit(cached);
+                    }
+                    return cached.toLookupResult(lookupFailures, now);
+                }
+                if (!slot.lookupInProgress) {
+                    break;
+                }
+                if (!coalesced) {
+                    coalesced = true;
+                    coalescedLookups.incrementAndGet();
+                }
+                try {
+                    slot.wait();
+                } catch (InterruptedException e) {
+                    // Do not wait any longer for the other lookup, but perform the lookup uncached instead.
+                    Thread.currentThread().interrupt();
+                    return copy(delegateLookup.lookup(lookupFailures));
+                }
+            }
+            slot.lookupInProgress = true;
+        }
+
+        misses.incrementAndGet();
+        List<RemoteConnectionEndpointLookupFailure> newLookupFailures = new ArrayList<>(2);
+        LookupResult<? extends Collection<E>> delegateResult;
+        try {
+            delegateResult = delegateLookup.lookup(newLookupFailures);
+        } catch (RuntimeException | Error e) {
+            synchronized (slot) {
+                slot.lookupInProgress = false;
+                slot.notifyAll();
+            }
+            throw e;
+        }
+
+        long now = nanoTime();
+        CachedResult<E> result;
+        synchronized (slot) {
+            CachedResult<E> previous = slot.getCached();
+            if (delegateResult.result == null && previous != null && previous.result != null
+                            && now - previous.staleUntilNanos < 0) {
+                // Serve the stale result, but do not retry the lookup before the negative TTL passed.
+                result = new CachedResult<>(previous.result, previous.lookupFailures, true, now + negativeTtlNanos,
+                                previous.staleUntilNanos);
+                staleHits.incrementAndGet();
+                LOGGER.log(Level.FINE, "Serving stale DNS result for " + key + " because the lookup failed: "
+                                + newLookupFailures);
+            } else {
+                result = createCachedResult(delegateResult, newLookupFailures, now);
+            }
+            slot.cached = result;
+            slot.lookupInProgress = false;
+            slot.notifyAll();
+        }
+
+        if (slots.size() > maxEntries) {
+            evict(now);
+        }
+
+        lookupFailures.addAll(newLookupFailures);
+        return result.toLookupResult(now);
+    }
+
+    private <E> CachedResult<E> createCachedResult(LookupResult<? extends Collection<E>> delegateResult,
+                    List<RemoteConnectionEndpointLookupFailure> lookupFailures, long now) {
+        Collection<E> result = delegateResult.result;
+        if (result == null || result.isEmpty()) {
+            List<E> immutableResult = result == null ? null : Collections.<E>emptyList();
+            return new CachedResult<>(immutableResult, Collections.unmodifiableList(lookupFailures), false,
+                            now + negativeTtlNanos, now + negativeTtlNanos);
+        }
+
+        long ttlNanos;
+        if (delegateResult.ttlSeconds == LookupResult.TTL_UNKNOWN) {
+            ttlNanos = defaultTtlNanos;
+        } else {
+            ttlNanos = TimeUnit.SECONDS.toNanos(delegateResult.ttlSeconds);
+            ttlNanos = Math.max(minTtlNanos, Math.min(maxTtlNanos, ttlNanos));
+        }
+        long expiresAtNanos = now + ttlNanos;
+        List<E> immutableResult = Collections.unmodifiableList(new ArrayList<>(result));
+        return new CachedResult<>(immutableResult, Collections.<RemoteConnectionEndpointLookupFailure>emptyList(),
+                        false, expiresAtNanos, expiresAtNanos + maxStaleNanos);
+    }
+
+    private void recordHit(CachedResult<?> cached) {
+        if (cached.stale) {
+            staleHits.incrementAndGet();
+        } else if (cached.result == null || cached.result.isEmpty()) {
+            negativeHits.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+    }
+
+    private Slot getSlot(Key key) {
+        Slot slot = slots.get(key);
+        if (slot != null) {
+            return slot;
+        }
+        slot = new Slot();
+        Slot previousSlot = slots.putIfAbsent(key, slot);
+        if (previousSlot != null) {
+            return previousSlot;
+        }
+        return slot;
+    }
+
+    private void evict(long now) {
+        // First remove the entries which can no longer be served, then, if the cache is still too large, arbitrary
+        // entries which are not currently being looked up.
+        for (int pass = 0; pass < 2 && slots.size() > maxEntries; pass++) {
+            Iterator<Map.Entry<Key, Slot>> it = slots.entrySet().iterator();
+            while (it.hasNext() && slots.size() > maxEntries) {
+                Map.Entry<Key, Slot> entry = it.next();
+                Slot slot = entry.getValue();
+                synchronized (slot) {
+                    if (slot.lookupInProgress) {
+                        continue;
+                    }
+                    if (pass == 0 && slot.cached != null && now - slot.cached.staleUntilNanos < 0) {
+                        continue;
+                    }
+                }
+                if (slots.remove(entry.getKey(), slot)) {
+                    evictions.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    private static <E> LookupResult<List<E>> copy(LookupResult<? extends Collection<E>> lookupResult) {
+        List<E> result = lookupResult.result == null ? null : new ArrayList<>(lookupResult.result);
+        return new LookupResult<>(result, lookupResult.ttlSeconds);
+    }
+
+    private interface DelegateLookup<E> {
+        LookupResult<? extends Collection<E>> lookup(List<RemoteConnectionEndpointLookupFailure> lookupFailures);
+    }
+
+    private static final class Key {
+        private final RecordKind recordKind;
+        private final DnsName name;
+        private final DnssecMode dnssecMode;
+        private final int hashCode;
+
+        private Key(RecordKind recordKind, DnsName name, DnssecMode dnssecMode) {
+            this.recordKind = recordKind;
+            this.name = name;
+            this.dnssecMode = dnssecMode;
+            hashCode = (recordKind.hashCode() * 31 + name.hashCode()) * 31 + dnssecMode.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) {
+                return true;
+            }
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key otherKey = (Key) other;
+            return recordKind == otherKey.recordKind && dnssecMode == otherKey.dnssecMode
+                            && name.equals(otherKey.name);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public String toString() {
+            return recordKind + " " + name + " (" + dnssecMode + ')';
+        }
+    }
+
+    private static final class Slot {
+        // Guarded by this.
+        private CachedResult<?> cached;
+
+        // Guarded by this.
+        private boolean lookupInProgress;
+
+        @SuppressWarnings("unchecked")
+        private <E> CachedResult<E> getCached() {
+            // The type of the cached elements is determined by the record kind of the slot's key.
+            return (CachedResult<E>) cached;
+        }
+    }
+
+    private static final class CachedResult<E> {
+        private final List<E> result;
+        private final List<RemoteConnectionEndpointLookupFailure> lookupFailures;
+        private final boolean stale;
+        private final long expiresAtNanos;
+        private final long staleUntilNanos;
+
+        private CachedResult(List<E> result, List<RemoteConnectionEndpointLookupFailure> lookupFailures,
+                        boolean stale, long expiresAtNanos, long staleUntilNanos) {
+            this.result = result;
+            this.lookupFailures = lookupFailures;
+            this.stale = stale;
+            this.expiresAtNanos = expiresAtNanos;
+            this.staleUntilNanos = staleUntilNanos;
+        }
+
+        private boolean isValid(long now) {
+            return now - expiresAtNanos < 0;
+        }
+
+        private LookupResult<List<E>> toLookupResult(List<RemoteConnectionEndpointLookupFailure> lookupFailures,
+                        long now) {
+            lookupFailures.addAll(this.lookupFailures);
+            return toLookupResult(now);
+        }
+
+        private LookupResult<List<E>> toLookupResult(long now) {
+            // Hand out a copy, as callers may modify the returned list.
+            List<E> result = this.result == null ? null : new ArrayList<>(this.result);
+            long ttlSeconds = Math.max(0, TimeUnit.NANOSECONDS.toSeconds(expiresAtNanos - now));
+            return new LookupResult<>(result, ttlSeconds);
+        }
+    }
+
+    /**
+     * A snapshot of the statistics of a caching DNS resolver.
+     */
+    public static final class Statistics {
+        private final int size;
+        private final long hits;
+        private final long negativeHits;
+        private final long staleHits;
+        private final long misses;
+        private final long coalescedLookups;
+        private final long evictions;
+
+        private Statistics(int size, long hits, long negativeHits, long staleHits, long misses,
+                        long coalescedLookups, long evictions) {
+            this.size = size;
+            this.hits = hits;
+            this.negativeHits = negativeHits;
+            this.staleHits = staleHits;
+            this.misses = misses;
+            this.coalescedLookups = coalescedLookups;
+            this.evictions = evictions;
+        }
+
+        /**
+         * Get the number of cached names.
+         *
+         * @return the number of cache entries.
+         */
+        public int getSize() {
+            return size;
+        }
+
+        /**
+         * Get the number of lookups answered by a cached positive result.
+         *
+         * @return the number of positive cache hits.
+         */
+        public long getHits() {
+            return hits;
+        }
+
+        /**
+         * Get the number of lookups answered by a cached failed or empty result.
+         *
+         * @return the number of negative cache hits.
+         */
+        public long getNegativeHits() {
+            return negativeHits;
+        }
+
+        /**
+         * Get the number of lookups answered by an expired result, because the wrapped resolver failed.
+         *
+         * @return the number of stale cache hits.
+         */
+        public long getStaleHits() {
+            return staleHits;
+        }
+
+        /**
+         * Get the number of lookups performed by the wrapped resolver.
+         *
+         * @return the number of cache misses.
+         */
+        public long getMisses() {
+            return misses;
+        }
+
+        /**
+         * Get the number of lookups which waited for, and used the result of, a concurrent lookup of the same name.
+         *
+         * @return the number of coalesced lookups.
+         */
+        public long getCoalescedLookups() {
+            return coalescedLookups;
+        }
+
+        /**
+         * Get the number of entries removed because the cache exceeded its maximum size.
+         *
+         * @return the number of evicted entries.
+         */
+        public long getEvictions() {
+            return evictions;
+        }
+
+        @Override
+        public String toString() {
+            return "size=" + size + " hits=" + hits + " negativeHits=" + negativeHits + " staleHits=" + staleHits
+                            + " misses=" + misses + " coalescedLookups=" + coalescedLookups + " evictions="
+                            + evictions;
+        }
+    }
+
+    /**
+     * Create a builder for a caching DNS resolver.
+     *
+     * @param delegate the DNS resolver whose results are cached.
+     * @return a new builder.
+     */
+    public static Builder builder(DNSResolver delegate) {
+        return new Builder(delegate);
+    }
+
+    public static final class Builder {
+        private final DNSResolver delegate;
+        private long defaultTtlNanos = TimeUnit.MINUTES.toNanos(1);
+        private long negativeTtlNanos = TimeUnit.SECONDS.toNanos(30);
+        private long minTtlNanos = TimeUnit.SECONDS.toNanos(5);
+        private long maxTtlNanos = TimeUnit.HOURS.toNanos(1);
+        private long maxStaleNanos = TimeUnit.HOURS.toNanos(1);
+        private int maxEntries = 1024;
+
+        private Builder(DNSResolver delegate) {
+            this.delegate = Objects.requireNonNull(delegate, "The DNS resolver to cache must not be null");
+        }
+
+        /**
+         * Set the TTL used for results whose TTL is not reported by the wrapped resolver. The default is one minute.
+         *
+         * @param defaultTtl the default TTL.
+         * @param unit the unit of the TTL.
+         * @return a reference to this builder.
+         */
+        public Builder setDefaultTtl(long defaultTtl, TimeUnit unit) {
+            defaultTtlNanos = requireNotNegative(defaultTtl, unit);
+            return this;
+        }
+
+        /**
+         * Set the TTL used for failed lookups and for lookups which returned no records. Expired results are served
+         * stale for this duration if the wrapped resolver fails. The default is 30 seconds.
+         *
+         * @param negativeTtl the negative TTL.
+         * @param unit the unit of the TTL.
+         * @return a reference to this builder.
+         */
+        public Builder setNegativeTtl(long negativeTtl, TimeUnit unit) {
+            negativeTtlNanos = requireNotNegative(negativeTtl, unit);
+            return this;
+        }
+
+        /**
+         * Set the bounds for the TTL reported by the wrapped resolver. The default is a minimum TTL of five seconds and
+         * a maximum TTL of one hour.
+         *
+         * @param minTtl the minimum TTL.
+         * @param maxTtl the maximum TTL.
+         * @param unit the unit of the TTLs.
+         * @return a reference to this builder.
+         */
+        public Builder setTtlBounds(long minTtl, long maxTtl, TimeUnit unit) {
+            long minTtlNanos = requireNotNegative(minTtl, unit);
+            long maxTtlNanos = requireNotNegative(maxTtl, unit);
+            if (maxTtlNanos < minTtlNanos) {
+                throw new IllegalArgumentException("The maximum TTL must not be smaller than the minimum TTL");
+            }
+            this.minTtlNanos = minTtlNanos;
+            this.maxTtlNanos = maxTtlNanos;
+            return this;
+        }
+
+        /**
+         * Set how long after its expiry a result may be served if the wrapped resolver fails. A value of zero disables
+         * serving stale results. The default is one hour.
+         *
+         * @param maxStale the maximum staleness.
+         * @param unit the unit of the staleness.
+         * @return a reference to this builder.
+         */
+        public Builder setMaxStale(long maxStale, TimeUnit unit) {
+            maxStaleNanos = requireNotNegative(maxStale, unit);
+            return this;
+        }
+
+        /**
+         * Set the maximum number of cached entries. The default is 1024.
+         *
+         * @param maxEntries the maximum number of entries.
+         * @return a reference to this builder.
+         */
+        public Builder setMaxEntries(int maxEntries) {
+            if (maxEntries < 1) {
+                throw new IllegalArgumentException("The maximum number of entries must be at least one");
+            }
+            this.maxEntries = maxEntries;
+            return this;
+        }
+
+        public CachingDNSResolver build() {
+            return new CachingDNSResolver(this);
+        }
+
+        private static long requireNotNegative(long duration, TimeUnit unit) {
+            if (duration < 0) {
+                throw new IllegalArgumentException("The duration must not be negative");
+            }
+            return unit.toNanos(duration);
+        }
+    }
+}
@@ -1,6 +1,6 @@
 /**
  *
- * Copyright 2013-2020 Florian Schmaus
+ * Copyright 2013-2021 Florian Schmaus
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -44,6 +44,16 @@ public abstract class DNSResolver {
         this.supportsDnssec = supportsDnssec;
     }
 
+    /**
+     * Check if this resolver is able to perform DNSSEC validated lookups.
+     *
+     * @return <code>true</code> if DNSSEC is supported.
+     * @since 4.5.0
+     */
+    public final boolean isDnssecSupported() {
+        return supportsDnssec;
+    }
+
     /**
      * Gets a list of service records for the specified service.
      *
@@ -61,6 +71,23 @@ public abstract class DNSResolver {
     protected abstract Collection<SRV> lookupSrvRecords0(DnsName name,
                     List<RemoteConnectionEndpointLookupFailure> lookupFailures, DnssecMode dnssecMode);
 
+    /**
+     * Like {@link #lookupSrvRecords0(DnsName, List, DnssecMode)}, but additionally reports the time to live of the
+     * result. The default implementation reports {@link LookupResult#TTL_UNKNOWN}. Resolvers which have access to the
+     * TTL of the resource records should override this method.
+     *
+     * @param name The symbolic name of the service.
+     * @param lookupFailures list of exceptions that occurred during lookup.
+     * @param dnssecMode security mode.
+     * @return the SRV records, which may be <code>null</code>, and their TTL.
+     * @since 4.5.0
+     */
+    protected LookupResult<Collection<SRV>> lookupSrvRecordsWithTtl0(DnsName name,
+                    List<RemoteConnectionEndpointLookupFailure> lookupFailures, DnssecMode dnssecMode) {
+        Collection<SRV> srvRecords = lookupSrvRecords0(name, lookupFailures, dnssecMode);
+        return new LookupResult<>(srvRecords, LookupResult.TTL_UNKNOWN);
+    }
+
     public final List<InetAddress> lookupHostAddress(DnsName name,
                     List<RemoteConnectionEndpointLookupFailure> lookupFailures, DnssecMode dnssecMode) {
         checkIfDnssecRequestedAndSupported(dnssecMode);
@@ -99,6 +126,23 @@ public abstract class DNSResolver {
         return Arrays.asList(inetAddressArray);
     }
 
+    /**
+     * Like {@link #lookupHostAddress0(DnsName, List, DnssecMode)}, but additionally reports the time to live of the
+     * result. The default implementation reports {@link LookupResult#TTL_UNKNOWN}. Resolvers which have access to the
+     * TTL of the resource records should override this method.
+     *
+     * @param name the DNS name to lookup
+     * @param lookupFailures list of exceptions that occurred during lookup.
+     * @param dnssecMode the selected DNSSEC mode
+     * @return the host addresses, which may be <code>null</code>, and their TTL.
+     * @since 4.5.0
+     */
+    protected LookupResult<List<InetAddress>> lookupHostAddressWithTtl0(DnsName name,
+                    List<RemoteConnectionEndpointLookupFailure> lookupFailures, DnssecMode dnssecMode) {
+        List<InetAddress> hostAddresses = lookupHostAddress0(name, lookupFailures, dnssecMode);
+        return new LookupResult<>(hostAddresses, LookupResult.TTL_UNKNOWN);
+    }
+
     protected static boolean shouldContinue(CharSequence name, CharSequence hostname, List<InetAddress> hostAddresses) {
         if (hostAddresses == null) {
             return true;
@@ -120,4 +164,33 @@ public abstract class DNSResolver {
             throw new UnsupportedOperationException("This resolver does not support DNSSEC");
         }
     }
+
+    /**
+     * The result of a DNS lookup together with its time to live.
+     *
+     * @param <R> the type of the lookup result.
+     * @since 4.5.0
+     */
+    public static final class LookupResult<R> {
+
+        /**
+         * Signals that the resolver does not know the time to live of a result.
+         */
+        public static final long TTL_UNKNOWN = -1;
+
+        /**
+         * The result of the lookup, may be <code>null</code> if the lookup failed.
+         */
+        public final R result;
+
+        /**
+         * The time to live of the result in seconds, or {@link #TTL_UNKNOWN}.
+         */
+        public final long ttlSeconds;
+
+        public LookupResult(R result, long ttlSeconds) {
+            this.result = result;
+            this.ttlSeconds = ttlSeconds;
+        }
+    }
 }
@@ -0,0 +1,181 @@
+/**
+ *
+ * Copyright 2021 Florian Schmaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.jivesoftware.smack.AsyncButOrdered.OverflowPolicy;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+public class AsyncButOrderedTest {
+
+    private static final Object KEY = new Object();
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    private final AsyncButOrdered<Object> asyncButOrdered = new AsyncButOrdered<>(executor);
+
+    private final List<String> invocations = Collections.synchronizedList(new ArrayList<String>());
+
+    private final CountDownLatch firstRunnableStarted = new CountDownLatch(1);
+
+    private final CountDownLatch releaseFirstRunnable = new CountDownLatch(1);
+
+    private final CountDownLatch allRunnablesFinished = new CountDownLatch(1);
+
+    @AfterEach
+    public void shutdownExecutor() {
+        executor.shutdownNow();
+    }
+
+    private void submitBlockingRunnable() throws InterruptedException {
+        asyncButOrdered.performAsyncButOrdered(KEY, () -> {
+            firstRunnableStarted.countDown();
+            try {
+                releaseFirstRunnable.await();
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+            invocations.add("first");
+        });
+        firstRunnableStarted.await();
+    }
+
+    private void submit(String name) {
+        asyncButOrdered.performAsyncButOrdered(KEY, () -> invocations.add(name));
+    }
+
+    private void releaseAndAwaitCompletion() throws InterruptedException {
+        asyncButOrdered.performAsyncButOrdered(KEY, () -> allRunnablesFinished.countDown());
+        releaseFirstRunnable.countDown();
+        assertTrue(allRunnablesFinished.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void runnablesAreExecutedInOrder() throws InterruptedException {
+        submitBlockingRunnable();
+        submit("a");
+        submit("b");
+        submit("c");
+        assertEquals(3, asyncButOrdered.getQueueDepth(KEY));
+        assertEquals(Collections.singletonMap(KEY, 3), asyncButOrdered.getQueueDepths());
+
+        releaseAndAwaitCompletion();
+        assertEquals(Arrays.asList("first", "a", "b", "c"), invocations);
+        assertEquals(0, asyncButOrdered.getQueueDepth(KEY));
+    }
+
+    @Test
+    public void dropOldestPolicyDropsOldestRunnable() throws InterruptedException {
+        List<Runnable> droppedRunnables = Collections.synchronizedList(new ArrayList<Runnable>());
+        asyncButOrdered.setMaxQueueSizePerKey(3, OverflowPolicy.dropOldest);
+        asyncButOrdered.setBackpressureListener(new AsyncButOrdered.BackpressureListener<Object>() {
+            @Override
+            public void queueOverflowed(Object key, int queueDepth) {
+            }
+
+            @Override
+            public void queueRelieved(Object key, int queueDepth) {
+            }
+
+            @Override
+            public void runnableDropped(Object key, Runnable runnable) {
+                droppedRunnables.add(runnable);
+            }
+        });
+        submitBlockingRunnable();
+        Runnable a = () -> invocations.add("a");
+        asyncButOrdered.performAsyncButOrdered(KEY, a);
+        submit("b");
+        submit("c");
+        submit("d");
+        assertEquals(3, asyncButOrdered.getQueueDepth(KEY));
+        assertEquals(1, asyncButOrdered.getDroppedCount());
+        assertEquals(Collections.singletonList(a), droppedRunnables);
+
+        // Releasing also submits a runnable, which drops "b".
+        releaseAndAwaitCompletion();
+        assertEquals(Arrays.asList("first", "c", "d"), invocations);
+        assertEquals(2, asyncButOrdered.getDroppedCount());
+    }
+
+    @Test
+    public void signalPolicyNotifiesBackpressureListener() throws InterruptedException {
+        List<String> signals = Collections.synchronizedList(new ArrayList<String>());
+        CountDownLatch relieved = new CountDownLatch(1);
+        asyncButOrdered.setMaxQueueSizePerKey(2, OverflowPolicy.signal);
+        asyncButOrdered.setBackpressureListener(new AsyncButOrdered.BackpressureListener<Object>() {
+            @Override
+            public void queueOverflowed(Object key, int queueDepth) {
+                signals.add("overflowed " + queueDepth);
+            }
+
+            @Override
+            public void queueRelieved(Object key, int queueDepth) {
+                signals.add("relieved " + queueDepth);
+                relieved.countDown();
+            }
+        });
+
+        submitBlockingRunnable();
+        submit("a");
+        submit("b");
+        submit("c");
+        submit("d");
+        assertEquals(4, asyncButOrdered.getQueueDepth(KEY));
+        assertEquals(Collections.singletonList("overflowed 3"), signals);
+
+        releaseAndAwaitCompletion();
+        assertTrue(relieved.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("overflowed 3", "relieved 1"), signals);
+        assertEquals(Arrays.asList("first", "a", "b", "c", "d"), invocations);
+    }
+
+    @Test
+    public void blockPolicyBlocksProducer() throws InterruptedException {
+        asyncButOrdered.setMaxQueueSizePerKey(1, OverflowPolicy.block);
+        submitBlockingRunnable();
+        submit("a");
+
+        Thread producer = new Thread(() -> submit("b"));
+        producer.start();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (producer.getState() != Thread.State.WAITING && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(Thread.State.WAITING, producer.getState());
+        assertEquals(1, asyncButOrdered.getQueueDepth(KEY));
+
+        releaseFirstRunnable.countDown();
+        producer.join(5000);
+        assertEquals(Thread.State.TERMINATED, producer.getState());
+        releaseAndAwaitCompletion();
+        assertEquals(Arrays.asList("first", "a", "b"), invocations);
+    }
+}
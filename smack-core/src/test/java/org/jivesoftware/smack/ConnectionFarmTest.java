@@ -0,0 +1,202 @@
+/**
+ *
+ * Copyright 2021 Florian Schmaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.jivesoftware.smack.sasl.core.ScramMechanism;
+
+import org.junit.jupiter.api.Test;
+
+public class ConnectionFarmTest {
+
+    private static final class FarmTestConnection extends DummyConnection {
+        private final CountDownLatch connectAllowed;
+
+        private FarmTestConnection(CountDownLatch connectAllowed) {
+            this.connectAllowed = connectAllowed;
+        }
+
+        @Override
+        protected void connectInternal() {
+            try {
+                connectAllowed.await();
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+            super.connectInternal();
+        }
+
+        @Override
+        public void instantShutdown() {
+            connected = false;
+            authenticated = false;
+        }
+
+        private void simulateConnectionError() {
+            notifyConnectionError(new IOException("Simulated connection error"));
+        }
+    }
+
+    private static void awaitAuthenticated(ConnectionFarm farm, int expectedAuthenticated)
+                    throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (farm.getHealth().getAuthenticatedConnections() < expectedAuthenticated) {
+            if (System.nanoTime() - deadline > 0) {
+                throw new AssertionError("Timeout waiting for authenticated connections: " + farm.getHealth());
+            }
+            Thread.sleep(5);
+        }
+    }
+
+    @Test
+    public void loginsAreRateLimited() throws InterruptedException {
+        ConnectionFarm farm = ConnectionFarm.builder()
+                        .setMaxLoginsPerSecond(20)
+                        .setMaxConcurrentLogins(8)
+                        .build();
+        final int connectionCount = 5;
+        long startNanos = System.nanoTime();
+        for (int i = 0; i < connectionCount; i++) {
+            assertTrue(farm.add(new FarmTestConnection(new CountDownLatch(0))));
+        }
+        awaitAuthenticated(farm, connectionCount);
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+
+        // With one login every 50 milliseconds, and at most one permit of catch up, five logins take at least 150
+        // milliseconds.
+        assertTrue(elapsedMillis >= 150, "Logins took only " + elapsedMillis + "ms");
+
+        ConnectionFarm.Health health = farm.getHealth();
+        assertEquals(connectionCount, health.getManagedConnections());
+        assertEquals(connectionCount, health.getSuccessfulLogins());
+        assertEquals(0, health.getFailedLogins());
+        assertEquals(connectionCount, health.getLoginTimes().getCount());
+        farm.shutdown();
+    }
+
+    @Test
+    public void concurrentLoginsAreBounded() throws InterruptedException {
+        ConnectionFarm farm = ConnectionFarm.builder()
+                        .setMaxLoginsPerSecond(0)
+                        .setMaxConcurrentLogins(2)
+                        .build();
+        CountDownLatch connectAllowed = new CountDownLatch(1);
+        for (int i = 0; i < 4; i++) {
+            farm.add(new FarmTestConnection(connectAllowed));
+        }
+
+        ConnectionFarm.Health health = farm.getHealth();
+        assertEquals(2, health.getLoginsInProgress());
+        assertEquals(2, health.getPendingLogins());
+
+        connectAllowed.countDown();
+        awaitAuthenticated(farm, 4);
+        assertEquals(0, farm.getHealth().getPendingLogins());
+        farm.shutdown();
+    }
+
+    @Test
+    public void connectionsLostOnErrorAreReconnected() throws InterruptedException {
+        ConnectionFarm farm = ConnectionFarm.builder()
+                        .setMaxLoginsPerSecond(0)
+                        .setReconnectDelay(1, 10, TimeUnit.MILLISECONDS)
+                        .build();
+        List<FarmTestConnection> connections = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            FarmTestConnection connection = new FarmTestConnection(new CountDownLatch(0));
+            connections.add(connection);
+            farm.add(connection);
+        }
+        awaitAuthenticated(farm, 3);
+
+        connections.get(0).simulateConnectionError();
+        connections.get(2).simulateConnectionError();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (farm.getHealth().getSuccessfulLogins() < 5) {
+            assertTrue(System.nanoTime() - deadline < 0, "Timeout waiting for reconnects: " + farm.getHealth());
+            Thread.sleep(5);
+        }
+
+        ConnectionFarm.Health health = farm.getHealth();
+        assertEquals(2, health.getConnectionsLostOnError());
+        assertEquals(3, health.getAuthenticatedConnections());
+        assertEquals(0, health.getScheduledReconnects());
+        farm.shutdown();
+    }
+
+    @Test
+    public void reconnectDelaysAreJitteredAndBounded() {
+        ConnectionFarm farm = ConnectionFarm.builder()
+                        .setReconnectDelay(100, 1000, TimeUnit.MILLISECONDS)
+                        .build();
+        long[] ceilings = new long[] { 100, 200, 400, 800, 1000, 1000 };
+        for (int attempt = 1; attempt <= ceilings.length; attempt++) {
+            long ceiling = ceilings[attempt - 1];
+            long min = Long.MAX_VALUE, max = Long.MIN_VALUE;
+            for (int i = 0; i < 1000; i++) {
+                long delay = farm.nextReconnectDelayMillis(attempt);
+                min = Math.min(min, delay);
+                max = Math.max(max, delay);
+            }
+            assertTrue(min >= 0);
+            assertTrue(max <= ceiling, "Delay " + max + " exceeds " + ceiling);
+            // The delays should be spread over the interval.
+            assertTrue(max - min > ceiling / 2);
+        }
+        assertTrue(farm.nextReconnectDelayMillis(Integer.MAX_VALUE) <= 1000);
+        farm.shutdown();
+    }
+
+    @Test
+    public void removedConnectionsAreNoLongerManaged() {
+        ConnectionFarm farm = ConnectionFarm.builder().build();
+        FarmTestConnection connection = new FarmTestConnection(new CountDownLatch(1));
+        FarmTestConnection otherConnection = new FarmTestConnection(new CountDownLatch(1));
+        assertTrue(farm.add(connection));
+        assertFalse(farm.add(connection));
+        farm.add(otherConnection);
+
+        assertTrue(farm.remove(otherConnection));
+        assertFalse(farm.remove(otherConnection));
+        assertEquals(1, farm.getHealth().getManagedConnections());
+        assertTrue(ScramMechanism.getKeysCacheSize() >= 2);
+
+        connection.connectAllowed.countDown();
+        otherConnection.connectAllowed.countDown();
+        farm.shutdown();
+        assertEquals(0, farm.getHealth().getManagedConnections());
+    }
+
+    @Test
+    public void configuredConnectionsShareTheTlsContext() {
+        ConnectionFarm farm = ConnectionFarm.builder().build();
+        ConnectionConfiguration first = farm.configure(DummyConnection.getDummyConfigurationBuilder()).build();
+        ConnectionConfiguration second = farm.configure(DummyConnection.getDummyConfigurationBuilder()).build();
+        assertSame(first.smackTlsContext, second.smackTlsContext);
+        farm.shutdown();
+    }
+}
@@ -0,0 +1,154 @@
+/**
+ *
+ * Copyright 2021 Florian Schmaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.jivesoftware.smack.filter.StanzaTypeFilter;
+import org.jivesoftware.smack.packet.StanzaBuilder;
+
+import org.junit.jupiter.api.Test;
+
+public class InboundFlowControlTest {
+
+    private static final class FlowControlledConnection extends DummyConnection {
+        private final List<Boolean> readingPausedChanges = Collections.synchronizedList(new ArrayList<Boolean>());
+
+        private final CountDownLatch resumed = new CountDownLatch(1);
+
+        @Override
+        protected void onReadingPausedChanged(boolean readingPaused) {
+            readingPausedChanges.add(readingPaused);
+            if (!readingPaused) {
+                resumed.countDown();
+            }
+        }
+    }
+
+    @Test
+    public void readingIsPausedAndResumedAtWatermarks() throws InterruptedException {
+        FlowControlledConnection connection = new FlowControlledConnection();
+        connection.setInboundFlowControlWatermarks(3, 1);
+
+        CountDownLatch releaseListener = new CountDownLatch(1);
+        connection.addSyncStanzaListener(stanza -> releaseListener.await(), StanzaTypeFilter.MESSAGE);
+
+        connection.processStanza(StanzaBuilder.buildMessage().build());
+        connection.processStanza(StanzaBuilder.buildMessage().build());
+        assertFalse(connection.isReadingPaused());
+
+        connection.processStanza(StanzaBuilder.buildMessage().build());
+        assertTrue(connection.isReadingPaused());
+        assertEquals(1, connection.getReadPauseCount());
+        assertEquals(Collections.singletonList(true), connection.readingPausedChanges);
+
+        releaseListener.countDown();
+        assertTrue(connection.resumed.await(5, TimeUnit.SECONDS));
+        assertFalse(connection.isReadingPaused());
+        assertEquals(1, connection.getReadResumeCount());
+        assertEquals(Arrays.asList(true, false), connection.readingPausedChanges);
+    }
+
+    @Test
+    public void disablingFlowControlResumesReading() {
+        FlowControlledConnection connection = new FlowControlledConnection();
+        connection.setInboundFlowControlWatermarks(1, 0);
+
+        CountDownLatch releaseListener = new CountDownLatch(1);
+        connection.addSyncStanzaListener(stanza -> releaseListener.await(), StanzaTypeFilter.MESSAGE);
+        connection.processStanza(StanzaBuilder.buildMessage().build());
+        assertTrue(connection.isReadingPaused());
+
+        connection.setInboundFlowControlWatermarks(0, 0);
+        assertFalse(connection.isReadingPaused());
+        assertEquals(Arrays.asList(true, false), connection.readingPausedChanges);
+
+        releaseListener.countDown();
+    }
+
+    @Test
+    public void readingIsResumedAfterDroppedDispatches() throws InterruptedException {
+        FlowControlledConnection connection = new FlowControlledConnection();
+        connection.setInboundFlowControlWatermarks(3, 1);
+        connection.setStanzaListenerQueueBound(1, AsyncButOrdered.OverflowPolicy.dropOldest);
+
+        CountDownLatch listenerInvoked = new CountDownLatch(1);
+        CountDownLatch releaseListener = new CountDownLatch(1);
+        connection.addStanzaListener(stanza -> {
+            listenerInvoked.countDown();
+            releaseListener.await();
+        }, StanzaTypeFilter.MESSAGE);
+
+        connection.processStanza(StanzaBuilder.buildMessage().build());
+        assertTrue(listenerInvoked.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 9; i++) {
+            connection.processStanza(StanzaBuilder.buildMessage().build());
+        }
+        assertTrue(connection.isReadingPaused());
+        // Only the invocation for the last stanza is still queued, the ones for the stanzas in between got dropped.
+        assertEquals(8, connection.inOrderListeners.getDroppedCount());
+
+        releaseListener.countDown();
+        assertTrue(connection.resumed.await(5, TimeUnit.SECONDS));
+        assertFalse(connection.isReadingPaused());
+        assertEquals(Arrays.asList(true, false), connection.readingPausedChanges);
+    }
+
+    @Test
+    public void overflowingStanzaListenerQueuePausesReading() throws InterruptedException {
+        FlowControlledConnection connection = new FlowControlledConnection();
+        connection.setStanzaListenerQueueBound(2, AsyncButOrdered.OverflowPolicy.signal);
+
+        CountDownLatch listenerInvoked = new CountDownLatch(1);
+        CountDownLatch releaseListener = new CountDownLatch(1);
+        connection.addStanzaListener(stanza -> {
+            listenerInvoked.countDown();
+            releaseListener.await();
+        }, StanzaTypeFilter.MESSAGE);
+
+        connection.processStanza(StanzaBuilder.buildMessage().build());
+        assertTrue(listenerInvoked.await(5, TimeUnit.SECONDS));
+        connection.processStanza(StanzaBuilder.buildMessage().build());
+        connection.processStanza(StanzaBuilder.buildMessage().build());
+        assertFalse(connection.isReadingPaused());
+
+        connection.processStanza(StanzaBuilder.buildMessage().build());
+        assertTrue(connection.isReadingPaused());
+
+        releaseListener.countDown();
+        assertTrue(connection.resumed.await(5, TimeUnit.SECONDS));
+        assertFalse(connection.isReadingPaused());
+        assertEquals(Arrays.asList(true, false), connection.readingPausedChanges);
+    }
+
+    @Test
+    public void invalidWatermarksAreRejected() {
+        DummyConnection connection = new DummyConnection();
+        assertThrows(IllegalArgumentException.class, () -> connection.setInboundFlowControlWatermarks(10, 10));
+        assertThrows(IllegalArgumentException.class, () -> connection.setInboundFlowControlWatermarks(-1, 0));
+    }
+}
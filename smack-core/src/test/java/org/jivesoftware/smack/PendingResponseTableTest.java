@@ -0,0 +1,68 @@
+/**
+ *
+ * Copyright 2021 Florian Schmaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import org.jivesoftware.smack.filter.StanzaTypeFilter;
+import org.jivesoftware.smack.packet.IQ;
+import org.jivesoftware.smack.packet.TestIQ;
+
+import org.junit.jupiter.api.Test;
+import org.jxmpp.jid.JidTestUtil;
+
+public class PendingResponseTableTest {
+
+    @Test
+    public void responseIsCollectedViaPendingResponseTable() throws Exception {
+        DummyConnection connection = DummyConnection.newConnectedDummyConnection();
+
+        IQ request = new TestIQ();
+        request.setTo(JidTestUtil.DUMMY_AT_EXAMPLE_ORG);
+        StanzaCollector collector = connection.createStanzaCollectorAndSend(request);
+        assertEquals(1, connection.getPendingResponseCount());
+
+        // A response with the right ID but from an unexpected address must still be rejected.
+        IQ spoofedResponse = IQ.createResultIQ(request);
+        spoofedResponse.setFrom(JidTestUtil.BARE_JID_2);
+        connection.processStanza(spoofedResponse);
+        assertNull(collector.pollResult());
+
+        IQ response = IQ.createResultIQ(request);
+        connection.processStanza(response);
+        assertSame(response, collector.pollResult());
+
+        collector.cancel();
+        assertEquals(0, connection.getPendingResponseCount());
+    }
+
+    @Test
+    public void nonIdBasedCollectorIsNotPending() {
+        DummyConnection connection = DummyConnection.newConnectedDummyConnection();
+
+        StanzaCollector collector = connection.createStanzaCollector(StanzaTypeFilter.IQ);
+        assertEquals(0, connection.getPendingResponseCount());
+
+        IQ response = IQ.createResultIQ(new TestIQ());
+        connection.processStanza(response);
+        assertSame(response, collector.pollResult());
+
+        collector.cancel();
+    }
+}
@@ -0,0 +1,109 @@
+/**
+ *
+ * Copyright 2021 Florian Schmaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectionKey;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.jivesoftware.smack.SmackReactor.Shard;
+
+import org.junit.jupiter.api.Test;
+
+public class SmackReactorShardingTest {
+
+    private static Pipe.SourceChannel newSourceChannel(Pipe pipe) throws IOException {
+        Pipe.SourceChannel source = pipe.source();
+        source.configureBlocking(false);
+        return source;
+    }
+
+    @Test
+    public void channelsAreHandledByTheirShard() throws IOException, InterruptedException {
+        SmackReactor reactor = new SmackReactor("ShardingTest", 2, new SmackReactor.RoundRobinShardAssignmentPolicy());
+        assertTrue(reactor.isSharded());
+
+        BlockingQueue<String> selectedOnThreads = new LinkedBlockingQueue<>();
+        SmackReactor.ChannelSelectedCallback callback = (channel, selectionKey) -> {
+            ByteBuffer buffer = ByteBuffer.allocate(16);
+            try {
+                ((ReadableByteChannel) channel).read(buffer);
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+            selectedOnThreads.add(Thread.currentThread().getName());
+            reactor.setInterestOps(selectionKey, SelectionKey.OP_READ);
+        };
+
+        Pipe firstPipe = Pipe.open();
+        Pipe secondPipe = Pipe.open();
+        reactor.registerWithSelector(newSourceChannel(firstPipe), SelectionKey.OP_READ, callback);
+        reactor.registerWithSelector(newSourceChannel(secondPipe), SelectionKey.OP_READ, callback);
+
+        for (Shard shard : reactor.getShards()) {
+            assertEquals(1, shard.getRegisteredChannelCount());
+        }
+
+        firstPipe.sink().write(ByteBuffer.wrap(new byte[] { 1 }));
+        assertEquals("Smack ShardingTest Shard #0", selectedOnThreads.poll(5, TimeUnit.SECONDS));
+
+        secondPipe.sink().write(ByteBuffer.wrap(new byte[] { 2 }));
+        assertEquals("Smack ShardingTest Shard #1", selectedOnThreads.poll(5, TimeUnit.SECONDS));
+
+        // Ensure that the interest ops got restored.
+        firstPipe.sink().write(ByteBuffer.wrap(new byte[] { 3 }));
+        assertEquals("Smack ShardingTest Shard #0", selectedOnThreads.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void leastLoadedPolicyAssignsShardWithFewestChannels() throws IOException {
+        SmackReactor reactor = new SmackReactor("LeastLoadedTest", 3, new SmackReactor.LeastLoadedShardAssignmentPolicy());
+        Shard secondShard = reactor.getShards().get(1);
+
+        SmackReactor.ChannelSelectedCallback callback = (channel, selectionKey) -> { };
+        reactor.registerWithSelector(newSourceChannel(Pipe.open()), SelectionKey.OP_READ, callback, reactor.getShards().get(0));
+        reactor.registerWithSelector(newSourceChannel(Pipe.open()), SelectionKey.OP_READ, callback, reactor.getShards().get(2));
+
+        assertSame(secondShard, reactor.assignShard());
+    }
+
+    @Test
+    public void scheduledActionsAreExecutedByTheirShard() throws InterruptedException {
+        SmackReactor reactor = new SmackReactor("ScheduleTest", 2, new SmackReactor.RoundRobinShardAssignmentPolicy());
+        Shard shard = reactor.getShards().get(1);
+
+        BlockingQueue<String> executedOnThreads = new LinkedBlockingQueue<>();
+        ScheduledAction cancelledAction = reactor.schedule(() -> executedOnThreads.add("cancelled"), 50, TimeUnit.MILLISECONDS, shard);
+        reactor.schedule(() -> executedOnThreads.add(Thread.currentThread().getName()), 10, TimeUnit.MILLISECONDS, shard);
+        assertTrue(cancelledAction.cancel());
+        assertFalse(cancelledAction.cancel());
+
+        assertEquals("Smack ScheduleTest Shard #1", executedOnThreads.poll(5, TimeUnit.SECONDS));
+        assertNull(executedOnThreads.poll(100, TimeUnit.MILLISECONDS));
+    }
+}
@@ -0,0 +1,178 @@
+/**
+ *
+ * Copyright 2021 Florian Schmaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jivesoftware.smack.filter.AndFilter;
+import org.jivesoftware.smack.filter.FromMatchesFilter;
+import org.jivesoftware.smack.filter.MessageTypeFilter;
+import org.jivesoftware.smack.filter.NotFilter;
+import org.jivesoftware.smack.filter.StanzaExtensionFilter;
+import org.jivesoftware.smack.filter.StanzaTypeFilter;
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.packet.StandardExtensionElement;
+import org.jivesoftware.smack.packet.Stanza;
+import org.jivesoftware.smack.packet.StanzaBuilder;
+import org.jivesoftware.smack.packet.XmlEnvironment;
+import org.jivesoftware.smack.provider.ExtensionElementProvider;
+import org.jivesoftware.smack.provider.ProviderManager;
+import org.jivesoftware.smack.util.PacketParserUtils;
+import org.jivesoftware.smack.xml.XmlPullParser;
+
+import org.junit.jupiter.api.Test;
+import org.jxmpp.jid.JidTestUtil;
+
+public class StanzaListenerIndexTest {
+
+    private static final StanzaListener NOOP_1 = stanza -> { };
+    private static final StanzaListener NOOP_2 = stanza -> { };
+    private static final StanzaListener NOOP_3 = stanza -> { };
+    private static final StanzaListener NOOP_4 = stanza -> { };
+    private static final StanzaListener NOOP_5 = stanza -> { };
+
+    private static List<StanzaListener> extract(StanzaListenerIndex index, Stanza stanza) {
+        List<StanzaListener> res = new ArrayList<>();
+        index.extractMatchingListeners(stanza, res);
+        return res;
+    }
+
+    @Test
+    public void listenersAreReturnedInInsertionOrder() {
+        StanzaListenerIndex index = new StanzaListenerIndex();
+        index.put(NOOP_1, StanzaTypeFilter.MESSAGE);
+        index.put(NOOP_2, null);
+        index.put(NOOP_3, FromMatchesFilter.createBare(JidTestUtil.BARE_JID_1));
+        index.put(NOOP_4, MessageTypeFilter.CHAT);
+        index.put(NOOP_5, new StanzaExtensionFilter("foo", "urn:example:foo"));
+
+        Message message = StanzaBuilder.buildMessage()
+                        .from(JidTestUtil.FULL_JID_1_RESOURCE_1)
+                        .ofType(Message.Type.chat)
+                        .addExtension(StandardExtensionElement.builder("foo", "urn:example:foo").build())
+                        .build();
+
+        assertEquals(Arrays.asList(NOOP_1, NOOP_2, NOOP_3, NOOP_4, NOOP_5), extract(index, message));
+    }
+
+    @Test
+    public void onlyMatchingListenersAreReturned() {
+        StanzaListenerIndex index = new StanzaListenerIndex();
+        index.put(NOOP_1, StanzaTypeFilter.PRESENCE);
+        index.put(NOOP_2, FromMatchesFilter.createFull(JidTestUtil.FULL_JID_1_RESOURCE_2));
+        index.put(NOOP_3, new AndFilter(MessageTypeFilter.GROUPCHAT, FromMatchesFilter.create(JidTestUtil.BARE_JID_1)));
+        index.put(NOOP_4, new StanzaExtensionFilter("urn:example:bar"));
+        index.put(NOOP_5, new NotFilter(StanzaTypeFilter.PRESENCE));
+
+        Message message = StanzaBuilder.buildMessage()
+                        .from(JidTestUtil.FULL_JID_1_RESOURCE_1)
+                        .ofType(Message.Type.groupchat)
+                        .build();
+
+        assertEquals(Arrays.asList(NOOP_3, NOOP_5), extract(index, message));
+
+        Message messageWithExtension = StanzaBuilder.buildMessage()
+                        .from(JidTestUtil.BARE_JID_2)
+                        .addExtension(StandardExtensionElement.builder("bar", "urn:example:bar").build())
+                        .addExtension(StandardExtensionElement.builder("baz", "urn:example:bar").build())
+                        .build();
+
+        assertEquals(Arrays.asList(NOOP_4, NOOP_5), extract(index, messageWithExtension));
+    }
+
+    @Test
+    public void matchNoFromSetFilterIsIndexed() {
+        StanzaListenerIndex index = new StanzaListenerIndex();
+        index.put(NOOP_1, FromMatchesFilter.MATCH_NO_FROM_SET);
+
+        Message messageWithoutFrom = StanzaBuilder.buildMessage().build();
+        assertEquals(Collections.singletonList(NOOP_1), extract(index, messageWithoutFrom));
+
+        Message messageWithFrom = StanzaBuilder.buildMessage().from(JidTestUtil.BARE_JID_1).build();
+        assertTrue(extract(index, messageWithFrom).isEmpty());
+    }
+
+    @Test
+    public void removedListenersAreNotReturned() {
+        StanzaListenerIndex index = new StanzaListenerIndex();
+        index.put(NOOP_1, FromMatchesFilter.create(JidTestUtil.BARE_JID_1));
+        index.put(NOOP_2, FromMatchesFilter.create(JidTestUtil.BARE_JID_1));
+
+        assertTrue(index.remove(NOOP_1));
+        assertFalse(index.remove(NOOP_1));
+        assertFalse(index.contains(NOOP_1));
+        assertTrue(index.contains(NOOP_2));
+
+        Message message = StanzaBuilder.buildMessage().from(JidTestUtil.BARE_JID_1).build();
+        assertEquals(Collections.singletonList(NOOP_2), extract(index, message));
+
+        assertTrue(index.remove(NOOP_2));
+        assertEquals(0, index.size());
+        assertTrue(extract(index, message).isEmpty());
+    }
+
+    @Test
+    public void replacingListenerKeepsItsPosition() {
+        StanzaListenerIndex index = new StanzaListenerIndex();
+        index.put(NOOP_1, StanzaTypeFilter.MESSAGE);
+        index.put(NOOP_2, StanzaTypeFilter.MESSAGE);
+        index.put(NOOP_1, null);
+
+        Message message = StanzaBuilder.buildMessage().build();
+        assertEquals(Arrays.asList(NOOP_1, NOOP_2), extract(index, message));
+        assertEquals(2, index.size());
+    }
+
+    @Test
+    public void dispatchDoesNotParseDeferredExtensions() throws Exception {
+        final String namespace = "urn:example:deferred";
+        final AtomicInteger parsed = new AtomicInteger();
+        ProviderManager.addExtensionProvider("deferred", namespace, new ExtensionElementProvider<StandardExtensionElement>() {
+            @Override
+            public StandardExtensionElement parse(XmlPullParser parser, int initialDepth, XmlEnvironment xmlEnvironment) {
+                parsed.incrementAndGet();
+                return StandardExtensionElement.builder("deferred", namespace).build();
+            }
+        });
+        SmackConfiguration.setLazyExtensionElementParsing(true);
+        try {
+            Message message = PacketParserUtils.parseStanza("<message xmlns='jabber:client' id='1'>"
+                            + "<deferred xmlns='" + namespace + "'/>"
+                            + "<other xmlns='" + namespace + "'/>"
+                            + "</message>");
+
+            StanzaListenerIndex index = new StanzaListenerIndex();
+            index.put(NOOP_1, new StanzaExtensionFilter("deferred", namespace));
+            index.put(NOOP_2, new StanzaExtensionFilter(namespace));
+            index.put(NOOP_3, new StanzaExtensionFilter("urn:example:unknown"));
+
+            assertEquals(Arrays.asList(NOOP_1, NOOP_2), extract(index, message));
+            assertEquals(0, parsed.get());
+        } finally {
+            SmackConfiguration.setLazyExtensionElementParsing(false);
+            ProviderManager.removeExtensionProvider("deferred", namespace);
+        }
+    }
+}
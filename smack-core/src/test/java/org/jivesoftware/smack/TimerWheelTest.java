@@ -0,0 +1,186 @@
+/**
+ *
+ * Copyright 2021 Florian Schmaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+public class TimerWheelTest {
+
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private static final long ORIGIN_NANOS = 1000;
+
+    private static ScheduledAction newAction(long releaseTimeNanos) {
+        return new ScheduledAction(() -> { }, new Date(), releaseTimeNanos, null, ScheduledAction.Kind.NonBlocking,
+                        null);
+    }
+
+    private static long ticks(long ticks) {
+        return ORIGIN_NANOS + ticks * TICK_NANOS;
+    }
+
+    @Test
+    public void actionBecomesDueAtTheTickOfItsReleaseTime() {
+        TimerWheel timerWheel = new TimerWheel(TICK_NANOS, ORIGIN_NANOS);
+        // Released a bit after tick 5, hence due at tick 6.
+        ScheduledAction action = newAction(ticks(5) + 1);
+        timerWheel.add(action);
+
+        assertNull(timerWheel.poll(ticks(5) + 1));
+        assertNull(timerWheel.poll(ticks(6) - 1));
+        assertEquals(1, timerWheel.getTimeToNextDueNanos(ticks(6) - 1));
+        assertSame(action, timerWheel.poll(ticks(6)));
+        assertNull(timerWheel.poll(ticks(6)));
+        assertEquals(0, timerWheel.size());
+        assertEquals(ScheduledActionQueue.NOTHING_SCHEDULED, timerWheel.getTimeToNextDueNanos(ticks(6)));
+    }
+
+    @Test
+    public void removedActionDoesNotBecomeDue() {
+        TimerWheel timerWheel = new TimerWheel(TICK_NANOS, ORIGIN_NANOS);
+        ScheduledAction action = newAction(ticks(1000));
+        timerWheel.add(action);
+        assertEquals(1, timerWheel.size());
+
+        assertTrue(timerWheel.remove(action));
+        assertFalse(timerWheel.remove(action));
+        assertEquals(0, timerWheel.size());
+        assertNull(timerWheel.poll(ticks(2000)));
+
+        // The action can be added again once it was removed.
+        timerWheel.add(action);
+        assertSame(action, timerWheel.poll(ticks(3000)));
+    }
+
+    @Test
+    public void dueActionsAreExpiredInOneBatch() {
+        TimerWheel timerWheel = new TimerWheel(TICK_NANOS, ORIGIN_NANOS);
+        Set<ScheduledAction> actions = new HashSet<>();
+        for (int i = 0; i < 100; i++) {
+            ScheduledAction action = newAction(ticks(i * 100));
+            actions.add(action);
+            timerWheel.add(action);
+        }
+
+        Set<ScheduledAction> dueActions = new HashSet<>();
+        for (ScheduledAction action; (action = timerWheel.poll(ticks(100 * 100))) != null;) {
+            dueActions.add(action);
+        }
+        assertEquals(actions, dueActions);
+    }
+
+    @Test
+    public void actionsOutOfTheWheelsRangeAreCascaded() {
+        TimerWheel timerWheel = new TimerWheel(TICK_NANOS, ORIGIN_NANOS);
+        long releaseTick = (1L << 26) + 12345;
+        ScheduledAction action = newAction(ticks(releaseTick));
+        timerWheel.add(action);
+
+        assertNull(timerWheel.poll(ticks(1L << 24)));
+        assertNull(timerWheel.poll(ticks(1L << 25)));
+        assertNull(timerWheel.poll(ticks(releaseTick - 1)));
+        assertSame(action, timerWheel.poll(ticks(releaseTick)));
+    }
+
+    @Test
+    public void timeToNextDueSkipsIdleTicks() {
+        TimerWheel timerWheel = new TimerWheel(TICK_NANOS, ORIGIN_NANOS);
+        ScheduledAction action = newAction(ticks(100000));
+        timerWheel.add(action);
+
+        long now = ticks(0);
+        int polls = 0;
+        while (timerWheel.poll(now) == null) {
+            long timeToNextDue = timerWheel.getTimeToNextDueNanos(now);
+            assertTrue(timeToNextDue >= 0);
+            now += Math.max(timeToNextDue, 1);
+            polls++;
+        }
+        assertEquals(ticks(100000), now);
+        // The wheel only needs to stop at the ticks where a slot of a higher level is cascaded.
+        assertTrue(polls <= TimerWheel.LEVELS, "Needed " + polls + " polls");
+    }
+
+    @Test
+    public void randomizedOperationsMatchModel() {
+        Random random = new Random(42);
+        TimerWheel timerWheel = new TimerWheel(TICK_NANOS, ORIGIN_NANOS);
+        List<ScheduledAction> pending = new ArrayList<>();
+
+        long now = ORIGIN_NANOS;
+        for (int i = 0; i < 20000; i++) {
+            int operation = random.nextInt(10);
+            if (operation < 5) {
+                long delayNanos = (long) (Math.pow(random.nextDouble(), 4) * TimeUnit.HOURS.toNanos(2));
+                ScheduledAction action = newAction(now + delayNanos);
+                pending.add(action);
+                timerWheel.add(action);
+            } else if (operation < 7 && !pending.isEmpty()) {
+                ScheduledAction action = pending.remove(random.nextInt(pending.size()));
+                assertTrue(timerWheel.remove(action));
+            } else {
+                now += (long) (Math.pow(random.nextDouble(), 8) * TimeUnit.MINUTES.toNanos(30));
+                Set<ScheduledAction> dueActions = new HashSet<>();
+                for (ScheduledAction action; (action = timerWheel.poll(now)) != null;) {
+                    dueActions.add(action);
+                }
+
+                long nowTick = (now - ORIGIN_NANOS) / TICK_NANOS;
+                Set<ScheduledAction> expectedDueActions = new HashSet<>();
+                for (ScheduledAction action : pending) {
+                    long releaseTick = (action.releaseTimeNanos - ORIGIN_NANOS - 1) / TICK_NANOS + 1;
+                    if (releaseTick <= nowTick) {
+                        expectedDueActions.add(action);
+                    }
+                }
+                assertEquals(expectedDueActions, dueActions);
+                pending.removeAll(dueActions);
+            }
+            assertEquals(pending.size(), timerWheel.size());
+        }
+    }
+
+    @Test
+    public void reactorRunsActionsScheduledInTimerWheel() throws InterruptedException {
+        SmackReactor reactor = new SmackReactor("TimerWheelTest", TimeUnit.MILLISECONDS.toNanos(5));
+
+        CountDownLatch executed = new CountDownLatch(1);
+        ScheduledAction cancelledAction = reactor.schedule(() -> executed.countDown(), 20, TimeUnit.MILLISECONDS,
+                        ScheduledAction.Kind.NonBlocking);
+        assertTrue(cancelledAction.cancel());
+
+        long start = System.nanoTime();
+        reactor.schedule(() -> executed.countDown(), 50, TimeUnit.MILLISECONDS, ScheduledAction.Kind.NonBlocking);
+        assertTrue(executed.await(5, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+    }
+}
@@ -0,0 +1,105 @@
+/**
+ *
+ * Copyright 2021 Florian Schmaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.c2s.internal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.packet.Presence;
+import org.jivesoftware.smack.packet.Stanza;
+import org.jivesoftware.smack.packet.XmlEnvironment;
+import org.jivesoftware.smack.test.util.SmackTestUtil;
+import org.jivesoftware.smack.util.PacketParserUtils;
+import org.jivesoftware.smack.xml.XmlPullParser;
+import org.jivesoftware.smack.xml.XmlPullParserException;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+public class IncomingStreamParserTest {
+
+    private static final String STREAM_OPEN = "<stream:stream xmlns='jabber:client' xmlns:stream='http://etherx.jabber.org/streams' xml:lang='en'>";
+
+    @ParameterizedTest
+    @EnumSource(SmackTestUtil.XmlPullParserKind.class)
+    public void parsesSubsequentTopLevelElements(SmackTestUtil.XmlPullParserKind parserKind) throws Exception {
+        IncomingStreamParser incomingStreamParser = new IncomingStreamParser(parserKind.factory);
+
+        XmlPullParser parser = incomingStreamParser.streamOpened(STREAM_OPEN);
+        assertEquals("stream", parser.getName());
+        assertEquals("http://etherx.jabber.org/streams", parser.getNamespace());
+        XmlEnvironment streamEnvironment = XmlEnvironment.from(parser);
+
+        for (int i = 0; i < 3; i++) {
+            parser = incomingStreamParser.nextTopLevelElement(
+                            "<message from='romeo@example.net/orchard' id='message-" + i + "'><body>Hi " + i + "</body></message>");
+            assertEquals("jabber:client", parser.getNamespace());
+            Message message = (Message) PacketParserUtils.parseStanza(parser, streamEnvironment);
+            assertEquals("message-" + i, message.getStanzaId());
+            assertEquals("Hi " + i, message.getBody());
+            assertEquals("en", message.getLanguage());
+        }
+
+        // Whitespace between top-level elements is skipped.
+        parser = incomingStreamParser.nextTopLevelElement(" \n<presence id='presence'/>");
+        Stanza presence = PacketParserUtils.parseStanza(parser, streamEnvironment);
+        assertEquals(Presence.class, presence.getClass());
+        assertEquals("presence", presence.getStanzaId());
+    }
+
+    @ParameterizedTest
+    @EnumSource(SmackTestUtil.XmlPullParserKind.class)
+    public void forwardsToTheEndOfPartiallyConsumedElements(SmackTestUtil.XmlPullParserKind parserKind) throws Exception {
+        IncomingStreamParser incomingStreamParser = new IncomingStreamParser(parserKind.factory);
+        incomingStreamParser.streamOpened(STREAM_OPEN);
+
+        XmlPullParser parser = incomingStreamParser.nextTopLevelElement("<foo xmlns='urn:example:foo'><bar><baz/></bar></foo>");
+        assertEquals("foo", parser.getName());
+        // Only consume the start of the nested 'bar' element.
+        parser.next();
+        assertEquals("bar", parser.getName());
+
+        parser = incomingStreamParser.nextTopLevelElement("<message id='after-foo'/>");
+        assertEquals("message", parser.getName());
+        assertEquals("after-foo", parser.getAttributeValue("id"));
+    }
+
+    @ParameterizedTest
+    @EnumSource(SmackTestUtil.XmlPullParserKind.class)
+    public void restartedStreamGetsNewParser(SmackTestUtil.XmlPullParserKind parserKind) throws Exception {
+        IncomingStreamParser incomingStreamParser = new IncomingStreamParser(parserKind.factory);
+        incomingStreamParser.streamOpened(STREAM_OPEN);
+        // The stream is restarted after the 'success' element without consuming it completely.
+        incomingStreamParser.nextTopLevelElement("<success xmlns='urn:ietf:params:xml:ns:xmpp-sasl'>dGVzdA==</success>");
+
+        XmlPullParser parser = incomingStreamParser.streamOpened("<stream xmlns='http://etherx.jabber.org/streams'>");
+        assertEquals("stream", parser.getName());
+
+        parser = incomingStreamParser.nextTopLevelElement("<features xmlns='http://etherx.jabber.org/streams'/>");
+        assertEquals("features", parser.getName());
+    }
+
+    @ParameterizedTest
+    @EnumSource(SmackTestUtil.XmlPullParserKind.class)
+    public void rejectsUnexpectedEndOfStream(SmackTestUtil.XmlPullParserKind parserKind) throws Exception {
+        IncomingStreamParser incomingStreamParser = new IncomingStreamParser(parserKind.factory);
+        incomingStreamParser.streamOpened(STREAM_OPEN);
+
+        assertThrows(XmlPullParserException.class, () -> incomingStreamParser.nextTopLevelElement("</stream:stream>"));
+    }
+}
@@ -0,0 +1,129 @@
+/**
+ *
+ * Copyright 2021 Florian Schmaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.compression.zlib;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.jivesoftware.smack.XmppInputOutputFilter;
+import org.jivesoftware.smack.XmppInputOutputFilter.OutputResult;
+import org.jivesoftware.smack.util.ByteBufferPool;
+
+import org.junit.jupiter.api.Test;
+
+public class ZlibXmppCompressionFactoryTest {
+
+    private static final String MESSAGE = "<message to='juliet@example.org' type='chat'><body>Hello</body></message>";
+
+    private final XmppInputOutputFilter compressor = ZlibXmppCompressionFactory.INSTANCE.fabricate(null);
+    private final XmppInputOutputFilter decompressor = ZlibXmppCompressionFactory.INSTANCE.fabricate(null);
+
+    private static ByteBuffer encode(String string, boolean direct) {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = direct ? ByteBuffer.allocateDirect(bytes.length) : ByteBuffer.allocate(bytes.length);
+        buffer.put(bytes);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Pass the output of the compressor to the decompressor, like a transport and its peer would.
+     */
+    private String transfer(OutputResult outputResult) throws IOException {
+        ByteBuffer compressed = outputResult.filteredOutputData;
+        if (compressed == null) {
+            return "";
+        }
+        compressed.flip();
+        if (!compressed.hasRemaining()) {
+            return "";
+        }
+        ByteBuffer inflated = decompressor.input(compressed);
+        assertFalse(compressed.hasRemaining());
+        if (inflated == null) {
+            return "";
+        }
+        inflated.flip();
+        return StandardCharsets.UTF_8.decode(inflated).toString();
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        for (boolean direct : new boolean[] { false, true }) {
+            for (int i = 0; i < 10; i++) {
+                ByteBuffer outputData = encode(MESSAGE, direct);
+                OutputResult outputResult = compressor.output(outputData, true, false, false);
+                assertFalse(outputData.hasRemaining());
+                assertEquals(MESSAGE, transfer(outputResult));
+            }
+        }
+    }
+
+    @Test
+    public void largeElementRoundTrip() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            sb.append("<item id='").append(i).append("'/>");
+        }
+        String element = sb.toString();
+
+        OutputResult outputResult = compressor.output(encode(element, false), true, false, false);
+        assertEquals(element, transfer(outputResult));
+    }
+
+    @Test
+    public void batchesElementsIfMoreDataIsAvailable() throws IOException {
+        StringBuilder received = new StringBuilder();
+        for (int i = 0; i < 5; i++) {
+            OutputResult outputResult = compressor.output(encode(MESSAGE, false), true, false, true);
+            received.append(transfer(outputResult));
+        }
+        assertEquals("", received.toString());
+
+        OutputResult outputResult = compressor.output(encode(MESSAGE, false), true, false, false);
+        received.append(transfer(outputResult));
+
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 6; i++) {
+            expected.append(MESSAGE);
+        }
+        assertEquals(expected.toString(), received.toString());
+
+        ZlibXmppCompressionFactory.Stats stats = (ZlibXmppCompressionFactory.Stats) compressor.getStats();
+        assertEquals(1, stats.syncFlushes);
+        assertTrue(stats.compressionRatio < 1);
+        assertTrue(stats.compressorNanos > 0);
+    }
+
+    @Test
+    public void steadyStateDoesNotAllocateBuffers() throws IOException {
+        for (int i = 0; i < 100; i++) {
+            assertEquals(MESSAGE, transfer(compressor.output(encode(MESSAGE, false), true, false, false)));
+        }
+
+        long allocated = ByteBufferPool.getInstance().getStats().allocated;
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(MESSAGE, transfer(compressor.output(encode(MESSAGE, false), true, false, false)));
+        }
+        assertEquals(allocated, ByteBufferPool.getInstance().getStats().allocated);
+    }
+}
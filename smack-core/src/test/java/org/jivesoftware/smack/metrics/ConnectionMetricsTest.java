@@ -0,0 +1,140 @@
+/**
+ *
+ * Copyright 2021 Florian Schmaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.metrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.jivesoftware.smack.DummyConnection;
+import org.jivesoftware.smack.metrics.ConnectionMetrics.StanzaType;
+import org.jivesoftware.smack.packet.IQ;
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.packet.StanzaBuilder;
+import org.jivesoftware.smack.packet.TestIQ;
+
+import org.junit.jupiter.api.Test;
+import org.jxmpp.jid.JidTestUtil;
+
+public class ConnectionMetricsTest {
+
+    private static DummyConnection newConnection(boolean metricsEnabled) throws Exception {
+        DummyConnection connection = new DummyConnection(
+                        DummyConnection.getDummyConfigurationBuilder().setMetricsEnabled(metricsEnabled).build());
+        connection.connect();
+        connection.login();
+        return connection;
+    }
+
+    @Test
+    public void recordsStanzasAndIqRoundTripTimes() throws Exception {
+        DummyConnection connection = newConnection(true);
+        ConnectionMetrics metrics = connection.getMetrics();
+
+        Message message = StanzaBuilder.buildMessage().to(JidTestUtil.DUMMY_AT_EXAMPLE_ORG).build();
+        connection.sendStanza(message);
+
+        IQ request = new TestIQ("query", "urn:example:metrics");
+        request.setTo(JidTestUtil.DUMMY_AT_EXAMPLE_ORG);
+        connection.sendStanza(request);
+        assertEquals(1, metrics.getTrackedIqRequestCount());
+
+        connection.processStanza(IQ.createResultIQ(request));
+        assertEquals(0, metrics.getTrackedIqRequestCount());
+
+        MetricsSnapshot snapshot = metrics.snapshot();
+        assertEquals(1, snapshot.getStanzasSent(StanzaType.message));
+        assertEquals(1, snapshot.getStanzasSent(StanzaType.iq));
+        assertEquals(1, snapshot.getStanzasReceived(StanzaType.iq));
+        assertEquals(0, snapshot.getStanzasReceived(StanzaType.presence));
+        assertEquals(1, snapshot.getIqRoundTripTimes().get("urn:example:metrics").getCount());
+        assertTrue(snapshot.getGauges().containsKey("pendingIqResponses"));
+
+        connection.disconnect();
+    }
+
+    @Test
+    public void disabledMetricsRecordNothing() throws Exception {
+        DummyConnection connection = newConnection(false);
+        ConnectionMetrics metrics = connection.getMetrics();
+        assertFalse(metrics.isEnabled());
+
+        IQ request = new TestIQ();
+        request.setTo(JidTestUtil.DUMMY_AT_EXAMPLE_ORG);
+        connection.sendStanza(request);
+        connection.processStanza(IQ.createResultIQ(request));
+
+        MetricsSnapshot snapshot = metrics.snapshot();
+        assertEquals(0, snapshot.getStanzasSent(StanzaType.iq));
+        assertEquals(0, snapshot.getStanzasReceived(StanzaType.iq));
+        assertTrue(snapshot.getIqRoundTripTimes().isEmpty());
+        assertFalse(SmackMetrics.getConnectionMetrics().contains(metrics));
+
+        connection.disconnect();
+    }
+
+    @Test
+    public void exportersAreNotifiedOnConnectAndClose() throws Exception {
+        List<ConnectionMetrics> added = new ArrayList<>();
+        List<ConnectionMetrics> removed = new ArrayList<>();
+        MetricsExporter exporter = new MetricsExporter() {
+            @Override
+            public void connectionMetricsAdded(ConnectionMetrics connectionMetrics) {
+                added.add(connectionMetrics);
+            }
+
+            @Override
+            public void connectionMetricsRemoved(ConnectionMetrics connectionMetrics) {
+                removed.add(connectionMetrics);
+            }
+        };
+        SmackMetrics.addExporter(exporter);
+        try {
+            DummyConnection connection = newConnection(true);
+            ConnectionMetrics metrics = connection.getMetrics();
+            assertSame(metrics, added.get(added.size() - 1));
+            assertTrue(SmackMetrics.getConnectionMetrics().contains(metrics));
+
+            connection.disconnect();
+            assertTrue(removed.contains(metrics));
+            assertFalse(SmackMetrics.getConnectionMetrics().contains(metrics));
+        } finally {
+            SmackMetrics.removeExporter(exporter);
+        }
+    }
+
+    @Test
+    public void histogramPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 99; i++) {
+            histogram.record(TimeUnit.MICROSECONDS.toNanos(10));
+        }
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(50));
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(100, snapshot.getCount());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(50), snapshot.getMaxNanos());
+        // 10us falls into the bucket with the upper bound of 16us.
+        assertEquals(TimeUnit.MICROSECONDS.toNanos(16), snapshot.getPercentileNanos(0.5));
+        assertTrue(snapshot.getPercentileNanos(1) >= TimeUnit.MILLISECONDS.toNanos(50));
+    }
+}
@@ -0,0 +1,140 @@
+/**
+ *
+ * Copyright 2021 Florian Schmaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.packet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.xml.namespace.QName;
+
+import org.jivesoftware.smack.util.MultiMap;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+public class XmlElementMultiMapTest {
+
+    private static StandardExtensionElement element(int keyNumber, int valueNumber) {
+        return StandardExtensionElement.builder("element" + keyNumber, "urn:example:" + keyNumber)
+                        .addAttribute("value", Integer.toString(valueNumber))
+                        .build();
+    }
+
+    /**
+     * Fill a {@link XmlElementMultiMap} and a {@link MultiMap} with the same elements, where every third element has
+     * the same key as an element added before.
+     */
+    private static XmlElementMultiMap fill(MultiMap<QName, XmlElement> expected, int count) {
+        XmlElementMultiMap map = new XmlElementMultiMap();
+        for (int i = 0; i < count; i++) {
+            int keyNumber = i % 3 == 2 ? i / 2 : i;
+            StandardExtensionElement element = element(keyNumber, i);
+            map.put(element.getQName(), element);
+            expected.put(element.getQName(), element);
+        }
+        return map;
+    }
+
+    private static void assertSameContent(MultiMap<QName, XmlElement> expected, XmlElementMultiMap map) {
+        assertEquals(expected.values(), map.values());
+        assertEquals(expected.values().size(), map.size());
+        for (QName key : expected.keySet()) {
+            assertTrue(map.containsKey(key));
+            assertSame(expected.getFirst(key), map.getFirst(key));
+            assertEquals(expected.getAll(key), map.getAll(key));
+        }
+        assertEquals(expected.values(), map.toMultiMap().values());
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1, 3, XmlElementMultiMap.HASH_INDEX_THRESHOLD, XmlElementMultiMap.HASH_INDEX_THRESHOLD + 5})
+    public void behavesLikeMultiMap(int count) {
+        MultiMap<QName, XmlElement> expected = new MultiMap<>();
+        XmlElementMultiMap map = fill(expected, count);
+        assertSameContent(expected, map);
+
+        QName unknown = new QName("urn:example:unknown", "unknown");
+        assertFalse(map.containsKey(unknown));
+        assertNull(map.getFirst(unknown));
+        assertTrue(map.getAll(unknown).isEmpty());
+        assertNull(map.remove(unknown));
+
+        List<QName> keys = new ArrayList<>(expected.keySet());
+        for (int i = 0; i < keys.size(); i += 2) {
+            QName key = keys.get(i);
+            assertSame(expected.remove(key), map.remove(key));
+            assertSameContent(expected, map);
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {3, XmlElementMultiMap.HASH_INDEX_THRESHOLD + 5})
+    public void removeOne(int count) {
+        MultiMap<QName, XmlElement> expected = new MultiMap<>();
+        XmlElementMultiMap map = fill(expected, count);
+
+        StandardExtensionElement sameKeyAndEqualValue = element(0, 0);
+        StandardExtensionElement sameKeyButOtherValue = element(0, 42);
+        assertFalse(map.removeOne(sameKeyButOtherValue.getQName(), sameKeyButOtherValue));
+        assertTrue(map.removeOne(sameKeyAndEqualValue.getQName(), expected.getFirst(sameKeyAndEqualValue.getQName())));
+        expected.removeOne(sameKeyAndEqualValue.getQName(), expected.getFirst(sameKeyAndEqualValue.getQName()));
+        assertSameContent(expected, map);
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {3, XmlElementMultiMap.HASH_INDEX_THRESHOLD + 5})
+    public void copiesAreIndependent(int count) {
+        MultiMap<QName, XmlElement> expected = new MultiMap<>();
+        XmlElementMultiMap map = fill(expected, count);
+        List<XmlElement> originalValues = map.values();
+
+        XmlElementMultiMap copy = map.copy();
+        StandardExtensionElement added = element(100, 100);
+        copy.put(added.getQName(), added);
+        copy.set(0, element(0, 4711));
+        assertEquals(originalValues, map.values());
+        assertFalse(map.containsKey(added.getQName()));
+
+        XmlElementMultiMap secondCopy = map.copy();
+        XmlElement removed = map.remove(map.getKey(0));
+        assertEquals(originalValues, secondCopy.values());
+        assertTrue(secondCopy.containsKey(removed.getQName()));
+        assertEquals(count + 1, copy.size());
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {3, XmlElementMultiMap.HASH_INDEX_THRESHOLD + 5})
+    public void valuesWithSameKeyAreAdjacent(int count) {
+        MultiMap<QName, XmlElement> expected = new MultiMap<>();
+        XmlElementMultiMap map = fill(expected, count);
+        StandardExtensionElement first = element(1, 0);
+        StandardExtensionElement second = element(1, 1);
+        map.put(first.getQName(), second);
+
+        int index = map.indexOf(first.getQName());
+        List<XmlElement> all = map.getAll(first.getQName());
+        assertEquals(Arrays.asList(map.get(index), map.get(index + 1)), all.subList(0, 2));
+        assertSame(second, all.get(all.size() - 1));
+    }
+}
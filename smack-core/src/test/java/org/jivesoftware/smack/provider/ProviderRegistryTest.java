@@ -0,0 +1,61 @@
+/**
+ *
+ * Copyright 2021 Florian Schmaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.provider;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import javax.xml.namespace.QName;
+
+import org.junit.jupiter.api.Test;
+
+public class ProviderRegistryTest {
+
+    @Test
+    public void lookupByElementNameAndNamespace() {
+        ProviderRegistry<String> registry = new ProviderRegistry<>();
+        registry.put("body", "jabber:client", "body provider");
+        registry.put(new QName("urn:xmpp:sid:0", "origin-id"), "origin-id provider");
+        registry.put("stanza-id", "urn:xmpp:sid:0", "stanza-id provider");
+
+        assertEquals("body provider", registry.get("body", "jabber:client"));
+        assertEquals("body provider", registry.get(new QName("jabber:client", "body")));
+        assertEquals("origin-id provider", registry.get("origin-id", "urn:xmpp:sid:0"));
+        assertEquals("stanza-id provider", registry.get(new String("stanza-id"), new String("urn:xmpp:sid:0")));
+        assertNull(registry.get("body", "urn:xmpp:sid:0"));
+        assertNull(registry.get("body", null));
+        assertEquals(new HashSet<>(Arrays.asList("body provider", "origin-id provider", "stanza-id provider")),
+                        new HashSet<>(registry.values()));
+    }
+
+    @Test
+    public void replaceAndRemove() {
+        ProviderRegistry<String> registry = new ProviderRegistry<>();
+        assertNull(registry.put("body", "jabber:client", "first"));
+        assertEquals("first", registry.put("body", "jabber:client", "second"));
+        assertEquals("second", registry.get("body", "jabber:client"));
+
+        assertNull(registry.remove("thread", "jabber:client"));
+        assertEquals("second", registry.remove(new QName("jabber:client", "body")));
+        assertNull(registry.get("body", "jabber:client"));
+        assertTrue(registry.values().isEmpty());
+    }
+}
@@ -0,0 +1,82 @@
+/**
+ *
+ * Copyright 2021 Florian Schmaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.junit.jupiter.api.Test;
+
+public class ByteBufferPoolTest {
+
+    @Test
+    public void roundsUpToSizeClassAndReusesBuffers() {
+        ByteBufferPool pool = new ByteBufferPool(1024 * 1024, 1024 * 1024);
+
+        ByteBuffer direct = pool.borrowDirect(16709);
+        assertTrue(direct.isDirect());
+        assertEquals(24 * 1024, direct.capacity());
+
+        ByteBuffer heap = pool.borrowHeap(100);
+        assertFalse(heap.isDirect());
+        assertEquals(1024, heap.capacity());
+
+        ByteBufferPool.Stats stats = pool.getStats();
+        assertEquals(24 * 1024, stats.directBytesInUse);
+        assertEquals(1024, stats.heapBytesInUse);
+
+        direct.put((byte) 42);
+        pool.release(direct);
+        pool.release(heap);
+
+        stats = pool.getStats();
+        assertEquals(0, stats.directBytesInUse);
+        assertEquals(0, stats.heapBytesInUse);
+        assertEquals(24 * 1024, stats.directBytesPooled);
+        assertEquals(1024, stats.heapBytesPooled);
+
+        ByteBuffer reborrowed = pool.borrowDirect(20000);
+        assertSame(direct, reborrowed);
+        assertEquals(0, reborrowed.position());
+        assertEquals(reborrowed.capacity(), reborrowed.limit());
+        assertEquals(2, pool.getStats().allocated);
+    }
+
+    @Test
+    public void doesNotPoolBeyondLimitOrLargestSizeClass() {
+        ByteBufferPool pool = new ByteBufferPool(0, 8 * 1024);
+
+        ByteBuffer huge = pool.borrowHeap(1024 * 1024);
+        assertEquals(1024 * 1024, huge.capacity());
+        pool.release(huge);
+        assertEquals(0, pool.getStats().heapBytesPooled);
+
+        ByteBuffer first = pool.borrowHeap(8 * 1024);
+        ByteBuffer second = pool.borrowHeap(8 * 1024);
+        pool.release(first);
+        pool.release(second);
+        assertEquals(8 * 1024, pool.getStats().heapBytesPooled);
+
+        ByteBuffer direct = pool.borrowDirect(1024);
+        pool.release(direct);
+        assertEquals(0, pool.getStats().directBytesPooled);
+    }
+}
@@ -0,0 +1,197 @@
+/**
+ *
+ * Copyright 2021 Florian Schmaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import javax.xml.namespace.QName;
+
+import org.jivesoftware.smack.SmackConfiguration;
+import org.jivesoftware.smack.filter.StanzaExtensionFilter;
+import org.jivesoftware.smack.packet.ExtensionElement;
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.packet.StandardExtensionElement;
+import org.jivesoftware.smack.packet.XmlElement;
+import org.jivesoftware.smack.packet.XmlEnvironment;
+import org.jivesoftware.smack.parsing.SmackParsingException;
+import org.jivesoftware.smack.provider.ExtensionElementProvider;
+import org.jivesoftware.smack.provider.ProviderManager;
+import org.jivesoftware.smack.test.util.SmackTestUtil;
+import org.jivesoftware.smack.xml.XmlPullParser;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+public class LazyExtensionElementParsingTest {
+
+    private static final String NAMESPACE = "urn:example:lazy";
+
+    private static final QName COUNTED_QNAME = new QName(NAMESPACE, "counted");
+
+    private static final QName FAILING_QNAME = new QName(NAMESPACE, "failing");
+
+    private static final class CountedElement implements ExtensionElement {
+        private final String value;
+
+        private CountedElement(String value) {
+            this.value = value;
+        }
+
+        @Override
+        public String getElementName() {
+            return COUNTED_QNAME.getLocalPart();
+        }
+
+        @Override
+        public String getNamespace() {
+            return NAMESPACE;
+        }
+
+        @Override
+        public String toXML(XmlEnvironment xmlEnvironment) {
+            return "<counted xmlns='" + NAMESPACE + "' value='" + value + "'/>";
+        }
+    }
+
+    private static final class CountingProvider extends ExtensionElementProvider<CountedElement> {
+        private int invocations;
+
+        @Override
+        public CountedElement parse(XmlPullParser parser, int initialDepth, XmlEnvironment xmlEnvironment) {
+            invocations++;
+            return new CountedElement(parser.getAttributeValue("value"));
+        }
+    }
+
+    public static final class FailingElement implements ExtensionElement {
+        public static final QName QNAME = FAILING_QNAME;
+
+        @Override
+        public String getElementName() {
+            return FAILING_QNAME.getLocalPart();
+        }
+
+        @Override
+        public String getNamespace() {
+            return NAMESPACE;
+        }
+
+        @Override
+        public String toXML(XmlEnvironment xmlEnvironment) {
+            return "<failing xmlns='" + NAMESPACE + "'/>";
+        }
+    }
+
+    private static final class FailingProvider extends ExtensionElementProvider<FailingElement> {
+        @Override
+        public FailingElement parse(XmlPullParser parser, int initialDepth, XmlEnvironment xmlEnvironment)
+                        throws SmackParsingException {
+            throw new SmackParsingException("Provider failure for testing purposes");
+        }
+    }
+
+    private final CountingProvider countingProvider = new CountingProvider();
+
+    @BeforeEach
+    public void setUp() {
+        ProviderManager.addExtensionProvider(COUNTED_QNAME.getLocalPart(), NAMESPACE, countingProvider);
+        ProviderManager.addExtensionProvider(FAILING_QNAME.getLocalPart(), NAMESPACE, new FailingProvider());
+        SmackConfiguration.setLazyExtensionElementParsing(true);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        SmackConfiguration.setLazyExtensionElementParsing(false);
+        ProviderManager.removeExtensionProvider(COUNTED_QNAME.getLocalPart(), NAMESPACE);
+        ProviderManager.removeExtensionProvider(FAILING_QNAME.getLocalPart(), NAMESPACE);
+    }
+
+    @ParameterizedTest
+    @EnumSource(SmackTestUtil.XmlPullParserKind.class)
+    public void extensionIsParsedOnFirstRequest(SmackTestUtil.XmlPullParserKind parserKind) throws Exception {
+        String xml = "<message xmlns='jabber:client' from='romeo@example.net' id='1'>"
+                        + "<body>Hi</body>"
+                        + "<counted xmlns='" + NAMESPACE + "' value='42'><child>text</child></counted>"
+                        + "</message>";
+        XmlPullParser parser = SmackTestUtil.getParserFor(xml, parserKind);
+        Message message = PacketParserUtils.parseMessage(parser);
+        assertEquals(0, countingProvider.invocations);
+
+        assertTrue(message.hasExtension(COUNTED_QNAME));
+        assertTrue(message.hasExtension(COUNTED_QNAME.getLocalPart(), NAMESPACE));
+        assertTrue(message.hasExtension(NAMESPACE));
+        assertTrue(new StanzaExtensionFilter(COUNTED_QNAME.getLocalPart(), NAMESPACE).accept(message));
+        assertEquals(0, countingProvider.invocations);
+
+        XmlElement extension = message.getExtension(COUNTED_QNAME);
+        assertEquals("42", ((CountedElement) extension).value);
+        assertEquals(1, countingProvider.invocations);
+
+        // The parsed extension is memoized.
+        assertSame(extension, message.getExtension(COUNTED_QNAME));
+        assertSame(extension, message.getExtensions(COUNTED_QNAME).get(0));
+        assertEquals(1, countingProvider.invocations);
+
+        assertEquals("Hi", message.getBody());
+    }
+
+    @ParameterizedTest
+    @EnumSource(SmackTestUtil.XmlPullParserKind.class)
+    public void extensionWithInheritedNamespaceDeclaration(SmackTestUtil.XmlPullParserKind parserKind) throws Exception {
+        String xml = "<message xmlns='jabber:client' xmlns:lazy='" + NAMESPACE + "' id='1'>"
+                        + "<lazy:other attr='value'><lazy:child/></lazy:other>"
+                        + "</message>";
+        XmlPullParser parser = SmackTestUtil.getParserFor(xml, parserKind);
+        Message message = PacketParserUtils.parseMessage(parser);
+
+        StandardExtensionElement extension = (StandardExtensionElement) message.getExtension(
+                        new QName(NAMESPACE, "other"));
+        assertEquals("value", extension.getAttributeValue("attr"));
+        assertEquals(1, extension.getElements().size());
+        assertFalse(message.hasExtension(new QName(NAMESPACE, "child")));
+    }
+
+    @ParameterizedTest
+    @EnumSource(SmackTestUtil.XmlPullParserKind.class)
+    public void extensionWhichFailsToParseIsRemoved(SmackTestUtil.XmlPullParserKind parserKind) throws Exception {
+        String xml = "<message xmlns='jabber:client' id='1'>"
+                        + "<failing xmlns='" + NAMESPACE + "'/>"
+                        + "<counted xmlns='" + NAMESPACE + "' value='42'/>"
+                        + "<failing xmlns='" + NAMESPACE + "'/>"
+                        + "</message>";
+        XmlPullParser parser = SmackTestUtil.getParserFor(xml, parserKind);
+        Message message = PacketParserUtils.parseMessage(parser);
+
+        // The presence of the extension is reported without parsing it.
+        assertTrue(message.hasExtension(FailingElement.class));
+
+        assertNull(message.getExtension(FailingElement.class));
+        assertTrue(message.getExtensions(FailingElement.class).isEmpty());
+        assertFalse(message.hasExtension(FailingElement.class));
+        assertNull(message.getExtension(FAILING_QNAME));
+
+        // The other extensions are not affected.
+        assertEquals(1, message.getExtensions().size());
+        assertEquals("42", ((CountedElement) message.getExtension(COUNTED_QNAME)).value);
+    }
+}
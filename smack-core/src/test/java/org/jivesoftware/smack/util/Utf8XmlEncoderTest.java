@@ -0,0 +1,114 @@
+/**
+ *
+ * Copyright 2021 Florian Schmaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.packet.MessageBuilder;
+import org.jivesoftware.smack.packet.StreamOpen;
+import org.jivesoftware.smack.packet.XmlEnvironment;
+
+import org.junit.jupiter.api.Test;
+import org.jxmpp.stringprep.XmppStringprepException;
+
+public class Utf8XmlEncoderTest {
+
+    private static String decode(List<ByteBuffer> buffers) {
+        int length = 0;
+        for (ByteBuffer buffer : buffers) {
+            length += buffer.remaining();
+        }
+        byte[] bytes = new byte[length];
+        int offset = 0;
+        for (ByteBuffer buffer : buffers) {
+            int remaining = buffer.remaining();
+            buffer.get(bytes, offset, remaining);
+            offset += remaining;
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void encodesXmlStringBuilderLikeToXml() throws XmppStringprepException {
+        Message message = MessageBuilder.buildMessage("id-1")
+                        .to("romeo@example.net")
+                        .setBody("Wherefore art thou, Romeo? <&> ä€😀")
+                        .build();
+        XmlEnvironment xmlEnvironment = new XmlEnvironment(StreamOpen.CLIENT_NAMESPACE);
+        CharSequence xml = message.toXML(StreamOpen.CLIENT_NAMESPACE);
+
+        Utf8XmlEncoder encoder = new Utf8XmlEncoder();
+        encoder.encode(xml, xmlEnvironment);
+        List<ByteBuffer> buffers = encoder.drainBuffers();
+
+        assertEquals(1, buffers.size());
+        assertEquals(((XmlStringBuilder) xml).toXML(xmlEnvironment).toString(), decode(buffers));
+    }
+
+    @Test
+    public void encodesIntoMultipleBuffers() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 3000; i++) {
+            // Surrogate pairs and multi-byte characters end up on the boundaries of the internal buffers.
+            sb.append("aä😀");
+        }
+        String xml = "<body>" + sb + "</body>";
+
+        // Use a buffer size, which is not a multiple of the size of the encoded characters.
+        Utf8XmlEncoder encoder = new Utf8XmlEncoder(new ByteBufferPool(0, 0), 1021);
+        encoder.encode(xml, XmlEnvironment.EMPTY);
+        encoder.encode(xml, XmlEnvironment.EMPTY);
+        List<ByteBuffer> completedBuffers = encoder.drainCompletedBuffers();
+        assertTrue(completedBuffers.size() > 1);
+        String completed = decode(completedBuffers);
+        String rest = decode(encoder.drainBuffers());
+
+        assertEquals(xml + xml, completed + rest);
+    }
+
+    @Test
+    public void recyclesBuffers() {
+        ByteBufferPool bufferPool = new ByteBufferPool(0, 4096);
+        Utf8XmlEncoder encoder = new Utf8XmlEncoder(bufferPool, 64);
+        for (int i = 0; i < 100; i++) {
+            encoder.encode("<presence id='" + i + "'/>", XmlEnvironment.EMPTY);
+            List<ByteBuffer> buffers = encoder.drainBuffers();
+            assertEquals("<presence id='" + i + "'/>", decode(buffers));
+            for (ByteBuffer buffer : buffers) {
+                encoder.recycle(buffer);
+            }
+        }
+        ByteBufferPool.Stats stats = bufferPool.getStats();
+        assertEquals(1, stats.allocated);
+        assertEquals(0, stats.heapBytesInUse);
+    }
+
+    @Test
+    public void resetDiscardsPendingData() {
+        Utf8XmlEncoder encoder = new Utf8XmlEncoder();
+        encoder.encode("<a/>", XmlEnvironment.EMPTY);
+        encoder.reset();
+        encoder.encode("<b/>", XmlEnvironment.EMPTY);
+        assertEquals("<b/>", decode(encoder.drainBuffers()));
+    }
+}
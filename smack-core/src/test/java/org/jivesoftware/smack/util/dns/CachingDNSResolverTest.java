@@ -0,0 +1,259 @@
+/**
+ *
+ * Copyright 2021 Florian Schmaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.util.dns;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jivesoftware.smack.ConnectionConfiguration.DnssecMode;
+import org.jivesoftware.smack.util.rce.RemoteConnectionEndpointLookupFailure;
+
+import org.junit.jupiter.api.Test;
+import org.minidns.dnsname.DnsName;
+import org.minidns.record.SRV;
+
+public class CachingDNSResolverTest {
+
+    private static final DnsName HOST = DnsName.from("xmpp.example.org");
+
+    private static final DnsName SRV_NAME = DnsName.from("_xmpp-client._tcp.example.org");
+
+    private static final class StubResolver extends DNSResolver {
+        private final AtomicInteger lookups = new AtomicInteger();
+        private volatile List<InetAddress> hostAddresses;
+        private volatile long ttlSeconds = 60;
+        private volatile CountDownLatch blockLookups;
+
+        private StubResolver() throws UnknownHostException {
+            super(false);
+            hostAddresses = Collections.singletonList(InetAddress.getByName("192.0.2.1"));
+        }
+
+        @Override
+        protected Collection<SRV> lookupSrvRecords0(DnsName name,
+                        List<RemoteConnectionEndpointLookupFailure> lookupFailures, DnssecMode dnssecMode) {
+            lookups.incrementAndGet();
+            return Collections.singletonList(new SRV(0, 0, 5222, HOST));
+        }
+
+        @Override
+        protected LookupResult<List<InetAddress>> lookupHostAddressWithTtl0(DnsName name,
+                        List<RemoteConnectionEndpointLookupFailure> lookupFailures, DnssecMode dnssecMode) {
+            lookups.incrementAndGet();
+            CountDownLatch blockLookups = this.blockLookups;
+            if (blockLookups != null) {
+                try {
+                    blockLookups.await();
+                } catch (InterruptedException e) {
+                    throw new AssertionError(e);
+                }
+            }
+            List<InetAddress> hostAddresses = this.hostAddresses;
+            if (hostAddresses == null) {
+                lookupFailures.add(new RemoteConnectionEndpointLookupFailure.DnsLookupFailure(name,
+                                new UnknownHostException(name.toString())));
+            }
+            return new LookupResult<>(hostAddresses, ttlSeconds);
+        }
+    }
+
+    private static final class TestCachingDNSResolver extends CachingDNSResolver {
+        private volatile long nanoTime;
+
+        private TestCachingDNSResolver(CachingDNSResolver.Builder builder) {
+            super(builder);
+        }
+
+        @Override
+        long nanoTime() {
+            return nanoTime;
+        }
+
+        private void advance(long duration, TimeUnit unit) {
+            nanoTime += unit.toNanos(duration);
+        }
+    }
+
+    private static List<InetAddress> lookup(DNSResolver resolver,
+                    List<RemoteConnectionEndpointLookupFailure> failures) {
+        return resolver.lookupHostAddress(HOST, failures, DnssecMode.disabled);
+    }
+
+    private static List<InetAddress> lookup(DNSResolver resolver) {
+        return lookup(resolver, new ArrayList<>());
+    }
+
+    @Test
+    public void resultsAreCachedForTheirTtl() throws UnknownHostException {
+        StubResolver stub = new StubResolver();
+        TestCachingDNSResolver resolver = new TestCachingDNSResolver(CachingDNSResolver.builder(stub));
+
+        assertEquals(stub.hostAddresses, lookup(resolver));
+        resolver.advance(59, TimeUnit.SECONDS);
+        assertEquals(stub.hostAddresses, lookup(resolver));
+        assertEquals(1, stub.lookups.get());
+
+        resolver.advance(2, TimeUnit.SECONDS);
+        assertEquals(stub.hostAddresses, lookup(resolver));
+        assertEquals(2, stub.lookups.get());
+
+        CachingDNSResolver.Statistics statistics = resolver.getStatistics();
+        assertEquals(1, statistics.getHits());
+        assertEquals(2, statistics.getMisses());
+    }
+
+    @Test
+    public void ttlIsClamped() throws UnknownHostException {
+        StubResolver stub = new StubResolver();
+        stub.ttlSeconds = 1;
+        TestCachingDNSResolver resolver = new TestCachingDNSResolver(
+                        CachingDNSResolver.builder(stub).setTtlBounds(10, 20, TimeUnit.SECONDS));
+
+        lookup(resolver);
+        resolver.advance(5, TimeUnit.SECONDS);
+        lookup(resolver);
+        assertEquals(1, stub.lookups.get());
+
+        stub.ttlSeconds = 3600;
+        resolver.advance(10, TimeUnit.SECONDS);
+        lookup(resolver);
+        resolver.advance(21, TimeUnit.SECONDS);
+        lookup(resolver);
+        assertEquals(3, stub.lookups.get());
+    }
+
+    @Test
+    public void unknownTtlUsesDefaultTtl() throws UnknownHostException {
+        StubResolver stub = new StubResolver();
+        TestCachingDNSResolver resolver = new TestCachingDNSResolver(
+                        CachingDNSResolver.builder(stub).setDefaultTtl(30, TimeUnit.SECONDS));
+        DnsName srvName = SRV_NAME;
+
+        resolver.lookupSrvRecords(srvName, new ArrayList<>(), DnssecMode.disabled);
+        resolver.advance(29, TimeUnit.SECONDS);
+        resolver.lookupSrvRecords(srvName, new ArrayList<>(), DnssecMode.disabled);
+        assertEquals(1, stub.lookups.get());
+
+        resolver.advance(2, TimeUnit.SECONDS);
+        resolver.lookupSrvRecords(srvName, new ArrayList<>(), DnssecMode.disabled);
+        assertEquals(2, stub.lookups.get());
+    }
+
+    @Test
+    public void failedLookupsAreCachedNegatively() throws UnknownHostException {
+        StubResolver stub = new StubResolver();
+        stub.hostAddresses = null;
+        TestCachingDNSResolver resolver = new TestCachingDNSResolver(
+                        CachingDNSResolver.builder(stub).setNegativeTtl(10, TimeUnit.SECONDS));
+
+        List<RemoteConnectionEndpointLookupFailure> failures = new ArrayList<>();
+        assertNull(lookup(resolver, failures));
+        assertEquals(1, failures.size());
+
+        failures.clear();
+        assertNull(lookup(resolver, failures));
+        assertEquals(1, failures.size());
+        assertEquals(1, stub.lookups.get());
+        assertEquals(1, resolver.getStatistics().getNegativeHits());
+
+        resolver.advance(11, TimeUnit.SECONDS);
+        assertNull(lookup(resolver));
+        assertEquals(2, stub.lookups.get());
+    }
+
+    @Test
+    public void staleResultIsServedIfLookupFails() throws UnknownHostException {
+        StubResolver stub = new StubResolver();
+        List<InetAddress> hostAddresses = stub.hostAddresses;
+        TestCachingDNSResolver resolver = new TestCachingDNSResolver(CachingDNSResolver.builder(stub)
+                        .setNegativeTtl(10, TimeUnit.SECONDS)
+                        .setMaxStale(1, TimeUnit.MINUTES));
+
+        lookup(resolver);
+        stub.hostAddresses = null;
+
+        resolver.advance(61, TimeUnit.SECONDS);
+        assertEquals(hostAddresses, lookup(resolver));
+        assertEquals(2, stub.lookups.get());
+
+        // The stale result is not looked up again before the negative TTL passed.
+        resolver.advance(5, TimeUnit.SECONDS);
+        assertEquals(hostAddresses, lookup(resolver));
+        assertEquals(2, stub.lookups.get());
+        assertEquals(2, resolver.getStatistics().getStaleHits());
+
+        // After the maximum staleness, the failure is reported.
+        resolver.advance(2, TimeUnit.MINUTES);
+        assertNull(lookup(resolver));
+    }
+
+    @Test
+    public void concurrentLookupsAreCoalesced() throws Exception {
+        StubResolver stub = new StubResolver();
+        stub.blockLookups = new CountDownLatch(1);
+        CachingDNSResolver resolver = CachingDNSResolver.builder(stub).build();
+
+        final int threadCount = 4;
+        List<Thread> threads = new ArrayList<>(threadCount);
+        List<List<InetAddress>> results = Collections.synchronizedList(new ArrayList<>());
+        for (int i = 0; i < threadCount; i++) {
+            Thread thread = new Thread(() -> results.add(lookup(resolver)));
+            thread.start();
+            threads.add(thread);
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (resolver.getStatistics().getCoalescedLookups() < threadCount - 1 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        stub.blockLookups.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(1, stub.lookups.get());
+        assertEquals(threadCount - 1, resolver.getStatistics().getCoalescedLookups());
+        assertEquals(threadCount, results.size());
+        for (List<InetAddress> result : results) {
+            assertEquals(stub.hostAddresses, result);
+        }
+    }
+
+    @Test
+    public void prewarmResolvesSrvTargets() throws UnknownHostException {
+        StubResolver stub = new StubResolver();
+        CachingDNSResolver resolver = CachingDNSResolver.builder(stub).build();
+
+        resolver.prewarm(SRV_NAME, DnssecMode.disabled);
+        assertEquals(2, stub.lookups.get());
+
+        lookup(resolver);
+        assertEquals(2, stub.lookups.get());
+        assertTrue(resolver.getStatistics().getHits() > 0);
+    }
+}
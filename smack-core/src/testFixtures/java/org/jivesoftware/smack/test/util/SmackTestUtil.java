@@ -35,6 +35,7 @@ import org.jivesoftware.smack.xml.XmlPullParser;
 import org.jivesoftware.smack.xml.XmlPullParserException;
 import org.jivesoftware.smack.xml.XmlPullParserFactory;
 import org.jivesoftware.smack.xml.stax.StaxXmlPullParserFactory;
+import org.jivesoftware.smack.xml.xmpp.XmppXmlPullParserFactory;
 import org.jivesoftware.smack.xml.xpp3.Xpp3XmlPullParserFactory;
 
 public class SmackTestUtil {
@@ -43,6 +44,7 @@ public class SmackTestUtil {
     public enum XmlPullParserKind {
         StAX(StaxXmlPullParserFactory.class),
         XPP3(Xpp3XmlPullParserFactory.class),
+        XMPP(XmppXmlPullParserFactory.class),
         ;
 
         public final XmlPullParserFactory factory;
@@ -0,0 +1,161 @@
+/**
+ *
+ * Copyright 2021 Florian Schmaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.java21;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jivesoftware.smack.AsyncButOrdered;
+import org.jivesoftware.smack.DummyConnection;
+import org.jivesoftware.smack.packet.IQ;
+import org.jivesoftware.smack.packet.SimpleIQ;
+import org.jivesoftware.smack.packet.Stanza;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Compares the latency of concurrent blocking IQ requests issued from Smack's asynchronous handlers, and the number of
+ * platform threads required for them, once with Smack's default cached thread pool and once with virtual threads.
+ * <p>
+ * Every parameter combination runs in its own fork, hence enabling virtual threads does not affect the runs with
+ * platform threads.
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class VirtualThreadsBenchmark {
+
+    private static final int REQUESTS = 1000;
+
+    private static final ScheduledExecutorService RESPONDER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Benchmark Responder");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final class BenchmarkIQ extends SimpleIQ {
+        private BenchmarkIQ() {
+            super("query", "urn:example:benchmark");
+        }
+    }
+
+    /**
+     * A dummy connection which answers every IQ request after a fixed delay, simulating the round trip to the server.
+     */
+    private static final class DelayedResponseConnection extends DummyConnection {
+        private final long responseDelayMillis;
+
+        private DelayedResponseConnection(long responseDelayMillis) {
+            this.responseDelayMillis = responseDelayMillis;
+        }
+
+        @Override
+        protected void sendStanzaInternal(Stanza stanza) {
+            if (!(stanza instanceof IQ)) {
+                return;
+            }
+            IQ response = IQ.createResultIQ((IQ) stanza);
+            RESPONDER.schedule(() -> processStanza(response), responseDelayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * The peak number of platform threads, reported next to the latency.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class ThreadCounters {
+        public long peakPlatformThreads;
+    }
+
+    @Param({"false", "true"})
+    public boolean virtualThreads;
+
+    @Param({"100"})
+    public long responseDelayMillis;
+
+    private DelayedResponseConnection connection;
+
+    private AsyncButOrdered<Integer> asyncButOrdered;
+
+    private final ThreadMXBean threadMxBean = ManagementFactory.getThreadMXBean();
+
+    @Setup
+    public void setup() throws Exception {
+        if (virtualThreads) {
+            SmackVirtualThreads.enable();
+        }
+
+        connection = new DelayedResponseConnection(responseDelayMillis);
+        connection.connect();
+        connection.login();
+        connection.setReplyTimeout(TimeUnit.MINUTES.toMillis(5));
+
+        asyncButOrdered = new AsyncButOrdered<>();
+    }
+
+    @TearDown
+    public void tearDown() {
+        connection.disconnect();
+        SmackVirtualThreads.disable();
+    }
+
+    @Setup(Level.Iteration)
+    public void resetPeakThreadCount() {
+        threadMxBean.resetPeakThreadCount();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(REQUESTS)
+    public int sendIqRequestsFromAsyncHandlers(ThreadCounters threadCounters) throws InterruptedException {
+        CountDownLatch finished = new CountDownLatch(REQUESTS);
+        AtomicInteger failed = new AtomicInteger();
+        for (int i = 0; i < REQUESTS; i++) {
+            // Every request has its own key, so that all requests are performed concurrently.
+            asyncButOrdered.performAsyncButOrdered(i, () -> {
+                try {
+                    connection.sendIqRequestAndWaitForResponse(new BenchmarkIQ());
+                } catch (Exception e) {
+                    failed.incrementAndGet();
+                } finally {
+                    finished.countDown();
+                }
+            });
+        }
+        finished.await();
+
+        threadCounters.peakPlatformThreads = threadMxBean.getPeakThreadCount();
+        return failed.get();
+    }
+}
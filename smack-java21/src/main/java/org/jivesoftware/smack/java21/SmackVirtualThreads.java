@@ -0,0 +1,80 @@
+/**
+ *
+ * Copyright 2021 Florian Schmaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.java21;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.jivesoftware.smack.SmackConfiguration;
+
+/**
+ * Run Smack's asynchronous operations on virtual threads.
+ * <p>
+ * Once enabled, asynchronous stanza listeners, IQ request handlers, the handlers of
+ * {@link org.jivesoftware.smack.AsyncButOrdered} and blocking scheduled actions, e.g. the ones scheduled via
+ * {@code Manager.scheduleBlocking()}, are executed on virtual threads instead of the platform threads of Smack's cached
+ * thread pool. This allows listeners to perform blocking operations, like
+ * {@link org.jivesoftware.smack.XMPPConnection#sendIqRequestAndWaitForResponse(org.jivesoftware.smack.packet.IQ)},
+ * without occupying a platform thread each.
+ * </p>
+ * <pre>{@code
+ * SmackVirtualThreads.enable();
+ * }</pre>
+ * <p>
+ * Note that this affects all connections of the JVM, as it sets the executor via
+ * {@link SmackConfiguration#setAsyncExecutor(java.util.concurrent.Executor)}.
+ * </p>
+ */
+public final class SmackVirtualThreads {
+
+    private static final ThreadFactory VIRTUAL_THREAD_FACTORY = Thread.ofVirtual()
+                    .name("Smack Virtual Thread ", 0)
+                    .factory();
+
+    private static final ExecutorService VIRTUAL_THREAD_EXECUTOR = Executors.newThreadPerTaskExecutor(
+                    VIRTUAL_THREAD_FACTORY);
+
+    private SmackVirtualThreads() {
+    }
+
+    /**
+     * Execute Smack's asynchronous operations on virtual threads.
+     */
+    public static void enable() {
+        SmackConfiguration.setAsyncExecutor(VIRTUAL_THREAD_EXECUTOR);
+    }
+
+    /**
+     * Revert to Smack's default executor, if virtual threads where enabled.
+     */
+    public static void disable() {
+        if (!isEnabled()) {
+            return;
+        }
+        SmackConfiguration.setAsyncExecutor(null);
+    }
+
+    /**
+     * Check if Smack's asynchronous operations are executed on virtual threads.
+     *
+     * @return <code>true</code> if virtual threads are used.
+     */
+    public static boolean isEnabled() {
+        return SmackConfiguration.getAsyncExecutor() == VIRTUAL_THREAD_EXECUTOR;
+    }
+}
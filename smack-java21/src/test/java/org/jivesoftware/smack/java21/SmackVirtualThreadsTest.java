@@ -0,0 +1,56 @@
+/**
+ *
+ * Copyright 2021 Florian Schmaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.java21;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.jivesoftware.smack.AsyncButOrdered;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+public class SmackVirtualThreadsTest {
+
+    @AfterEach
+    public void disableVirtualThreads() {
+        SmackVirtualThreads.disable();
+    }
+
+    private static boolean runsOnVirtualThread() throws Exception {
+        CompletableFuture<Boolean> isVirtual = new CompletableFuture<>();
+        AsyncButOrdered<Object> asyncButOrdered = new AsyncButOrdered<>();
+        asyncButOrdered.performAsyncButOrdered(new Object(), () -> isVirtual.complete(Thread.currentThread().isVirtual()));
+        return isVirtual.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void asyncOperationsRunOnVirtualThreadsOnceEnabled() throws Exception {
+        assertFalse(SmackVirtualThreads.isEnabled());
+        assertFalse(runsOnVirtualThread());
+
+        SmackVirtualThreads.enable();
+        assertTrue(SmackVirtualThreads.isEnabled());
+        assertTrue(runsOnVirtualThread());
+
+        SmackVirtualThreads.disable();
+        assertFalse(runsOnVirtualThread());
+    }
+}
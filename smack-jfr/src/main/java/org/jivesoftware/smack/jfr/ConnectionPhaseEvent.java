@@ -0,0 +1,47 @@
+/**
+ *
+ * Copyright 2021 Florian Schmaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name(ConnectionPhaseEvent.NAME)
+@Label("Connection Phase")
+@Description("A phase of establishing a connection, i.e. the TLS handshake, the SASL authentication or the resource binding")
+@Category({ "Smack", "Connection" })
+@StackTrace(false)
+final class ConnectionPhaseEvent extends Event {
+
+    static final String NAME = "org.jivesoftware.smack.ConnectionPhase";
+
+    @Label("Connection")
+    int connection;
+
+    @Label("Phase")
+    String phase;
+
+    @Label("Successful")
+    boolean successful;
+
+    @Label("Failure")
+    String failure;
+
+}
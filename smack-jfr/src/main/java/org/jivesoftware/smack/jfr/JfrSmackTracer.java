@@ -0,0 +1,289 @@
+/**
+ *
+ * Copyright 2021 Florian Schmaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.jfr;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.namespace.QName;
+
+import org.jivesoftware.smack.AbstractXMPPConnection;
+import org.jivesoftware.smack.XMPPConnection;
+import org.jivesoftware.smack.metrics.ConnectionMetrics;
+import org.jivesoftware.smack.metrics.SmackTracer;
+import org.jivesoftware.smack.packet.IQ;
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.packet.Presence;
+import org.jivesoftware.smack.packet.Stanza;
+
+import jdk.jfr.Event;
+
+/**
+ * A {@link SmackTracer} emitting JFR events. Every method first checks if the corresponding event is enabled, so that
+ * the tracer does not do any work if the event is not recorded.
+ */
+final class JfrSmackTracer implements SmackTracer {
+
+    static final JfrSmackTracer INSTANCE = new JfrSmackTracer();
+
+    /**
+     * The maximum number of IQ requests awaiting a response, in order to bound the memory if responses get lost. Once
+     * reached, the requests whose reply timeout expired are evicted.
+     */
+    private static final int MAX_PENDING_IQ_REQUESTS = 1024;
+
+    private final Map<String, PendingIqRequest> pendingIqRequests = new ConcurrentHashMap<>();
+
+    private static final class PendingIqRequest {
+        private final IqRequestEvent event;
+
+        /**
+         * The point in time, as returned by {@link System#nanoTime()}, after which the response is no longer expected.
+         */
+        private final long expiresNanos;
+
+        private PendingIqRequest(IqRequestEvent event, long expiresNanos) {
+            this.event = event;
+            this.expiresNanos = expiresNanos;
+        }
+    }
+
+    private JfrSmackTracer() {
+    }
+
+    @Override
+    public void stanzaSent(XMPPConnection connection, Stanza stanza) {
+        // The stanza sent event is emitted once the stanza was written and its size is known.
+        if (stanza instanceof IQ) {
+            IQ iq = (IQ) stanza;
+            if (iq.isRequestIQ()) {
+                iqRequestSent(connection, iq);
+            }
+        }
+    }
+
+    @Override
+    public void stanzaWritten(XMPPConnection connection, Stanza stanza, long size) {
+        StanzaSentEvent event = new StanzaSentEvent();
+        if (event.isEnabled()) {
+            setStanzaFields(event, connection, stanza, size);
+            event.commit();
+        }
+    }
+
+    @Override
+    public void stanzaReceived(XMPPConnection connection, Stanza stanza, long size) {
+        StanzaReceivedEvent event = new StanzaReceivedEvent();
+        if (event.isEnabled()) {
+            setStanzaFields(event, connection, stanza, size);
+            event.commit();
+        }
+
+        if (stanza instanceof IQ && !pendingIqRequests.isEmpty()) {
+            IQ iq = (IQ) stanza;
+            if (iq.isResponseIQ()) {
+                iqResponseReceived(connection, iq);
+            }
+        }
+    }
+
+    private void iqRequestSent(XMPPConnection connection, IQ iq) {
+        IqRequestEvent event = new IqRequestEvent();
+        if (!event.isEnabled()) {
+            return;
+        }
+        String stanzaId = iq.getStanzaId();
+        if (stanzaId == null) {
+            return;
+        }
+        final long nowNanos = System.nanoTime();
+        if (pendingIqRequests.size() >= MAX_PENDING_IQ_REQUESTS) {
+            evictExpiredIqRequests(nowNanos);
+            if (pendingIqRequests.size() >= MAX_PENDING_IQ_REQUESTS) {
+                return;
+            }
+        }
+
+        event.begin();
+        event.connection = connectionIdOf(connection);
+        event.requestType = iq.getType().toString();
+        event.namespace = iq.getChildElementNamespace();
+        event.stanzaId = stanzaId;
+        long expiresNanos = nowNanos + TimeUnit.MILLISECONDS.toNanos(connection.getReplyTimeout());
+        pendingIqRequests.put(stanzaId, new PendingIqRequest(event, expiresNanos));
+    }
+
+    /**
+     * Evict the IQ requests whose reply timeout expired, as their responses, if any, are no longer awaited.
+     */
+    private void evictExpiredIqRequests(long nowNanos) {
+        Iterator<PendingIqRequest> it = pendingIqRequests.values().iterator();
+        while (it.hasNext()) {
+            if (nowNanos - it.next().expiresNanos > 0) {
+                it.remove();
+            }
+        }
+    }
+
+    private void iqResponseReceived(XMPPConnection connection, IQ iq) {
+        String stanzaId = iq.getStanzaId();
+        if (stanzaId == null) {
+            return;
+        }
+        PendingIqRequest pendingIqRequest = pendingIqRequests.get(stanzaId);
+        if (pendingIqRequest == null || pendingIqRequest.event.connection != connectionIdOf(connection)) {
+            return;
+        }
+        if (!pendingIqRequests.remove(stanzaId, pendingIqRequest)) {
+            return;
+        }
+
+        IqRequestEvent event = pendingIqRequest.event;
+        event.end();
+        event.responseType = iq.getType().toString();
+        event.commit();
+    }
+
+    @Override
+    public Span connectionPhaseStarted(XMPPConnection connection, ConnectionPhase connectionPhase) {
+        ConnectionPhaseEvent event = new ConnectionPhaseEvent();
+        if (!event.isEnabled()) {
+            return Span.NO_OP;
+        }
+        event.begin();
+        event.connection = connectionIdOf(connection);
+        event.phase = connectionPhase.toString();
+        return new Span() {
+            @Override
+            public void end() {
+                event.successful = true;
+                event.commit();
+            }
+
+            @Override
+            public void fail(Exception exception) {
+                event.failure = exception.toString();
+                event.commit();
+            }
+        };
+    }
+
+    @Override
+    public Span listenerExecutionStarted(XMPPConnection connection, Object listener, Stanza stanza) {
+        ListenerExecutionEvent event = new ListenerExecutionEvent();
+        if (!event.isEnabled()) {
+            return Span.NO_OP;
+        }
+        event.begin();
+        event.connection = connectionIdOf(connection);
+        event.listenerClass = listener.getClass();
+        event.stanza = ConnectionMetrics.StanzaType.from(stanza).toString();
+        return new CommittingSpan(event);
+    }
+
+    @Override
+    public Span reactorSelectedKeysHandlingStarted(int selectedKeysCount) {
+        ReactorStallEvent event = new ReactorStallEvent();
+        if (!event.isEnabled()) {
+            return Span.NO_OP;
+        }
+        event.begin();
+        event.selectedChannels = selectedKeysCount;
+        return new CommittingSpan(event);
+    }
+
+    @Override
+    public Span reactorScheduledActionStarted() {
+        ReactorStallEvent event = new ReactorStallEvent();
+        if (!event.isEnabled()) {
+            return Span.NO_OP;
+        }
+        event.begin();
+        event.scheduledAction = true;
+        return new CommittingSpan(event);
+    }
+
+    /**
+     * Drop the pending IQ requests of a connection, e.g. because the connection was closed.
+     *
+     * @param connection the connection.
+     */
+    void dropPendingIqRequests(XMPPConnection connection) {
+        int connectionId = connectionIdOf(connection);
+        Iterator<PendingIqRequest> it = pendingIqRequests.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().event.connection == connectionId) {
+                it.remove();
+            }
+        }
+    }
+
+    int getPendingIqRequestCount() {
+        return pendingIqRequests.size();
+    }
+
+    static int connectionIdOf(XMPPConnection connection) {
+        if (connection instanceof AbstractXMPPConnection) {
+            return ((AbstractXMPPConnection) connection).getConnectionCounter();
+        }
+        return -1;
+    }
+
+    private static void setStanzaFields(StanzaEvent event, XMPPConnection connection, Stanza stanza, long size) {
+        event.connection = connectionIdOf(connection);
+        event.stanza = ConnectionMetrics.StanzaType.from(stanza).toString();
+        event.stanzaId = stanza.getStanzaId();
+        event.size = size;
+
+        if (stanza instanceof IQ) {
+            IQ iq = (IQ) stanza;
+            event.type = iq.getType().toString();
+            event.namespace = iq.getChildElementNamespace();
+        } else {
+            if (stanza instanceof Message) {
+                event.type = ((Message) stanza).getType().toString();
+            } else if (stanza instanceof Presence) {
+                event.type = ((Presence) stanza).getType().toString();
+            }
+            // Do not use getExtensions(), as it would parse lazily parsed extension elements.
+            QName firstExtensionQName = stanza.getFirstExtensionQName();
+            if (firstExtensionQName != null) {
+                event.namespace = firstExtensionQName.getNamespaceURI();
+            }
+        }
+    }
+
+    private static final class CommittingSpan implements Span {
+        private final Event event;
+
+        private CommittingSpan(Event event) {
+            this.event = event;
+        }
+
+        @Override
+        public void end() {
+            event.commit();
+        }
+
+        @Override
+        public void fail(Exception exception) {
+            event.commit();
+        }
+    }
+}
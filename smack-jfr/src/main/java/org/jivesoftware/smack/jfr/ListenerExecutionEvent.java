@@ -0,0 +1,46 @@
+/**
+ *
+ * Copyright 2021 Florian Schmaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+@Name(ListenerExecutionEvent.NAME)
+@Label("Slow Listener Execution")
+@Description("A stanza listener or IQ request handler which took longer than the threshold to process a stanza")
+@Category({ "Smack", "Listeners" })
+@Threshold("20 ms")
+@StackTrace(false)
+final class ListenerExecutionEvent extends Event {
+
+    static final String NAME = "org.jivesoftware.smack.ListenerExecution";
+
+    @Label("Connection")
+    int connection;
+
+    @Label("Listener Class")
+    Class<?> listenerClass;
+
+    @Label("Stanza")
+    String stanza;
+
+}
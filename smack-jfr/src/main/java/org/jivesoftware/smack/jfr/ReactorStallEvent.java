@@ -0,0 +1,43 @@
+/**
+ *
+ * Copyright 2021 Florian Schmaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+@Name(ReactorStallEvent.NAME)
+@Label("Reactor Stall")
+@Description("A reactor thread which was busy for longer than the threshold, either handling selected channels or running a scheduled action, and hence unable to react to other channels")
+@Category({ "Smack", "Reactor" })
+@Threshold("20 ms")
+@StackTrace(false)
+final class ReactorStallEvent extends Event {
+
+    static final String NAME = "org.jivesoftware.smack.ReactorStall";
+
+    @Label("Selected Channels")
+    int selectedChannels;
+
+    @Label("Scheduled Action")
+    boolean scheduledAction;
+
+}
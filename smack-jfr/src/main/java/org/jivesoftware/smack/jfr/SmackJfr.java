@@ -0,0 +1,157 @@
+/**
+ *
+ * Copyright 2021 Florian Schmaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.jfr;
+
+import org.jivesoftware.smack.ConnectionCreationListener;
+import org.jivesoftware.smack.ConnectionListener;
+import org.jivesoftware.smack.XMPPConnection;
+import org.jivesoftware.smack.XMPPConnectionRegistry;
+import org.jivesoftware.smack.c2s.ModularXmppClientToServerConnection;
+import org.jivesoftware.smack.fsm.ConnectionStateEvent;
+import org.jivesoftware.smack.fsm.ConnectionStateMachineListener;
+import org.jivesoftware.smack.metrics.SmackMetrics;
+
+/**
+ * Emit Java Flight Recorder (JFR) events about Smack's connections.
+ * <p>
+ * Once enabled, Smack emits events about
+ * </p>
+ * <ul>
+ * <li>sent and received stanzas, carrying their type, namespace, ID and size, but not their content,</li>
+ * <li>IQ requests, whose duration is the time until the response was received,</li>
+ * <li>the TLS handshake, SASL authentication and resource binding phases of a connection,</li>
+ * <li>the state transitions of {@link ModularXmppClientToServerConnection}s,</li>
+ * <li>stanza listeners and IQ request handlers taking longer than a threshold, and</li>
+ * <li>reactor threads being busy for longer than a threshold.</li>
+ * </ul>
+ * <pre>{@code
+ * SmackJfr.enable();
+ * }</pre>
+ * <p>
+ * The events are in the "Smack" category, and their names start with {@code org.jivesoftware.smack.}. As with every
+ * JFR event, they are only recorded if enabled in the recording's settings, e.g. the thresholds of the
+ * "org.jivesoftware.smack.ListenerExecution" and "org.jivesoftware.smack.ReactorStall" events default to 20 ms, but can
+ * be changed with a custom .jfc file. If no recording is active, or the events are disabled, then emitting them costs
+ * next to nothing. State transitions are only recorded for connections created after JFR events got enabled.
+ * </p>
+ * <p>
+ * Note that this affects all connections of the JVM, as it sets the tracer via
+ * {@link SmackMetrics#setTracer(org.jivesoftware.smack.metrics.SmackTracer)}.
+ * </p>
+ */
+public final class SmackJfr {
+
+    private static final ConnectionCreationListener CONNECTION_CREATION_LISTENER = new ConnectionCreationListener() {
+        @Override
+        public void connectionCreated(XMPPConnection connection) {
+            connection.addConnectionListener(new ConnectionListener() {
+                @Override
+                public void connectionClosed() {
+                    JfrSmackTracer.INSTANCE.dropPendingIqRequests(connection);
+                }
+
+                @Override
+                public void connectionClosedOnError(Exception e) {
+                    JfrSmackTracer.INSTANCE.dropPendingIqRequests(connection);
+                }
+            });
+
+            if (connection instanceof ModularXmppClientToServerConnection) {
+                ModularXmppClientToServerConnection modularConnection = (ModularXmppClientToServerConnection) connection;
+                modularConnection.addConnectionStateMachineListener(new StateTransitionRecorder());
+            }
+        }
+    };
+
+    private SmackJfr() {
+    }
+
+    /**
+     * Emit JFR events.
+     */
+    public static synchronized void enable() {
+        SmackMetrics.setTracer(JfrSmackTracer.INSTANCE);
+        XMPPConnectionRegistry.addConnectionCreationListener(CONNECTION_CREATION_LISTENER);
+    }
+
+    /**
+     * Stop emitting JFR events, if they where enabled.
+     */
+    public static synchronized void disable() {
+        if (!isEnabled()) {
+            return;
+        }
+        SmackMetrics.setTracer(null);
+        XMPPConnectionRegistry.removeConnectionCreationListener(CONNECTION_CREATION_LISTENER);
+    }
+
+    /**
+     * Check if JFR events are emitted.
+     *
+     * @return <code>true</code> if JFR events are emitted.
+     */
+    public static boolean isEnabled() {
+        return SmackMetrics.getTracer() == JfrSmackTracer.INSTANCE;
+    }
+
+    /**
+     * Records the transitions of the state machine of a single modular connection. The state machine is walked by
+     * a single thread at a time, hence the listener does not need to synchronize.
+     */
+    private static final class StateTransitionRecorder implements ConnectionStateMachineListener {
+
+        private ConnectionStateTransitionEvent pendingTransition;
+
+        @Override
+        public void onConnectionStateEvent(ConnectionStateEvent connectionStateEvent,
+                        ModularXmppClientToServerConnection connection) {
+            if (!isEnabled()) {
+                pendingTransition = null;
+                return;
+            }
+
+            if (connectionStateEvent instanceof ConnectionStateEvent.AboutToTransitionInto) {
+                ConnectionStateTransitionEvent event = new ConnectionStateTransitionEvent();
+                if (!event.isEnabled()) {
+                    pendingTransition = null;
+                    return;
+                }
+                event.begin();
+                event.connection = JfrSmackTracer.connectionIdOf(connection);
+                event.fromState = connectionStateEvent.getStateDescriptor().getStateName();
+                event.toState = connectionStateEvent.getSuccessorStateDescriptor().getStateName();
+                pendingTransition = event;
+                return;
+            }
+
+            ConnectionStateTransitionEvent event = pendingTransition;
+            if (event == null) {
+                return;
+            }
+            if (connectionStateEvent instanceof ConnectionStateEvent.SuccessfullyTransitionedInto) {
+                event.successful = true;
+            } else if (connectionStateEvent instanceof ConnectionStateEvent.TransitionFailed) {
+                event.failure = connectionStateEvent.toString();
+            } else {
+                // Some other event, e.g. a detailed transition information, while the transition is still ongoing.
+                return;
+            }
+            pendingTransition = null;
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,52 @@
+/**
+ *
+ * Copyright 2021 Florian Schmaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.StackTrace;
+
+/**
+ * The base of the events about a sent or received stanza. The events carry the metadata of the stanza, but never its
+ * content.
+ */
+@Category({ "Smack", "Stanzas" })
+@StackTrace(false)
+abstract class StanzaEvent extends Event {
+
+    @Label("Connection")
+    int connection;
+
+    @Label("Stanza")
+    String stanza;
+
+    @Label("Type")
+    String type;
+
+    @Label("Namespace")
+    String namespace;
+
+    @Label("Stanza ID")
+    String stanzaId;
+
+    @Label("Size")
+    @Description("The size of the stanza's XML as reported by the connection, or -1 if it is not known")
+    long size;
+
+}
@@ -0,0 +1,255 @@
+/**
+ *
+ * Copyright 2021 Florian Schmaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.jfr;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jivesoftware.smack.DummyConnection;
+import org.jivesoftware.smack.SmackConfiguration;
+import org.jivesoftware.smack.packet.IQ;
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.packet.SimpleIQ;
+import org.jivesoftware.smack.packet.StandardExtensionElement;
+import org.jivesoftware.smack.packet.StanzaBuilder;
+import org.jivesoftware.smack.packet.XmlEnvironment;
+import org.jivesoftware.smack.provider.ExtensionElementProvider;
+import org.jivesoftware.smack.provider.ProviderManager;
+import org.jivesoftware.smack.util.PacketParserUtils;
+import org.jivesoftware.smack.xml.XmlPullParser;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.jxmpp.jid.JidTestUtil;
+
+public class SmackJfrTest {
+
+    private static final class JfrTestIQ extends SimpleIQ {
+        private JfrTestIQ() {
+            super("query", "urn:example:jfr");
+        }
+    }
+
+    @BeforeEach
+    public void enable() {
+        SmackJfr.enable();
+    }
+
+    @AfterEach
+    public void disable() {
+        SmackJfr.disable();
+    }
+
+    @Test
+    public void recordsStanzaAndIqRequestEvents() throws Exception {
+        DummyConnection connection = DummyConnection.newConnectedDummyConnection();
+
+        List<RecordedEvent> events;
+        try (Recording recording = new Recording()) {
+            recording.enable(StanzaSentEvent.NAME);
+            recording.enable(StanzaReceivedEvent.NAME);
+            recording.enable(IqRequestEvent.NAME);
+            recording.start();
+
+            IQ request = new JfrTestIQ();
+            request.setTo(JidTestUtil.DUMMY_AT_EXAMPLE_ORG);
+            connection.sendStanza(request);
+            connection.processStanza(IQ.createResultIQ(request));
+
+            recording.stop();
+            events = readEvents(recording);
+        }
+        connection.disconnect();
+
+        RecordedEvent sent = findEvent(events, StanzaSentEvent.NAME);
+        assertEquals("iq", sent.getString("stanza"));
+        assertEquals("get", sent.getString("type"));
+        assertEquals("urn:example:jfr", sent.getString("namespace"));
+        // The dummy connection does not encode the stanzas, hence it does not know their size.
+        assertEquals(-1, sent.getLong("size"));
+
+        RecordedEvent received = findEvent(events, StanzaReceivedEvent.NAME);
+        assertEquals("result", received.getString("type"));
+
+        RecordedEvent iqRequest = findEvent(events, IqRequestEvent.NAME);
+        assertEquals("urn:example:jfr", iqRequest.getString("namespace"));
+        assertEquals("result", iqRequest.getString("responseType"));
+        assertEquals(0, JfrSmackTracer.INSTANCE.getPendingIqRequestCount());
+    }
+
+    @Test
+    public void recordingDoesNotParseLazyExtensions() throws Exception {
+        AtomicInteger providerInvocations = new AtomicInteger();
+        ExtensionElementProvider<StandardExtensionElement> provider = new ExtensionElementProvider<StandardExtensionElement>() {
+            @Override
+            public StandardExtensionElement parse(XmlPullParser parser, int initialDepth, XmlEnvironment xmlEnvironment) {
+                providerInvocations.incrementAndGet();
+                return StandardExtensionElement.builder("lazy", "urn:example:jfr").build();
+            }
+        };
+        ProviderManager.addExtensionProvider("lazy", "urn:example:jfr", provider);
+        SmackConfiguration.setLazyExtensionElementParsing(true);
+        DummyConnection connection = DummyConnection.newConnectedDummyConnection();
+
+        List<RecordedEvent> events;
+        try (Recording recording = new Recording()) {
+            recording.enable(StanzaReceivedEvent.NAME);
+            recording.start();
+
+            Message message = PacketParserUtils.parseStanza(
+                            "<message xmlns='jabber:client' id='1'><lazy xmlns='urn:example:jfr'/></message>");
+            connection.processStanza(message);
+
+            recording.stop();
+            events = readEvents(recording);
+        } finally {
+            SmackConfiguration.setLazyExtensionElementParsing(false);
+            ProviderManager.removeExtensionProvider("lazy", "urn:example:jfr");
+        }
+        connection.disconnect();
+
+        RecordedEvent received = findEvent(events, StanzaReceivedEvent.NAME);
+        assertEquals("urn:example:jfr", received.getString("namespace"));
+        assertEquals(0, providerInvocations.get());
+    }
+
+    @Test
+    public void recordsReportedStanzaSizes() throws Exception {
+        DummyConnection connection = DummyConnection.newConnectedDummyConnection();
+        Message message = StanzaBuilder.buildMessage("size").build();
+
+        List<RecordedEvent> events;
+        try (Recording recording = new Recording()) {
+            recording.enable(StanzaSentEvent.NAME);
+            recording.enable(StanzaReceivedEvent.NAME);
+            recording.start();
+
+            JfrSmackTracer.INSTANCE.stanzaWritten(connection, message, 42);
+            JfrSmackTracer.INSTANCE.stanzaReceived(connection, message, 23);
+
+            recording.stop();
+            events = readEvents(recording);
+        }
+        connection.disconnect();
+
+        assertEquals(42, findEvent(events, StanzaSentEvent.NAME).getLong("size"));
+        assertEquals(23, findEvent(events, StanzaReceivedEvent.NAME).getLong("size"));
+    }
+
+    @Test
+    public void expiredIqRequestsAreEvicted() throws Exception {
+        DummyConnection connection = DummyConnection.newConnectedDummyConnection();
+        connection.setReplyTimeout(1);
+
+        try (Recording recording = new Recording()) {
+            recording.enable(IqRequestEvent.NAME);
+            recording.start();
+
+            // Fill the pending IQ requests with requests whose responses never arrive.
+            for (int i = 0; i < 1024; i++) {
+                IQ request = new JfrTestIQ();
+                request.setTo(JidTestUtil.DUMMY_AT_EXAMPLE_ORG);
+                connection.sendStanza(request);
+            }
+            assertEquals(1024, JfrSmackTracer.INSTANCE.getPendingIqRequestCount());
+            Thread.sleep(10);
+
+            // The requests whose reply timeout expired make room for new requests.
+            IQ request = new JfrTestIQ();
+            request.setTo(JidTestUtil.DUMMY_AT_EXAMPLE_ORG);
+            connection.sendStanza(request);
+            assertEquals(1, JfrSmackTracer.INSTANCE.getPendingIqRequestCount());
+
+            recording.stop();
+        } finally {
+            JfrSmackTracer.INSTANCE.dropPendingIqRequests(connection);
+            connection.disconnect();
+        }
+    }
+
+    @Test
+    public void recordsSlowListenerExecutions() throws Exception {
+        DummyConnection connection = DummyConnection.newConnectedDummyConnection();
+
+        List<RecordedEvent> events;
+        try (Recording recording = new Recording()) {
+            recording.enable(ListenerExecutionEvent.NAME).withThreshold(Duration.ofMillis(5));
+            recording.start();
+
+            connection.addSyncStanzaListener(stanza -> Thread.sleep(10), stanza -> true);
+            connection.addSyncStanzaListener(stanza -> { }, stanza -> true);
+            connection.processStanza(StanzaBuilder.buildMessage().build());
+            // Wait for the listeners to be invoked.
+            Thread.sleep(200);
+
+            recording.stop();
+            events = readEvents(recording);
+        }
+        connection.disconnect();
+
+        int listenerExecutions = 0;
+        for (RecordedEvent event : events) {
+            if (event.getEventType().getName().equals(ListenerExecutionEvent.NAME)) {
+                assertTrue(event.getDuration().toMillis() >= 5);
+                listenerExecutions++;
+            }
+        }
+        assertEquals(1, listenerExecutions);
+    }
+
+    @Test
+    public void iqRequestsAreNotTrackedIfNotRecording() throws Exception {
+        DummyConnection connection = DummyConnection.newConnectedDummyConnection();
+
+        IQ request = new JfrTestIQ();
+        request.setTo(JidTestUtil.DUMMY_AT_EXAMPLE_ORG);
+        connection.sendStanza(request);
+        assertEquals(0, JfrSmackTracer.INSTANCE.getPendingIqRequestCount());
+
+        connection.disconnect();
+    }
+
+    private static List<RecordedEvent> readEvents(Recording recording) throws Exception {
+        Path file = Files.createTempFile("smack-jfr-test", ".jfr");
+        try {
+            recording.dump(file);
+            return new ArrayList<>(RecordingFile.readAllEvents(file));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private static RecordedEvent findEvent(List<RecordedEvent> events, String name) {
+        for (RecordedEvent event : events) {
+            if (event.getEventType().getName().equals(name)) {
+                return event;
+            }
+        }
+        throw new AssertionError("No event " + name + " recorded, only " + events);
+    }
+}
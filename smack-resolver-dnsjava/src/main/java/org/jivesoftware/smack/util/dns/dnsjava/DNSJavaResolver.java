@@ -1,6 +1,6 @@
 /**
  *
- * Copyright 2013-2020 Florian Schmaus
+ * Copyright 2013-2021 Florian Schmaus
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -16,8 +16,16 @@
  */
 package org.jivesoftware.smack.util.dns.dnsjava;
 
+import java.io.IOException;
+import java.net.InetAddress;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import org.jivesoftware.smack.ConnectionConfiguration.DnssecMode;
 import org.jivesoftware.smack.initializer.SmackInitializer;
@@ -27,6 +35,8 @@ import org.jivesoftware.smack.util.rce.RemoteConnectionEndpointLookupFailure;
 
 import org.minidns.dnsname.DnsName;
 import org.minidns.record.SRV;
+import org.xbill.DNS.AAAARecord;
+import org.xbill.DNS.ARecord;
 import org.xbill.DNS.Lookup;
 import org.xbill.DNS.Record;
 import org.xbill.DNS.TextParseException;
@@ -40,6 +50,19 @@ public class DNSJavaResolver extends DNSResolver implements SmackInitializer {
 
     private static final DNSJavaResolver instance = new DNSJavaResolver();
 
+    /**
+     * Used to lookup the AAAA resource records while the A resource records are looked up by the calling thread.
+     */
+    private static final ExecutorService LOOKUP_EXECUTOR_SERVICE = Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable);
+            thread.setName("Smack DNSJava Lookup");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
     public static DNSResolver getInstance() {
         return instance;
     }
@@ -49,8 +72,14 @@ public class DNSJavaResolver extends DNSResolver implements SmackInitializer {
     }
 
     @Override
-    protected List<SRV> lookupSrvRecords0(DnsName name, List<RemoteConnectionEndpointLookupFailure> lookupFailures,
-                    DnssecMode dnssecMode) {
+    protected Collection<SRV> lookupSrvRecords0(DnsName name,
+                    List<RemoteConnectionEndpointLookupFailure> lookupFailures, DnssecMode dnssecMode) {
+        return lookupSrvRecordsWithTtl0(name, lookupFailures, dnssecMode).result;
+    }
+
+    @Override
+    protected LookupResult<Collection<SRV>> lookupSrvRecordsWithTtl0(DnsName name,
+                    List<RemoteConnectionEndpointLookupFailure> lookupFailures, DnssecMode dnssecMode) {
         Lookup lookup;
         try {
             lookup = new Lookup(name.ace, Type.SRV);
@@ -59,16 +88,17 @@ public class DNSJavaResolver extends DNSResolver implements SmackInitializer {
             RemoteConnectionEndpointLookupFailure failure = new RemoteConnectionEndpointLookupFailure.DnsLookupFailure(
                             name, e);
             lookupFailures.add(failure);
-            return null;
+            return new LookupResult<>(null, LookupResult.TTL_UNKNOWN);
         }
 
         Record[] recs = lookup.run();
         if (recs == null) {
             // TODO: When does this happen? Do we want/need to record a lookup failure?
-            return null;
+            return new LookupResult<>(null, LookupResult.TTL_UNKNOWN);
         }
 
         List<SRV> res = new ArrayList<>();
+        long minimumTtl = LookupResult.TTL_UNKNOWN;
         for (Record record : recs) {
             org.xbill.DNS.SRVRecord srvRecord = (org.xbill.DNS.SRVRecord) record;
             if (srvRecord != null && srvRecord.getTarget() != null) {
@@ -79,10 +109,127 @@ public class DNSJavaResolver extends DNSResolver implements SmackInitializer {
 
                 SRV r = new SRV(priority, weight, port, host);
                 res.add(r);
+                if (minimumTtl == LookupResult.TTL_UNKNOWN || srvRecord.getTTL() < minimumTtl) {
+                    minimumTtl = srvRecord.getTTL();
+                }
+            }
+        }
+
+        return new LookupResult<Collection<SRV>>(res, minimumTtl);
+    }
+
+    /**
+     * Lookup the addresses of a host together with their TTL.
+     * <p>
+     * dnsjava is only used to learn the TTL of the A and AAAA resource records, both of which are looked up in
+     * parallel. Since dnsjava does not consult the system's hosts file, names like <code>localhost</code> may not be
+     * resolvable by it. If the dnsjava lookups fail or yield no address, then this falls back to
+     * {@link InetAddress#getAllByName(String)}, whose result has an unknown TTL.
+     * </p>
+     */
+    @Override
+    protected LookupResult<List<InetAddress>> lookupHostAddressWithTtl0(DnsName name,
+                    List<RemoteConnectionEndpointLookupFailure> lookupFailures, DnssecMode dnssecMode) {
+        // Only record the failures if neither dnsjava nor the system resolver could lookup the addresses.
+        List<RemoteConnectionEndpointLookupFailure> failures = new ArrayList<>(3);
+        List<RemoteConnectionEndpointLookupFailure> aaaaFailures = new ArrayList<>(1);
+        Future<Record[]> aaaaRecordsFuture = LOOKUP_EXECUTOR_SERVICE.submit(
+                        () -> lookupRecords(name, Type.AAAA, aaaaFailures));
+        Record[] aRecords = lookupRecords(name, Type.A, failures);
+        Record[] aaaaRecords = getRecords(name, aaaaRecordsFuture, failures);
+        failures.addAll(aaaaFailures);
+
+        List<InetAddress> inetAddresses = new ArrayList<>();
+        long minimumTtl = LookupResult.TTL_UNKNOWN;
+        for (Record[] records : new Record[][] { aRecords, aaaaRecords }) {
+            if (records == null) {
+                continue;
+            }
+            for (Record record : records) {
+                InetAddress inetAddress;
+                if (record instanceof ARecord) {
+                    inetAddress = ((ARecord) record).getAddress();
+                } else if (record instanceof AAAARecord) {
+                    inetAddress = ((AAAARecord) record).getAddress();
+                } else {
+                    // E.g. the CNAME records which lead to the address records.
+                    continue;
+                }
+                inetAddresses.add(inetAddress);
+                if (minimumTtl == LookupResult.TTL_UNKNOWN || record.getTTL() < minimumTtl) {
+                    minimumTtl = record.getTTL();
+                }
+            }
+        }
+
+        if (!inetAddresses.isEmpty()) {
+            return new LookupResult<>(inetAddresses, minimumTtl);
+        }
+
+        List<InetAddress> fallbackAddresses = lookupHostAddress0(name, failures, dnssecMode);
+        if (fallbackAddresses == null && aRecords == null && aaaaRecords == null) {
+            lookupFailures.addAll(failures);
+            return new LookupResult<>(null, LookupResult.TTL_UNKNOWN);
+        }
+        if (fallbackAddresses == null) {
+            // dnsjava found the name, but it has no address records.
+            fallbackAddresses = inetAddresses;
+        }
+        return new LookupResult<>(fallbackAddresses, LookupResult.TTL_UNKNOWN);
+    }
+
+    private static Record[] getRecords(DnsName name, Future<Record[]> recordsFuture,
+                    List<RemoteConnectionEndpointLookupFailure> lookupFailures) {
+        try {
+            return recordsFuture.get();
+        }
+        catch (InterruptedException e) {
+            recordsFuture.cancel(true);
+            Thread.currentThread().interrupt();
+            lookupFailures.add(new RemoteConnectionEndpointLookupFailure.DnsLookupFailure(name, e));
+            return null;
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
             }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            lookupFailures.add(new RemoteConnectionEndpointLookupFailure.DnsLookupFailure(name, e));
+            return null;
+        }
+    }
+
+    /**
+     * Lookup the resource records of the given type. Returns an empty array if the name exists but has no resource
+     * records of the type, and <code>null</code> if the lookup failed, in which case the failure is added to
+     * <code>lookupFailures</code>.
+     */
+    private static Record[] lookupRecords(DnsName name, int type,
+                    List<RemoteConnectionEndpointLookupFailure> lookupFailures) {
+        Lookup lookup;
+        try {
+            lookup = new Lookup(name.ace, type);
+        }
+        catch (TextParseException e) {
+            lookupFailures.add(new RemoteConnectionEndpointLookupFailure.DnsLookupFailure(name, e));
+            return null;
         }
 
-        return res;
+        Record[] records = lookup.run();
+        switch (lookup.getResult()) {
+        case Lookup.SUCCESSFUL:
+            return records;
+        case Lookup.TYPE_NOT_FOUND:
+            return new Record[0];
+        default:
+            IOException exception = new IOException(
+                            "Lookup of " + Type.string(type) + " records failed: " + lookup.getErrorString());
+            lookupFailures.add(new RemoteConnectionEndpointLookupFailure.DnsLookupFailure(name, exception));
+            return null;
+        }
     }
 
     public static void setup() {
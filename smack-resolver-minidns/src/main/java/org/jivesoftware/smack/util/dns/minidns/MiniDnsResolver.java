@@ -1,6 +1,6 @@
 /**
  *
- * Copyright 2014-2020 Florian Schmaus
+ * Copyright 2014-2021 Florian Schmaus
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -20,6 +20,7 @@ import java.io.IOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
@@ -30,6 +31,7 @@ import org.jivesoftware.smack.util.DNSUtil;
 import org.jivesoftware.smack.util.dns.DNSResolver;
 import org.jivesoftware.smack.util.rce.RemoteConnectionEndpointLookupFailure;
 
+import org.minidns.dnsmessage.DnsMessage;
 import org.minidns.dnsmessage.DnsMessage.RESPONSE_CODE;
 import org.minidns.dnsmessage.Question;
 import org.minidns.dnsname.DnsName;
@@ -41,6 +43,8 @@ import org.minidns.hla.ResolverResult;
 import org.minidns.hla.SrvResolverResult;
 import org.minidns.record.A;
 import org.minidns.record.AAAA;
+import org.minidns.record.Data;
+import org.minidns.record.Record;
 import org.minidns.record.SRV;
 
 
@@ -65,8 +69,14 @@ public class MiniDnsResolver extends DNSResolver implements SmackInitializer {
     }
 
     @Override
-    protected Set<SRV> lookupSrvRecords0(final DnsName name, List<RemoteConnectionEndpointLookupFailure> lookupFailures,
-                    DnssecMode dnssecMode) {
+    protected Collection<SRV> lookupSrvRecords0(DnsName name,
+                    List<RemoteConnectionEndpointLookupFailure> lookupFailures, DnssecMode dnssecMode) {
+        return lookupSrvRecordsWithTtl0(name, lookupFailures, dnssecMode).result;
+    }
+
+    @Override
+    protected LookupResult<Collection<SRV>> lookupSrvRecordsWithTtl0(final DnsName name,
+                    List<RemoteConnectionEndpointLookupFailure> lookupFailures, DnssecMode dnssecMode) {
         final ResolverApi resolver = getResolver(dnssecMode);
 
         SrvResolverResult result;
@@ -76,7 +86,7 @@ public class MiniDnsResolver extends DNSResolver implements SmackInitializer {
             RemoteConnectionEndpointLookupFailure failure = new RemoteConnectionEndpointLookupFailure.DnsLookupFailure(
                             name, e);
             lookupFailures.add(failure);
-            return null;
+            return failedLookup();
         }
 
         ResolutionUnsuccessfulException resolutionUnsuccessfulException = result.getResolutionUnsuccessfulException();
@@ -84,18 +94,24 @@ public class MiniDnsResolver extends DNSResolver implements SmackInitializer {
             RemoteConnectionEndpointLookupFailure failure = new RemoteConnectionEndpointLookupFailure.DnsLookupFailure(
                             name, resolutionUnsuccessfulException);
             lookupFailures.add(failure);
-            return null;
+            return failedLookup();
         }
 
         if (shouldAbortIfNotAuthentic(name, dnssecMode, result, lookupFailures)) {
-            return null;
+            return failedLookup();
         }
 
-        return result.getAnswers();
+        return new LookupResult<Collection<SRV>>(result.getAnswers(), getMinimumTtl(result));
     }
 
     @Override
-    protected List<InetAddress> lookupHostAddress0(final DnsName name,
+    protected List<InetAddress> lookupHostAddress0(DnsName name,
+                    List<RemoteConnectionEndpointLookupFailure> lookupFailures, DnssecMode dnssecMode) {
+        return lookupHostAddressWithTtl0(name, lookupFailures, dnssecMode).result;
+    }
+
+    @Override
+    protected LookupResult<List<InetAddress>> lookupHostAddressWithTtl0(final DnsName name,
                     List<RemoteConnectionEndpointLookupFailure> lookupFailures, DnssecMode dnssecMode) {
         final ResolverApi resolver = getResolver(dnssecMode);
 
@@ -109,7 +125,7 @@ public class MiniDnsResolver extends DNSResolver implements SmackInitializer {
             RemoteConnectionEndpointLookupFailure failure = new RemoteConnectionEndpointLookupFailure.DnsLookupFailure(
                             name, e);
             lookupFailures.add(failure);
-            return null;
+            return failedLookup();
         }
 
         if (!aResult.wasSuccessful() && !aaaaResult.wasSuccessful()) {
@@ -120,12 +136,12 @@ public class MiniDnsResolver extends DNSResolver implements SmackInitializer {
             RemoteConnectionEndpointLookupFailure failureAaaa = new RemoteConnectionEndpointLookupFailure.DnsLookupFailure(
                             name, getExceptionFrom(aaaaResult));
             lookupFailures.add(failureAaaa);
-            return null;
+            return failedLookup();
         }
 
         if (shouldAbortIfNotAuthentic(name, dnssecMode, aResult, lookupFailures)
                         || shouldAbortIfNotAuthentic(name, dnssecMode, aaaaResult, lookupFailures)) {
-            return null;
+            return failedLookup();
         }
 
         // TODO: Use ResolverResult.getAnswersOrEmptySet() once we updated MiniDNS.
@@ -170,7 +186,7 @@ public class MiniDnsResolver extends DNSResolver implements SmackInitializer {
             inetAddresses.add(inetAddress);
         }
 
-        return inetAddresses;
+        return new LookupResult<>(inetAddresses, getMinimumTtl(aResult, aaaaResult));
     }
 
     public static void setup() {
@@ -220,4 +236,27 @@ public class MiniDnsResolver extends DNSResolver implements SmackInitializer {
         ResolutionUnsuccessfulException resolutionUnsuccessfulException = new ResolutionUnsuccessfulException(question, responseCode);
         return resolutionUnsuccessfulException;
     }
+
+    private static <R> LookupResult<R> failedLookup() {
+        return new LookupResult<>(null, LookupResult.TTL_UNKNOWN);
+    }
+
+    private static long getMinimumTtl(ResolverResult<?>... results) {
+        long minimumTtl = LookupResult.TTL_UNKNOWN;
+        for (ResolverResult<?> result : results) {
+            if (!result.wasSuccessful()) {
+                continue;
+            }
+            DnsMessage answer = result.getRawAnswer();
+            if (answer == null) {
+                continue;
+            }
+            for (Record<? extends Data> record : answer.answerSection) {
+                if (minimumTtl == LookupResult.TTL_UNKNOWN || record.ttl < minimumTtl) {
+                    minimumTtl = record.ttl;
+                }
+            }
+        }
+        return minimumTtl;
+    }
 }
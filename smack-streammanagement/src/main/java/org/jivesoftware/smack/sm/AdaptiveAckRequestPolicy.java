@@ -0,0 +1,461 @@
+/**
+ *
+ * Copyright 2021 Florian Schmaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.sm;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jivesoftware.smack.metrics.LatencyHistogram;
+
+/**
+ * Decides when a Stream Management acknowledgement should be requested from the server, based on the number, the size
+ * and the age of the unacknowledged stanzas, and on the measured round-trip time of acknowledgements.
+ * <p>
+ * Unlike the stanza count based predicates in {@link org.jivesoftware.smack.sm.predicates}, the policy bounds the memory
+ * held by unacknowledged stanzas in both directions: an acknowledgement is requested once the unacknowledged stanzas
+ * exceed a stanza or byte budget, or once the oldest unacknowledged stanza exceeds an age budget. The connection
+ * evaluates the policy when it flushes a burst of outgoing stanzas, so that the request is sent within the same write
+ * as the burst.
+ * </p>
+ * <p>
+ * The budgets start at one eighth of the configured maxima. Every time the round-trip time of an acknowledgement
+ * request is measured and found to be stable, i.e. its variation is at most a quarter of the smoothed round-trip time,
+ * the budgets are doubled, until they reach the configured maxima. A round-trip time exceeding the smoothed round-trip
+ * time by more than four times its variation, resets the budgets. The round-trip time is smoothed as described in RFC
+ * 6298.
+ * </p>
+ * <p>
+ * At most one acknowledgement request is outstanding at a time. A policy instance must only be used by a single
+ * connection.
+ * </p>
+ *
+ * @since 4.5.0
+ */
+public final class AdaptiveAckRequestPolicy {
+
+    public static final int DEFAULT_MAX_UNACKNOWLEDGED_STANZAS = 256;
+
+    public static final long DEFAULT_MAX_UNACKNOWLEDGED_BYTES = 64 * 1024;
+
+    public static final long DEFAULT_MAX_UNACKNOWLEDGED_AGE_MILLIS = 10_000;
+
+    static final int MAX_BACKOFF_LEVEL = 3;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * The budget which caused an acknowledgement request.
+     */
+    public enum Trigger {
+        stanzas,
+        bytes,
+        age,
+    }
+
+    private final int maxUnacknowledgedStanzas;
+
+    private final long maxUnacknowledgedBytes;
+
+    private final long maxUnacknowledgedAgeNanos;
+
+    /**
+     * The times the unacknowledged stanzas were sent, held in a ring buffer indexed by the stanza's sequence number.
+     */
+    private long[] sentNanos = new long[INITIAL_CAPACITY];
+
+    /**
+     * The number of bytes sent up to and including the stanza, indexed like {@link #sentNanos}.
+     */
+    private long[] sentBytesEnd = new long[INITIAL_CAPACITY];
+
+    private int mask = INITIAL_CAPACITY - 1;
+
+    /**
+     * The sequence number of the oldest unacknowledged stanza.
+     */
+    private long head;
+
+    /**
+     * The sequence number which is assigned to the next sent stanza.
+     */
+    private long tail;
+
+    private long sentBytes;
+
+    private long acknowledgedBytes;
+
+    private boolean ackRequestOutstanding;
+
+    private long ackRequestSentNanos;
+
+    /**
+     * The budget which caused the outstanding acknowledgement request, or <code>null</code> if the request was not
+     * caused by the policy.
+     */
+    private Trigger outstandingTrigger;
+
+    private long smoothedRttNanos = -1;
+
+    private long rttVariationNanos;
+
+    private int backoffLevel;
+
+    private boolean timerArmed;
+
+    /**
+     * Whether the last acknowledgement request could not be sent by the connection, and at which time it was due.
+     */
+    private boolean ackRequestNotSent;
+
+    private long ackRequestNotSentNanos;
+
+    private final LatencyHistogram ackLatencies = new LatencyHistogram();
+
+    private final long[] ackRequests = new long[Trigger.values().length];
+
+    private long otherAckRequests;
+
+    private long acks;
+
+    private long stanzasSent;
+
+    /**
+     * Create a new policy with the default budgets.
+     */
+    public AdaptiveAckRequestPolicy() {
+        this(DEFAULT_MAX_UNACKNOWLEDGED_STANZAS, DEFAULT_MAX_UNACKNOWLEDGED_BYTES,
+                        DEFAULT_MAX_UNACKNOWLEDGED_AGE_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Create a new policy with the given maximum budgets.
+     *
+     * @param maxUnacknowledgedStanzas the maximum number of unacknowledged stanzas.
+     * @param maxUnacknowledgedBytes the maximum number of bytes of unacknowledged stanzas.
+     * @param maxUnacknowledgedAge the maximum age of the oldest unacknowledged stanza.
+     * @param unit the time unit of the maximum age.
+     */
+    public AdaptiveAckRequestPolicy(int maxUnacknowledgedStanzas, long maxUnacknowledgedBytes, long maxUnacknowledgedAge,
+                    TimeUnit unit) {
+        if (maxUnacknowledgedStanzas <= 0 || maxUnacknowledgedBytes <= 0 || maxUnacknowledgedAge <= 0) {
+            throw new IllegalArgumentException("The budgets must be positive");
+        }
+        this.maxUnacknowledgedStanzas = maxUnacknowledgedStanzas;
+        this.maxUnacknowledgedBytes = maxUnacknowledgedBytes;
+        this.maxUnacknowledgedAgeNanos = unit.toNanos(maxUnacknowledgedAge);
+    }
+
+    private int budgetShift() {
+        return MAX_BACKOFF_LEVEL - backoffLevel;
+    }
+
+    /**
+     * Get the current age budget, i.e. the age of the oldest unacknowledged stanza at which an acknowledgement is
+     * requested.
+     *
+     * @return the current age budget in nanoseconds.
+     */
+    public synchronized long getAgeBudgetNanos() {
+        return maxUnacknowledgedAgeNanos >> budgetShift();
+    }
+
+    /**
+     * Invoked by the connection after a stanza, which is subject to acknowledgement, was sent.
+     *
+     * @param bytes the size of the stanza in bytes.
+     * @param nowNanos the current value of {@link System#nanoTime()}.
+     * @return <code>true</code> if the connection has to schedule a timer, which invokes {@link #rearmTimer(long)}, after
+     *         the {@link #getAgeBudgetNanos() age budget}.
+     */
+    public synchronized boolean stanzaSent(long bytes, long nowNanos) {
+        if (tail - head == sentNanos.length) {
+            grow();
+        }
+        int index = (int) tail & mask;
+        sentBytes += bytes;
+        sentNanos[index] = nowNanos;
+        sentBytesEnd[index] = sentBytes;
+        tail++;
+        stanzasSent++;
+
+        if (timerArmed) {
+            return false;
+        }
+        timerArmed = true;
+        return true;
+    }
+
+    private void grow() {
+        int newCapacity = sentNanos.length * 2;
+        long[] newSentNanos = new long[newCapacity];
+        long[] newSentBytesEnd = new long[newCapacity];
+        int newMask = newCapacity - 1;
+        for (long sequenceNumber = head; sequenceNumber < tail; sequenceNumber++) {
+            newSentNanos[(int) sequenceNumber & newMask] = sentNanos[(int) sequenceNumber & mask];
+            newSentBytesEnd[(int) sequenceNumber & newMask] = sentBytesEnd[(int) sequenceNumber & mask];
+        }
+        sentNanos = newSentNanos;
+        sentBytesEnd = newSentBytesEnd;
+        mask = newMask;
+    }
+
+    private Trigger getDueTrigger(long nowNanos) {
+        if (head == tail) {
+            return null;
+        }
+        // Do not request a further acknowledgement while one is outstanding, unless the outstanding one seems to have
+        // been lost.
+        if (ackRequestOutstanding && nowNanos - ackRequestSentNanos < maxUnacknowledgedAgeNanos) {
+            return null;
+        }
+
+        final int shift = budgetShift();
+        if (tail - head >= Math.max(1, maxUnacknowledgedStanzas >> shift)) {
+            return Trigger.stanzas;
+        }
+        if (sentBytes - acknowledgedBytes >= maxUnacknowledgedBytes >> shift) {
+            return Trigger.bytes;
+        }
+        if (nowNanos - sentNanos[(int) head & mask] >= maxUnacknowledgedAgeNanos >> shift) {
+            return Trigger.age;
+        }
+        return null;
+    }
+
+    /**
+     * Check if an acknowledgement request is due. If so, the request is considered sent, and the connection has to
+     * send it.
+     *
+     * @param nowNanos the current value of {@link System#nanoTime()}.
+     * @return <code>true</code> if the connection has to send an acknowledgement request.
+     */
+    public synchronized boolean requestAckIfDue(long nowNanos) {
+        Trigger trigger = getDueTrigger(nowNanos);
+        if (trigger == null) {
+            return false;
+        }
+        ackRequests[trigger.ordinal()]++;
+        ackRequestOutstanding = true;
+        ackRequestSentNanos = nowNanos;
+        outstandingTrigger = trigger;
+        return true;
+    }
+
+    /**
+     * Invoked by the connection if it could not send the acknowledgement request, for which
+     * {@link #requestAckIfDue(long)} returned <code>true</code>, e.g. because its outgoing queue was full. The request
+     * is no longer considered outstanding, so that the connection can send it at the next opportunity. The timer is
+     * not re-armed before the age budget passed, so that it does not spin while the request can not be sent.
+     */
+    public synchronized void ackRequestNotSent() {
+        if (!ackRequestOutstanding || outstandingTrigger == null) {
+            return;
+        }
+        ackRequests[outstandingTrigger.ordinal()]--;
+        ackRequestOutstanding = false;
+        outstandingTrigger = null;
+        ackRequestNotSent = true;
+        ackRequestNotSentNanos = ackRequestSentNanos;
+    }
+
+    /**
+     * Invoked by the connection when it wrote a queued acknowledgement request, which may be one for which the policy
+     * was not asked, e.g. because it was requested explicitly or by a predicate.
+     *
+     * @param nowNanos the current value of {@link System#nanoTime()}.
+     */
+    public synchronized void ackRequestSent(long nowNanos) {
+        ackRequestNotSent = false;
+        if (ackRequestOutstanding) {
+            // The request may be the one the policy asked for, which can no longer be withdrawn.
+            outstandingTrigger = null;
+            return;
+        }
+        otherAckRequests++;
+        ackRequestOutstanding = true;
+        ackRequestSentNanos = nowNanos;
+        outstandingTrigger = null;
+    }
+
+    /**
+     * Invoked by the connection when the server acknowledged stanzas. Afterwards, the connection should check if a
+     * further request is {@link #requestAckIfDue(long) due}, as further stanzas may have been sent while the answered
+     * request was outstanding.
+     *
+     * @param acknowledgedStanzas the number of newly acknowledged stanzas.
+     * @param nowNanos the current value of {@link System#nanoTime()}.
+     */
+    public synchronized void acknowledged(long acknowledgedStanzas, long nowNanos) {
+        acks++;
+        ackRequestNotSent = false;
+        long count = Math.min(acknowledgedStanzas, tail - head);
+        if (count > 0) {
+            head += count;
+            acknowledgedBytes = sentBytesEnd[(int) (head - 1) & mask];
+        }
+
+        if (!ackRequestOutstanding) {
+            return;
+        }
+        ackRequestOutstanding = false;
+        outstandingTrigger = null;
+        long rttNanos = nowNanos - ackRequestSentNanos;
+        ackLatencies.record(rttNanos);
+
+        if (smoothedRttNanos < 0) {
+            smoothedRttNanos = rttNanos;
+            rttVariationNanos = rttNanos / 2;
+            return;
+        }
+        boolean spike = rttNanos > smoothedRttNanos + 4 * rttVariationNanos;
+        rttVariationNanos = (3 * rttVariationNanos + Math.abs(smoothedRttNanos - rttNanos)) / 4;
+        smoothedRttNanos = (7 * smoothedRttNanos + rttNanos) / 8;
+        if (spike) {
+            backoffLevel = 0;
+        } else if (4 * rttVariationNanos <= smoothedRttNanos && backoffLevel < MAX_BACKOFF_LEVEL) {
+            backoffLevel++;
+        }
+    }
+
+    /**
+     * Invoked by the connection when the timer scheduled because of {@link #stanzaSent(long, long)} fired, after it
+     * checked if an acknowledgement request is due.
+     *
+     * @param nowNanos the current value of {@link System#nanoTime()}.
+     * @return the nanoseconds after which the timer has to fire again, or -1 if the timer is no longer needed.
+     */
+    public synchronized long rearmTimer(long nowNanos) {
+        if (head == tail) {
+            timerArmed = false;
+            return -1;
+        }
+        final long ageBudgetNanos = getAgeBudgetNanos();
+        long delay = sentNanos[(int) head & mask] + ageBudgetNanos - nowNanos;
+        if (ackRequestOutstanding) {
+            // A request is blocked until the outstanding one is answered, where the connection checks again, or until
+            // the outstanding one expires. Nevertheless check at least once per age budget.
+            delay = Math.max(delay, Math.min(ackRequestSentNanos + maxUnacknowledgedAgeNanos - nowNanos, ageBudgetNanos));
+        } else if (ackRequestNotSent) {
+            // The oldest stanza exceeds the age budget, but the connection could not send the request, e.g. because
+            // its outgoing queue is full. Retry after the age budget, instead of immediately.
+            delay = Math.max(delay, ackRequestNotSentNanos + ageBudgetNanos - nowNanos);
+        }
+        return Math.max(delay, 0);
+    }
+
+    /**
+     * Invoked by the connection when the timer scheduled because of {@link #stanzaSent(long, long)} fired, but is no
+     * longer needed, e.g. because Stream Management is no longer enabled.
+     */
+    public synchronized void disarmTimer() {
+        timerArmed = false;
+    }
+
+    /**
+     * Invoked by the connection when a new Stream Management session was enabled or resumed. Forgets about the
+     * unacknowledged stanzas, as the connection will resend them, and the measured round-trip time, as the new
+     * session may use a different network path.
+     */
+    public synchronized void reset() {
+        head = tail;
+        sentBytes = 0;
+        acknowledgedBytes = 0;
+        ackRequestOutstanding = false;
+        outstandingTrigger = null;
+        ackRequestNotSent = false;
+        smoothedRttNanos = -1;
+        rttVariationNanos = 0;
+        backoffLevel = 0;
+    }
+
+    public synchronized int getUnacknowledgedStanzaCount() {
+        return (int) (tail - head);
+    }
+
+    public synchronized long getUnacknowledgedBytes() {
+        return sentBytes - acknowledgedBytes;
+    }
+
+    /**
+     * Get the smoothed round-trip time of acknowledgement requests.
+     *
+     * @param unit the time unit of the returned value.
+     * @return the smoothed round-trip time, or -1 if it was not yet measured.
+     */
+    public synchronized long getSmoothedAckRtt(TimeUnit unit) {
+        if (smoothedRttNanos < 0) {
+            return -1;
+        }
+        return unit.convert(smoothedRttNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public synchronized Stats getStats() {
+        return new Stats(this);
+    }
+
+    public static final class Stats {
+        public final int unacknowledgedStanzas;
+        public final long unacknowledgedBytes;
+        public final long stanzasSent;
+        public final long stanzaTriggeredAckRequests;
+        public final long byteTriggeredAckRequests;
+        public final long ageTriggeredAckRequests;
+        public final long otherAckRequests;
+        public final long acks;
+        public final int backoffLevel;
+        public final long smoothedRttMicros;
+        public final long rttVariationMicros;
+        public final double stanzasPerAckRequest;
+        public final LatencyHistogram.Snapshot ackLatencies;
+
+        private Stats(AdaptiveAckRequestPolicy policy) {
+            unacknowledgedStanzas = policy.getUnacknowledgedStanzaCount();
+            unacknowledgedBytes = policy.getUnacknowledgedBytes();
+            stanzasSent = policy.stanzasSent;
+            stanzaTriggeredAckRequests = policy.ackRequests[Trigger.stanzas.ordinal()];
+            byteTriggeredAckRequests = policy.ackRequests[Trigger.bytes.ordinal()];
+            ageTriggeredAckRequests = policy.ackRequests[Trigger.age.ordinal()];
+            otherAckRequests = policy.otherAckRequests;
+            acks = policy.acks;
+            backoffLevel = policy.backoffLevel;
+            smoothedRttMicros = policy.getSmoothedAckRtt(TimeUnit.MICROSECONDS);
+            rttVariationMicros = TimeUnit.NANOSECONDS.toMicros(policy.rttVariationNanos);
+            long ackRequests = stanzaTriggeredAckRequests + byteTriggeredAckRequests + ageTriggeredAckRequests
+                            + otherAckRequests;
+            stanzasPerAckRequest = (double) stanzasSent / ackRequests;
+            ackLatencies = policy.ackLatencies.snapshot();
+        }
+
+        @Override
+        public String toString() {
+            return
+              "unacknowledged-stanzas: " + unacknowledgedStanzas + '\n'
+            + "unacknowledged-bytes: " + unacknowledgedBytes + '\n'
+            + "stanzas-sent: " + stanzasSent + '\n'
+            + "stanza-triggered-ack-requests: " + stanzaTriggeredAckRequests + '\n'
+            + "byte-triggered-ack-requests: " + byteTriggeredAckRequests + '\n'
+            + "age-triggered-ack-requests: " + ageTriggeredAckRequests + '\n'
+            + "other-ack-requests: " + otherAckRequests + '\n'
+            + "acks: " + acks + '\n'
+            + "backoff-level: " + backoffLevel + '\n'
+            + "smoothed-rtt-micros: " + smoothedRttMicros + '\n'
+            + "rtt-variation-micros: " + rttVariationMicros + '\n'
+            + "stanzas-per-ack-request: " + stanzasPerAckRequest + '\n'
+            + "ack-latencies: " + ackLatencies + '\n'
+            ;
+        }
+    }
+}
@@ -0,0 +1,578 @@
+/**
+ *
+ * Copyright 2021 Florian Schmaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.sm;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * A durable spool of outgoing stanzas, which survives restarts of the process.
+ * <p>
+ * The spool is an append-only log of memory-mapped segment files within a directory. A stanza is recorded before it is
+ * sent and marked as acknowledged once the server acknowledged it via Stream Management. A segment file is deleted,
+ * i.e. the log is truncated, as soon as all records within it are acknowledged and the segment is no longer the one
+ * appended to. The records which were not acknowledged when the spool was last closed, or when the process
+ * terminated, are available via {@link #takeRecoveredRecords()} after the spool was opened again, so that they can be
+ * replayed.
+ * </p>
+ * <p>
+ * Appending a record only copies it into the mapped segment, which makes it survive a crash of the process. In order to
+ * survive a crash of the operating system, the record has to be forced to the storage device using
+ * {@link #awaitDurable(long)}. Forcing is done with group commit: a single force covers all records appended up to
+ * then, and callers whose record is already covered return immediately.
+ * </p>
+ * <p>
+ * Note that the spool provides at-least-once semantics: a stanza which was received by the server, but whose
+ * acknowledgement did not make it into the spool, will be replayed.
+ * </p>
+ * <p>
+ * Each record consists of the length of the UTF-8 encoded XML as 32-bit integer, the CRC32 of the encoded XML as 32-bit
+ * integer, a state byte, and the encoded XML. A record is identified by the number of its segment in the upper 32 bit
+ * and its offset within the segment in the lower 32 bit. Hence record IDs are monotonically increasing in the order the
+ * records were appended.
+ * </p>
+ *
+ * @since 4.5.0
+ */
+public final class OutboundStanzaSpool implements Closeable {
+
+    private static final Logger LOGGER = Logger.getLogger(OutboundStanzaSpool.class.getName());
+
+    public static final int DEFAULT_SEGMENT_SIZE = 1024 * 1024;
+
+    static final String SEGMENT_FILE_SUFFIX = ".spool";
+
+    static final String LOCK_FILE_NAME = "spool.lock";
+
+    static final int RECORD_HEADER_SIZE = 4 + 4 + 1;
+
+    private static final int CRC_OFFSET = 4;
+
+    private static final int STATE_OFFSET = 8;
+
+    private static final byte STATE_LIVE = 0;
+
+    private static final byte STATE_ACKNOWLEDGED = 1;
+
+    private final File directory;
+
+    private final int segmentSize;
+
+    private final FileChannel lockChannel;
+
+    private final FileLock lock;
+
+    /**
+     * The segments by their number. Guarded by 'this'.
+     */
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+
+    private Segment activeSegment;
+
+    private List<SpoolRecord> recoveredRecords;
+
+    private boolean closed;
+
+    private long liveRecords;
+
+    private long appendedRecords;
+
+    private long acknowledgedRecords;
+
+    private long deletedSegments;
+
+    private final Object syncLock = new Object();
+
+    /**
+     * All records with an ID smaller than this are forced to the storage device. Only written while holding
+     * {@link #syncLock}.
+     */
+    private volatile long durableUpTo;
+
+    private long syncs;
+
+    private OutboundStanzaSpool(File directory, int segmentSize) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create spool directory " + directory);
+        }
+
+        lockChannel = new RandomAccessFile(new File(directory, LOCK_FILE_NAME), "rw").getChannel();
+        FileLock lock;
+        try {
+            lock = lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            lock = null;
+        }
+        if (lock == null) {
+            lockChannel.close();
+            throw new IOException("The spool directory " + directory + " is already in use");
+        }
+        this.lock = lock;
+
+        try {
+            recoveredRecords = recover();
+            long nextSegmentNumber = segments.isEmpty() ? 0 : segments.lastKey() + 1;
+            activeSegment = createSegment(nextSegmentNumber, segmentSize);
+        } catch (IOException e) {
+            closeSegmentsAndLock();
+            throw e;
+        }
+        durableUpTo = recordId(activeSegment.number, 0);
+    }
+
+    /**
+     * Open the spool in the given directory, using the {@link #DEFAULT_SEGMENT_SIZE default segment size}. The
+     * directory is created if it does not exist.
+     *
+     * @param directory the spool directory.
+     * @return the spool.
+     * @throws IOException if the spool could not be opened, e.g. because it is already in use.
+     */
+    public static OutboundStanzaSpool open(File directory) throws IOException {
+        return open(directory, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Open the spool in the given directory. The directory is created if it does not exist. Only a single spool
+     * instance, within all processes, can use a directory at a time.
+     *
+     * @param directory the spool directory.
+     * @param segmentSize the size of newly created segment files in bytes.
+     * @return the spool.
+     * @throws IOException if the spool could not be opened, e.g. because it is already in use.
+     */
+    public static OutboundStanzaSpool open(File directory, int segmentSize) throws IOException {
+        if (segmentSize <= RECORD_HEADER_SIZE) {
+            throw new IllegalArgumentException("Segment size must be greater than " + RECORD_HEADER_SIZE);
+        }
+        return new OutboundStanzaSpool(directory, segmentSize);
+    }
+
+    private List<SpoolRecord> recover() throws IOException {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            throw new IOException("Could not list spool directory " + directory);
+        }
+        Arrays.sort(files);
+
+        List<SpoolRecord> records = new ArrayList<>();
+        for (File file : files) {
+            String fileName = file.getName();
+            if (!fileName.endsWith(SEGMENT_FILE_SUFFIX)) {
+                continue;
+            }
+            long number;
+            try {
+                number = Long.parseLong(fileName.substring(0, fileName.length() - SEGMENT_FILE_SUFFIX.length()), 16);
+            } catch (NumberFormatException e) {
+                LOGGER.warning("Ignoring unexpected file in spool directory: " + file);
+                continue;
+            }
+
+            Segment segment = openSegment(number, file);
+            recoverSegment(segment, records);
+            if (segment.liveRecords == 0) {
+                deleteSegment(segment);
+                continue;
+            }
+            segments.put(number, segment);
+            liveRecords += segment.liveRecords;
+        }
+        return records;
+    }
+
+    private static void recoverSegment(Segment segment, List<SpoolRecord> records) {
+        final MappedByteBuffer buffer = segment.buffer;
+        final int capacity = buffer.capacity();
+        final CRC32 crc32 = new CRC32();
+        int position = 0;
+        while (capacity - position >= RECORD_HEADER_SIZE) {
+            int length = buffer.getInt(position);
+            // A length of zero marks the end of the segment, as segment files are zero filled when created.
+            if (length <= 0 || length > capacity - position - RECORD_HEADER_SIZE) {
+                break;
+            }
+
+            byte[] payload = new byte[length];
+            ByteBuffer view = buffer.duplicate();
+            view.position(position + RECORD_HEADER_SIZE);
+            view.get(payload);
+            crc32.reset();
+            crc32.update(payload, 0, length);
+            if ((int) crc32.getValue() != buffer.getInt(position + CRC_OFFSET)) {
+                // The record was only partially written when the process or the system crashed. As records are only
+                // ever appended, there can be no valid records after it.
+                LOGGER.warning("Discarding torn record at offset " + position + " of spool segment " + segment.file);
+                break;
+            }
+
+            if (buffer.get(position + STATE_OFFSET) == STATE_LIVE) {
+                segment.liveRecords++;
+                records.add(new SpoolRecord(recordId(segment.number, position), new String(payload, StandardCharsets.UTF_8)));
+            }
+            position += RECORD_HEADER_SIZE + length;
+        }
+        segment.position = position;
+    }
+
+    private Segment openSegment(long number, File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        FileChannel channel = randomAccessFile.getChannel();
+        try {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            return new Segment(number, file, channel, buffer);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private Segment createSegment(long number, int size) throws IOException {
+        File file = new File(directory, String.format(Locale.US, "%016x", number) + SEGMENT_FILE_SUFFIX);
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        FileChannel channel = randomAccessFile.getChannel();
+        try {
+            randomAccessFile.setLength(size);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            Segment segment = new Segment(number, file, channel, buffer);
+            segments.put(number, segment);
+            return segment;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private void deleteSegment(Segment segment) {
+        segments.remove(segment.number);
+        try {
+            segment.channel.close();
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Could not close spool segment " + segment.file, e);
+        }
+        if (!segment.file.delete()) {
+            LOGGER.warning("Could not delete spool segment " + segment.file);
+        }
+        deletedSegments++;
+    }
+
+    private static long recordId(long segmentNumber, int offset) {
+        return segmentNumber << 32 | offset;
+    }
+
+    private void throwIfClosed() throws IOException {
+        if (closed) {
+            throw new IOException("The spool was closed");
+        }
+    }
+
+    /**
+     * Get, and remove, the records which were not acknowledged when this spool was last used. Those records should be
+     * replayed and be {@link #acknowledge(long) acknowledged} once the server acknowledged them again.
+     *
+     * @return the recovered records in the order they were appended.
+     */
+    public synchronized List<SpoolRecord> takeRecoveredRecords() {
+        List<SpoolRecord> records = recoveredRecords;
+        recoveredRecords = Collections.emptyList();
+        return records;
+    }
+
+    /**
+     * Append the XML of a stanza to the spool.
+     *
+     * @param xml the XML of the stanza.
+     * @return the ID of the record.
+     * @throws IOException if an I/O error occurred or the spool is closed.
+     */
+    public long append(CharSequence xml) throws IOException {
+        byte[] payload = xml.toString().getBytes(StandardCharsets.UTF_8);
+        if (payload.length == 0) {
+            throw new IllegalArgumentException("Can not spool empty XML");
+        }
+        CRC32 crc32 = new CRC32();
+        crc32.update(payload, 0, payload.length);
+        final int recordSize = RECORD_HEADER_SIZE + payload.length;
+
+        synchronized (this) {
+            throwIfClosed();
+            if (activeSegment.buffer.capacity() - activeSegment.position < recordSize) {
+                rollSegment(recordSize);
+            }
+            final Segment segment = activeSegment;
+            final MappedByteBuffer buffer = segment.buffer;
+            final int position = segment.position;
+
+            ByteBuffer view = buffer.duplicate();
+            view.position(position + RECORD_HEADER_SIZE);
+            view.put(payload);
+            buffer.putInt(position + CRC_OFFSET, (int) crc32.getValue());
+            buffer.put(position + STATE_OFFSET, STATE_LIVE);
+            // Write the length last, as a non-zero length marks a record as present.
+            buffer.putInt(position, payload.length);
+
+            segment.position += recordSize;
+            segment.liveRecords++;
+            liveRecords++;
+            appendedRecords++;
+            return recordId(segment.number, position);
+        }
+    }
+
+    private void rollSegment(int recordSize) throws IOException {
+        final Segment previousSegment = activeSegment;
+        // Force the previous segment, so that only the active segment has to be forced to make a record durable.
+        previousSegment.buffer.force();
+        activeSegment = createSegment(previousSegment.number + 1, Math.max(segmentSize, recordSize));
+        if (previousSegment.liveRecords == 0) {
+            deleteSegment(previousSegment);
+        }
+    }
+
+    /**
+     * Wait until the record with the given ID is forced to the storage device. If the record is not yet forced, then
+     * all records appended until now are forced together with it.
+     *
+     * @param recordId the ID of the record.
+     * @throws IOException if an I/O error occurred or the spool is closed.
+     */
+    public void awaitDurable(long recordId) throws IOException {
+        if (recordId < durableUpTo) {
+            return;
+        }
+        synchronized (syncLock) {
+            // The record may have been forced by another thread while we waited for the lock.
+            if (recordId < durableUpTo) {
+                return;
+            }
+            final Segment segment;
+            final long upTo;
+            synchronized (this) {
+                throwIfClosed();
+                segment = activeSegment;
+                upTo = recordId(segment.number, segment.position);
+            }
+            segment.buffer.force();
+            syncs++;
+            durableUpTo = upTo;
+        }
+    }
+
+    /**
+     * Force all records appended until now to the storage device.
+     *
+     * @throws IOException if an I/O error occurred or the spool is closed.
+     */
+    public void sync() throws IOException {
+        final long nextRecordId;
+        synchronized (this) {
+            nextRecordId = recordId(activeSegment.number, activeSegment.position);
+        }
+        awaitDurable(nextRecordId - 1);
+    }
+
+    /**
+     * Mark the record with the given ID as acknowledged. Segments whose records are all acknowledged are deleted.
+     * Acknowledging an unknown or already acknowledged record has no effect.
+     *
+     * @param recordId the ID of the record.
+     */
+    public synchronized void acknowledge(long recordId) {
+        if (closed) {
+            return;
+        }
+        Segment segment = segments.get(recordId >>> 32);
+        int position = (int) recordId;
+        if (segment == null || position < 0 || position >= segment.position) {
+            return;
+        }
+        MappedByteBuffer buffer = segment.buffer;
+        if (buffer.get(position + STATE_OFFSET) != STATE_LIVE) {
+            return;
+        }
+        buffer.put(position + STATE_OFFSET, STATE_ACKNOWLEDGED);
+        segment.liveRecords--;
+        liveRecords--;
+        acknowledgedRecords++;
+
+        if (segment.liveRecords == 0 && segment != activeSegment) {
+            deleteSegment(segment);
+        }
+    }
+
+    /**
+     * Get the number of records which are not yet acknowledged.
+     *
+     * @return the number of unacknowledged records.
+     */
+    public synchronized long getLiveRecordCount() {
+        return liveRecords;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Close the spool. The records which are not yet acknowledged are forced to the storage device and remain in the
+     * spool, so that they are recovered once the spool is opened again.
+     *
+     * @throws IOException if an I/O error occurred.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (syncLock) {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                activeSegment.buffer.force();
+                closed = true;
+                closeSegmentsAndLock();
+            }
+        }
+    }
+
+    private void closeSegmentsAndLock() throws IOException {
+        for (Segment segment : segments.values()) {
+            try {
+                segment.channel.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Could not close spool segment " + segment.file, e);
+            }
+        }
+        segments.clear();
+        try {
+            lock.release();
+        } finally {
+            lockChannel.close();
+        }
+    }
+
+    public Stats getStats() {
+        synchronized (syncLock) {
+            synchronized (this) {
+                return new Stats(this);
+            }
+        }
+    }
+
+    private static final class Segment {
+        private final long number;
+        private final File file;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+
+        /**
+         * The offset where the next record is appended.
+         */
+        private int position;
+
+        private int liveRecords;
+
+        private Segment(long number, File file, FileChannel channel, MappedByteBuffer buffer) {
+            this.number = number;
+            this.file = file;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+    }
+
+    /**
+     * A record recovered from the spool.
+     */
+    public static final class SpoolRecord {
+        private final long id;
+        private final String xml;
+
+        private SpoolRecord(long id, String xml) {
+            this.id = id;
+            this.xml = xml;
+        }
+
+        /**
+         * Get the ID of the record, which is used to {@link OutboundStanzaSpool#acknowledge(long) acknowledge} it.
+         *
+         * @return the ID of the record.
+         */
+        public long getId() {
+            return id;
+        }
+
+        /**
+         * Get the XML of the spooled stanza.
+         *
+         * @return the XML of the stanza.
+         */
+        public String getXml() {
+            return xml;
+        }
+    }
+
+    public static final class Stats {
+        public final long liveRecords;
+        public final long appendedRecords;
+        public final long acknowledgedRecords;
+        public final int segments;
+        public final long deletedSegments;
+        public final long syncs;
+        public final double recordsPerSync;
+
+        private Stats(OutboundStanzaSpool spool) {
+            liveRecords = spool.liveRecords;
+            appendedRecords = spool.appendedRecords;
+            acknowledgedRecords = spool.acknowledgedRecords;
+            segments = spool.segments.size();
+            deletedSegments = spool.deletedSegments;
+            syncs = spool.syncs;
+            recordsPerSync = (double) appendedRecords / syncs;
+        }
+
+        @Override
+        public String toString() {
+            return
+              "live-records: " + liveRecords + '\n'
+            + "appended-records: " + appendedRecords + '\n'
+            + "acknowledged-records: " + acknowledgedRecords + '\n'
+            + "segments: " + segments + '\n'
+            + "deleted-segments: " + deletedSegments + '\n'
+            + "syncs: " + syncs + '\n'
+            + "records-per-sync: " + recordsPerSync + '\n'
+            ;
+        }
+    }
+}
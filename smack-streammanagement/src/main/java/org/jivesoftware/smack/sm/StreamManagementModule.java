@@ -1,6 +1,6 @@
 /**
  *
- * Copyright 2019-2020 Florian Schmaus
+ * Copyright 2019-2021 Florian Schmaus
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -16,32 +16,230 @@
  */
 package org.jivesoftware.smack.sm;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jivesoftware.smack.ConnectionListener;
+import org.jivesoftware.smack.SmackException;
+import org.jivesoftware.smack.SmackException.NoResponseException;
+import org.jivesoftware.smack.SmackException.NotConnectedException;
+import org.jivesoftware.smack.SmackException.NotLoggedInException;
+import org.jivesoftware.smack.StanzaListener;
+import org.jivesoftware.smack.XMPPConnection;
+import org.jivesoftware.smack.XMPPException.FailedNonzaException;
+import org.jivesoftware.smack.XMPPException.StreamErrorException;
 import org.jivesoftware.smack.c2s.ModularXmppClientToServerConnection.AuthenticatedAndResourceBoundStateDescriptor;
 import org.jivesoftware.smack.c2s.ModularXmppClientToServerConnection.AuthenticatedButUnboundStateDescriptor;
 import org.jivesoftware.smack.c2s.ModularXmppClientToServerConnection.ResourceBindingStateDescriptor;
 import org.jivesoftware.smack.c2s.ModularXmppClientToServerConnectionModule;
 import org.jivesoftware.smack.c2s.internal.ModularXmppClientToServerConnectionInternal;
+import org.jivesoftware.smack.c2s.internal.StreamElementTracker;
 import org.jivesoftware.smack.c2s.internal.WalkStateGraphContext;
 import org.jivesoftware.smack.compression.CompressionModule.CompressionStateDescriptor;
+import org.jivesoftware.smack.filter.StanzaFilter;
 import org.jivesoftware.smack.fsm.State;
 import org.jivesoftware.smack.fsm.StateDescriptor;
 import org.jivesoftware.smack.fsm.StateTransitionResult;
+import org.jivesoftware.smack.metrics.LatencyHistogram;
+import org.jivesoftware.smack.metrics.SmackMetrics;
+import org.jivesoftware.smack.metrics.SmackTracer;
+import org.jivesoftware.smack.packet.Stanza;
+import org.jivesoftware.smack.packet.TopLevelStreamElement;
+import org.jivesoftware.smack.sm.StreamManagementException.StreamIdDoesNotMatchException;
+import org.jivesoftware.smack.sm.StreamManagementException.StreamManagementCounterError;
+import org.jivesoftware.smack.sm.StreamManagementException.StreamManagementNotEnabledException;
+import org.jivesoftware.smack.sm.packet.StreamManagement;
+import org.jivesoftware.smack.sm.packet.StreamManagement.AckAnswer;
+import org.jivesoftware.smack.sm.packet.StreamManagement.AckRequest;
+import org.jivesoftware.smack.sm.packet.StreamManagement.Enable;
+import org.jivesoftware.smack.sm.packet.StreamManagement.Enabled;
+import org.jivesoftware.smack.sm.packet.StreamManagement.Failed;
+import org.jivesoftware.smack.sm.packet.StreamManagement.Resume;
+import org.jivesoftware.smack.sm.packet.StreamManagement.Resumed;
+import org.jivesoftware.smack.sm.packet.StreamManagement.StreamManagementFeature;
+import org.jivesoftware.smack.util.StringUtils;
 
+/**
+ * XEP-0198: Stream Management for the modular connection.
+ * <p>
+ * Once Stream Management was enabled, every outgoing stanza is recorded as unacknowledged until the server
+ * acknowledges it. If the connection is lost, then the module attempts to resume the stream on the next login. A
+ * resumed stream skips resource binding, and, since the session state on the server is retained, the initial presence
+ * is not sent and the roster is not reloaded. The stanzas the server did not handle before the connection was lost are
+ * resent after the resumption. If the stream could not be resumed, then those stanzas are handed to the stanza dropped
+ * listeners, or, if there are none, resent once the new session was established.
+ * </p>
+ *
+ * @see <a href="https://xmpp.org/extensions/xep-0198.html">XEP-0198: Stream Management</a>
+ */
 public class StreamManagementModule extends ModularXmppClientToServerConnectionModule<StreamManagementModuleDescriptor> {
 
+    private static final Logger LOGGER = Logger.getLogger(StreamManagementModule.class.getName());
+
+    /**
+     * The default number of unacknowledged stanzas after which an acknowledgement is requested from the server.
+     */
+    public static final int DEFAULT_ACK_REQUEST_THRESHOLD = 10;
+
+    private final UnacknowledgedStanzaRing unacknowledgedStanzas = new UnacknowledgedStanzaRing();
+
+    private final Set<StanzaFilter> requestAckPredicates = new LinkedHashSet<>();
+
+    private final Collection<StanzaListener> stanzaAcknowledgedListeners = new CopyOnWriteArrayList<>();
+
+    private final Collection<StanzaListener> stanzaDroppedListeners = new CopyOnWriteArrayList<>();
+
+    private final LatencyHistogram resumptionLatencies = new LatencyHistogram();
+
     protected StreamManagementModule(StreamManagementModuleDescriptor moduleDescriptor,
                     ModularXmppClientToServerConnectionInternal connectionInternal) {
         super(moduleDescriptor, connectionInternal);
+
+        // Note that those callbacks are invoked by the thread processing the incoming stream, and hence in the order
+        // of the incoming elements.
+        connectionInternal.buildNonzaCallback()
+            .listenFor(Enabled.class, this::onEnabled)
+            .listenFor(Resumed.class, this::onResumed)
+            .listenFor(AckAnswer.class, this::onAckAnswer)
+            .listenFor(AckRequest.class, r -> sendAckAnswer())
+            .install();
+
+        connectionInternal.setStreamElementTracker(new StreamElementTracker() {
+            @Override
+            public void beforeOutgoingElementQueued(TopLevelStreamElement element) {
+                if (element instanceof Stanza) {
+                    if (smEnabled) {
+                        unacknowledgedStanzas.add((Stanza) element);
+                    }
+                } else if (element instanceof Enable) {
+                    // A new session starts, the stanzas sent after this element are counted from zero.
+                    smEnabled = true;
+                }
+            }
+
+            @Override
+            public void afterOutgoingElementQueued(TopLevelStreamElement element)
+                            throws NotConnectedException, InterruptedException {
+                if (!(element instanceof Stanza) || !smEnabled || ackRequestOutstanding) {
+                    return;
+                }
+                if (unacknowledgedStanzas.size() >= ackRequestThreshold || matchesRequestAckPredicate((Stanza) element)) {
+                    requestAck();
+                }
+            }
+
+            @Override
+            public void onIncomingStanzaHandled() {
+                if (inboundCounting) {
+                    clientHandledStanzasCount = SMUtils.incrementHeight(clientHandledStanzasCount);
+                }
+            }
+        });
+
+        connectionInternal.connection.addConnectionListener(new ConnectionListener() {
+            @Override
+            public void authenticated(XMPPConnection connection, boolean resumed) {
+                if (resumed) {
+                    return;
+                }
+                if (!smEnabled) {
+                    // A new session was established without enabling Stream Management, hence the previous session,
+                    // if any, can no longer be resumed.
+                    dropSmSession();
+                }
+                // If Stream Management was not enabled on the new session, then the stanzas of the previous session
+                // are still pending.
+                try {
+                    handOverStanzasOfPreviousSession();
+                } catch (NotConnectedException | InterruptedException e) {
+                    LOGGER.log(Level.WARNING, "Could not resend the stanzas of the previous session", e);
+                }
+            }
+
+            @Override
+            public void connectionClosed() {
+                // The connection was closed gracefully, which ends the Stream Management session.
+                dropSmState();
+            }
+
+            @Override
+            public void connectionClosedOnError(Exception e) {
+                if (e instanceof StreamErrorException) {
+                    // A stream error terminates the session on the server side, there is nothing to resume.
+                    dropSmSession();
+                    return;
+                }
+                // Keep the session for a later resumption, but stop tracking the stream elements until the next stream
+                // either resumed the session or enabled Stream Management again.
+                smEnabled = false;
+                inboundCounting = false;
+                synchronized (StreamManagementModule.this) {
+                    connectionLostNanos = System.nanoTime();
+                }
+            }
+        });
     }
 
     private boolean useSm = true;
 
     private boolean useSmResumption = true;
 
+    private int preferredResumptionTime = -1;
+
+    private int ackRequestThreshold = DEFAULT_ACK_REQUEST_THRESHOLD;
+
+    /**
+     * If outgoing stanzas are recorded as unacknowledged. Set when Stream Management is enabled or the stream was
+     * resumed, and cleared when the connection was lost or the Stream Management session was dropped.
+     */
+    private volatile boolean smEnabled;
+
+    /**
+     * If incoming stanzas are counted. Only modified by the thread processing the incoming stream, and when the Stream
+     * Management session is dropped.
+     */
+    private volatile boolean inboundCounting;
+
+    private volatile long clientHandledStanzasCount;
+
+    private volatile boolean ackRequestOutstanding;
+
+    // The following fields are guarded by 'this'.
+
+    /**
+     * The stanzas of the previous session, which are handed over once a new session was established.
+     */
+    private List<Stanza> previousSessionUnacknowledgedStanzas;
+
+    private String smSessionId;
+
+    private int serverMaxResumptionTime;
+
+    private long connectionLostNanos;
+
+    // Statistics.
+
+    private long ackRequestsSent;
+
+    private long ackAnswersReceived;
+
+    private long resumptions;
+
+    private long failedResumptions;
+
+    private long resentStanzas;
+
     public static final class EnableStreamManagementStateDescriptor extends StateDescriptor {
 
         private EnableStreamManagementStateDescriptor() {
-            super(StreamManagementModule.EnableStreamManagementState.class, 198, StateDescriptor.Property.notImplemented);
+            super(StreamManagementModule.EnableStreamManagementState.class, 198);
 
             addPredeccessor(ResourceBindingStateDescriptor.class);
             addSuccessor(AuthenticatedAndResourceBoundStateDescriptor.class);
@@ -75,18 +273,42 @@ public class StreamManagementModule extends ModularXmppClientToServerConnectionM
                 return new StateTransitionResult.TransitionImpossibleReason("Stream management not enabled");
             }
 
-            return new StateTransitionResult.TransitionImpossibleBecauseNotImplemented(stateDescriptor);
+            if (!isSmAvailable()) {
+                return new StateTransitionResult.TransitionImpossibleReason("Stream management not announced by the server");
+            }
+
+            return null;
         }
 
         @Override
-        public StateTransitionResult.AttemptResult transitionInto(WalkStateGraphContext walkStateGraphContext) {
-            throw new IllegalStateException("SM not implemented");
+        public StateTransitionResult.AttemptResult transitionInto(WalkStateGraphContext walkStateGraphContext)
+                        throws NoResponseException, NotConnectedException, InterruptedException {
+            // Resource binding established a new session, hence a previous Stream Management session, if any, is
+            // gone. Its unacknowledged stanzas are handed over once the new one is enabled.
+            dropSmSession();
+
+            Enable enable = new Enable(useSmResumption, preferredResumptionTime);
+            Enabled enabled;
+            try {
+                enabled = connectionInternal.sendAndWaitForResponse(enable, Enabled.class, Failed.class);
+            } catch (FailedNonzaException e) {
+                // The stanzas sent since <enable/> went out without Stream Management. But the stanzas of the previous
+                // session, which the server did not handle, must not get lost.
+                discardSmSession();
+                handOverStanzasOfPreviousSession();
+                return new StateTransitionResult.FailureCausedByException<>(e);
+            }
+
+            handOverStanzasOfPreviousSession();
+
+            return new StateTransitionResult.Success("Stream Management enabled"
+                            + (enabled.isResumeSet() ? " (resumable)" : ""));
         }
     }
 
     public static final class ResumeStreamStateDescriptor extends StateDescriptor {
         private ResumeStreamStateDescriptor() {
-            super(StreamManagementModule.ResumeStreamState.class, 198, StateDescriptor.Property.notImplemented);
+            super(StreamManagementModule.ResumeStreamState.class, 198);
 
             addPredeccessor(AuthenticatedButUnboundStateDescriptor.class);
             addSuccessor(AuthenticatedAndResourceBoundStateDescriptor.class);
@@ -121,13 +343,453 @@ public class StreamManagementModule extends ModularXmppClientToServerConnectionM
                 return new StateTransitionResult.TransitionImpossibleReason("Stream resumption not enabled");
             }
 
-            return new StateTransitionResult.TransitionImpossibleBecauseNotImplemented(stateDescriptor);
+            if (!isSmResumptionPossible()) {
+                return new StateTransitionResult.TransitionImpossibleReason("No resumable Stream Management session");
+            }
+
+            if (!isSmAvailable()) {
+                return new StateTransitionResult.TransitionImpossibleReason("Stream management not announced by the server");
+            }
+
+            return null;
         }
 
         @Override
-        public StateTransitionResult.AttemptResult transitionInto(WalkStateGraphContext walkStateGraphContext) {
-            throw new IllegalStateException("Stream resumption not implemented");
+        public StateTransitionResult.AttemptResult transitionInto(WalkStateGraphContext walkStateGraphContext)
+                        throws SmackException, InterruptedException {
+            final String sessionId;
+            synchronized (StreamManagementModule.this) {
+                sessionId = smSessionId;
+            }
+
+            final long resumptionStart = System.nanoTime();
+            XMPPConnection connection = connectionInternal.connection;
+            SmackTracer.Span span = SmackMetrics.getTracer().connectionPhaseStarted(connection,
+                            SmackTracer.ConnectionPhase.streamResumption);
+            try {
+                Resume resume = new Resume(clientHandledStanzasCount, sessionId);
+                Resumed resumed;
+                try {
+                    resumed = connectionInternal.sendAndWaitForResponse(resume, Resumed.class, Failed.class);
+                } catch (FailedNonzaException e) {
+                    synchronized (StreamManagementModule.this) {
+                        failedResumptions++;
+                    }
+                    // The server no longer knows the session. Continue with resource binding, the unacknowledged
+                    // stanzas are handed over once the new session was established.
+                    dropSmSession();
+                    span.fail(e);
+                    return new StateTransitionResult.FailureCausedByException<>(e);
+                }
+
+                if (!sessionId.equals(resumed.getPrevId())) {
+                    throw new StreamIdDoesNotMatchException(sessionId, resumed.getPrevId());
+                }
+
+                // The stanzas acknowledged by the server have already been removed when <resumed/> was received.
+                List<Stanza> stanzasToResend = unacknowledgedStanzas.getAll();
+                if (!stanzasToResend.isEmpty()) {
+                    connectionInternal.sendUntracked(stanzasToResend);
+                    requestAck();
+                }
+
+                connectionInternal.setStreamResumed(true);
+
+                long resumptionLatencyNanos = System.nanoTime() - resumptionStart;
+                resumptionLatencies.record(resumptionLatencyNanos);
+                synchronized (StreamManagementModule.this) {
+                    resumptions++;
+                    resentStanzas += stanzasToResend.size();
+                    connectionLostNanos = 0;
+                }
+                span.end();
+
+                return new StreamResumedResult(resumed.getHandledCount(), stanzasToResend.size(),
+                                resumptionLatencyNanos);
+            } catch (SmackException | InterruptedException e) {
+                span.fail(e);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * The result of a successful stream resumption.
+     */
+    public static final class StreamResumedResult extends StateTransitionResult.Success {
+        private final long handledCount;
+        private final int resentStanzasCount;
+        private final long resumptionLatencyNanos;
+
+        private StreamResumedResult(long handledCount, int resentStanzasCount, long resumptionLatencyNanos) {
+            super("Stream resumed after " + TimeUnit.NANOSECONDS.toMillis(resumptionLatencyNanos) + "ms, resent "
+                            + resentStanzasCount + " unacknowledged stanzas");
+            this.handledCount = handledCount;
+            this.resentStanzasCount = resentStanzasCount;
+            this.resumptionLatencyNanos = resumptionLatencyNanos;
+        }
+
+        /**
+         * Get the number of handled stanzas the server reported when the stream was resumed.
+         *
+         * @return the handled stanza count reported by the server.
+         */
+        public long getHandledCount() {
+            return handledCount;
+        }
+
+        /**
+         * Get the number of stanzas which were resent, as they have not been handled by the server.
+         *
+         * @return the number of resent stanzas.
+         */
+        public int getResentStanzasCount() {
+            return resentStanzasCount;
+        }
+
+        /**
+         * Get the latency of the resumption, i.e. the time from sending the resumption request until the stream was
+         * resumed and the unacknowledged stanzas were queued for resending.
+         *
+         * @param unit the time unit of the returned value.
+         * @return the latency of the resumption.
+         */
+        public long getResumptionLatency(TimeUnit unit) {
+            return unit.convert(resumptionLatencyNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private boolean isSmAvailable() {
+        return connectionInternal.connection.hasFeature(StreamManagementFeature.ELEMENT, StreamManagement.NAMESPACE);
+    }
+
+    private void onEnabled(Enabled enabled) {
+        String id = enabled.getId();
+        boolean resumable = enabled.isResumeSet();
+        if (resumable && StringUtils.isNullOrEmpty(id)) {
+            LOGGER.warning("Server enabled resumable Stream Management but did not provide a session id");
+            resumable = false;
+        }
+
+        synchronized (this) {
+            smSessionId = resumable ? id : null;
+            serverMaxResumptionTime = enabled.getMaxResumptionTime();
+            connectionLostNanos = 0;
+        }
+        ackRequestOutstanding = false;
+        clientHandledStanzasCount = 0;
+        inboundCounting = true;
+    }
+
+    private void onResumed(Resumed resumed) {
+        synchronized (this) {
+            if (!resumed.getPrevId().equals(smSessionId)) {
+                // Will be reported by the resume stream state.
+                return;
+            }
+        }
+        ackRequestOutstanding = false;
+        processHandledCount(resumed.getHandledCount());
+        smEnabled = true;
+        inboundCounting = true;
+    }
+
+    private void onAckAnswer(AckAnswer ackAnswer) {
+        ackRequestOutstanding = false;
+        synchronized (this) {
+            ackAnswersReceived++;
+        }
+        processHandledCount(ackAnswer.getHandledCount());
+    }
+
+    private void processHandledCount(long handledCount) {
+        List<Stanza> acknowledgedStanzas = null;
+        if (!stanzaAcknowledgedListeners.isEmpty()) {
+            acknowledgedStanzas = new ArrayList<>();
         }
+
+        try {
+            unacknowledgedStanzas.acknowledge(handledCount, acknowledgedStanzas);
+        } catch (StreamManagementCounterError e) {
+            connectionInternal.notifyConnectionError(e);
+            return;
+        }
+
+        if (acknowledgedStanzas == null || acknowledgedStanzas.isEmpty()) {
+            return;
+        }
+
+        final List<Stanza> stanzas = acknowledgedStanzas;
+        connectionInternal.asyncGo(() -> {
+            for (Stanza stanza : stanzas) {
+                for (StanzaListener listener : stanzaAcknowledgedListeners) {
+                    try {
+                        listener.processStanza(stanza);
+                    } catch (NotConnectedException | InterruptedException | NotLoggedInException e) {
+                        LOGGER.log(Level.FINER, "Received exception", e);
+                    }
+                }
+            }
+        });
+    }
+
+    private void sendAckAnswer() {
+        // Determine the handled count right away, but do not block the thread processing the incoming stream by
+        // sending the answer.
+        final AckAnswer ackAnswer = new AckAnswer(clientHandledStanzasCount);
+        connectionInternal.asyncGo(() -> {
+            try {
+                connectionInternal.connection.sendNonza(ackAnswer);
+            } catch (NotConnectedException | InterruptedException e) {
+                LOGGER.log(Level.FINE, "Could not answer Stream Management acknowledgement request", e);
+            }
+        });
+    }
+
+    private void requestAck() throws NotConnectedException, InterruptedException {
+        ackRequestOutstanding = true;
+        synchronized (this) {
+            ackRequestsSent++;
+        }
+        connectionInternal.connection.sendNonza(AckRequest.INSTANCE);
+    }
+
+    private boolean matchesRequestAckPredicate(Stanza stanza) {
+        synchronized (requestAckPredicates) {
+            for (StanzaFilter requestAckPredicate : requestAckPredicates) {
+                if (requestAckPredicate.accept(stanza)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Hand over the unacknowledged stanzas of the previous session. If there are stanza dropped listeners, then the
+     * stanzas are handed to the listeners, which take over the responsibility for them. Otherwise, the stanzas are
+     * resent, and, if Stream Management is enabled, recorded as unacknowledged stanzas of the new session.
+     */
+    private void handOverStanzasOfPreviousSession() throws NotConnectedException, InterruptedException {
+        List<Stanza> previousSessionStanzas;
+        synchronized (this) {
+            previousSessionStanzas = previousSessionUnacknowledgedStanzas;
+            previousSessionUnacknowledgedStanzas = null;
+        }
+        if (previousSessionStanzas == null) {
+            return;
+        }
+
+        if (!stanzaDroppedListeners.isEmpty()) {
+            // Invoke the listeners synchronously, so that they are able to re-queue the stanzas before the login
+            // finished.
+            for (Stanza stanza : previousSessionStanzas) {
+                for (StanzaListener listener : stanzaDroppedListeners) {
+                    try {
+                        listener.processStanza(stanza);
+                    } catch (NotConnectedException | InterruptedException | NotLoggedInException e) {
+                        LOGGER.log(Level.FINER, "Stanza dropped listener received exception", e);
+                    }
+                }
+            }
+            return;
+        }
+
+        if (smEnabled) {
+            for (Stanza stanza : previousSessionStanzas) {
+                unacknowledgedStanzas.add(stanza);
+            }
+        }
+        connectionInternal.sendUntracked(previousSessionStanzas);
+        synchronized (this) {
+            resentStanzas += previousSessionStanzas.size();
+        }
+    }
+
+    /**
+     * Drop the Stream Management session, so that it will not be resumed. The unacknowledged stanzas are kept, and
+     * resent once a new session was enabled.
+     */
+    private void dropSmSession() {
+        smEnabled = false;
+        inboundCounting = false;
+        clientHandledStanzasCount = 0;
+        List<Stanza> stanzas = unacknowledgedStanzas.reset();
+        synchronized (this) {
+            smSessionId = null;
+            if (stanzas.isEmpty()) {
+                return;
+            }
+            if (previousSessionUnacknowledgedStanzas == null) {
+                previousSessionUnacknowledgedStanzas = stanzas;
+            } else {
+                previousSessionUnacknowledgedStanzas.addAll(stanzas);
+            }
+        }
+    }
+
+    /**
+     * Drop the Stream Management session and the stanzas sent in it, but keep the unacknowledged stanzas of the
+     * previous session.
+     */
+    private void discardSmSession() {
+        smEnabled = false;
+        inboundCounting = false;
+        clientHandledStanzasCount = 0;
+        unacknowledgedStanzas.reset();
+        synchronized (this) {
+            smSessionId = null;
+        }
+    }
+
+    /**
+     * Drop the Stream Management session and all unacknowledged stanzas.
+     */
+    private void dropSmState() {
+        dropSmSession();
+        synchronized (this) {
+            previousSessionUnacknowledgedStanzas = null;
+        }
+    }
+
+    /**
+     * Check if Stream Management is enabled on the current connection.
+     *
+     * @return <code>true</code> if Stream Management is enabled.
+     */
+    public boolean isSmEnabled() {
+        return smEnabled;
+    }
+
+    /**
+     * Check if there is a Stream Management session which can be resumed.
+     *
+     * @return <code>true</code> if the stream can be resumed.
+     */
+    public synchronized boolean isSmResumptionPossible() {
+        if (smSessionId == null) {
+            return false;
+        }
+
+        if (connectionLostNanos == 0) {
+            // We do not know yet when the connection was lost, assume that it was just now.
+            return true;
+        }
+
+        long elapsedNanos = System.nanoTime() - connectionLostNanos;
+        return elapsedNanos < TimeUnit.SECONDS.toNanos(getMaxSmResumptionTime());
+    }
+
+    /**
+     * Get the maximum resumption time in seconds, i.e. the minimum of the preferred resumption time of the client and
+     * the maximum resumption time announced by the server.
+     *
+     * @return the maximum resumption time in seconds.
+     */
+    public synchronized int getMaxSmResumptionTime() {
+        int clientResumptionTime = preferredResumptionTime > 0 ? preferredResumptionTime : Integer.MAX_VALUE;
+        int serverResumptionTime = serverMaxResumptionTime > 0 ? serverMaxResumptionTime : Integer.MAX_VALUE;
+        return Math.min(clientResumptionTime, serverResumptionTime);
+    }
+
+    /**
+     * Send an unconditional Stream Management acknowledgement request to the server.
+     *
+     * @throws StreamManagementNotEnabledException if Stream Management is not enabled.
+     * @throws NotConnectedException if the connection is not connected.
+     * @throws InterruptedException if the calling thread was interrupted.
+     */
+    public void requestSmAcknowledgement() throws StreamManagementNotEnabledException, NotConnectedException,
+                    InterruptedException {
+        if (!isSmEnabled()) {
+            throw new StreamManagementNotEnabledException();
+        }
+        requestAck();
+    }
+
+    /**
+     * Add a predicate for Stream Management acknowledgement requests. An acknowledgement is requested after sending a
+     * stanza matching one of the predicates, or after the number of unacknowledged stanzas reached the threshold set
+     * with {@link #setAckRequestThreshold(int)}.
+     *
+     * @param predicate the predicate to add.
+     * @return if the predicate was not already active.
+     */
+    public boolean addRequestAckPredicate(StanzaFilter predicate) {
+        synchronized (requestAckPredicates) {
+            return requestAckPredicates.add(predicate);
+        }
+    }
+
+    /**
+     * Remove the given predicate for Stream Management acknowledgement requests.
+     *
+     * @param predicate the predicate to remove.
+     * @return true if the predicate was removed.
+     */
+    public boolean removeRequestAckPredicate(StanzaFilter predicate) {
+        synchronized (requestAckPredicates) {
+            return requestAckPredicates.remove(predicate);
+        }
+    }
+
+    /**
+     * Remove all predicates for Stream Management acknowledgement requests.
+     */
+    public void removeAllRequestAckPredicates() {
+        synchronized (requestAckPredicates) {
+            requestAckPredicates.clear();
+        }
+    }
+
+    /**
+     * Set the number of unacknowledged stanzas after which an acknowledgement is requested from the server.
+     *
+     * @param ackRequestThreshold the threshold, must be at least one.
+     */
+    public void setAckRequestThreshold(int ackRequestThreshold) {
+        if (ackRequestThreshold < 1) {
+            throw new IllegalArgumentException("The acknowledgement request threshold must be at least one");
+        }
+        this.ackRequestThreshold = ackRequestThreshold;
+    }
+
+    /**
+     * Add a listener for stanzas acknowledged by the server. The listener is invoked asynchronously.
+     *
+     * @param listener the listener.
+     */
+    public void addStanzaAcknowledgedListener(StanzaListener listener) {
+        stanzaAcknowledgedListeners.add(listener);
+    }
+
+    public boolean removeStanzaAcknowledgedListener(StanzaListener listener) {
+        return stanzaAcknowledgedListeners.remove(listener);
+    }
+
+    /**
+     * Add a listener for stanzas dropped because the stream could not be resumed. The listener is invoked for every
+     * stanza of the previous session which was not acknowledged by the server. If at least one listener is installed,
+     * then those stanzas are not resent, instead the listeners take over the responsibility for them.
+     *
+     * @param listener the listener.
+     */
+    public void addStanzaDroppedListener(StanzaListener listener) {
+        stanzaDroppedListeners.add(listener);
+    }
+
+    public boolean removeStanzaDroppedListener(StanzaListener listener) {
+        return stanzaDroppedListeners.remove(listener);
+    }
+
+    /**
+     * Set the preferred resumption time in seconds, which is announced to the server when Stream Management is
+     * enabled.
+     *
+     * @param resumptionTime the preferred resumption time in seconds, or a value lower than one for no preference.
+     */
+    public void setPreferredResumptionTime(int resumptionTime) {
+        preferredResumptionTime = resumptionTime;
     }
 
     public void setStreamManagementEnabled(boolean useSm) {
@@ -138,4 +800,59 @@ public class StreamManagementModule extends ModularXmppClientToServerConnectionM
         this.useSmResumption = useSmResumption;
     }
 
+    public Stats getStats() {
+        return new Stats(this);
+    }
+
+    public static final class Stats {
+        public final boolean smEnabled;
+        public final boolean resumptionPossible;
+        public final int unacknowledgedStanzas;
+        public final long acknowledgedStanzas;
+        public final long ackRequestsSent;
+        public final long ackAnswersReceived;
+        public final long resumptions;
+        public final long failedResumptions;
+        public final long resentStanzas;
+        public final LatencyHistogram.Snapshot resumptionLatencies;
+
+        private Stats(StreamManagementModule module) {
+            smEnabled = module.isSmEnabled();
+            resumptionPossible = module.isSmResumptionPossible();
+            unacknowledgedStanzas = module.unacknowledgedStanzas.size();
+            acknowledgedStanzas = module.unacknowledgedStanzas.getAcknowledgedCount();
+            synchronized (module) {
+                ackRequestsSent = module.ackRequestsSent;
+                ackAnswersReceived = module.ackAnswersReceived;
+                resumptions = module.resumptions;
+                failedResumptions = module.failedResumptions;
+                resentStanzas = module.resentStanzas;
+            }
+            resumptionLatencies = module.resumptionLatencies.snapshot();
+        }
+
+        private transient String toStringCache;
+
+        @Override
+        public String toString() {
+            if (toStringCache != null) {
+                return toStringCache;
+            }
+
+            toStringCache =
+              "sm-enabled: " + smEnabled + '\n'
+            + "resumption-possible: " + resumptionPossible + '\n'
+            + "unacknowledged-stanzas: " + unacknowledgedStanzas + '\n'
+            + "acknowledged-stanzas: " + acknowledgedStanzas + '\n'
+            + "ack-requests-sent: " + ackRequestsSent + '\n'
+            + "ack-answers-received: " + ackAnswersReceived + '\n'
+            + "resumptions: " + resumptions + '\n'
+            + "failed-resumptions: " + failedResumptions + '\n'
+            + "resent-stanzas: " + resentStanzas + '\n'
+            + "resumption-latencies: " + resumptionLatencies + '\n'
+            ;
+
+            return toStringCache;
+        }
+    }
 }
@@ -1,6 +1,6 @@
 /**
  *
- * Copyright 2019-2020 Florian Schmaus
+ * Copyright 2019-2021 Florian Schmaus
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -23,13 +23,28 @@ import org.jivesoftware.smack.c2s.ModularXmppClientToServerConnectionConfigurati
 import org.jivesoftware.smack.c2s.ModularXmppClientToServerConnectionModuleDescriptor;
 import org.jivesoftware.smack.c2s.internal.ModularXmppClientToServerConnectionInternal;
 import org.jivesoftware.smack.fsm.StateDescriptor;
+import org.jivesoftware.smack.provider.ProviderManager;
 import org.jivesoftware.smack.sm.StreamManagementModule.EnableStreamManagementStateDescriptor;
 import org.jivesoftware.smack.sm.StreamManagementModule.ResumeStreamStateDescriptor;
+import org.jivesoftware.smack.sm.provider.AckAnswerProvider;
+import org.jivesoftware.smack.sm.provider.AckRequestProvider;
+import org.jivesoftware.smack.sm.provider.EnabledProvider;
+import org.jivesoftware.smack.sm.provider.FailedProvider;
+import org.jivesoftware.smack.sm.provider.ResumedProvider;
 
 public class StreamManagementModuleDescriptor extends ModularXmppClientToServerConnectionModuleDescriptor {
 
     private static final StreamManagementModuleDescriptor INSTANCE = new StreamManagementModuleDescriptor();
 
+    static {
+        // The Stream Management nonzas received by the modular connection.
+        ProviderManager.addNonzaProvider(EnabledProvider.INSTANCE);
+        ProviderManager.addNonzaProvider(FailedProvider.INSTANCE);
+        ProviderManager.addNonzaProvider(ResumedProvider.INSTANCE);
+        ProviderManager.addNonzaProvider(AckAnswerProvider.INSTANCE);
+        ProviderManager.addNonzaProvider(AckRequestProvider.INSTANCE);
+    }
+
     @Override
     protected Set<Class<? extends StateDescriptor>> getStateDescriptors() {
         Set<Class<? extends StateDescriptor>> res = new HashSet<>();
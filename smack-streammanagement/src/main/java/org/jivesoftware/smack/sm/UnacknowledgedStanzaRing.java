@@ -0,0 +1,187 @@
+/**
+ *
+ * Copyright 2021 Florian Schmaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.sm;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jivesoftware.smack.packet.Stanza;
+import org.jivesoftware.smack.sm.StreamManagementException.StreamManagementCounterError;
+
+/**
+ * The stanzas sent within a Stream Management session which have not yet been acknowledged by the server.
+ * <p>
+ * The stanzas are held in a ring buffer, which is only re-allocated if it has to grow. Every stanza is assigned a
+ * sequence number, which is the number of stanzas sent prior to it within the session. Since the server acknowledges
+ * stanzas by reporting the number of stanzas it has handled modulo 2<sup>32</sup>, an acknowledgement is simply the
+ * sequence number of the first stanza not yet handled by the server.
+ * </p>
+ */
+final class UnacknowledgedStanzaRing {
+
+    static final int DEFAULT_INITIAL_CAPACITY = 16;
+
+    private static final long MASK_32_BIT = 0xffffffffL;
+
+    private Stanza[] ring;
+
+    private int mask;
+
+    /**
+     * The sequence number of the oldest unacknowledged stanza.
+     */
+    private long head;
+
+    /**
+     * The sequence number which is assigned to the next added stanza.
+     */
+    private long tail;
+
+    UnacknowledgedStanzaRing() {
+        this(DEFAULT_INITIAL_CAPACITY);
+    }
+
+    UnacknowledgedStanzaRing(int initialCapacity) {
+        this(initialCapacity, 0);
+    }
+
+    UnacknowledgedStanzaRing(int initialCapacity, long initialSequenceNumber) {
+        if (initialCapacity < 1 || initialCapacity > 1 << 30) {
+            throw new IllegalArgumentException("Initial capacity must be between 1 and 2^30, but was " + initialCapacity);
+        }
+        int capacity = Integer.highestOneBit(initialCapacity);
+        if (capacity < initialCapacity) {
+            capacity <<= 1;
+        }
+        ring = new Stanza[capacity];
+        mask = capacity - 1;
+        head = tail = initialSequenceNumber;
+    }
+
+    /**
+     * Add the given stanza as the most recently sent one.
+     *
+     * @param stanza the sent stanza.
+     * @return the sequence number of the stanza.
+     */
+    synchronized long add(Stanza stanza) {
+        if (tail - head == ring.length) {
+            grow();
+        }
+        ring[(int) tail & mask] = stanza;
+        return tail++;
+    }
+
+    private void grow() {
+        if (ring.length == 1 << 30) {
+            throw new IllegalStateException("Too many unacknowledged stanzas");
+        }
+        Stanza[] newRing = new Stanza[ring.length << 1];
+        int newMask = newRing.length - 1;
+        for (long sequenceNumber = head; sequenceNumber < tail; sequenceNumber++) {
+            newRing[(int) sequenceNumber & newMask] = ring[(int) sequenceNumber & mask];
+        }
+        ring = newRing;
+        mask = newMask;
+    }
+
+    /**
+     * Process the given handled count reported by the server, removing all stanzas acknowledged by it.
+     *
+     * @param handledCount the number of handled stanzas as reported by the server.
+     * @param acknowledgedStanzas a list the acknowledged stanzas are added to, may be <code>null</code>.
+     * @return the number of stanzas which got acknowledged.
+     * @throws StreamManagementCounterError if the server acknowledged more stanzas than are outstanding.
+     */
+    synchronized int acknowledge(long handledCount, List<Stanza> acknowledgedStanzas)
+                    throws StreamManagementCounterError {
+        long acknowledgedCount = (handledCount - head) & MASK_32_BIT;
+        if (acknowledgedCount > tail - head) {
+            throw new StreamManagementCounterError(handledCount, head & MASK_32_BIT, acknowledgedCount,
+                            getAllInternal());
+        }
+
+        for (long i = 0; i < acknowledgedCount; i++) {
+            int index = (int) head++ & mask;
+            Stanza stanza = ring[index];
+            ring[index] = null;
+            if (acknowledgedStanzas != null) {
+                acknowledgedStanzas.add(stanza);
+            }
+        }
+        return (int) acknowledgedCount;
+    }
+
+    /**
+     * Get the number of stanzas the server has acknowledged within this session, in the form used by the 'h'
+     * attribute of Stream Management.
+     *
+     * @return the acknowledged stanza count modulo 2<sup>32</sup>.
+     */
+    synchronized long getAcknowledgedCount() {
+        return head & MASK_32_BIT;
+    }
+
+    /**
+     * Get the sequence number which is going to be assigned to the next added stanza.
+     *
+     * @return the next sequence number.
+     */
+    synchronized long getNextSequenceNumber() {
+        return tail;
+    }
+
+    synchronized int size() {
+        return (int) (tail - head);
+    }
+
+    synchronized boolean isEmpty() {
+        return tail == head;
+    }
+
+    /**
+     * Get all unacknowledged stanzas, starting with the oldest one.
+     *
+     * @return a new list of the unacknowledged stanzas.
+     */
+    synchronized List<Stanza> getAll() {
+        return getAllInternal();
+    }
+
+    private List<Stanza> getAllInternal() {
+        List<Stanza> res = new ArrayList<>(size());
+        for (long sequenceNumber = head; sequenceNumber < tail; sequenceNumber++) {
+            res.add(ring[(int) sequenceNumber & mask]);
+        }
+        return res;
+    }
+
+    /**
+     * Remove all unacknowledged stanzas and restart the sequence numbers at zero, as is required when a new Stream
+     * Management session is enabled.
+     *
+     * @return the removed stanzas, starting with the oldest one.
+     */
+    synchronized List<Stanza> reset() {
+        List<Stanza> res = getAllInternal();
+        for (long sequenceNumber = head; sequenceNumber < tail; sequenceNumber++) {
+            ring[(int) sequenceNumber & mask] = null;
+        }
+        head = tail = 0;
+        return res;
+    }
+}
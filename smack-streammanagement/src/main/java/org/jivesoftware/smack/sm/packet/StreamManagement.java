@@ -147,6 +147,7 @@ public class StreamManagement {
      */
     public static class Enabled extends AbstractEnable {
         public static final String ELEMENT = "enabled";
+        public static final QName QNAME = new QName(NAMESPACE, ELEMENT);
 
         /**
          * The stream id ("SM-ID")
@@ -196,6 +197,7 @@ public class StreamManagement {
 
     public static class Failed implements Nonza {
         public static final String ELEMENT = "failed";
+        public static final QName QNAME = new QName(NAMESPACE, ELEMENT);
 
         private final StanzaError.Condition condition;
 
@@ -301,6 +303,7 @@ public class StreamManagement {
 
     public static class Resumed extends AbstractResume {
         public static final String ELEMENT = "resumed";
+        public static final QName QNAME = new QName(NAMESPACE, ELEMENT);
 
         public Resumed(long handledCount, String previd) {
             super(handledCount, previd);
@@ -314,6 +317,7 @@ public class StreamManagement {
 
     public static class AckAnswer implements Nonza {
         public static final String ELEMENT = "a";
+        public static final QName QNAME = new QName(NAMESPACE, ELEMENT);
 
         private final long handledCount;
 
@@ -346,6 +350,7 @@ public class StreamManagement {
 
     public static final class AckRequest implements Nonza {
         public static final String ELEMENT = "r";
+        public static final QName QNAME = new QName(NAMESPACE, ELEMENT);
         public static final AckRequest INSTANCE = new AckRequest();
 
         private AckRequest() {
@@ -0,0 +1,158 @@
+/**
+ *
+ * Copyright 2021 Florian Schmaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.sm;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+public class AdaptiveAckRequestPolicyTest {
+
+    private static final long MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    public void byteBudgetTriggersRequestTest() {
+        // The initial byte budget is one eighth of the maximum, i.e. 100 bytes.
+        AdaptiveAckRequestPolicy policy = new AdaptiveAckRequestPolicy(1000, 800, 1, TimeUnit.HOURS);
+        policy.stanzaSent(60, 0);
+        assertFalse(policy.requestAckIfDue(0));
+
+        policy.stanzaSent(60, 0);
+        assertEquals(120, policy.getUnacknowledgedBytes());
+        assertTrue(policy.requestAckIfDue(0));
+        // At most one request is outstanding.
+        assertFalse(policy.requestAckIfDue(0));
+
+        policy.acknowledged(1, MILLI);
+        assertEquals(60, policy.getUnacknowledgedBytes());
+        assertEquals(1, policy.getUnacknowledgedStanzaCount());
+        policy.acknowledged(1, MILLI);
+        assertEquals(0, policy.getUnacknowledgedBytes());
+        assertEquals(1, policy.getStats().byteTriggeredAckRequests);
+    }
+
+    @Test
+    public void ageBudgetTriggersRequestTest() {
+        // The initial age budget is one eighth of the maximum, i.e. one second.
+        AdaptiveAckRequestPolicy policy = new AdaptiveAckRequestPolicy(1000, 1_000_000, 8, TimeUnit.SECONDS);
+        // The first unacknowledged stanza arms the timer, further ones do not.
+        assertTrue(policy.stanzaSent(10, 0));
+        assertFalse(policy.stanzaSent(10, 100 * MILLI));
+
+        assertFalse(policy.requestAckIfDue(500 * MILLI));
+        assertEquals(500 * MILLI, policy.rearmTimer(500 * MILLI));
+        assertTrue(policy.requestAckIfDue(1000 * MILLI));
+        assertEquals(1, policy.getStats().ageTriggeredAckRequests);
+
+        policy.acknowledged(2, 1010 * MILLI);
+        // Nothing is unacknowledged anymore, hence the timer is no longer needed.
+        assertEquals(-1, policy.rearmTimer(1010 * MILLI));
+        assertTrue(policy.stanzaSent(10, 2000 * MILLI));
+    }
+
+    @Test
+    public void unsentRequestIsNotOutstandingTest() {
+        AdaptiveAckRequestPolicy policy = new AdaptiveAckRequestPolicy(1000, 1_000_000, 8, TimeUnit.SECONDS);
+        policy.stanzaSent(10, 0);
+        assertTrue(policy.requestAckIfDue(1000 * MILLI));
+
+        // The connection could not queue the request, hence it is still due.
+        policy.ackRequestNotSent();
+        assertEquals(0, policy.getStats().ageTriggeredAckRequests);
+        assertTrue(policy.requestAckIfDue(1001 * MILLI));
+        assertEquals(1, policy.getStats().ageTriggeredAckRequests);
+
+        // A request which was sent can not be withdrawn.
+        policy.ackRequestSent(1002 * MILLI);
+        policy.ackRequestNotSent();
+        assertEquals(1, policy.getStats().ageTriggeredAckRequests);
+        assertFalse(policy.requestAckIfDue(1003 * MILLI));
+    }
+
+    @Test
+    public void unsentRequestDoesNotRearmTimerImmediatelyTest() {
+        // The initial age budget is one eighth of the maximum, i.e. 450 seconds.
+        AdaptiveAckRequestPolicy policy = new AdaptiveAckRequestPolicy(1000, 1_000_000, 1, TimeUnit.HOURS);
+        final long ageBudget = policy.getAgeBudgetNanos();
+        assertTrue(policy.stanzaSent(100, 0));
+
+        long now = TimeUnit.HOURS.toNanos(1);
+        for (int i = 0; i < 3; i++) {
+            // The oldest stanza exceeds the age budget, but the connection can not queue the request.
+            assertTrue(policy.requestAckIfDue(now));
+            policy.ackRequestNotSent();
+            assertEquals(ageBudget, policy.rearmTimer(now));
+            now += ageBudget;
+        }
+
+        // Once a request was sent, the timer is re-armed as usual.
+        policy.ackRequestSent(now);
+        policy.acknowledged(0, now + MILLI);
+        assertEquals(0, policy.rearmTimer(now + MILLI));
+    }
+
+    @Test
+    public void stableRttBacksOffTest() {
+        AdaptiveAckRequestPolicy policy = new AdaptiveAckRequestPolicy(800, 1_000_000, 1, TimeUnit.HOURS);
+        long now = 0;
+        for (int i = 0; i < 10; i++) {
+            // Request an acknowledgement for a single stanza, which is answered after ten milliseconds.
+            policy.stanzaSent(10, now);
+            policy.ackRequestSent(now);
+            now += 10 * MILLI;
+            policy.acknowledged(1, now);
+        }
+
+        AdaptiveAckRequestPolicy.Stats stats = policy.getStats();
+        assertEquals(AdaptiveAckRequestPolicy.MAX_BACKOFF_LEVEL, stats.backoffLevel);
+        assertEquals(10_000, stats.smoothedRttMicros);
+        assertEquals(10, stats.ackLatencies.getCount());
+
+        // With the maximum budgets, 799 stanzas do not cause a request.
+        for (int i = 0; i < 799; i++) {
+            policy.stanzaSent(10, now);
+        }
+        assertFalse(policy.requestAckIfDue(now));
+        policy.stanzaSent(10, now);
+        assertTrue(policy.requestAckIfDue(now));
+
+        // A round-trip time spike resets the budgets.
+        now += 500 * MILLI;
+        policy.acknowledged(800, now);
+        assertEquals(0, policy.getStats().backoffLevel);
+    }
+
+    @Test
+    public void resetForgetsUnacknowledgedStanzasTest() {
+        AdaptiveAckRequestPolicy policy = new AdaptiveAckRequestPolicy();
+        for (int i = 0; i < 100; i++) {
+            policy.stanzaSent(100, i);
+        }
+        assertEquals(100, policy.getUnacknowledgedStanzaCount());
+        policy.reset();
+        assertEquals(0, policy.getUnacknowledgedStanzaCount());
+        assertEquals(0, policy.getUnacknowledgedBytes());
+        assertFalse(policy.requestAckIfDue(TimeUnit.HOURS.toNanos(1)));
+        // Acknowledging more stanzas than known does not corrupt the state.
+        policy.acknowledged(5, 0);
+        assertEquals(0, policy.getUnacknowledgedStanzaCount());
+    }
+}
@@ -0,0 +1,156 @@
+/**
+ *
+ * Copyright 2021 Florian Schmaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.sm;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import org.jivesoftware.smack.sm.OutboundStanzaSpool.SpoolRecord;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class OutboundStanzaSpoolTest {
+
+    private static final FilenameFilter SEGMENT_FILES = (dir, name) -> name.endsWith(OutboundStanzaSpool.SEGMENT_FILE_SUFFIX);
+
+    private static String message(int i) {
+        return "<message xmlns='jabber:client' id='id-" + i + "'><body>" + i + "</body></message>";
+    }
+
+    @Test
+    public void recoversUnacknowledgedRecordsTest(@TempDir File directory) throws IOException {
+        try (OutboundStanzaSpool spool = OutboundStanzaSpool.open(directory)) {
+            assertTrue(spool.takeRecoveredRecords().isEmpty());
+            spool.append(message(0));
+            long acknowledged = spool.append(message(1));
+            spool.append(message(2));
+            spool.acknowledge(acknowledged);
+            assertEquals(2, spool.getLiveRecordCount());
+        }
+
+        try (OutboundStanzaSpool spool = OutboundStanzaSpool.open(directory)) {
+            List<SpoolRecord> records = spool.takeRecoveredRecords();
+            assertEquals(2, records.size());
+            assertEquals(message(0), records.get(0).getXml());
+            assertEquals(message(2), records.get(1).getXml());
+            assertEquals(2, spool.getLiveRecordCount());
+
+            // Records appended after the recovery are not mixed up with the recovered ones.
+            long recordId = spool.append(message(3));
+            assertTrue(recordId > records.get(1).getId());
+
+            for (SpoolRecord record : records) {
+                spool.acknowledge(record.getId());
+            }
+            spool.acknowledge(recordId);
+            assertTrue(spool.takeRecoveredRecords().isEmpty());
+        }
+
+        try (OutboundStanzaSpool spool = OutboundStanzaSpool.open(directory)) {
+            assertTrue(spool.takeRecoveredRecords().isEmpty());
+        }
+    }
+
+    @Test
+    public void acknowledgedSegmentsAreDeletedTest(@TempDir File directory) throws IOException {
+        final int recordSize = OutboundStanzaSpool.RECORD_HEADER_SIZE + message(0).length();
+        try (OutboundStanzaSpool spool = OutboundStanzaSpool.open(directory, 2 * recordSize)) {
+            long[] recordIds = new long[6];
+            for (int i = 0; i < recordIds.length; i++) {
+                recordIds[i] = spool.append(message(i));
+            }
+            assertEquals(3, directory.list(SEGMENT_FILES).length);
+
+            // Acknowledging the records out of order does not delete a segment with a live record.
+            spool.acknowledge(recordIds[1]);
+            assertEquals(3, directory.list(SEGMENT_FILES).length);
+
+            spool.acknowledge(recordIds[0]);
+            spool.acknowledge(recordIds[2]);
+            spool.acknowledge(recordIds[3]);
+            assertEquals(1, directory.list(SEGMENT_FILES).length);
+
+            // The active segment is kept, even if all its records are acknowledged.
+            spool.acknowledge(recordIds[4]);
+            spool.acknowledge(recordIds[5]);
+            assertEquals(1, directory.list(SEGMENT_FILES).length);
+
+            OutboundStanzaSpool.Stats stats = spool.getStats();
+            assertEquals(0, stats.liveRecords);
+            assertEquals(6, stats.acknowledgedRecords);
+            assertEquals(2, stats.deletedSegments);
+        }
+    }
+
+    @Test
+    public void tornRecordIsDiscardedTest(@TempDir File directory) throws IOException {
+        try (OutboundStanzaSpool spool = OutboundStanzaSpool.open(directory)) {
+            spool.append(message(0));
+            spool.append(message(1));
+        }
+
+        // Corrupt the last byte of the second record, as if the process crashed while it was written.
+        File segmentFile = directory.listFiles(SEGMENT_FILES)[0];
+        int secondRecordEnd = 2 * (OutboundStanzaSpool.RECORD_HEADER_SIZE + message(0).length());
+        try (RandomAccessFile file = new RandomAccessFile(segmentFile, "rw")) {
+            file.seek(secondRecordEnd - 1);
+            file.write('x');
+        }
+
+        try (OutboundStanzaSpool spool = OutboundStanzaSpool.open(directory)) {
+            List<SpoolRecord> records = spool.takeRecoveredRecords();
+            assertEquals(1, records.size());
+            assertEquals(message(0), records.get(0).getXml());
+        }
+    }
+
+    @Test
+    public void groupCommitTest(@TempDir File directory) throws IOException {
+        try (OutboundStanzaSpool spool = OutboundStanzaSpool.open(directory)) {
+            long first = spool.append(message(0));
+            long second = spool.append(message(1));
+            spool.awaitDurable(first);
+            // The second record was made durable by the same sync.
+            spool.awaitDurable(second);
+            assertEquals(1, spool.getStats().syncs);
+
+            long third = spool.append(message(2));
+            spool.awaitDurable(third);
+            assertEquals(2, spool.getStats().syncs);
+        }
+    }
+
+    @Test
+    public void spoolDirectoryIsLockedTest(@TempDir File directory) throws IOException {
+        OutboundStanzaSpool spool = OutboundStanzaSpool.open(directory);
+        try {
+            assertThrows(IOException.class, () -> OutboundStanzaSpool.open(directory));
+        } finally {
+            spool.close();
+        }
+        // The lock is released once the spool is closed.
+        OutboundStanzaSpool.open(directory).close();
+    }
+}
@@ -0,0 +1,484 @@
+/**
+ *
+ * Copyright 2021 Florian Schmaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.sm;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLSession;
+
+import org.jivesoftware.smack.ConnectionListener;
+import org.jivesoftware.smack.SmackFuture;
+import org.jivesoftware.smack.c2s.ModularXmppClientToServerConnection;
+import org.jivesoftware.smack.c2s.ModularXmppClientToServerConnection.ConnectedButUnauthenticatedStateDescriptor;
+import org.jivesoftware.smack.c2s.ModularXmppClientToServerConnection.LookupRemoteConnectionEndpointsStateDescriptor;
+import org.jivesoftware.smack.c2s.ModularXmppClientToServerConnectionConfiguration;
+import org.jivesoftware.smack.c2s.ModularXmppClientToServerConnectionModule;
+import org.jivesoftware.smack.c2s.ModularXmppClientToServerConnectionModuleDescriptor;
+import org.jivesoftware.smack.c2s.StreamOpenAndCloseFactory;
+import org.jivesoftware.smack.c2s.XmppClientToServerTransport;
+import org.jivesoftware.smack.c2s.internal.ModularXmppClientToServerConnectionInternal;
+import org.jivesoftware.smack.c2s.internal.WalkStateGraphContext;
+import org.jivesoftware.smack.compression.CompressionModuleDescriptor;
+import org.jivesoftware.smack.fsm.State;
+import org.jivesoftware.smack.fsm.StateDescriptor;
+import org.jivesoftware.smack.fsm.StateTransitionResult;
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.packet.MessageBuilder;
+import org.jivesoftware.smack.packet.Stanza;
+import org.jivesoftware.smack.packet.TopLevelStreamElement;
+import org.jivesoftware.smack.sm.StreamManagementModule.EnableStreamManagementStateDescriptor;
+import org.jivesoftware.smack.sm.StreamManagementModule.ResumeStreamStateDescriptor;
+import org.jivesoftware.smack.sm.StreamManagementModule.StreamResumedResult;
+import org.jivesoftware.smack.sm.packet.StreamManagement.AckAnswer;
+import org.jivesoftware.smack.sm.packet.StreamManagement.AckRequest;
+import org.jivesoftware.smack.sm.packet.StreamManagement.Enable;
+import org.jivesoftware.smack.sm.packet.StreamManagement.Resume;
+import org.jivesoftware.smack.test.util.Whitebox;
+import org.jivesoftware.smack.util.ArrayBlockingQueueWithShutdown;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.jxmpp.jid.JidTestUtil;
+
+public class StreamManagementModuleTest {
+
+    private static final String STREAM_OPEN = "<stream:stream xmlns='jabber:client' xmlns:stream='http://etherx.jabber.org/streams' id='stream-1'>";
+
+    private static final String SESSION_ID = "session-1";
+
+    private static final String ENABLED = "<enabled xmlns='urn:xmpp:sm:3' id='" + SESSION_ID + "' resume='true' max='60'/>";
+
+    private static final String FAILED = "<failed xmlns='urn:xmpp:sm:3'/>";
+
+    private ModularXmppClientToServerConnection connection;
+
+    private ModularXmppClientToServerConnectionInternal connectionInternal;
+
+    private StreamManagementModule smModule;
+
+    private TestTransport transport;
+
+    /**
+     * A transport which records the outgoing elements and answers the Stream Management requests of the client like a
+     * server would.
+     */
+    private static final class TestTransport extends XmppClientToServerTransport {
+        private final List<TopLevelStreamElement> sentElements = new CopyOnWriteArrayList<>();
+
+        private String enableResponse = ENABLED;
+
+        private String resumeResponse;
+
+        private TestTransport(ModularXmppClientToServerConnectionInternal connectionInternal) {
+            super(connectionInternal);
+        }
+
+        private void processIncoming(String element) {
+            connectionInternal.parseAndProcessElement(STREAM_OPEN + element + "</stream:stream>");
+        }
+
+        @Override
+        protected void notifyAboutNewOutgoingElements() {
+            TopLevelStreamElement element;
+            while ((element = connectionInternal.outgoingElementsQueue.poll()) != null) {
+                sentElements.add(element);
+                synchronized (this) {
+                    notifyAll();
+                }
+
+                if (element instanceof Enable) {
+                    processIncoming(enableResponse);
+                } else if (element instanceof Resume) {
+                    processIncoming(resumeResponse);
+                }
+            }
+        }
+
+        private synchronized AckAnswer waitForAckAnswer() throws InterruptedException {
+            final long deadline = System.currentTimeMillis() + 5000;
+            while (true) {
+                for (TopLevelStreamElement element : sentElements) {
+                    if (element instanceof AckAnswer) {
+                        return (AckAnswer) element;
+                    }
+                }
+                final long now = System.currentTimeMillis();
+                if (now >= deadline) {
+                    throw new AssertionError("No acknowledgement answer sent");
+                }
+                wait(deadline - now);
+            }
+        }
+
+        @Override
+        protected void resetDiscoveredConnectionEndpoints() {
+        }
+
+        @Override
+        protected List<SmackFuture<LookupConnectionEndpointsResult, Exception>> lookupConnectionEndpoints() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        protected void loadConnectionEndpoints(LookupConnectionEndpointsSuccess lookupConnectionEndpointsSuccess) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean hasUseableConnectionEndpoints() {
+            return false;
+        }
+
+        @Override
+        protected void afterFiltersClosed() {
+        }
+
+        @Override
+        protected void disconnect() {
+        }
+
+        @Override
+        public SSLSession getSslSession() {
+            return null;
+        }
+
+        @Override
+        public StreamOpenAndCloseFactory getStreamOpenAndCloseFactory() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Stats getStats() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private static final class TestTransportModuleDescriptor extends ModularXmppClientToServerConnectionModuleDescriptor {
+        @Override
+        protected Set<Class<? extends StateDescriptor>> getStateDescriptors() {
+            return Collections.singleton(EstablishingTestConnectionStateDescriptor.class);
+        }
+
+        @Override
+        protected TestTransportModule constructXmppConnectionModule(
+                        ModularXmppClientToServerConnectionInternal connectionInternal) {
+            return new TestTransportModule(this, connectionInternal);
+        }
+    }
+
+    private static final class TestTransportModule
+                    extends ModularXmppClientToServerConnectionModule<TestTransportModuleDescriptor> {
+        private final TestTransport transport;
+
+        private TestTransportModule(TestTransportModuleDescriptor moduleDescriptor,
+                        ModularXmppClientToServerConnectionInternal connectionInternal) {
+            super(moduleDescriptor, connectionInternal);
+            transport = new TestTransport(connectionInternal);
+        }
+
+        @Override
+        protected TestTransport getTransport() {
+            return transport;
+        }
+    }
+
+    private static final class EstablishingTestConnectionStateDescriptor extends StateDescriptor {
+        private EstablishingTestConnectionStateDescriptor() {
+            super(State.AbstractTransport.class);
+            addPredeccessor(LookupRemoteConnectionEndpointsStateDescriptor.class);
+            addSuccessor(ConnectedButUnauthenticatedStateDescriptor.class);
+        }
+
+        @Override
+        protected State constructState(ModularXmppClientToServerConnectionInternal connectionInternal) {
+            return new State(this, connectionInternal) {
+                @Override
+                public StateTransitionResult.AttemptResult transitionInto(WalkStateGraphContext walkStateGraphContext) {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+    }
+
+    @BeforeEach
+    public void setUp() {
+        ModularXmppClientToServerConnectionConfiguration.Builder builder = ModularXmppClientToServerConnectionConfiguration.builder();
+        builder.removeAllModules();
+        builder.addModule(new TestTransportModuleDescriptor());
+        builder.addModule(CompressionModuleDescriptor.class);
+        builder.addModule(StreamManagementModuleDescriptor.class);
+        builder.setXmppDomain(JidTestUtil.EXAMPLE_ORG);
+
+        connection = new ModularXmppClientToServerConnection(builder.build());
+        connectionInternal = Whitebox.getInternalState(connection, "connectionInternal",
+                        ModularXmppClientToServerConnectionInternal.class);
+        smModule = connection.getConnectionModuleFor(StreamManagementModuleDescriptor.class);
+
+        TestTransportModule transportModule = connection.getConnectionModuleFor(TestTransportModuleDescriptor.class);
+        transport = transportModule.transport;
+        ((ArrayBlockingQueueWithShutdown<?>) connectionInternal.outgoingElementsQueue).start();
+        connectionInternal.setTransport(transport);
+        connectionInternal.onStreamOpen(STREAM_OPEN);
+    }
+
+    /**
+     * Instantiate the state descriptor, like the state descriptor graph of the connection does.
+     */
+    private static <SD extends StateDescriptor> SD newStateDescriptor(Class<SD> stateDescriptorClass) throws Exception {
+        Constructor<SD> constructor = stateDescriptorClass.getDeclaredConstructor();
+        constructor.setAccessible(true);
+        return constructor.newInstance();
+    }
+
+    private StateTransitionResult.AttemptResult enableStreamManagement() throws Exception {
+        State state = newStateDescriptor(EnableStreamManagementStateDescriptor.class).constructState(connectionInternal);
+        return state.transitionInto(null);
+    }
+
+    private StateTransitionResult.AttemptResult resumeStream() throws Exception {
+        State state = newStateDescriptor(ResumeStreamStateDescriptor.class).constructState(connectionInternal);
+        return state.transitionInto(null);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Set<ConnectionListener> connectionListeners() {
+        return Whitebox.getInternalState(connection, "connectionListeners", Set.class);
+    }
+
+    private void connectionLost() {
+        IOException exception = new IOException("Connection lost");
+        for (ConnectionListener listener : connectionListeners()) {
+            listener.connectionClosedOnError(exception);
+        }
+    }
+
+    private void authenticated(boolean resumed) {
+        for (ConnectionListener listener : connectionListeners()) {
+            listener.authenticated(connection, resumed);
+        }
+    }
+
+    private List<Message> sendMessages(int count) throws Exception {
+        List<Message> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Message message = MessageBuilder.buildMessage("message-" + i).build();
+            connection.sendStanza(message);
+            messages.add(message);
+        }
+        return messages;
+    }
+
+    private List<Stanza> sentStanzas() {
+        List<Stanza> stanzas = new ArrayList<>();
+        for (TopLevelStreamElement element : transport.sentElements) {
+            if (element instanceof Stanza) {
+                stanzas.add((Stanza) element);
+            }
+        }
+        return stanzas;
+    }
+
+    @Test
+    public void enableStreamManagementTest() throws Exception {
+        StateTransitionResult.AttemptResult result = enableStreamManagement();
+
+        assertTrue(result instanceof StateTransitionResult.Success);
+        assertTrue(transport.sentElements.get(0) instanceof Enable);
+        assertTrue(smModule.isSmEnabled());
+        assertTrue(smModule.isSmResumptionPossible());
+        assertEquals(60, smModule.getMaxSmResumptionTime());
+
+        // Stanzas are only recorded as unacknowledged once Stream Management was enabled.
+        sendMessages(2);
+        assertEquals(2, smModule.getStats().unacknowledgedStanzas);
+    }
+
+    @Test
+    public void failedEnableTest() throws Exception {
+        transport.enableResponse = FAILED;
+
+        StateTransitionResult.AttemptResult result = enableStreamManagement();
+
+        assertTrue(result instanceof StateTransitionResult.FailureCausedByException);
+        assertFalse(smModule.isSmEnabled());
+        assertFalse(smModule.isSmResumptionPossible());
+    }
+
+    @Test
+    public void acknowledgementTest() throws Exception {
+        enableStreamManagement();
+        smModule.setAckRequestThreshold(2);
+
+        List<Stanza> acknowledgedStanzas = new CopyOnWriteArrayList<>();
+        CountDownLatch acknowledged = new CountDownLatch(2);
+        smModule.addStanzaAcknowledgedListener(stanza -> {
+            acknowledgedStanzas.add(stanza);
+            acknowledged.countDown();
+        });
+
+        List<Message> messages = sendMessages(2);
+        // The threshold was reached with the second stanza, hence an acknowledgement was requested after it.
+        List<TopLevelStreamElement> sentElements = transport.sentElements;
+        assertSame(AckRequest.INSTANCE, sentElements.get(sentElements.size() - 1));
+        assertEquals(1, smModule.getStats().ackRequestsSent);
+
+        transport.processIncoming("<a xmlns='urn:xmpp:sm:3' h='2'/>");
+
+        assertTrue(acknowledged.await(5, TimeUnit.SECONDS));
+        assertEquals(messages, acknowledgedStanzas);
+        StreamManagementModule.Stats stats = smModule.getStats();
+        assertEquals(0, stats.unacknowledgedStanzas);
+        assertEquals(2, stats.acknowledgedStanzas);
+        assertEquals(1, stats.ackAnswersReceived);
+
+        // The client answers acknowledgement requests of the server with the number of handled stanzas.
+        transport.processIncoming("<message xmlns='jabber:client' id='incoming'/>");
+        transport.processIncoming("<r xmlns='urn:xmpp:sm:3'/>");
+        assertEquals(1, transport.waitForAckAnswer().getHandledCount());
+    }
+
+    @Test
+    public void resumeTest() throws Exception {
+        enableStreamManagement();
+        List<Message> messages = sendMessages(3);
+        connectionLost();
+        transport.sentElements.clear();
+
+        // The server handled the first stanza before the connection was lost.
+        transport.resumeResponse = "<resumed xmlns='urn:xmpp:sm:3' h='1' previd='" + SESSION_ID + "'/>";
+        StateTransitionResult.AttemptResult result = resumeStream();
+
+        assertTrue(result instanceof StreamResumedResult);
+        StreamResumedResult streamResumedResult = (StreamResumedResult) result;
+        assertEquals(1, streamResumedResult.getHandledCount());
+        assertEquals(2, streamResumedResult.getResentStanzasCount());
+
+        List<TopLevelStreamElement> sentElements = transport.sentElements;
+        assertTrue(sentElements.get(0) instanceof Resume);
+        assertEquals(messages.subList(1, 3), sentStanzas());
+        assertSame(AckRequest.INSTANCE, sentElements.get(sentElements.size() - 1));
+
+        StreamManagementModule.Stats stats = smModule.getStats();
+        assertEquals(1, stats.resumptions);
+        assertEquals(2, stats.resentStanzas);
+        assertEquals(2, stats.unacknowledgedStanzas);
+
+        // Outgoing stanzas are tracked again on the resumed stream.
+        assertTrue(smModule.isSmEnabled());
+        sendMessages(1);
+        assertEquals(3, smModule.getStats().unacknowledgedStanzas);
+    }
+
+    @Test
+    public void failedResumeResendsStanzasInNewSessionTest() throws Exception {
+        enableStreamManagement();
+        List<Message> messages = sendMessages(2);
+        transport.sentElements.clear();
+
+        transport.resumeResponse = FAILED;
+        StateTransitionResult.AttemptResult result = resumeStream();
+
+        assertTrue(result instanceof StateTransitionResult.FailureCausedByException);
+        assertEquals(1, smModule.getStats().failedResumptions);
+        assertFalse(smModule.isSmResumptionPossible());
+        transport.sentElements.clear();
+
+        // After resource binding, a new session is enabled, and the unacknowledged stanzas are resent in it.
+        enableStreamManagement();
+
+        assertTrue(transport.sentElements.get(0) instanceof Enable);
+        assertEquals(messages, sentStanzas());
+        assertEquals(2, smModule.getStats().unacknowledgedStanzas);
+    }
+
+    @Test
+    public void failedResumeAndFailedEnableResendsStanzasTest() throws Exception {
+        enableStreamManagement();
+        List<Message> messages = sendMessages(2);
+        transport.sentElements.clear();
+
+        transport.resumeResponse = FAILED;
+        resumeStream();
+        transport.enableResponse = FAILED;
+        StateTransitionResult.AttemptResult result = enableStreamManagement();
+
+        assertTrue(result instanceof StateTransitionResult.FailureCausedByException);
+        assertFalse(smModule.isSmEnabled());
+        // The stanzas are not lost, even though Stream Management could not be enabled again.
+        assertEquals(messages, sentStanzas());
+        assertEquals(0, smModule.getStats().unacknowledgedStanzas);
+    }
+
+    @Test
+    public void failedResumeHandsStanzasToDroppedListenersTest() throws Exception {
+        List<Stanza> droppedStanzas = new ArrayList<>();
+        smModule.addStanzaDroppedListener(droppedStanzas::add);
+
+        enableStreamManagement();
+        List<Message> messages = sendMessages(2);
+        transport.sentElements.clear();
+
+        transport.resumeResponse = FAILED;
+        resumeStream();
+        transport.enableResponse = FAILED;
+        enableStreamManagement();
+
+        // The listeners took over the responsibility for the stanzas, hence they are not resent.
+        assertEquals(messages, droppedStanzas);
+        assertEquals(0, sentStanzas().size());
+    }
+
+    @Test
+    public void reconnectWithoutStreamManagementTest() throws Exception {
+        enableStreamManagement();
+        smModule.setAckRequestThreshold(1);
+        List<Message> messages = sendMessages(2);
+        connectionLost();
+        transport.sentElements.clear();
+
+        // The stream was neither resumed nor was Stream Management enabled on it.
+        assertFalse(smModule.isSmEnabled());
+        List<Message> newSessionMessages = sendMessages(2);
+        assertEquals(2, smModule.getStats().unacknowledgedStanzas);
+
+        authenticated(false);
+
+        // The stanzas of the previous session are resent, and no acknowledgement was requested on the stream.
+        List<Stanza> expectedStanzas = new ArrayList<>(newSessionMessages);
+        expectedStanzas.addAll(messages);
+        assertEquals(expectedStanzas, sentStanzas());
+        assertEquals(expectedStanzas.size(), transport.sentElements.size());
+        assertFalse(smModule.isSmResumptionPossible());
+        assertEquals(0, smModule.getStats().unacknowledgedStanzas);
+
+        sendMessages(2);
+        assertEquals(0, smModule.getStats().unacknowledgedStanzas);
+    }
+}
@@ -0,0 +1,126 @@
+/**
+ *
+ * Copyright 2021 Florian Schmaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.sm;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.packet.MessageBuilder;
+import org.jivesoftware.smack.packet.Stanza;
+import org.jivesoftware.smack.sm.StreamManagementException.StreamManagementCounterError;
+
+import org.junit.jupiter.api.Test;
+
+public class UnacknowledgedStanzaRingTest {
+
+    private static List<Stanza> createStanzas(int count) {
+        List<Stanza> stanzas = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Message message = MessageBuilder.buildMessage("id-" + i).build();
+            stanzas.add(message);
+        }
+        return stanzas;
+    }
+
+    @Test
+    public void acknowledgeRemovesOldestStanzasTest() throws StreamManagementCounterError {
+        UnacknowledgedStanzaRing ring = new UnacknowledgedStanzaRing(4);
+        List<Stanza> stanzas = createStanzas(3);
+        for (int i = 0; i < stanzas.size(); i++) {
+            assertEquals(i, ring.add(stanzas.get(i)));
+        }
+
+        List<Stanza> acknowledgedStanzas = new ArrayList<>();
+        assertEquals(2, ring.acknowledge(2, acknowledgedStanzas));
+        assertEquals(stanzas.subList(0, 2), acknowledgedStanzas);
+        assertEquals(1, ring.size());
+        assertEquals(2, ring.getAcknowledgedCount());
+
+        // Acknowledging the same count again is a no-op.
+        assertEquals(0, ring.acknowledge(2, null));
+        assertSame(stanzas.get(2), ring.getAll().get(0));
+    }
+
+    @Test
+    public void growPreservesOrderTest() throws StreamManagementCounterError {
+        UnacknowledgedStanzaRing ring = new UnacknowledgedStanzaRing(4);
+        List<Stanza> stanzas = createStanzas(11);
+
+        // Move the head away from index zero, so that the stanzas wrap around the end of the ring before it grows.
+        for (int i = 0; i < 3; i++) {
+            ring.add(stanzas.get(i));
+        }
+        ring.acknowledge(3, null);
+        for (int i = 3; i < stanzas.size(); i++) {
+            ring.add(stanzas.get(i));
+        }
+
+        assertEquals(stanzas.subList(3, stanzas.size()), ring.getAll());
+
+        List<Stanza> acknowledgedStanzas = new ArrayList<>();
+        ring.acknowledge(11, acknowledgedStanzas);
+        assertEquals(stanzas.subList(3, stanzas.size()), acknowledgedStanzas);
+        assertTrue(ring.isEmpty());
+    }
+
+    @Test
+    public void handledCountWrapsAroundTest() throws StreamManagementCounterError {
+        final long maxHandledCount = 0xffffffffL;
+        UnacknowledgedStanzaRing ring = new UnacknowledgedStanzaRing(4, maxHandledCount - 1);
+        List<Stanza> stanzas = createStanzas(4);
+        for (Stanza stanza : stanzas) {
+            ring.add(stanza);
+        }
+
+        // The server reports 2^32 - 1, then wraps around to 0 and 1.
+        assertEquals(1, ring.acknowledge(maxHandledCount, null));
+        assertEquals(1, ring.acknowledge(0, null));
+        assertEquals(1, ring.acknowledge(1, null));
+        assertEquals(1, ring.getAcknowledgedCount());
+        assertSame(stanzas.get(3), ring.getAll().get(0));
+    }
+
+    @Test
+    public void acknowledgingTooManyStanzasThrowsTest() {
+        UnacknowledgedStanzaRing ring = new UnacknowledgedStanzaRing();
+        ring.add(createStanzas(1).get(0));
+
+        StreamManagementCounterError error = assertThrows(StreamManagementCounterError.class,
+                        () -> ring.acknowledge(2, null));
+        assertEquals(1, error.getOutstandingStanzasCount());
+        assertEquals(1, ring.size());
+    }
+
+    @Test
+    public void resetRestartsSequenceNumbersTest() {
+        UnacknowledgedStanzaRing ring = new UnacknowledgedStanzaRing();
+        List<Stanza> stanzas = createStanzas(3);
+        for (Stanza stanza : stanzas) {
+            ring.add(stanza);
+        }
+
+        assertEquals(stanzas, ring.reset());
+        assertTrue(ring.isEmpty());
+        assertEquals(0, ring.add(stanzas.get(0)));
+    }
+}
@@ -17,6 +17,7 @@
 package org.jivesoftware.smack.tcp;
 
 import java.io.IOException;
+import java.net.Inet6Address;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.nio.channels.ClosedChannelException;
@@ -27,24 +28,68 @@ import java.util.Iterator;
 import java.util.List;
 
 import org.jivesoftware.smack.SmackException.EndpointConnectionException;
+import org.jivesoftware.smack.SmackReactor.ChannelSelectedCallback;
 import org.jivesoftware.smack.c2s.internal.ModularXmppClientToServerConnectionInternal;
+import org.jivesoftware.smack.fsm.ConnectionStateEvent;
+import org.jivesoftware.smack.fsm.State;
 import org.jivesoftware.smack.fsm.StateTransitionResult;
 import org.jivesoftware.smack.tcp.XmppTcpTransportModule.EstablishingTcpConnectionState;
 import org.jivesoftware.smack.tcp.rce.Rfc6120TcpRemoteConnectionEndpoint;
 import org.jivesoftware.smack.util.Async;
+import org.jivesoftware.smack.util.CloseableUtil;
 import org.jivesoftware.smack.util.rce.RemoteConnectionEndpoint;
+import org.jivesoftware.smack.util.rce.RemoteConnectionEndpointLookupFailure;
 import org.jivesoftware.smack.util.rce.RemoteConnectionException;
 
+/**
+ * Establishes the TCP connection to one of the discovered remote connection endpoints.
+ * <p>
+ * The connection attempts are raced in the spirit of RFC 8305 ("Happy Eyeballs"). The addresses are tried in the
+ * order of the remote connection endpoints, where the addresses of every endpoint are interleaved by address family.
+ * The attempt to the next address is started once the previous attempt failed, or, while the previous attempts are
+ * still pending, after the connection attempt delay elapsed. The first attempt which succeeds wins and all other
+ * pending attempts are cancelled. Hence a black-holed endpoint or address family only adds the connection attempt
+ * delay, instead of a full connect timeout, to the time required to establish the connection. The outcome of every
+ * attempt is reported as {@link TcpHostEvent}.
+ * </p>
+ *
+ * @see <a href="https://tools.ietf.org/html/rfc8305">RFC 8305: Happy Eyeballs Version 2: Better Connectivity Using
+ *      Concurrency</a>
+ */
 public final class ConnectionAttemptState {
 
-    private final ModularXmppClientToServerConnectionInternal connectionInternal;
+    /**
+     * The default connection attempt delay, as recommended by RFC 8305 section 5.
+     */
+    public static final long DEFAULT_CONNECTION_ATTEMPT_DELAY_MILLIS = 250;
+
+    /**
+     * The environment of the connection attempts, i.e. the reactor the channels are registered with and the listener
+     * notified about the outcome of the attempts.
+     */
+    interface Environment {
+        void registerWithSelector(SocketChannel socketChannel, int ops, ChannelSelectedCallback callback)
+                        throws ClosedChannelException;
+
+        void invokeConnectionStateMachineListener(ConnectionStateEvent connectionStateEvent);
+    }
+
+    private final Environment environment;
+
+    private final List<RemoteConnectionEndpointLookupFailure> lookupFailures;
+
+    private final State establishingTcpConnectionState;
+
+    private final long connectionAttemptDelayMillis;
+
+    private final long attemptTimeoutMillis;
 
-    private final XmppTcpTransportModule.XmppTcpNioTransport.DiscoveredTcpEndpoints discoveredEndpoints;
+    private final Iterator<RemoteConnectionEndpoint.InetSocketAddressCoupling<Rfc6120TcpRemoteConnectionEndpoint>> addressIterator;
 
-    private final EstablishingTcpConnectionState establishingTcpConnectionState;
+    private final List<ConnectionAttempt> pendingAttempts = new ArrayList<>();
 
-    // TODO: Check if we can re-use the socket channel in case some InetSocketAddress fail to connect to.
-    final SocketChannel socketChannel;
+    /** The socket channel of the attempt which won the race. */
+    SocketChannel socketChannel;
 
     final List<RemoteConnectionException<?>> connectionExceptions;
 
@@ -52,78 +97,184 @@ public final class ConnectionAttemptState {
     boolean connected;
     long deadline;
 
-    final Iterator<Rfc6120TcpRemoteConnectionEndpoint> connectionEndpointIterator;
-    /** The current connection endpoint we are trying */
-    Rfc6120TcpRemoteConnectionEndpoint connectionEndpoint;
-    Iterator<? extends InetAddress> inetAddressIterator;
+    /**
+     * The time at which the next attempt is started while the previous attempts are still pending, or
+     * {@link Long#MAX_VALUE} if there is no next attempt or the next attempt is only started once the previous failed.
+     */
+    private long nextAttemptTime = Long.MAX_VALUE;
+
+    /** Set once the race is decided, i.e. an attempt succeeded or the connection could not be established. */
+    private boolean decided;
+
+    /** Set once {@link #establishTcpConnection()} timed out or was interrupted. */
+    private boolean abandoned;
+
+    private final class ConnectionAttempt {
+        private final RemoteConnectionEndpoint.InetSocketAddressCoupling<Rfc6120TcpRemoteConnectionEndpoint> address;
+
+        private SocketChannel socketChannel;
+
+        private ConnectionAttempt(
+                        RemoteConnectionEndpoint.InetSocketAddressCoupling<Rfc6120TcpRemoteConnectionEndpoint> address) {
+            this.address = address;
+        }
+    }
 
     ConnectionAttemptState(ModularXmppClientToServerConnectionInternal connectionInternal,
                     XmppTcpTransportModule.XmppTcpNioTransport.DiscoveredTcpEndpoints discoveredEndpoints,
-                    EstablishingTcpConnectionState establishingTcpConnectionState) throws IOException {
-        this.connectionInternal = connectionInternal;
-        this.discoveredEndpoints = discoveredEndpoints;
-        this.establishingTcpConnectionState = establishingTcpConnectionState;
+                    EstablishingTcpConnectionState establishingTcpConnectionState, long connectionAttemptDelayMillis) {
+        this(new Environment() {
+            @Override
+            public void registerWithSelector(SocketChannel socketChannel, int ops, ChannelSelectedCallback callback)
+                            throws ClosedChannelException {
+                connectionInternal.registerWithSelector(socketChannel, ops, callback);
+            }
 
-        socketChannel = SocketChannel.open();
-        socketChannel.configureBlocking(false);
+            @Override
+            public void invokeConnectionStateMachineListener(ConnectionStateEvent connectionStateEvent) {
+                connectionInternal.invokeConnectionStateMachineListener(connectionStateEvent);
+            }
+        }, discoveredEndpoints.result.discoveredRemoteConnectionEndpoints, discoveredEndpoints.result.lookupFailures,
+                        establishingTcpConnectionState, connectionAttemptDelayMillis,
+                        // TODO: Should use "connect timeout" instead of reply timeout. But first connect timeout needs to
+                        // be moved from XMPPTCPConnectionConfiguration. into XMPPConnectionConfiguration.
+                        connectionInternal.connection.getReplyTimeout());
+    }
 
-        List<Rfc6120TcpRemoteConnectionEndpoint> endpoints = discoveredEndpoints.result.discoveredRemoteConnectionEndpoints;
-        connectionEndpointIterator = endpoints.iterator();
+    ConnectionAttemptState(Environment environment, List<Rfc6120TcpRemoteConnectionEndpoint> endpoints,
+                    List<RemoteConnectionEndpointLookupFailure> lookupFailures, State establishingTcpConnectionState,
+                    long connectionAttemptDelayMillis, long attemptTimeoutMillis) {
+        this.environment = environment;
+        this.lookupFailures = lookupFailures;
+        this.establishingTcpConnectionState = establishingTcpConnectionState;
+        this.connectionAttemptDelayMillis = connectionAttemptDelayMillis;
+        this.attemptTimeoutMillis = attemptTimeoutMillis;
+
+        addressIterator = orderAddresses(endpoints).iterator();
         connectionExceptions = new ArrayList<>(endpoints.size());
     }
 
     StateTransitionResult.Failure establishTcpConnection() throws InterruptedException {
-        RemoteConnectionEndpoint.InetSocketAddressCoupling<Rfc6120TcpRemoteConnectionEndpoint> address = nextAddress();
-        establishTcpConnection(address);
+        startNextAttempt();
 
-        synchronized (this) {
-            while (!connected && connectionException == null) {
-                final long now = System.currentTimeMillis();
-                if (now >= deadline) {
-                    return new StateTransitionResult.FailureCausedByTimeout("Timeout waiting to establish connection");
+        try {
+            // The attempts after the first one are started by this thread, once the connection attempt delay elapsed,
+            // or by the thread handling the failure of the previous attempt.
+            while (awaitDecisionOrNextAttempt()) {
+                startNextAttempt();
+            }
+        } finally {
+            boolean cancel = false;
+            synchronized (this) {
+                if (!connected && connectionException == null) {
+                    // We either timed out or got interrupted, cancel all pending attempts. If an attempt is just about
+                    // to win the race, then it will close its channel, as it is no longer waited for.
+                    abandoned = true;
+                    if (!decided) {
+                        decided = true;
+                        cancel = true;
+                    }
                 }
-                wait (deadline - now);
+            }
+            if (cancel) {
+                cancelPendingAttempts();
             }
         }
+
         if (connected) {
             assert connectionException == null;
             // Success case: we have been able to establish a connection to one remote endpoint.
             return null;
         }
 
-        return new StateTransitionResult.FailureCausedByException<Exception>(connectionException);
+        if (connectionException != null) {
+            return new StateTransitionResult.FailureCausedByException<Exception>(connectionException);
+        }
+
+        return new StateTransitionResult.FailureCausedByTimeout("Timeout waiting to establish connection");
     }
 
-    private void establishTcpConnection(
-                    RemoteConnectionEndpoint.InetSocketAddressCoupling<Rfc6120TcpRemoteConnectionEndpoint> address) {
+    /**
+     * Wait until the race is decided, the deadline passed, or the next attempt is due.
+     *
+     * @return <code>true</code> if the next attempt is due.
+     * @throws InterruptedException if the calling thread was interrupted.
+     */
+    private synchronized boolean awaitDecisionOrNextAttempt() throws InterruptedException {
+        while (!connected && connectionException == null) {
+            final long now = System.currentTimeMillis();
+            if (now >= deadline) {
+                return false;
+            }
+            if (now >= nextAttemptTime) {
+                nextAttemptTime = Long.MAX_VALUE;
+                return true;
+            }
+            wait(Math.min(deadline, nextAttemptTime) - now);
+        }
+        return false;
+    }
+
+    private void startNextAttempt() {
+        ConnectionAttempt attempt;
+        synchronized (this) {
+            if (decided) {
+                return;
+            }
+
+            if (!addressIterator.hasNext()) {
+                if (pendingAttempts.isEmpty()) {
+                    // All attempts failed.
+                    decided = true;
+                    connectionException = EndpointConnectionException.from(lookupFailures, connectionExceptions);
+                    notifyAll();
+                }
+                return;
+            }
+
+            attempt = new ConnectionAttempt(addressIterator.next());
+            pendingAttempts.add(attempt);
+
+            final long now = System.currentTimeMillis();
+            deadline = now + attemptTimeoutMillis;
+
+            if (connectionAttemptDelayMillis >= 0 && addressIterator.hasNext()) {
+                nextAttemptTime = now + connectionAttemptDelayMillis;
+            } else {
+                nextAttemptTime = Long.MAX_VALUE;
+            }
+        }
+
         TcpHostEvent.ConnectingToHostEvent connectingToHostEvent = new TcpHostEvent.ConnectingToHostEvent(
-                        establishingTcpConnectionState, address);
-        connectionInternal.invokeConnectionStateMachineListener(connectingToHostEvent);
+                        establishingTcpConnectionState, attempt.address);
+        environment.invokeConnectionStateMachineListener(connectingToHostEvent);
 
-        final InetSocketAddress inetSocketAddress = address.getInetSocketAddress();
-        // TODO: Should use "connect timeout" instead of reply timeout. But first connect timeout needs to be moved from
-        // XMPPTCPConnectionConfiguration. into XMPPConnectionConfiguration.
-        deadline = System.currentTimeMillis() + connectionInternal.connection.getReplyTimeout();
+        final InetSocketAddress inetSocketAddress = attempt.address.getInetSocketAddress();
+        boolean connectedImmediately;
         try {
-            connected = socketChannel.connect(inetSocketAddress);
+            SocketChannel socketChannel = SocketChannel.open();
+            synchronized (this) {
+                if (decided) {
+                    // The race was decided while we opened the channel.
+                    socketChannel.close();
+                    return;
+                }
+                attempt.socketChannel = socketChannel;
+            }
+            socketChannel.configureBlocking(false);
+            connectedImmediately = socketChannel.connect(inetSocketAddress);
         } catch (IOException e) {
-            onIOExceptionWhenEstablishingTcpConnection(e, address);
+            onAttemptFailed(attempt, e);
             return;
         }
 
-        if (connected) {
-            TcpHostEvent.ConnectedToHostEvent connectedToHostEvent = new TcpHostEvent.ConnectedToHostEvent(
-                            establishingTcpConnectionState, address, true);
-            connectionInternal.invokeConnectionStateMachineListener(connectedToHostEvent);
-
-            synchronized (this) {
-                notifyAll();
-            }
+        if (connectedImmediately) {
+            onAttemptSucceeded(attempt, true);
             return;
         }
 
         try {
-            connectionInternal.registerWithSelector(socketChannel, SelectionKey.OP_CONNECT,
+            environment.registerWithSelector(attempt.socketChannel, SelectionKey.OP_CONNECT,
                     (selectedChannel, selectedSelectionKey) -> {
                         SocketChannel selectedSocketChannel = (SocketChannel) selectedChannel;
 
@@ -131,66 +282,136 @@ public final class ConnectionAttemptState {
                         try {
                             finishConnected = selectedSocketChannel.finishConnect();
                         } catch (IOException e) {
-                            Async.go(() -> onIOExceptionWhenEstablishingTcpConnection(e, address));
+                            Async.go(() -> onAttemptFailed(attempt, e));
                             return;
                         }
 
                         if (!finishConnected) {
-                            Async.go(() -> onIOExceptionWhenEstablishingTcpConnection(new IOException("finishConnect() failed"), address));
+                            Async.go(() -> onAttemptFailed(attempt, new IOException("finishConnect() failed")));
                             return;
                         }
 
-                        TcpHostEvent.ConnectedToHostEvent connectedToHostEvent = new TcpHostEvent.ConnectedToHostEvent(
-                                        establishingTcpConnectionState, address, false);
-                        connectionInternal.invokeConnectionStateMachineListener(connectedToHostEvent);
-
-                        connected = true;
-                        synchronized (ConnectionAttemptState.this) {
-                            notifyAll();
-                        }
+                        onAttemptSucceeded(attempt, false);
                     });
         } catch (ClosedChannelException e) {
-            onIOExceptionWhenEstablishingTcpConnection(e, address);
+            onAttemptFailed(attempt, e);
         }
     }
 
-    private void onIOExceptionWhenEstablishingTcpConnection(IOException exception,
-                    RemoteConnectionEndpoint.InetSocketAddressCoupling<Rfc6120TcpRemoteConnectionEndpoint> failedAddress) {
-        RemoteConnectionEndpoint.InetSocketAddressCoupling<Rfc6120TcpRemoteConnectionEndpoint> nextInetSocketAddress = nextAddress();
-        if (nextInetSocketAddress == null) {
-            connectionException = EndpointConnectionException.from(
-                            discoveredEndpoints.result.lookupFailures, connectionExceptions);
-            synchronized (this) {
-                notifyAll();
+    private void onAttemptSucceeded(ConnectionAttempt attempt, boolean immediately) {
+        synchronized (this) {
+            if (decided) {
+                // Another attempt won the race, or we gave up.
+                CloseableUtil.maybeClose(attempt.socketChannel);
+                return;
             }
-            return;
+            decided = true;
+            pendingAttempts.remove(attempt);
         }
 
-        RemoteConnectionException<Rfc6120TcpRemoteConnectionEndpoint> rce = new RemoteConnectionException<>(
-                        failedAddress, exception);
-        connectionExceptions.add(rce);
+        TcpHostEvent.ConnectedToHostEvent connectedToHostEvent = new TcpHostEvent.ConnectedToHostEvent(
+                        establishingTcpConnectionState, attempt.address, immediately);
+        environment.invokeConnectionStateMachineListener(connectedToHostEvent);
+
+        cancelPendingAttempts();
+
+        synchronized (this) {
+            if (abandoned) {
+                // The deadline passed, or the waiting thread got interrupted, while this attempt won the race.
+                CloseableUtil.maybeClose(attempt.socketChannel);
+                return;
+            }
+            socketChannel = attempt.socketChannel;
+            connected = true;
+            notifyAll();
+        }
+    }
+
+    private void onAttemptFailed(ConnectionAttempt attempt, IOException exception) {
+        CloseableUtil.maybeClose(attempt.socketChannel);
+
+        synchronized (this) {
+            if (decided || !pendingAttempts.remove(attempt)) {
+                // The attempt was cancelled.
+                return;
+            }
+            connectionExceptions.add(new RemoteConnectionException<>(attempt.address, exception));
+        }
 
         TcpHostEvent.ConnectionToHostFailedEvent connectionToHostFailedEvent = new TcpHostEvent.ConnectionToHostFailedEvent(
-                        establishingTcpConnectionState, nextInetSocketAddress, exception);
-        connectionInternal.invokeConnectionStateMachineListener(connectionToHostFailedEvent);
+                        establishingTcpConnectionState, attempt.address, exception);
+        environment.invokeConnectionStateMachineListener(connectionToHostFailedEvent);
 
-        establishTcpConnection(nextInetSocketAddress);
+        startNextAttempt();
     }
 
-    private RemoteConnectionEndpoint.InetSocketAddressCoupling<Rfc6120TcpRemoteConnectionEndpoint> nextAddress() {
-        if (inetAddressIterator == null || !inetAddressIterator.hasNext()) {
-            if (!connectionEndpointIterator.hasNext()) {
-                return null;
+    private void cancelPendingAttempts() {
+        List<ConnectionAttempt> cancelledAttempts;
+        synchronized (this) {
+            assert decided;
+            cancelledAttempts = new ArrayList<>(pendingAttempts);
+            pendingAttempts.clear();
+        }
+
+        for (ConnectionAttempt cancelledAttempt : cancelledAttempts) {
+            SocketChannel cancelledSocketChannel;
+            synchronized (this) {
+                cancelledSocketChannel = cancelledAttempt.socketChannel;
             }
+            CloseableUtil.maybeClose(cancelledSocketChannel);
 
-            connectionEndpoint = connectionEndpointIterator.next();
-            inetAddressIterator = connectionEndpoint.getInetAddresses().iterator();
-            // Every valid connection addresspoint must have a non-empty collection of inet addresses.
-            assert inetAddressIterator.hasNext();
+            TcpHostEvent.ConnectionToHostCancelledEvent connectionToHostCancelledEvent = new TcpHostEvent.ConnectionToHostCancelledEvent(
+                            establishingTcpConnectionState, cancelledAttempt.address);
+            environment.invokeConnectionStateMachineListener(connectionToHostCancelledEvent);
         }
+    }
 
-        InetAddress inetAddress = inetAddressIterator.next();
+    /**
+     * Order the addresses of the given endpoints. The order of the endpoints is retained, but the addresses of every
+     * endpoint are interleaved by address family, starting with the family of the first address, as described in RFC
+     * 8305 section 4.
+     *
+     * @param endpoints the endpoints.
+     * @return the ordered addresses.
+     */
+    static List<RemoteConnectionEndpoint.InetSocketAddressCoupling<Rfc6120TcpRemoteConnectionEndpoint>> orderAddresses(
+                    List<Rfc6120TcpRemoteConnectionEndpoint> endpoints) {
+        List<RemoteConnectionEndpoint.InetSocketAddressCoupling<Rfc6120TcpRemoteConnectionEndpoint>> addresses = new ArrayList<>();
+        for (Rfc6120TcpRemoteConnectionEndpoint endpoint : endpoints) {
+            for (InetAddress inetAddress : interleaveAddressFamilies(endpoint.getInetAddresses())) {
+                addresses.add(new RemoteConnectionEndpoint.InetSocketAddressCoupling<>(endpoint, inetAddress));
+            }
+        }
+        return addresses;
+    }
+
+    static List<InetAddress> interleaveAddressFamilies(Iterable<? extends InetAddress> inetAddresses) {
+        List<InetAddress> firstFamily = new ArrayList<>();
+        List<InetAddress> otherFamily = new ArrayList<>();
+        Boolean firstFamilyIsIpv6 = null;
+        for (InetAddress inetAddress : inetAddresses) {
+            boolean isIpv6 = inetAddress instanceof Inet6Address;
+            if (firstFamilyIsIpv6 == null) {
+                firstFamilyIsIpv6 = isIpv6;
+            }
+            if (isIpv6 == firstFamilyIsIpv6) {
+                firstFamily.add(inetAddress);
+            } else {
+                otherFamily.add(inetAddress);
+            }
+        }
 
-        return new RemoteConnectionEndpoint.InetSocketAddressCoupling<>(connectionEndpoint, inetAddress);
+        List<InetAddress> interleaved = new ArrayList<>(firstFamily.size() + otherFamily.size());
+        Iterator<InetAddress> firstFamilyIterator = firstFamily.iterator();
+        Iterator<InetAddress> otherFamilyIterator = otherFamily.iterator();
+        while (firstFamilyIterator.hasNext() || otherFamilyIterator.hasNext()) {
+            if (firstFamilyIterator.hasNext()) {
+                interleaved.add(firstFamilyIterator.next());
+            }
+            if (otherFamilyIterator.hasNext()) {
+                interleaved.add(otherFamilyIterator.next());
+            }
+        }
+        return interleaved;
     }
 }
@@ -76,4 +76,15 @@ public abstract class TcpHostEvent extends DetailedTransitionIntoInformation {
             return super.toString() + ioException;
         }
     }
+
+    /**
+     * Signals that a pending connection attempt was cancelled, because a parallel attempt succeeded or the connection
+     * establishment was aborted.
+     */
+    public static final class ConnectionToHostCancelledEvent extends TcpHostEvent {
+        ConnectionToHostCancelledEvent(State state,
+                        RemoteConnectionEndpoint.InetSocketAddressCoupling<Rfc6120TcpRemoteConnectionEndpoint> address) {
+            super(state, address);
+        }
+    }
 }
@@ -0,0 +1,168 @@
+/**
+ *
+ * Copyright 2021 Florian Schmaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.tcp;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides if the output of further queued top-level elements is gathered into the currently pending network write,
+ * and counts the resulting writes.
+ * <p>
+ * A batch of elements is started with the first element encoded after the previous flush. Further elements are only
+ * added to the batch while they are already queued, the batch is smaller than the byte budget and the first element of
+ * the batch was encoded less than the microsecond budget ago. The coalescer never waits for further elements, hence it
+ * does not add latency if the traffic is light. A byte budget of zero disables coalescing, i.e. every element is
+ * flushed on its own.
+ * </p>
+ * <p>
+ * Instances of this class are not thread-safe.
+ * </p>
+ *
+ * @since 4.5.0
+ */
+public final class WriteCoalescer {
+
+    /**
+     * The default byte budget, which corresponds to the maximum plaintext length of a single TLS record.
+     */
+    public static final int DEFAULT_MAX_BYTES = 16 * 1024;
+
+    /**
+     * The default microsecond budget.
+     */
+    public static final int DEFAULT_MAX_MICROS = 1000;
+
+    private final int maxBytes;
+    private final long maxNanos;
+
+    private boolean batchStarted;
+    private long batchStartNanos;
+    private long batchBytes;
+
+    private long elements;
+    private long batches;
+    private long writes;
+    private long tlsRecords;
+
+    WriteCoalescer(int maxBytes, int maxMicros) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("Byte budget must not be negative");
+        }
+        if (maxMicros < 0) {
+            throw new IllegalArgumentException("Microsecond budget must not be negative");
+        }
+        this.maxBytes = maxBytes;
+        this.maxNanos = TimeUnit.MICROSECONDS.toNanos(maxMicros);
+    }
+
+    boolean isEnabled() {
+        return maxBytes > 0;
+    }
+
+    int getMaxBytes() {
+        return maxBytes;
+    }
+
+    void onElementEncoded(long elementBytes) {
+        if (!batchStarted) {
+            batchStarted = true;
+            batchStartNanos = System.nanoTime();
+        }
+        batchBytes += elementBytes;
+        elements++;
+    }
+
+    /**
+     * Check if the output of the next queued element may still be added to the current batch.
+     *
+     * @return <code>true</code> if the current batch should not be flushed yet.
+     */
+    boolean mayCoalesce() {
+        if (!isEnabled()) {
+            return false;
+        }
+        if (!batchStarted) {
+            return true;
+        }
+        return batchBytes < maxBytes && System.nanoTime() - batchStartNanos < maxNanos;
+    }
+
+    void onBatchFlushed() {
+        if (!batchStarted) {
+            return;
+        }
+        batchStarted = false;
+        batchBytes = 0;
+        batches++;
+    }
+
+    void onWrite() {
+        writes++;
+    }
+
+    void onTlsRecord() {
+        tlsRecords++;
+    }
+
+    void reset() {
+        batchStarted = false;
+        batchBytes = 0;
+    }
+
+    public Stats getStats() {
+        return new Stats(this);
+    }
+
+    public static final class Stats {
+        public final int maxBytes;
+        public final long maxMicros;
+        public final long elements;
+        public final long batches;
+        public final long writes;
+        public final long tlsRecords;
+        public final double elementsPerBatch;
+        public final double writesPerElement;
+        public final double tlsRecordsPerElement;
+
+        private Stats(WriteCoalescer writeCoalescer) {
+            maxBytes = writeCoalescer.maxBytes;
+            maxMicros = TimeUnit.NANOSECONDS.toMicros(writeCoalescer.maxNanos);
+            elements = writeCoalescer.elements;
+            batches = writeCoalescer.batches;
+            writes = writeCoalescer.writes;
+            tlsRecords = writeCoalescer.tlsRecords;
+            elementsPerBatch = (double) elements / batches;
+            writesPerElement = (double) writes / elements;
+            tlsRecordsPerElement = (double) tlsRecords / elements;
+        }
+
+        @Override
+        public String toString() {
+            return
+              "max-bytes: " + maxBytes + '\n'
+            + "max-micros: " + maxMicros + '\n'
+            + "elements: " + elements + '\n'
+            + "batches: " + batches + '\n'
+            + "writes: " + writes + '\n'
+            + "tls-records: " + tlsRecords + '\n'
+            + "elements-per-batch: " + elementsPerBatch + '\n'
+            + "writes-per-element: " + writesPerElement + '\n'
+            + "tls-records-per-element: " + tlsRecordsPerElement + '\n'
+            ;
+        }
+    }
+}
@@ -26,9 +26,11 @@ import java.io.Writer;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.ByteBuffer;
 import java.security.cert.CertificateException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
@@ -41,6 +43,7 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -53,6 +56,7 @@ import org.jivesoftware.smack.AbstractXMPPConnection;
 import org.jivesoftware.smack.ConnectionConfiguration;
 import org.jivesoftware.smack.ConnectionConfiguration.SecurityMode;
 import org.jivesoftware.smack.ConnectionListener;
+import org.jivesoftware.smack.ScheduledAction;
 import org.jivesoftware.smack.SmackConfiguration;
 import org.jivesoftware.smack.SmackException;
 import org.jivesoftware.smack.SmackException.AlreadyConnectedException;
@@ -75,6 +79,8 @@ import org.jivesoftware.smack.compression.XMPPInputOutputStream;
 import org.jivesoftware.smack.datatypes.UInt16;
 import org.jivesoftware.smack.filter.StanzaFilter;
 import org.jivesoftware.smack.internal.SmackTlsContext;
+import org.jivesoftware.smack.metrics.SmackMetrics;
+import org.jivesoftware.smack.metrics.SmackTracer;
 import org.jivesoftware.smack.packet.Element;
 import org.jivesoftware.smack.packet.IQ;
 import org.jivesoftware.smack.packet.Message;
@@ -84,8 +90,11 @@ import org.jivesoftware.smack.packet.Stanza;
 import org.jivesoftware.smack.packet.StartTls;
 import org.jivesoftware.smack.packet.StreamError;
 import org.jivesoftware.smack.packet.StreamOpen;
+import org.jivesoftware.smack.parsing.SmackParsingException;
 import org.jivesoftware.smack.proxy.ProxyInfo;
 import org.jivesoftware.smack.sasl.packet.SaslNonza;
+import org.jivesoftware.smack.sm.AdaptiveAckRequestPolicy;
+import org.jivesoftware.smack.sm.OutboundStanzaSpool;
 import org.jivesoftware.smack.sm.SMUtils;
 import org.jivesoftware.smack.sm.StreamManagementException;
 import org.jivesoftware.smack.sm.StreamManagementException.StreamIdDoesNotMatchException;
@@ -106,10 +115,12 @@ import org.jivesoftware.smack.tcp.rce.RemoteXmppTcpConnectionEndpoints;
 import org.jivesoftware.smack.tcp.rce.Rfc6120TcpRemoteConnectionEndpoint;
 import org.jivesoftware.smack.util.ArrayBlockingQueueWithShutdown;
 import org.jivesoftware.smack.util.Async;
+import org.jivesoftware.smack.util.ByteBufferPool;
 import org.jivesoftware.smack.util.CloseableUtil;
 import org.jivesoftware.smack.util.PacketParserUtils;
 import org.jivesoftware.smack.util.StringUtils;
 import org.jivesoftware.smack.util.TLSUtils;
+import org.jivesoftware.smack.util.Utf8XmlEncoder;
 import org.jivesoftware.smack.util.XmlStringBuilder;
 import org.jivesoftware.smack.util.rce.RemoteConnectionException;
 import org.jivesoftware.smack.xml.SmackXmlParser;
@@ -145,6 +156,20 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
 
     private SSLSocket secureSocket;
 
+    /**
+     * The output stream of the socket, possibly wrapped by the compression handler.
+     */
+    private OutputStream outputStream;
+
+    /**
+     * The writer created for {@link #outputStream}, before it is possibly wrapped, e.g. by the debugger.
+     */
+    private Writer outputStreamWriter;
+
+    private final WriteCoalescer writeCoalescer;
+
+    private final Utf8XmlEncoder elementXmlEncoder;
+
     /**
      * Protected access level because of unit test purposes
      */
@@ -281,6 +306,38 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
      */
     private final Set<StanzaFilter> requestAckPredicates = new LinkedHashSet<>();
 
+    /**
+     * The policy deciding when Stream Management acknowledgements are requested, in addition to the
+     * {@link #requestAckPredicates}, or <code>null</code>.
+     */
+    private volatile AdaptiveAckRequestPolicy ackRequestPolicy;
+
+    /**
+     * The timer of the {@link #ackRequestPolicy}. Timers scheduled before the connection was shut down are
+     * discarded by incrementing the generation, so that they do not continue as a second timer after a reconnect.
+     */
+    private volatile ScheduledAction ackRequestPolicyTimer;
+
+    private final AtomicInteger ackRequestPolicyTimerGeneration = new AtomicInteger();
+
+    /**
+     * The spool outgoing stanzas are recorded in, or <code>null</code> if outgoing stanzas are not spooled.
+     */
+    private final OutboundStanzaSpool outboundStanzaSpool;
+
+    private final StanzaFilter outboundStanzaSpoolFilter;
+
+    /**
+     * The IDs of the spool records of the spooled stanzas which are not yet acknowledged. We use an identity hash map,
+     * as stanzas are resent as the very same instance, and equal stanzas may be sent multiple times.
+     */
+    private final Map<Stanza, Long> spooledStanzas = new IdentityHashMap<>();
+
+    /**
+     * The spooled stanzas which are resent once the next session is established. Guarded by {@link #spooledStanzas}.
+     */
+    private final List<Stanza> spooledStanzasToReplay = new ArrayList<>();
+
     @SuppressWarnings("HidingField")
     private final XMPPTCPConnectionConfiguration config;
 
@@ -296,6 +353,35 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
     public XMPPTCPConnection(XMPPTCPConnectionConfiguration config) {
         super(config);
         this.config = config;
+
+        writeCoalescer = new WriteCoalescer(config.getWriteCoalescingMaxBytes(), config.getWriteCoalescingMaxMicros());
+        // Size the encoder's buffers so that a coalesced batch, up to the size of a TLS record, is written using a single
+        // write, which SSLSocket turns into a single record.
+        int encoderBufferSize = Math.min(config.getWriteCoalescingMaxBytes(), WriteCoalescer.DEFAULT_MAX_BYTES);
+        encoderBufferSize = Math.max(encoderBufferSize, Utf8XmlEncoder.DEFAULT_BUFFER_SIZE);
+        elementXmlEncoder = new Utf8XmlEncoder(ByteBufferPool.getInstance(), encoderBufferSize);
+
+        outboundStanzaSpool = config.getOutboundStanzaSpool();
+        outboundStanzaSpoolFilter = config.getOutboundStanzaSpoolFilter();
+        if (outboundStanzaSpool != null) {
+            recoverSpooledStanzas();
+            metrics.registerGauge("spooledStanzas", () -> outboundStanzaSpool.getLiveRecordCount());
+        }
+
+        metrics.registerGauge("writerQueueDepth", () -> packetWriter.queue.size());
+        metrics.registerGauge("smUnacknowledgedStanzas", () -> {
+            BlockingQueue<Stanza> unacknowledgedStanzas = this.unacknowledgedStanzas;
+            return unacknowledgedStanzas != null ? unacknowledgedStanzas.size() : 0;
+        });
+        metrics.registerGauge("smUnacknowledgedBytes", () -> {
+            AdaptiveAckRequestPolicy ackRequestPolicy = this.ackRequestPolicy;
+            return ackRequestPolicy != null ? ackRequestPolicy.getUnacknowledgedBytes() : 0;
+        });
+        metrics.registerGauge("smAckRttMicros", () -> {
+            AdaptiveAckRequestPolicy ackRequestPolicy = this.ackRequestPolicy;
+            return ackRequestPolicy != null ? ackRequestPolicy.getSmoothedAckRtt(TimeUnit.MICROSECONDS) : -1;
+        });
+
         addConnectionListener(new ConnectionListener() {
             @Override
             public void connectionClosedOnError(Exception e) {
@@ -398,6 +484,7 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
             waitForConditionOrConnectionException(() -> smResumedSyncPoint == SyncPointState.successful || smResumptionFailed != null, "resume previous stream");
             if (smResumedSyncPoint == SyncPointState.successful) {
                 // We successfully resumed the stream, be done here
+                replaySpooledStanzas();
                 afterSuccessfulLogin(true);
                 return;
             }
@@ -439,7 +526,7 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
             // then this is a non recoverable error and we therefore throw an exception.
             waitForConditionOrThrowConnectionException(() -> smEnabledSyncPoint, "enabling stream mangement");
             synchronized (requestAckPredicates) {
-                if (requestAckPredicates.isEmpty()) {
+                if (requestAckPredicates.isEmpty() && ackRequestPolicy == null) {
                     // Assure that we have at lest one predicate set up that so that we request acks
                     // for the server and eventually flush some stanzas from the unacknowledged
                     // stanza queue
@@ -447,10 +534,16 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
                 }
             }
         }
+        // The spooled stanzas of a previous process, or of a session whose Stream Management state was dropped, are
+        // older than the unacknowledged stanzas of the previous session, hence replay them first.
+        replaySpooledStanzas();
+
         // Inform client about failed resumption if possible, resend stanzas otherwise
         // Process the stanzas synchronously so a client can re-queue them for transmission
         // before it is informed about connection success
         if (!stanzaDroppedListeners.isEmpty()) {
+            // The client takes over the responsibility for the dropped stanzas.
+            releaseSpooledStanzas(previouslyUnackedStanzas);
             for (Stanza stanza : previouslyUnackedStanzas) {
                 for (StanzaListener listener : stanzaDroppedListeners) {
                     try {
@@ -514,6 +607,8 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
             }
         }
 
+        cancelAckRequestPolicyTimer();
+
         LOGGER.finer(packetReader.threadName + " shutdown()");
         packetReader.shutdown();
         LOGGER.finer(packetReader.threadName + " shutdown() returned");
@@ -574,9 +669,25 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
         packetWriter.sendStreamElement(element);
     }
 
+    @Override
+    protected boolean tracesWrittenStanzas() {
+        // The packet writer reports the stanzas once they were encoded and written.
+        return true;
+    }
+
     @Override
     protected void sendStanzaInternal(Stanza packet) throws NotConnectedException, InterruptedException {
-        packetWriter.sendStreamElement(packet);
+        // Record the stanza before it is queued, so that it is not lost if the process terminates while it is queued.
+        final boolean spooled = maybeSpoolStanza(packet);
+        try {
+            packetWriter.sendStreamElement(packet);
+        } catch (NotConnectedException | InterruptedException e) {
+            // The caller is informed that the stanza was not sent, hence it must not be replayed later on.
+            if (spooled) {
+                releaseSpooledStanza(packet);
+            }
+            throw e;
+        }
         if (isSmEnabled()) {
             for (StanzaFilter requestAckPredicate : requestAckPredicates) {
                 if (requestAckPredicate.accept(packet)) {
@@ -691,8 +802,10 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
             is = compressionHandler.getInputStream(is);
             os = compressionHandler.getOutputStream(os);
         }
+        outputStream = os;
         // OutputStreamWriter is already buffered, no need to wrap it into a BufferedWriter
-        writer = new OutputStreamWriter(os, "UTF-8");
+        outputStreamWriter = new OutputStreamWriter(os, "UTF-8");
+        writer = outputStreamWriter;
         reader = new BufferedReader(new InputStreamReader(is, "UTF-8"));
 
         // If debugging is enabled, we open a window and write out all network traffic.
@@ -726,7 +839,15 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
         initReaderAndWriter();
 
         // Proceed to do the handshake
-        sslSocket.startHandshake();
+        SmackTracer.Span span = SmackMetrics.getTracer().connectionPhaseStarted(this,
+                        SmackTracer.ConnectionPhase.tlsHandshake);
+        try {
+            sslSocket.startHandshake();
+        } catch (IOException e) {
+            span.fail(e);
+            throw e;
+        }
+        span.end();
 
         if (smackTlsContext.daneVerifier != null) {
             smackTlsContext.daneVerifier.finish(sslSocket.getSession());
@@ -1060,6 +1181,11 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
                             smEnabledSyncPoint = true;
                             // First, drop the stanzas already handled by the server
                             processHandledCount(resumed.getHandledCount());
+                            // The remaining unacknowledged stanzas are resent and therefore accounted again.
+                            AdaptiveAckRequestPolicy ackRequestPolicy = XMPPTCPConnection.this.ackRequestPolicy;
+                            if (ackRequestPolicy != null) {
+                                ackRequestPolicy.reset();
+                            }
                             // Then re-send what is left in the unacknowledged queue
                             List<Stanza> stanzasToResend = new ArrayList<>(unacknowledgedStanzas.size());
                             unacknowledgedStanzas.drainTo(stanzasToResend);
@@ -1079,6 +1205,15 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
                         case AckAnswer.ELEMENT:
                             AckAnswer ackAnswer = ParseStreamManagement.ackAnswer(parser);
                             processHandledCount(ackAnswer.getHandledCount());
+                            // The stanzas sent while the answered request was outstanding may already exceed the
+                            // budgets of the acknowledgement request policy. The reader must not block on a full
+                            // writer queue, as the writer may itself wait for the reader to drain the unacknowledged
+                            // stanzas. If the request can not be queued, the writer piggybacks it once it flushes.
+                            AdaptiveAckRequestPolicy currentAckRequestPolicy = XMPPTCPConnection.this.ackRequestPolicy;
+                            if (currentAckRequestPolicy != null && currentAckRequestPolicy.requestAckIfDue(System.nanoTime())
+                                            && !packetWriter.queue.offer(AckRequest.INSTANCE)) {
+                                currentAckRequestPolicy.ackRequestNotSent();
+                            }
                             break;
                         case AckRequest.ELEMENT:
                             ParseStreamManagement.ackRequest(parser);
@@ -1303,6 +1438,10 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
         }
 
         private void writePackets() {
+            // Discard encoded data of a previous connection which was not written because of an exception.
+            elementXmlEncoder.reset();
+            writeCoalescer.reset();
+
             try {
                 // Write out packets from the queue.
                 while (!done()) {
@@ -1337,6 +1476,7 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
                         }
                     }
 
+                    final AdaptiveAckRequestPolicy localAckRequestPolicy = ackRequestPolicy;
                     Stanza packet = null;
                     if (element instanceof Stanza) {
                         packet = (Stanza) element;
@@ -1346,27 +1486,53 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
                         // right after it sent 'enabled'. Stanza will be added once
                         // unacknowledgedStanzas is not null.
                         unacknowledgedStanzas = new ArrayBlockingQueue<>(UNACKKNOWLEDGED_STANZAS_QUEUE_SIZE);
+                        if (localAckRequestPolicy != null) {
+                            localAckRequestPolicy.reset();
+                        }
+                    }
+                    else if (element instanceof AckRequest && localAckRequestPolicy != null) {
+                        localAckRequestPolicy.ackRequestSent(System.nanoTime());
+                    }
+                    if (packet != null && outboundStanzaSpool != null) {
+                        awaitSpooledStanzaDurable(packet);
                     }
                     maybeAddToUnacknowledgedStanzas(packet);
 
                     CharSequence elementXml = element.toXML(outgoingStreamXmlEnvironment);
-                    if (elementXml instanceof XmlStringBuilder) {
-                        try {
-                            ((XmlStringBuilder) elementXml).write(writer, outgoingStreamXmlEnvironment);
-                        } catch (NullPointerException npe) {
-                            LOGGER.log(Level.FINE, "NPE in XmlStringBuilder of " + element.getClass() + ": " + element, npe);
-                            throw npe;
-                        }
+                    final long elementBytes;
+                    try {
+                        elementBytes = writeElementXml(elementXml);
+                    } catch (NullPointerException npe) {
+                        LOGGER.log(Level.FINE, "NPE in XmlStringBuilder of " + element.getClass() + ": " + element, npe);
+                        throw npe;
                     }
-                    else {
-                        writer.write(elementXml.toString());
+                    if (packet != null) {
+                        traceStanzaWritten(packet, elementBytes);
                     }
 
-                    if (queue.isEmpty()) {
-                        writer.flush();
+                    if (packet != null && localAckRequestPolicy != null && unacknowledgedStanzas != null
+                                    && localAckRequestPolicy.stanzaSent(elementBytes, System.nanoTime())) {
+                        scheduleAckRequestPolicyTimer(localAckRequestPolicy.getAgeBudgetNanos());
+                    }
+
+                    // Gather further queued elements into the same write, as long as the write coalescing budgets
+                    // permit it. Note that we never wait for further elements here, this is what BundleAndDefer is for.
+                    if (queue.isEmpty() || !writeCoalescer.mayCoalesce()) {
+                        // Piggyback a due acknowledgement request on the elements which are about to be flushed,
+                        // instead of sending it after every stanza of a burst.
+                        if (localAckRequestPolicy != null && isSmEnabled()
+                                        && localAckRequestPolicy.requestAckIfDue(System.nanoTime())) {
+                            writeElementXml(AckRequest.INSTANCE.toXML());
+                        }
+                        flushElementXml();
                     }
                     if (packet != null) {
                         firePacketSendingListeners(packet);
+                        // Without Stream Management, there will be no acknowledgement of the stanza. Writing it to the
+                        // socket is the best we can do in this case.
+                        if (outboundStanzaSpool != null && unacknowledgedStanzas == null) {
+                            releaseSpooledStanza(packet);
+                        }
                     }
                 }
                 if (!instantShutdown) {
@@ -1374,11 +1540,15 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
                     try {
                         while (!queue.isEmpty()) {
                             Element packet = queue.remove();
+                            Stanza stanza = null;
                             if (packet instanceof Stanza) {
-                                Stanza stanza = (Stanza) packet;
+                                stanza = (Stanza) packet;
                                 maybeAddToUnacknowledgedStanzas(stanza);
                             }
-                            writer.write(packet.toXML().toString());
+                            long elementBytes = writeElementXml(packet.toXML());
+                            if (stanza != null) {
+                                traceStanzaWritten(stanza, elementBytes);
+                            }
                         }
                     }
                     catch (Exception e) {
@@ -1389,8 +1559,8 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
 
                     // Close the stream.
                     try {
-                        writer.write("</stream:stream>");
-                        writer.flush();
+                        writeElementXml("</stream:stream>");
+                        flushElementXml();
                     }
                     catch (Exception e) {
                         LOGGER.log(Level.WARNING, "Exception writing closing stream element", e);
@@ -1422,6 +1592,66 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
             }
         }
 
+        /**
+         * Write the XML of an element. If the writer was not wrapped, e.g. by the debugger, then the XML is encoded
+         * directly into pooled byte buffers, which are written to the output stream, instead of going through the
+         * writer.
+         *
+         * @param elementXml the XML of the element.
+         * @return the number of encoded bytes, or, if the writer was wrapped, the number of characters of the element.
+         * @throws IOException if an I/O error occurred.
+         */
+        private long writeElementXml(CharSequence elementXml) throws IOException {
+            final Writer writer = XMPPTCPConnection.this.writer;
+            if (writer != outputStreamWriter) {
+                if (elementXml instanceof XmlStringBuilder) {
+                    ((XmlStringBuilder) elementXml).write(writer, outgoingStreamXmlEnvironment);
+                } else {
+                    writer.write(elementXml.toString());
+                }
+                return elementXml.length();
+            }
+
+            long encodedBytesBefore = elementXmlEncoder.getEncodedBytes();
+            elementXmlEncoder.encode(elementXml, outgoingStreamXmlEnvironment);
+            long encodedBytes = elementXmlEncoder.getEncodedBytes() - encodedBytesBefore;
+            writeCoalescer.onElementEncoded(encodedBytes);
+            writeEncodedBuffers(elementXmlEncoder.drainCompletedBuffers());
+            return encodedBytes;
+        }
+
+        private void traceStanzaWritten(Stanza stanza, long elementBytes) {
+            // If the writer was wrapped, then writeElementXml() only knows the number of characters.
+            long size = XMPPTCPConnection.this.writer == outputStreamWriter ? elementBytes : SmackTracer.SIZE_UNKNOWN;
+            SmackMetrics.getTracer().stanzaWritten(XMPPTCPConnection.this, stanza, size);
+        }
+
+        private void flushElementXml() throws IOException {
+            final Writer writer = XMPPTCPConnection.this.writer;
+            if (writer != outputStreamWriter) {
+                writer.flush();
+                return;
+            }
+
+            writeEncodedBuffers(elementXmlEncoder.drainBuffers());
+            outputStream.flush();
+            writeCoalescer.onBatchFlushed();
+        }
+
+        private void writeEncodedBuffers(List<ByteBuffer> encodedBuffers) throws IOException {
+            for (int i = 0; i < encodedBuffers.size(); i++) {
+                ByteBuffer encodedBuffer = encodedBuffers.get(i);
+                outputStream.write(encodedBuffer.array(), encodedBuffer.arrayOffset() + encodedBuffer.position(),
+                                encodedBuffer.remaining());
+                writeCoalescer.onWrite();
+                // SSLSocket turns every write of at most one record's plaintext length into a single record.
+                if (secureSocket != null && compressionHandler == null) {
+                    writeCoalescer.onTlsRecord();
+                }
+                elementXmlEncoder.recycle(encodedBuffer);
+            }
+        }
+
         private void drainWriterQueueToUnacknowledgedStanzas() {
             List<Element> elements = new ArrayList<>(queue.size());
             queue.drainTo(elements);
@@ -1450,7 +1680,11 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
                 // If the unacknowledgedStanza queue reaching its high water mark, request an new ack
                 // from the server in order to drain it
                 if (unacknowledgedStanzas.size() == UNACKKNOWLEDGED_STANZAS_QUEUE_SIZE_HIGH_WATER_MARK) {
-                    writer.write(AckRequest.INSTANCE.toXML().toString());
+                    writeElementXml(AckRequest.INSTANCE.toXML());
+                    AdaptiveAckRequestPolicy ackRequestPolicy = XMPPTCPConnection.this.ackRequestPolicy;
+                    if (ackRequestPolicy != null) {
+                        ackRequestPolicy.ackRequestSent(System.nanoTime());
+                    }
                 }
 
                 try {
@@ -1567,6 +1801,83 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
         }
     }
 
+    /**
+     * Set the adaptive policy deciding when Stream Management acknowledgement requests are sent to the server.
+     * <p>
+     * The policy is consulted in addition to the {@link #addRequestAckPredicate(StanzaFilter) predicates}. If a policy
+     * is set, then {@link Predicate#forMessagesOrAfter5Stanzas()} is no longer used if no predicate is configured. The
+     * policy should be set before the connection is logged in.
+     * </p>
+     *
+     * @param ackRequestPolicy the policy, or <code>null</code> to remove the policy.
+     * @see AdaptiveAckRequestPolicy
+     * @since 4.5.0
+     */
+    public void setAckRequestPolicy(AdaptiveAckRequestPolicy ackRequestPolicy) {
+        this.ackRequestPolicy = ackRequestPolicy;
+    }
+
+    /**
+     * Get the adaptive policy deciding when Stream Management acknowledgement requests are sent to the server.
+     *
+     * @return the policy, or <code>null</code> if none is set.
+     * @since 4.5.0
+     */
+    public AdaptiveAckRequestPolicy getAckRequestPolicy() {
+        return ackRequestPolicy;
+    }
+
+    int getAckRequestPolicyTimerGeneration() {
+        return ackRequestPolicyTimerGeneration.get();
+    }
+
+    private void scheduleAckRequestPolicyTimer(long delayNanos) {
+        final int generation = ackRequestPolicyTimerGeneration.get();
+        ackRequestPolicyTimer = schedule(() -> onAckRequestPolicyTimer(generation), delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private void cancelAckRequestPolicyTimer() {
+        ackRequestPolicyTimerGeneration.incrementAndGet();
+        ScheduledAction ackRequestPolicyTimer = this.ackRequestPolicyTimer;
+        if (ackRequestPolicyTimer != null) {
+            ackRequestPolicyTimer.cancel();
+        }
+        AdaptiveAckRequestPolicy ackRequestPolicy = this.ackRequestPolicy;
+        if (ackRequestPolicy != null) {
+            ackRequestPolicy.disarmTimer();
+        }
+    }
+
+    void onAckRequestPolicyTimer(int generation) {
+        final AdaptiveAckRequestPolicy ackRequestPolicy = this.ackRequestPolicy;
+        if (ackRequestPolicy == null) {
+            return;
+        }
+        if (generation != ackRequestPolicyTimerGeneration.get()) {
+            // The connection was shut down after the timer was scheduled.
+            return;
+        }
+        // The writer queue is shut down once the connection is lost, while Stream Management stays enabled until the
+        // stream is resumed or a new session is established.
+        if (!isSmEnabled() || packetWriter.queue.isShutdown()) {
+            ackRequestPolicy.disarmTimer();
+            return;
+        }
+
+        // The age budget of the oldest unacknowledged stanza may be exceeded while no further stanzas are sent, hence
+        // the request can not always be piggybacked and is queued instead. This runs on the reactor thread, which must
+        // not block on a full queue. But a full queue is drained by the writer, which piggybacks the request once it
+        // flushes, so it is fine to not send the request here.
+        if (ackRequestPolicy.requestAckIfDue(System.nanoTime()) && !packetWriter.queue.offer(AckRequest.INSTANCE)) {
+            ackRequestPolicy.ackRequestNotSent();
+        }
+
+        long delayNanos = ackRequestPolicy.rearmTimer(System.nanoTime());
+        if (delayNanos >= 0) {
+            scheduleAckRequestPolicyTimer(delayNanos);
+        }
+    }
+
     /**
      * Send an unconditional Stream Management acknowledgement request to the server.
      *
@@ -1788,7 +2099,131 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
         // clientHandledCount and serverHandledCount will be reset on <enable/> and <enabled/>
         // respective. No need to reset them here.
         smSessionId = null;
-        unacknowledgedStanzas = null;
+        BlockingQueue<Stanza> unacknowledgedStanzas = this.unacknowledgedStanzas;
+        this.unacknowledgedStanzas = null;
+
+        // The spooled stanzas among the dropped unacknowledged stanzas are replayed on the next session.
+        if (outboundStanzaSpool != null && unacknowledgedStanzas != null) {
+            synchronized (spooledStanzas) {
+                for (Stanza stanza : unacknowledgedStanzas) {
+                    if (spooledStanzas.containsKey(stanza)) {
+                        spooledStanzasToReplay.add(stanza);
+                    }
+                }
+            }
+        }
+    }
+
+    private void recoverSpooledStanzas() {
+        for (OutboundStanzaSpool.SpoolRecord record : outboundStanzaSpool.takeRecoveredRecords()) {
+            Stanza stanza;
+            try {
+                stanza = PacketParserUtils.parseStanza(record.getXml());
+            } catch (XmlPullParserException | SmackParsingException | IOException | IllegalArgumentException e) {
+                LOGGER.log(Level.WARNING, "Discarding spooled stanza which could not be parsed: " + record.getXml(), e);
+                outboundStanzaSpool.acknowledge(record.getId());
+                continue;
+            }
+            synchronized (spooledStanzas) {
+                spooledStanzas.put(stanza, record.getId());
+                spooledStanzasToReplay.add(stanza);
+            }
+        }
+    }
+
+    /**
+     * Record the given stanza in the outbound stanza spool, if there is one and the stanza matches its filter.
+     *
+     * @param stanza the stanza to spool.
+     * @return true if the stanza was recorded, false if it was not or if it was already recorded before.
+     */
+    private boolean maybeSpoolStanza(Stanza stanza) {
+        if (outboundStanzaSpool == null || !outboundStanzaSpoolFilter.accept(stanza)) {
+            return false;
+        }
+        synchronized (spooledStanzas) {
+            // Resent stanzas are already spooled.
+            if (spooledStanzas.containsKey(stanza)) {
+                return false;
+            }
+        }
+
+        final long recordId;
+        try {
+            recordId = outboundStanzaSpool.append(stanza.toXML());
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not spool outgoing stanza " + stanza, e);
+            return false;
+        }
+        synchronized (spooledStanzas) {
+            spooledStanzas.put(stanza, recordId);
+        }
+        return true;
+    }
+
+    private void awaitSpooledStanzaDurable(Stanza stanza) {
+        Long recordId;
+        synchronized (spooledStanzas) {
+            recordId = spooledStanzas.get(stanza);
+        }
+        if (recordId == null) {
+            return;
+        }
+        try {
+            // All stanzas queued after this one are made durable by the same sync, so this usually only syncs once per
+            // burst of outgoing stanzas.
+            outboundStanzaSpool.awaitDurable(recordId);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not sync outbound stanza spool", e);
+        }
+    }
+
+    private void releaseSpooledStanza(Stanza stanza) {
+        Long recordId;
+        synchronized (spooledStanzas) {
+            recordId = spooledStanzas.remove(stanza);
+        }
+        if (recordId != null) {
+            outboundStanzaSpool.acknowledge(recordId);
+        }
+    }
+
+    private void releaseSpooledStanzas(List<Stanza> stanzas) {
+        if (outboundStanzaSpool == null) {
+            return;
+        }
+        for (int i = 0; i < stanzas.size(); i++) {
+            releaseSpooledStanza(stanzas.get(i));
+        }
+    }
+
+    private void replaySpooledStanzas() throws NotConnectedException, InterruptedException {
+        if (outboundStanzaSpool == null) {
+            return;
+        }
+        final List<Stanza> stanzas;
+        synchronized (spooledStanzas) {
+            if (spooledStanzasToReplay.isEmpty()) {
+                return;
+            }
+            stanzas = new ArrayList<>(spooledStanzasToReplay);
+            spooledStanzasToReplay.clear();
+        }
+
+        LOGGER.fine("Replaying " + stanzas.size() + " spooled stanzas");
+        int replayed = 0;
+        try {
+            for (; replayed < stanzas.size(); replayed++) {
+                sendStanzaInternal(stanzas.get(replayed));
+            }
+        } finally {
+            if (replayed < stanzas.size()) {
+                // Keep the stanzas which were not replayed for the next session.
+                synchronized (spooledStanzas) {
+                    spooledStanzasToReplay.addAll(0, stanzas.subList(replayed, stanzas.size()));
+                }
+            }
+        }
     }
 
     /**
@@ -1823,6 +2258,13 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
             ackedStanzas.add(ackedStanza);
         }
 
+        releaseSpooledStanzas(ackedStanzas);
+
+        AdaptiveAckRequestPolicy ackRequestPolicy = this.ackRequestPolicy;
+        if (ackRequestPolicy != null) {
+            ackRequestPolicy.acknowledged(ackedStanzasCount, System.nanoTime());
+        }
+
         boolean atLeastOneStanzaAcknowledgedListener = false;
         if (!stanzaAcknowledgedListeners.isEmpty()) {
             // If stanzaAcknowledgedListeners is not empty, the we have at least one
@@ -1900,4 +2342,15 @@ public class XMPPTCPConnection extends AbstractXMPPConnection {
         this.bundleAndDeferCallback = bundleAndDeferCallback;
     }
 
+    /**
+     * Get the statistics of the write coalescing of this connection.
+     *
+     * @return the write coalescing statistics.
+     * @see XMPPTCPConnectionConfiguration.Builder#setWriteCoalescing(int, int)
+     * @since 4.5.0
+     */
+    public WriteCoalescer.Stats getWriteCoalescerStats() {
+        return writeCoalescer.getStats();
+    }
+
 }
@@ -1,6 +1,6 @@
 /**
  *
- * Copyright 2014 Florian Schmaus
+ * Copyright 2014-2021 Florian Schmaus
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -17,6 +17,9 @@
 package org.jivesoftware.smack.tcp;
 
 import org.jivesoftware.smack.ConnectionConfiguration;
+import org.jivesoftware.smack.filter.StanzaFilter;
+import org.jivesoftware.smack.filter.StanzaTypeFilter;
+import org.jivesoftware.smack.sm.OutboundStanzaSpool;
 
 /**
  * A connection configuration for XMPP connections over TCP (the common case).
@@ -46,9 +49,21 @@ public final class XMPPTCPConnectionConfiguration extends ConnectionConfiguratio
      */
     private final int connectTimeout;
 
+    private final int writeCoalescingMaxBytes;
+
+    private final int writeCoalescingMaxMicros;
+
+    private final OutboundStanzaSpool outboundStanzaSpool;
+
+    private final StanzaFilter outboundStanzaSpoolFilter;
+
     private XMPPTCPConnectionConfiguration(Builder builder) {
         super(builder);
         connectTimeout = builder.connectTimeout;
+        writeCoalescingMaxBytes = builder.writeCoalescingMaxBytes;
+        writeCoalescingMaxMicros = builder.writeCoalescingMaxMicros;
+        outboundStanzaSpool = builder.outboundStanzaSpool;
+        outboundStanzaSpoolFilter = builder.outboundStanzaSpoolFilter;
     }
 
     /**
@@ -60,6 +75,46 @@ public final class XMPPTCPConnectionConfiguration extends ConnectionConfiguratio
         return connectTimeout;
     }
 
+    /**
+     * The maximum number of bytes of queued top-level elements which are coalesced into a single write. Zero if write
+     * coalescing is disabled.
+     *
+     * @return the byte budget of the write coalescing.
+     * @see Builder#setWriteCoalescing(int, int)
+     */
+    public int getWriteCoalescingMaxBytes() {
+        return writeCoalescingMaxBytes;
+    }
+
+    /**
+     * The maximum number of microseconds queued top-level elements are coalesced into a single write.
+     *
+     * @return the microsecond budget of the write coalescing.
+     * @see Builder#setWriteCoalescing(int, int)
+     */
+    public int getWriteCoalescingMaxMicros() {
+        return writeCoalescingMaxMicros;
+    }
+
+    /**
+     * The spool outgoing stanzas are recorded in, or <code>null</code> if outgoing stanzas are not spooled.
+     *
+     * @return the outbound stanza spool or <code>null</code>.
+     * @see Builder#setOutboundStanzaSpool(OutboundStanzaSpool, StanzaFilter)
+     */
+    public OutboundStanzaSpool getOutboundStanzaSpool() {
+        return outboundStanzaSpool;
+    }
+
+    /**
+     * The filter selecting the outgoing stanzas which are recorded in the {@link #getOutboundStanzaSpool() spool}.
+     *
+     * @return the filter of the spooled stanzas.
+     */
+    public StanzaFilter getOutboundStanzaSpoolFilter() {
+        return outboundStanzaSpoolFilter;
+    }
+
     public static Builder builder() {
         return new Builder();
     }
@@ -70,6 +125,10 @@ public final class XMPPTCPConnectionConfiguration extends ConnectionConfiguratio
      */
     public static final class Builder extends ConnectionConfiguration.Builder<Builder, XMPPTCPConnectionConfiguration> {
         private int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+        private int writeCoalescingMaxBytes = WriteCoalescer.DEFAULT_MAX_BYTES;
+        private int writeCoalescingMaxMicros = WriteCoalescer.DEFAULT_MAX_MICROS;
+        private OutboundStanzaSpool outboundStanzaSpool;
+        private StanzaFilter outboundStanzaSpoolFilter = StanzaTypeFilter.MESSAGE;
 
         private Builder() {
         }
@@ -85,6 +144,72 @@ public final class XMPPTCPConnectionConfiguration extends ConnectionConfiguratio
             return this;
         }
 
+        /**
+         * Set the budgets of the write coalescing. While further top-level elements are queued, they are gathered into
+         * a single write to the socket, and hence into a single TLS record, until either the given number of bytes was
+         * gathered or the given number of microseconds elapsed since the first element was written. Coalescing never
+         * waits for further elements, use a {@link BundleAndDeferCallback} for this.
+         *
+         * @param maxBytes the byte budget, or zero to disable coalescing.
+         * @param maxMicros the microsecond budget.
+         * @return a reference to this object.
+         * @see WriteCoalescer
+         */
+        public Builder setWriteCoalescing(int maxBytes, int maxMicros) {
+            if (maxBytes < 0 || maxMicros < 0) {
+                throw new IllegalArgumentException("Write coalescing budgets must not be negative");
+            }
+            this.writeCoalescingMaxBytes = maxBytes;
+            this.writeCoalescingMaxMicros = maxMicros;
+            return this;
+        }
+
+        /**
+         * Disable the write coalescing, i.e. flush every top-level element on its own.
+         *
+         * @return a reference to this object.
+         */
+        public Builder disableWriteCoalescing() {
+            return setWriteCoalescing(0, 0);
+        }
+
+        /**
+         * Record outgoing messages in the given spool, so that they are not lost if the process terminates before the
+         * server acknowledged them.
+         *
+         * @param outboundStanzaSpool the spool, or <code>null</code> to disable spooling.
+         * @return a reference to this object.
+         * @see #setOutboundStanzaSpool(OutboundStanzaSpool, StanzaFilter)
+         */
+        public Builder setOutboundStanzaSpool(OutboundStanzaSpool outboundStanzaSpool) {
+            return setOutboundStanzaSpool(outboundStanzaSpool, StanzaTypeFilter.MESSAGE);
+        }
+
+        /**
+         * Record the outgoing stanzas matching the given filter in the given spool. A stanza is recorded before it is
+         * sent and removed from the spool once the server acknowledged it via Stream Management, or, if Stream
+         * Management is not used, once it was written to the socket. The stanzas which are still in the spool when the
+         * process terminates, or when Stream Management state is dropped, are resent on the next successfully
+         * established session. A spool must only be used by a single connection.
+         * <p>
+         * Note that stanzas may be sent more than once, for example if the server acknowledgement got lost. Recipients
+         * can detect duplicates using the stanza ID.
+         * </p>
+         *
+         * @param outboundStanzaSpool the spool, or <code>null</code> to disable spooling.
+         * @param spooledStanzas the filter selecting the stanzas to spool.
+         * @return a reference to this object.
+         * @see OutboundStanzaSpool
+         */
+        public Builder setOutboundStanzaSpool(OutboundStanzaSpool outboundStanzaSpool, StanzaFilter spooledStanzas) {
+            if (spooledStanzas == null) {
+                throw new IllegalArgumentException("The filter of the spooled stanzas must not be null");
+            }
+            this.outboundStanzaSpool = outboundStanzaSpool;
+            this.outboundStanzaSpoolFilter = spooledStanzas;
+            return this;
+        }
+
         @Override
         protected Builder getThis() {
             return this;
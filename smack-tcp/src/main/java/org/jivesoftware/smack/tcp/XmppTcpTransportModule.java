@@ -25,11 +25,10 @@ import java.nio.channels.SelectableChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
 import java.security.cert.CertificateException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.IdentityHashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
@@ -59,6 +58,7 @@ import org.jivesoftware.smack.c2s.ModularXmppClientToServerConnection.LookupRemo
 import org.jivesoftware.smack.c2s.ModularXmppClientToServerConnectionModule;
 import org.jivesoftware.smack.c2s.StreamOpenAndCloseFactory;
 import org.jivesoftware.smack.c2s.XmppClientToServerTransport;
+import org.jivesoftware.smack.c2s.internal.IncomingStreamParser;
 import org.jivesoftware.smack.c2s.internal.ModularXmppClientToServerConnectionInternal;
 import org.jivesoftware.smack.c2s.internal.WalkStateGraphContext;
 import org.jivesoftware.smack.debugger.SmackDebugger;
@@ -66,6 +66,9 @@ import org.jivesoftware.smack.fsm.State;
 import org.jivesoftware.smack.fsm.StateDescriptor;
 import org.jivesoftware.smack.fsm.StateTransitionResult;
 import org.jivesoftware.smack.internal.SmackTlsContext;
+import org.jivesoftware.smack.metrics.ConnectionMetrics;
+import org.jivesoftware.smack.metrics.SmackMetrics;
+import org.jivesoftware.smack.metrics.SmackTracer;
 import org.jivesoftware.smack.packet.Stanza;
 import org.jivesoftware.smack.packet.StartTls;
 import org.jivesoftware.smack.packet.StreamClose;
@@ -78,11 +81,14 @@ import org.jivesoftware.smack.tcp.XmppTcpTransportModule.XmppTcpNioTransport.Dis
 import org.jivesoftware.smack.tcp.rce.RemoteXmppTcpConnectionEndpoints;
 import org.jivesoftware.smack.tcp.rce.RemoteXmppTcpConnectionEndpoints.Result;
 import org.jivesoftware.smack.tcp.rce.Rfc6120TcpRemoteConnectionEndpoint;
+import org.jivesoftware.smack.util.ByteBufferPool;
 import org.jivesoftware.smack.util.CollectionUtil;
 import org.jivesoftware.smack.util.StringUtils;
-import org.jivesoftware.smack.util.UTF8;
+import org.jivesoftware.smack.util.Utf8XmlEncoder;
 import org.jivesoftware.smack.util.XmlStringBuilder;
 import org.jivesoftware.smack.util.rce.RemoteConnectionEndpointLookupFailure;
+import org.jivesoftware.smack.xml.XmlPullParser;
+import org.jivesoftware.smack.xml.XmlPullParserException;
 
 import org.jxmpp.jid.DomainBareJid;
 import org.jxmpp.jid.Jid;
@@ -111,7 +117,20 @@ public class XmppTcpTransportModule extends ModularXmppClientToServerConnectionM
 
     private TlsState tlsState;
 
-    private Iterator<CharSequence> outgoingCharSequenceIterator;
+    private final Utf8XmlEncoder outgoingElementEncoder = new Utf8XmlEncoder();
+
+    /**
+     * The encoded buffers of the currently outgoing element, which have not yet been passed to the filters.
+     */
+    private final ArrayDeque<ByteBuffer> outgoingEncodedBuffers = new ArrayDeque<>();
+
+    /**
+     * The encoded buffers passed to the filters, or to the socket channel, whose content is not yet consumed. Since
+     * the content of the buffers is consumed in order, they are recycled once the head of the deque is consumed.
+     */
+    private final ArrayDeque<ByteBuffer> lentEncodedBuffers = new ArrayDeque<>();
+
+    private static final int MAX_LENT_ENCODED_BUFFERS = 64;
 
     private final List<TopLevelStreamElement> currentlyOutgoingElements = new ArrayList<>();
     private final IdentityHashMap<ByteBuffer, List<TopLevelStreamElement>> bufferToElementMap = new IdentityHashMap<>();
@@ -119,10 +138,27 @@ public class XmppTcpTransportModule extends ModularXmppClientToServerConnectionM
     private ByteBuffer outgoingBuffer;
     private ByteBuffer filteredOutgoingBuffer;
     private final List<ByteBuffer> networkOutgoingBuffers = new ArrayList<>();
+    private ByteBuffer[] networkOutgoingBuffersArray = new ByteBuffer[8];
     private long networkOutgoingBuffersBytes;
 
+    private final WriteCoalescer writeCoalescer;
+
+    /**
+     * If the network outgoing buffers are not yet written, since the output of further queued elements is gathered
+     * into the same write.
+     */
+    private boolean coalescingNetworkWrite;
+
     // TODO: Make the size of the incomingBuffer configurable.
-    private final ByteBuffer incomingBuffer = ByteBuffer.allocateDirect(2 * 4096);
+    private static final int INCOMING_BUFFER_SIZE = 2 * 4096;
+
+    private final ByteBufferPool bufferPool = ByteBufferPool.getInstance();
+
+    /**
+     * The buffer the socket channel is read into. It is borrowed from the buffer pool for the duration of a channel
+     * selected callback, so that idle connections do not hold it.
+     */
+    private ByteBuffer incomingBuffer;
 
     private final ReentrantLock channelSelectedCallbackLock = new ReentrantLock();
 
@@ -141,6 +177,9 @@ public class XmppTcpTransportModule extends ModularXmppClientToServerConnectionM
     private final AtomicLong reactorThreadAlreadyRacing = new AtomicLong();
     private final AtomicLong afterOutgoingElementsQueueModifiedSetInterestOps = new AtomicLong();
     private final AtomicLong rejectedChannelSelectedCallbacks = new AtomicLong();
+    // Reading is paused and resumed by the threads invoking the stanza listeners, not only by the reactor thread.
+    private final AtomicLong readPauses = new AtomicLong();
+    private final AtomicLong readResumes = new AtomicLong();
 
     private Jid lastDestinationAddress;
 
@@ -149,6 +188,11 @@ public class XmppTcpTransportModule extends ModularXmppClientToServerConnectionM
 
     private boolean pendingWriteInterestAfterRead;
 
+    /**
+     * If reading from the socket is paused due to inbound flow control.
+     */
+    private volatile boolean readingPaused;
+
     /**
      * Note that this field is effective final, but due to https://stackoverflow.com/q/30360824/194894 we have to declare it non-final.
      */
@@ -166,6 +210,9 @@ public class XmppTcpTransportModule extends ModularXmppClientToServerConnectionM
 
         tcpNioTransport = new XmppTcpNioTransport(connectionInternal);
 
+        writeCoalescer = new WriteCoalescer(moduleDescriptor.getWriteCoalescingMaxBytes(),
+                        moduleDescriptor.getWriteCoalescingMaxMicros());
+
         XmlPrinter incomingDebugPrettyPrinter = null;
         final SmackDebugger debugger = connectionInternal.smackDebugger;
         if (debugger != null) {
@@ -186,19 +233,27 @@ public class XmppTcpTransportModule extends ModularXmppClientToServerConnectionM
         splitter = new Utf8ByteXmppXmlSplitter(xmppXmlSplitter);
     }
 
+    /**
+     * The parser for the incoming stream. The splitter feeds the complete top-level elements into it, so that every
+     * element is parsed by one long-lived parser, instead of wrapping it into the stream open and close tags and
+     * creating a new parser for the resulting String.
+     */
+    private final IncomingStreamParser incomingStreamParser = new IncomingStreamParser();
+
     private final XmppElementCallback xmppElementCallback = new XmppElementCallback() {
-        private String streamOpen;
-        private String streamClose;
 
         @Override
         public void onCompleteElement(String completeElement) {
-            assert streamOpen != null;
-            assert streamClose != null;
-
             connectionInternal.withSmackDebugger(debugger -> debugger.onIncomingElementCompleted());
 
-            String wrappedCompleteElement = streamOpen + completeElement + streamClose;
-            connectionInternal.parseAndProcessElement(wrappedCompleteElement);
+            XmlPullParser parser;
+            try {
+                parser = incomingStreamParser.nextTopLevelElement(completeElement);
+            } catch (XmlPullParserException | IOException e) {
+                connectionInternal.notifyConnectionError(e);
+                return;
+            }
+            connectionInternal.parseAndProcessElement(parser, completeElement.length());
         }
 
 
@@ -210,19 +265,13 @@ public class XmppTcpTransportModule extends ModularXmppClientToServerConnectionM
             }
 
             final String prefixXmlns = "xmlns:" + prefix;
-            // TODO: Use the return value of onStreamOpen(), which now returns the
-            // corresponding stream close tag, instead of creating it here.
-            final StringBuilder streamClose = new StringBuilder(32);
             final StringBuilder streamOpen = new StringBuilder(256);
 
             streamOpen.append('<');
-            streamClose.append("</");
             if (StringUtils.isNotEmpty(prefix)) {
                 streamOpen.append(prefix).append(':');
-                streamClose.append(prefix).append(':');
             }
             streamOpen.append("stream");
-            streamClose.append("stream>");
             for (Map.Entry<String, String> entry : attributes.entrySet()) {
                 String attributeName = entry.getKey();
                 String attributeValue = entry.getValue();
@@ -249,10 +298,14 @@ public class XmppTcpTransportModule extends ModularXmppClientToServerConnectionM
             }
             streamOpen.append('>');
 
-            this.streamOpen = streamOpen.toString();
-            this.streamClose = streamClose.toString();
-
-            connectionInternal.onStreamOpen(this.streamOpen);
+            XmlPullParser parser;
+            try {
+                parser = incomingStreamParser.streamOpened(streamOpen.toString());
+            } catch (XmlPullParserException | IOException e) {
+                connectionInternal.notifyConnectionError(e);
+                return;
+            }
+            connectionInternal.onStreamOpen(parser);
         }
 
         @Override
@@ -261,15 +314,18 @@ public class XmppTcpTransportModule extends ModularXmppClientToServerConnectionM
                 LOGGER.log(STREAM_OPEN_CLOSE_DEBUG_LOG_LEVEL, "Stream of " + this + " closed");
             }
 
-           connectionInternal.onStreamClosed();
+            incomingStreamParser.streamClosed();
+
+            connectionInternal.onStreamClosed();
         }
     };
 
     private void onChannelSelected(SelectableChannel selectedChannel, SelectionKey selectedSelectionKey) {
         assert selectionKey == null || selectionKey == selectedSelectionKey;
         SocketChannel selectedSocketChannel = (SocketChannel) selectedChannel;
-        // We are *always* interested in OP_READ.
-        int newInterestedOps = SelectionKey.OP_READ;
+        // Note that we are always interested in OP_READ, unless reading is paused. This is taken care of at the end of
+        // this method.
+        int newInterestedOps = 0;
         boolean newPendingOutputFilterData = false;
 
         if (!channelSelectedCallbackLock.tryLock()) {
@@ -286,26 +342,39 @@ public class XmppTcpTransportModule extends ModularXmppClientToServerConnectionM
             boolean destinationAddressChanged = false;
             boolean isLastPartOfElement = false;
             TopLevelStreamElement currentlyOutgonigTopLevelStreamElement = null;
-            StringBuilder outgoingStreamForDebugger = null;
 
             writeLoop: while (true) {
-                final boolean moreDataAvailable = !isLastPartOfElement || !connectionInternal.outgoingElementsQueue.isEmpty();
+                // Only announce more data to the filters, which causes e.g. TLS to gather it into a single record, if
+                // the next queued element may be coalesced with the current batch.
+                final boolean moreDataAvailable = !isLastPartOfElement
+                                || (!connectionInternal.outgoingElementsQueue.isEmpty() && writeCoalescer.mayCoalesce());
 
-                if (filteredOutgoingBuffer != null || !networkOutgoingBuffers.isEmpty()) {
+                if (filteredOutgoingBuffer != null || (!networkOutgoingBuffers.isEmpty() && !coalescingNetworkWrite)) {
                     if (filteredOutgoingBuffer != null) {
                         networkOutgoingBuffers.add(filteredOutgoingBuffer);
                         networkOutgoingBuffersBytes += filteredOutgoingBuffer.remaining();
 
                         filteredOutgoingBuffer = null;
-                        if (moreDataAvailable && networkOutgoingBuffersBytes < 8096) {
+                        // Gather the output of the next queued element into the same write. Not possible with TLS,
+                        // since it reuses its output buffer, but TLS already gathers the element data itself.
+                        if (moreDataAvailable && tlsState == null
+                                        && networkOutgoingBuffersBytes < writeCoalescer.getMaxBytes()) {
+                            coalescingNetworkWrite = true;
                             continue;
                         }
                     }
+                    coalescingNetworkWrite = false;
 
-                    ByteBuffer[] output = networkOutgoingBuffers.toArray(new ByteBuffer[networkOutgoingBuffers.size()]);
+                    final int networkOutgoingBuffersCount = networkOutgoingBuffers.size();
+                    if (networkOutgoingBuffersArray.length < networkOutgoingBuffersCount) {
+                        networkOutgoingBuffersArray = new ByteBuffer[2 * networkOutgoingBuffersCount];
+                    }
+                    for (int i = 0; i < networkOutgoingBuffersCount; i++) {
+                        networkOutgoingBuffersArray[i] = networkOutgoingBuffers.get(i);
+                    }
                     long bytesWritten;
                     try {
-                        bytesWritten = selectedSocketChannel.write(output);
+                        bytesWritten = selectedSocketChannel.write(networkOutgoingBuffersArray, 0, networkOutgoingBuffersCount);
                     } catch (IOException e) {
                         // We have seen here so far
                         // - IOException "Broken pipe"
@@ -313,19 +382,26 @@ public class XmppTcpTransportModule extends ModularXmppClientToServerConnectionM
                         break;
                     }
 
+                    writeCoalescer.onWrite();
+
                     if (bytesWritten == 0) {
                         newInterestedOps |= SelectionKey.OP_WRITE;
                         break;
                     }
 
+                    writeCoalescer.onBatchFlushed();
                     callbackBytesWritten += bytesWritten;
 
                     networkOutgoingBuffersBytes -= bytesWritten;
 
-                    List<? extends Buffer> prunedBuffers = pruneBufferList(networkOutgoingBuffers);
+                    while (!networkOutgoingBuffers.isEmpty()) {
+                        ByteBuffer networkOutgoingBuffer = networkOutgoingBuffers.get(0);
+                        if (networkOutgoingBuffer.hasRemaining()) {
+                            break;
+                        }
+                        networkOutgoingBuffers.remove(0);
 
-                    for (Buffer prunedBuffer : prunedBuffers) {
-                        List<TopLevelStreamElement> sendElements = bufferToElementMap.remove(prunedBuffer);
+                        List<TopLevelStreamElement> sendElements = bufferToElementMap.remove(networkOutgoingBuffer);
                         if (sendElements == null) {
                             continue;
                         }
@@ -333,6 +409,7 @@ public class XmppTcpTransportModule extends ModularXmppClientToServerConnectionM
                             connectionInternal.fireFirstLevelElementSendListeners(elementJustSend);
                         }
                     }
+                    recycleConsumedEncodedBuffers();
 
                     // Prevent one callback from dominating the reactor thread. Break out of the write-loop if we have
                     // written a certain amount.
@@ -373,6 +450,8 @@ public class XmppTcpTransportModule extends ModularXmppClientToServerConnectionM
                         }
                     }
 
+                    recycleConsumedEncodedBuffers();
+
                     // It is ok if outpuFilterInputData is 'null' here, this is expected behavior.
                     if (outputFilterInputData != null && outputFilterInputData.hasRemaining()) {
                         filteredOutgoingBuffer = outputFilterInputData;
@@ -395,33 +474,10 @@ public class XmppTcpTransportModule extends ModularXmppClientToServerConnectionM
                     if (destinationAddressChanged) {
                         destinationAddressChanged = false;
                     }
-                } else if (outgoingCharSequenceIterator != null) {
-                    CharSequence nextCharSequence = outgoingCharSequenceIterator.next();
-                    outgoingBuffer = UTF8.encode(nextCharSequence);
-                    if (!outgoingCharSequenceIterator.hasNext()) {
-                        outgoingCharSequenceIterator = null;
-                        isLastPartOfElement = true;
-                    } else {
-                        isLastPartOfElement = false;
-                    }
-
-                    final SmackDebugger debugger = connectionInternal.smackDebugger;
-                    if (debugger != null) {
-                        if (outgoingStreamForDebugger == null) {
-                            outgoingStreamForDebugger = new StringBuilder();
-                        }
-                        outgoingStreamForDebugger.append(nextCharSequence);
-
-                        if (isLastPartOfElement) {
-                            try {
-                                outputDebugSplitter.append(outgoingStreamForDebugger);
-                            } catch (IOException e) {
-                                throw new AssertionError(e);
-                            }
-                            debugger.onOutgoingElementCompleted();
-                            outgoingStreamForDebugger = null;
-                        }
-                    }
+                } else if (!outgoingEncodedBuffers.isEmpty()) {
+                    outgoingBuffer = outgoingEncodedBuffers.pollFirst();
+                    lendEncodedBuffer(outgoingBuffer);
+                    isLastPartOfElement = outgoingEncodedBuffers.isEmpty();
                 } else if (!connectionInternal.outgoingElementsQueue.isEmpty()) {
                     currentlyOutgonigTopLevelStreamElement = connectionInternal.outgoingElementsQueue.poll();
                     if (currentlyOutgonigTopLevelStreamElement instanceof Stanza) {
@@ -431,14 +487,34 @@ public class XmppTcpTransportModule extends ModularXmppClientToServerConnectionM
                         lastDestinationAddress = currentDestinationAddress;
                     }
                     CharSequence nextCharSequence = currentlyOutgonigTopLevelStreamElement.toXML(StreamOpen.CLIENT_NAMESPACE);
-                    if (nextCharSequence instanceof XmlStringBuilder) {
-                        XmlStringBuilder xmlStringBuilder = (XmlStringBuilder) nextCharSequence;
-                        XmlEnvironment outgoingStreamXmlEnvironment = connectionInternal.getOutgoingStreamXmlEnvironment();
-                        outgoingCharSequenceIterator = xmlStringBuilder.toList(outgoingStreamXmlEnvironment).iterator();
-                    } else {
-                        outgoingCharSequenceIterator = Collections.singletonList(nextCharSequence).iterator();
+                    XmlEnvironment outgoingStreamXmlEnvironment = connectionInternal.getOutgoingStreamXmlEnvironment();
+                    outgoingElementEncoder.encode(nextCharSequence, outgoingStreamXmlEnvironment);
+                    List<ByteBuffer> encodedBuffers = outgoingElementEncoder.drainBuffers();
+                    long encodedBytes = 0;
+                    for (int i = 0; i < encodedBuffers.size(); i++) {
+                        ByteBuffer encodedBuffer = encodedBuffers.get(i);
+                        encodedBytes += encodedBuffer.remaining();
+                        outgoingEncodedBuffers.addLast(encodedBuffer);
                     }
-                    assert outgoingCharSequenceIterator != null;
+                    writeCoalescer.onElementEncoded(encodedBytes);
+                    assert !outgoingEncodedBuffers.isEmpty();
+
+                    final SmackDebugger debugger = connectionInternal.smackDebugger;
+                    if (debugger != null) {
+                        CharSequence outgoingStreamForDebugger = nextCharSequence;
+                        if (nextCharSequence instanceof XmlStringBuilder) {
+                            outgoingStreamForDebugger = ((XmlStringBuilder) nextCharSequence).toXML(outgoingStreamXmlEnvironment);
+                        }
+                        try {
+                            outputDebugSplitter.append(outgoingStreamForDebugger);
+                        } catch (IOException e) {
+                            throw new AssertionError(e);
+                        }
+                        debugger.onOutgoingElementCompleted();
+                    }
+                } else if (coalescingNetworkWrite) {
+                    // No further output was produced, write what was gathered so far.
+                    coalescingNetworkWrite = false;
                 } else {
                     // There is nothing more to write.
                     break;
@@ -451,6 +527,12 @@ public class XmppTcpTransportModule extends ModularXmppClientToServerConnectionM
             }
 
             readLoop: while (true) {
+                // Stop reading if inbound flow control paused reading. The server will eventually notice the
+                // backpressure via TCP.
+                if (readingPaused) {
+                    break;
+                }
+
                 // Prevent one callback from dominating the reactor thread. Break out of the read-loop if we have
                 // read a certain amount.
                 if (callbackBytesRead > CALLBACK_MAX_BYTES_READ) {
@@ -459,6 +541,9 @@ public class XmppTcpTransportModule extends ModularXmppClientToServerConnectionM
                 }
 
                 int bytesRead;
+                if (incomingBuffer == null) {
+                    incomingBuffer = bufferPool.borrowDirect(INCOMING_BUFFER_SIZE);
+                }
                 incomingBuffer.clear();
                 try {
                     bytesRead = selectedSocketChannel.read(incomingBuffer);
@@ -533,6 +618,12 @@ public class XmppTcpTransportModule extends ModularXmppClientToServerConnectionM
             totalBytesWritten += callbackBytesWritten;
             totalBytesRead += callbackBytesRead;
 
+            ConnectionMetrics metrics = connectionInternal.connection.getMetrics();
+            metrics.bytesSent(callbackBytesWritten);
+            metrics.bytesReceived(callbackBytesRead);
+
+            releaseIdleBuffers(false);
+
             channelSelectedCallbackLock.unlock();
         }
 
@@ -549,9 +640,46 @@ public class XmppTcpTransportModule extends ModularXmppClientToServerConnectionM
             newInterestedOps |= SelectionKey.OP_WRITE;
         }
 
+        // Note that it is important that readingPaused is read after resetReactorThreadRacing() was called, see
+        // setReadingPaused().
+        if (!readingPaused) {
+            newInterestedOps |= SelectionKey.OP_READ;
+        }
+
         connectionInternal.setInterestOps(selectionKey, newInterestedOps);
     }
 
+    /**
+     * Release the buffers borrowed from the buffer pool, which are not needed until the next channel selected callback.
+     * Must be called with the channel selected callback lock held.
+     *
+     * @param connectionClosed if the connection was closed.
+     */
+    private void releaseIdleBuffers(boolean connectionClosed) {
+        if (incomingBuffer != null) {
+            bufferPool.release(incomingBuffer);
+            incomingBuffer = null;
+        }
+
+        final TlsState tlsState = this.tlsState;
+        if (tlsState != null) {
+            tlsState.releaseIdleBuffers(connectionClosed);
+        }
+    }
+
+    @SuppressWarnings("ReferenceEquality")
+    private boolean isPendingNetworkOutput(ByteBuffer buffer) {
+        if (filteredOutgoingBuffer == buffer) {
+            return true;
+        }
+        for (int i = 0; i < networkOutgoingBuffers.size(); i++) {
+            if (networkOutgoingBuffers.get(i) == buffer) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private void handleReadWriteIoException(IOException e) {
         if (e instanceof ClosedChannelException && !tcpNioTransport.isConnected()) {
             // The connection is already closed.
@@ -654,6 +782,11 @@ public class XmppTcpTransportModule extends ModularXmppClientToServerConnectionM
             afterOutgoingElementsQueueModified();
         }
 
+        @Override
+        protected void setReadingPaused(boolean readingPaused) {
+            XmppTcpTransportModule.this.setReadingPaused(readingPaused);
+        }
+
         @Override
         public SSLSession getSslSession() {
             TlsState tlsState = XmppTcpTransportModule.this.tlsState;
@@ -720,6 +853,31 @@ public class XmppTcpTransportModule extends ModularXmppClientToServerConnectionM
         connectionInternal.setInterestOps(selectionKey, SelectionKey.OP_WRITE | SelectionKey.OP_READ);
     }
 
+    private void setReadingPaused(boolean readingPaused) {
+        this.readingPaused = readingPaused;
+        if (readingPaused) {
+            readPauses.incrementAndGet();
+        } else {
+            readResumes.incrementAndGet();
+        }
+
+        final SelectionKey selectionKey = this.selectionKey;
+        if (selectionKey == null) {
+            return;
+        }
+
+        final SelectionKeyAttachment selectionKeyAttachment = this.selectionKeyAttachment;
+        if (selectionKeyAttachment != null && selectionKeyAttachment.isReactorThreadRacing()) {
+            // A reactor thread is already racing to the channel selected callback, which will determine the interest
+            // ops considering the new value of readingPaused.
+            return;
+        }
+
+        // Cause the channel selected callback to be invoked, which determines the new interest ops. Note that
+        // OP_WRITE is sufficient here, since the callback always attempts to read from the channel as well.
+        connectionInternal.setInterestOps(selectionKey, SelectionKey.OP_WRITE);
+    }
+
     @Override
     protected XmppTcpNioTransport getTransport() {
         return tcpNioTransport;
@@ -758,7 +916,7 @@ public class XmppTcpTransportModule extends ModularXmppClientToServerConnectionM
             // The fields inetSocketAddress and failedAddresses are handed over from LookupHostAddresses to
             // ConnectingToHost.
             ConnectionAttemptState connectionAttemptState = new ConnectionAttemptState(connectionInternal, discoveredTcpEndpoints,
-                    this);
+                    this, moduleDescriptor.getConnectionAttemptDelayMillis());
             StateTransitionResult.Failure failure = connectionAttemptState.establishTcpConnection();
             if (failure != null) {
                 return failure;
@@ -868,6 +1026,8 @@ public class XmppTcpTransportModule extends ModularXmppClientToServerConnectionM
 
             SmackTlsContext smackTlsContext = connectionInternal.getSmackTlsContext();
 
+            SmackTracer.Span span = SmackMetrics.getTracer().connectionPhaseStarted(connectionInternal.connection,
+                            SmackTracer.ConnectionPhase.tlsHandshake);
             tlsState = new TlsState(smackTlsContext);
             connectionInternal.addXmppInputOutputFilter(tlsState);
 
@@ -885,8 +1045,13 @@ public class XmppTcpTransportModule extends ModularXmppClientToServerConnectionM
             try {
                 tlsState.waitForHandshakeFinished();
             } catch (CertificateException e) {
+                span.fail(e);
                 throw new SmackCertificateException(e);
+            } catch (Exception e) {
+                span.fail(e);
+                throw e;
             }
+            span.end();
 
             connectionInternal.newStreamOpenWaitForFeaturesSequence("stream features after TLS established");
 
@@ -918,7 +1083,11 @@ public class XmppTcpTransportModule extends ModularXmppClientToServerConnectionM
 
     private final class TlsState implements XmppInputOutputFilter {
 
-        private static final int MAX_PENDING_OUTPUT_BYTES = 8096;
+        /**
+         * The maximum plaintext length of a TLS record. The transport only announces more data, if further elements
+         * may be coalesced, hence gathering more pending output would not reduce the number of records.
+         */
+        private static final int MAX_PENDING_OUTPUT_BYTES = 16 * 1024;
 
         private final SmackTlsContext smackTlsContext;
         private final SSLEngine engine;
@@ -926,7 +1095,15 @@ public class XmppTcpTransportModule extends ModularXmppClientToServerConnectionM
         private TlsHandshakeStatus handshakeStatus = TlsHandshakeStatus.initial;
         private SSLException handshakeException;
 
+        /**
+         * The buffer holding the data produced by wrap(), borrowed from the buffer pool until it was written.
+         */
         private ByteBuffer myNetData;
+
+        /**
+         * The buffer holding the data produced by unwrap(), borrowed from the buffer pool for the duration of a channel
+         * selected callback.
+         */
         private ByteBuffer peerAppData;
 
         private final List<ByteBuffer> pendingOutputData = new ArrayList<>();
@@ -958,13 +1135,21 @@ public class XmppTcpTransportModule extends ModularXmppClientToServerConnectionM
             String peerHost = connectionInternal.connection.getConfiguration().getXMPPServiceDomain().toString();
             engine = smackTlsContext.sslContext.createSSLEngine(peerHost, remoteAddress.getPort());
             engine.setUseClientMode(true);
+        }
 
-            SSLSession session = engine.getSession();
-            int applicationBufferSize = session.getApplicationBufferSize();
-            int packetBufferSize = session.getPacketBufferSize();
-
-            myNetData = ByteBuffer.allocateDirect(packetBufferSize);
-            peerAppData = ByteBuffer.allocate(applicationBufferSize);
+        private void releaseIdleBuffers(boolean connectionClosed) {
+            if (peerAppData != null) {
+                bufferPool.release(peerAppData);
+                peerAppData = null;
+            }
+            if (myNetData != null && !isPendingNetworkOutput(myNetData)) {
+                bufferPool.release(myNetData);
+                myNetData = null;
+            }
+            if (connectionClosed && pendingInputData != null) {
+                bufferPool.release(pendingInputData);
+                pendingInputData = null;
+            }
         }
 
         @Override
@@ -980,6 +1165,9 @@ public class XmppTcpTransportModule extends ModularXmppClientToServerConnectionM
 
             ByteBuffer[] outputDataArray = pendingOutputData.toArray(new ByteBuffer[pendingOutputData.size()]);
 
+            if (myNetData == null) {
+                myNetData = bufferPool.borrowDirect(engine.getSession().getPacketBufferSize());
+            }
             myNetData.clear();
 
             while (true) {
@@ -1000,6 +1188,9 @@ public class XmppTcpTransportModule extends ModularXmppClientToServerConnectionM
                 if (engineResultStatus == SSLEngineResult.Status.OK) {
                     wrapInBytes += result.bytesConsumed();
                     wrapOutBytes += result.bytesProduced();
+                    if (result.bytesConsumed() > 0) {
+                        writeCoalescer.onTlsRecord();
+                    }
 
                     SSLEngineResult.HandshakeStatus handshakeStatus = handleHandshakeStatus(result);
                     switch (handshakeStatus) {
@@ -1013,6 +1204,8 @@ public class XmppTcpTransportModule extends ModularXmppClientToServerConnectionM
                         case NEED_TASK:
                             // Note that we also set pendingOutputFilterData in the OutputResult in the NEED_TASK case, as
                             // we also want to retry the wrap() operation above in this case.
+                            // Clean up the pending output data, as the caller may reuse buffers once they are consumed.
+                            pruneBufferList(pendingOutputData);
                             return new OutputResult(true, myNetData);
                         default:
                             break;
@@ -1022,7 +1215,7 @@ public class XmppTcpTransportModule extends ModularXmppClientToServerConnectionM
                 switch (engineResultStatus) {
                 case OK:
                     // No need to outputData.compact() here, since we do not reuse the buffer.
-                    // Clean up the pending output data.
+                    // Clean up the pending output data, as the caller may reuse buffers once they are consumed.
                     pruneBufferList(pendingOutputData);
                     return new OutputResult(!pendingOutputData.isEmpty(), myNetData);
                 case CLOSED:
@@ -1036,9 +1229,10 @@ public class XmppTcpTransportModule extends ModularXmppClientToServerConnectionM
                     if (newCapacity <= myNetData.capacity()) {
                         newCapacity = 2 * myNetData.capacity();
                     }
-                    ByteBuffer newMyNetData = ByteBuffer.allocateDirect(newCapacity);
+                    ByteBuffer newMyNetData = bufferPool.borrowDirect(newCapacity);
                     myNetData.flip();
                     newMyNetData.put(myNetData);
+                    bufferPool.release(myNetData);
                     myNetData = newMyNetData;
                     continue;
                 case BUFFER_UNDERFLOW:
@@ -1052,19 +1246,36 @@ public class XmppTcpTransportModule extends ModularXmppClientToServerConnectionM
         @Override
         public ByteBuffer input(ByteBuffer inputData) throws SSLException {
             ByteBuffer accumulatedData;
+            ByteBuffer borrowedAccumulatedData = null;
             if (pendingInputData == null) {
                 accumulatedData = inputData;
             } else {
                 assert pendingInputData != inputData;
 
                 int accumulatedDataBytes = pendingInputData.remaining() + inputData.remaining();
-                accumulatedData = ByteBuffer.allocate(accumulatedDataBytes);
-                accumulatedData.put(pendingInputData)
-                               .put(inputData)
-                               .flip();
+                borrowedAccumulatedData = bufferPool.borrowHeap(accumulatedDataBytes);
+                borrowedAccumulatedData.put(pendingInputData)
+                                       .put(inputData)
+                                       .flip();
+                bufferPool.release(pendingInputData);
                 pendingInputData = null;
+                accumulatedData = borrowedAccumulatedData;
+            }
+
+            try {
+                return unwrap(accumulatedData);
+            } finally {
+                if (borrowedAccumulatedData != null) {
+                    // Remaining data was copied by addAsPendingInputData().
+                    bufferPool.release(borrowedAccumulatedData);
+                }
             }
+        }
 
+        private ByteBuffer unwrap(ByteBuffer accumulatedData) throws SSLException {
+            if (peerAppData == null) {
+                peerAppData = bufferPool.borrowHeap(engine.getSession().getApplicationBufferSize());
+            }
             peerAppData.clear();
 
             while (true) {
@@ -1130,7 +1341,12 @@ public class XmppTcpTransportModule extends ModularXmppClientToServerConnectionM
                 case BUFFER_OVERFLOW:
                     int applicationBufferSize = engine.getSession().getApplicationBufferSize();
                     assert peerAppData.remaining() < applicationBufferSize;
-                    peerAppData = ByteBuffer.allocate(applicationBufferSize);
+                    // Keep the data already unwrapped into peerAppData.
+                    ByteBuffer newPeerAppData = bufferPool.borrowHeap(peerAppData.position() + applicationBufferSize);
+                    peerAppData.flip();
+                    newPeerAppData.put(peerAppData);
+                    bufferPool.release(peerAppData);
+                    peerAppData = newPeerAppData;
                     continue;
                 }
             }
@@ -1140,9 +1356,10 @@ public class XmppTcpTransportModule extends ModularXmppClientToServerConnectionM
             // Note that we can not simply write
             // pendingInputData = byteBuffer;
             // we have to copy the provided byte buffer, because it is possible that this byteBuffer is re-used by some
-            // higher layer. That is, here 'byteBuffer' is typically 'incomingBuffer', which is a direct buffer only
-            // allocated once per connection for performance reasons and hence re-used for read() calls.
-            pendingInputData = ByteBuffer.allocate(byteBuffer.remaining());
+            // higher layer. That is, here 'byteBuffer' is typically 'incomingBuffer', which is a direct buffer borrowed
+            // from the buffer pool and hence re-used for read() calls or released after the channel selected callback.
+            assert pendingInputData == null;
+            pendingInputData = bufferPool.borrowHeap(byteBuffer.remaining());
             pendingInputData.put(byteBuffer).flip();
 
             pendingInputFilterData = pendingInputData.hasRemaining();
@@ -1324,10 +1541,34 @@ public class XmppTcpTransportModule extends ModularXmppClientToServerConnectionM
         this.selectionKey = null;
         this.socketChannel = null;
 
+        // Hand back the borrowed buffers. If a channel selected callback is currently running, then it will release
+        // the idle buffers, and the remaining ones are left to the garbage collector.
+        if (channelSelectedCallbackLock.tryLock()) {
+            try {
+                releaseIdleBuffers(true);
+            } finally {
+                channelSelectedCallbackLock.unlock();
+            }
+        }
+
         selectionKeyAttachment = null;
         remoteAddress = null;
     }
 
+    private void lendEncodedBuffer(ByteBuffer encodedBuffer) {
+        if (lentEncodedBuffers.size() >= MAX_LENT_ENCODED_BUFFERS) {
+            // Some filter does not mark the data it consumed, give up on recycling the oldest buffer.
+            lentEncodedBuffers.pollFirst();
+        }
+        lentEncodedBuffers.addLast(encodedBuffer);
+    }
+
+    private void recycleConsumedEncodedBuffers() {
+        while (!lentEncodedBuffers.isEmpty() && !lentEncodedBuffers.peekFirst().hasRemaining()) {
+            outgoingElementEncoder.recycle(lentEncodedBuffers.pollFirst());
+        }
+    }
+
     private static List<? extends Buffer> pruneBufferList(Collection<? extends Buffer> buffers) {
         return CollectionUtil.removeUntil(buffers, b -> b.hasRemaining());
     }
@@ -1355,6 +1596,12 @@ public class XmppTcpTransportModule extends ModularXmppClientToServerConnectionM
         public final long callbackPreemtBecauseBytesRead;
         public final int sslEngineDelegatedTasks;
         public final int maxPendingSslEngineDelegatedTasks;
+        public final long readPauses;
+        public final long readResumes;
+        public final long directBufferBytes;
+        public final long heapBufferBytes;
+        public final ByteBufferPool.Stats bufferPoolStats;
+        public final WriteCoalescer.Stats writeCoalescerStats;
 
         private Stats(XmppTcpTransportModule connection) {
             totalBytesWritten = connection.totalBytesWritten;
@@ -1379,6 +1626,33 @@ public class XmppTcpTransportModule extends ModularXmppClientToServerConnectionM
 
             sslEngineDelegatedTasks = connection.sslEngineDelegatedTasks;
             maxPendingSslEngineDelegatedTasks = connection.maxPendingSslEngineDelegatedTasks;
+
+            readPauses = connection.readPauses.get();
+            readResumes = connection.readResumes.get();
+
+            List<ByteBuffer> buffers = new ArrayList<>(4);
+            buffers.add(connection.incomingBuffer);
+            TlsState tlsState = connection.tlsState;
+            if (tlsState != null) {
+                buffers.add(tlsState.myNetData);
+                buffers.add(tlsState.peerAppData);
+                buffers.add(tlsState.pendingInputData);
+            }
+            long directBufferBytes = 0, heapBufferBytes = 0;
+            for (ByteBuffer buffer : buffers) {
+                if (buffer == null) {
+                    continue;
+                }
+                if (buffer.isDirect()) {
+                    directBufferBytes += buffer.capacity();
+                } else {
+                    heapBufferBytes += buffer.capacity();
+                }
+            }
+            this.directBufferBytes = directBufferBytes;
+            this.heapBufferBytes = heapBufferBytes;
+            bufferPoolStats = connection.bufferPool.getStats();
+            writeCoalescerStats = connection.writeCoalescer.getStats();
         }
 
         private transient String toStringCache;
@@ -1408,6 +1682,15 @@ public class XmppTcpTransportModule extends ModularXmppClientToServerConnectionM
             + "callback-preemt-because-bytes-written: " + callbackPreemtBecauseBytesWritten + '\n'
             + "ssl-engine-delegated-tasks: " + sslEngineDelegatedTasks + '\n'
             + "max-pending-ssl-engine-delegated-tasks: " + maxPendingSslEngineDelegatedTasks + '\n'
+            + "read-pauses: " + readPauses + '\n'
+            + "read-resumes: " + readResumes + '\n'
+            + "Buffers\n"
+            + "direct-buffer-bytes: " + directBufferBytes + '\n'
+            + "heap-buffer-bytes: " + heapBufferBytes + '\n'
+            + "Buffer pool\n"
+            + bufferPoolStats
+            + "Write coalescing\n"
+            + writeCoalescerStats
             ;
 
             return toStringCache;
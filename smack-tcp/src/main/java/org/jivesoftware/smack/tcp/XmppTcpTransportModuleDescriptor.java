@@ -18,6 +18,7 @@ package org.jivesoftware.smack.tcp;
 
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import org.jivesoftware.smack.c2s.ModularXmppClientToServerConnectionConfiguration;
 import org.jivesoftware.smack.c2s.ModularXmppClientToServerConnectionModuleDescriptor;
@@ -30,10 +31,16 @@ public class XmppTcpTransportModuleDescriptor extends ModularXmppClientToServerC
 
     private final boolean startTls;
     private final boolean directTls;
+    private final int writeCoalescingMaxBytes;
+    private final int writeCoalescingMaxMicros;
+    private final long connectionAttemptDelayMillis;
 
     public XmppTcpTransportModuleDescriptor(Builder builder) {
         startTls = builder.startTls;
         directTls = builder.directTls;
+        writeCoalescingMaxBytes = builder.writeCoalescingMaxBytes;
+        writeCoalescingMaxMicros = builder.writeCoalescingMaxMicros;
+        connectionAttemptDelayMillis = builder.connectionAttemptDelayMillis;
     }
 
     @Override
@@ -63,6 +70,24 @@ public class XmppTcpTransportModuleDescriptor extends ModularXmppClientToServerC
         return directTls;
     }
 
+    public int getWriteCoalescingMaxBytes() {
+        return writeCoalescingMaxBytes;
+    }
+
+    public int getWriteCoalescingMaxMicros() {
+        return writeCoalescingMaxMicros;
+    }
+
+    /**
+     * Get the delay after which the next connection attempt is started while the previous ones are still pending.
+     *
+     * @return the connection attempt delay in milliseconds, or a negative value if connection attempts are not raced.
+     * @since 4.5.0
+     */
+    public long getConnectionAttemptDelayMillis() {
+        return connectionAttemptDelayMillis;
+    }
+
     public static final class Builder extends ModularXmppClientToServerConnectionModuleDescriptor.Builder {
 
         private Builder(ModularXmppClientToServerConnectionConfiguration.Builder connectionConfigurationBuilder) {
@@ -73,6 +98,12 @@ public class XmppTcpTransportModuleDescriptor extends ModularXmppClientToServerC
 
         private boolean directTls = false;
 
+        private int writeCoalescingMaxBytes = WriteCoalescer.DEFAULT_MAX_BYTES;
+
+        private int writeCoalescingMaxMicros = WriteCoalescer.DEFAULT_MAX_MICROS;
+
+        private long connectionAttemptDelayMillis = ConnectionAttemptState.DEFAULT_CONNECTION_ATTEMPT_DELAY_MILLIS;
+
         public Builder disableDirectTls() {
             directTls = false;
             return this;
@@ -83,6 +114,60 @@ public class XmppTcpTransportModuleDescriptor extends ModularXmppClientToServerC
             return this;
         }
 
+        /**
+         * Set the budgets of the write coalescing. While further top-level elements are queued, their output is
+         * gathered into the same TLS record and the same gathering write, until either the given number of bytes was
+         * gathered or the given number of microseconds elapsed since the first element of the batch was encoded.
+         * Coalescing never waits for further elements.
+         *
+         * @param maxBytes the byte budget, or zero to disable coalescing.
+         * @param maxMicros the microsecond budget.
+         * @return a reference to this builder.
+         * @see WriteCoalescer
+         */
+        public Builder setWriteCoalescing(int maxBytes, int maxMicros) {
+            if (maxBytes < 0 || maxMicros < 0) {
+                throw new IllegalArgumentException("Write coalescing budgets must not be negative");
+            }
+            writeCoalescingMaxBytes = maxBytes;
+            writeCoalescingMaxMicros = maxMicros;
+            return this;
+        }
+
+        public Builder disableWriteCoalescing() {
+            return setWriteCoalescing(0, 0);
+        }
+
+        /**
+         * Set the connection attempt delay. Connection attempts to the addresses of the remote endpoints are raced in
+         * the spirit of RFC 8305 ("Happy Eyeballs"): if an attempt did neither succeed nor fail after the given delay,
+         * then the attempt to the next address is started in parallel. The first attempt which succeeds wins, and all
+         * other attempts are cancelled. The default is 250 milliseconds, as recommended by RFC 8305.
+         *
+         * @param delay the connection attempt delay.
+         * @param unit the unit of the delay.
+         * @return a reference to this builder.
+         * @see <a href="https://tools.ietf.org/html/rfc8305#section-5">RFC 8305 section 5</a>
+         */
+        public Builder setConnectionAttemptDelay(long delay, TimeUnit unit) {
+            if (delay < 0) {
+                throw new IllegalArgumentException("The connection attempt delay must not be negative");
+            }
+            connectionAttemptDelayMillis = unit.toMillis(delay);
+            return this;
+        }
+
+        /**
+         * Disable the racing of connection attempts. The next address is then only tried once the attempt to the
+         * previous address failed or timed out.
+         *
+         * @return a reference to this builder.
+         */
+        public Builder disableConnectionAttemptRacing() {
+            connectionAttemptDelayMillis = -1;
+            return this;
+        }
+
         @Override
         protected XmppTcpTransportModuleDescriptor build() {
             return new XmppTcpTransportModuleDescriptor(this);
@@ -0,0 +1,124 @@
+/**
+ *
+ * Copyright 2021 Florian Schmaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.tcp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.TimeUnit;
+
+import org.jivesoftware.smack.ScheduledAction;
+import org.jivesoftware.smack.packet.Element;
+import org.jivesoftware.smack.packet.StanzaBuilder;
+import org.jivesoftware.smack.sm.AdaptiveAckRequestPolicy;
+import org.jivesoftware.smack.test.util.SmackTestSuite;
+import org.jivesoftware.smack.test.util.Whitebox;
+import org.jivesoftware.smack.util.ArrayBlockingQueueWithShutdown;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class AckRequestPolicyTimerTest extends SmackTestSuite {
+
+    private XMPPTCPConnection connection;
+
+    private AdaptiveAckRequestPolicy policy;
+
+    private ArrayBlockingQueueWithShutdown<Element> queue;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        connection = new XMPPTCPConnection("user", "pass", "example.org");
+        queue = getWriterQueue(connection);
+        Field smEnabledSyncPoint = XMPPTCPConnection.class.getDeclaredField("smEnabledSyncPoint");
+        smEnabledSyncPoint.setAccessible(true);
+        smEnabledSyncPoint.set(connection, true);
+
+        policy = new AdaptiveAckRequestPolicy(1000, 1_000_000, 8, TimeUnit.HOURS);
+        connection.setAckRequestPolicy(policy);
+        // A stanza, which exceeds the age budget of one hour.
+        assertTrue(policy.stanzaSent(100, System.nanoTime() - TimeUnit.HOURS.toNanos(2)));
+    }
+
+    @AfterEach
+    public void tearDown() {
+        queue.shutdown();
+        ScheduledAction timer = getTimer();
+        if (timer != null) {
+            timer.cancel();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ArrayBlockingQueueWithShutdown<Element> getWriterQueue(XMPPTCPConnection connection) {
+        return Whitebox.getInternalState(connection.packetWriter, "queue", ArrayBlockingQueueWithShutdown.class);
+    }
+
+    private ScheduledAction getTimer() {
+        try {
+            Field timer = XMPPTCPConnection.class.getDeclaredField("ackRequestPolicyTimer");
+            timer.setAccessible(true);
+            return (ScheduledAction) timer.get(connection);
+        } catch (ReflectiveOperationException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    @Test
+    public void timerIsNotRearmedWhileWriterQueueIsShutDown() {
+        // The connection was lost, but Stream Management is still considered enabled until the next login.
+        queue.shutdown();
+
+        connection.onAckRequestPolicyTimer(connection.getAckRequestPolicyTimerGeneration());
+
+        assertNull(getTimer());
+        // The timer was disarmed, hence the next sent stanza arms it again.
+        assertTrue(policy.stanzaSent(100, System.nanoTime()));
+    }
+
+    @Test
+    public void timerIsRearmedAfterAgeBudgetIfWriterQueueIsFull() throws Exception {
+        for (int i = 0; i < XMPPTCPConnection.PacketWriter.QUEUE_SIZE; i++) {
+            assertTrue(queue.offer(StanzaBuilder.buildMessage().build()));
+        }
+
+        connection.onAckRequestPolicyTimer(connection.getAckRequestPolicyTimerGeneration());
+
+        // The request could not be queued, the timer must not fire again immediately.
+        ScheduledAction timer = getTimer();
+        assertNotNull(timer);
+        assertTrue(timer.getTimeToDueMillis() > TimeUnit.MINUTES.toMillis(59));
+        assertEquals(0, policy.getStats().ageTriggeredAckRequests);
+    }
+
+    @Test
+    public void timerScheduledBeforeShutdownIsDiscarded() {
+        int generation = connection.getAckRequestPolicyTimerGeneration();
+        connection.instantShutdown();
+        // The connection is re-established before the timer of the previous connection fires.
+        queue.start();
+
+        connection.onAckRequestPolicyTimer(generation);
+
+        assertNull(getTimer());
+        assertEquals(0, queue.size());
+    }
+}
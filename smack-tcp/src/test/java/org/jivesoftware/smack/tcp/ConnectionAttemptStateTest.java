@@ -0,0 +1,355 @@
+/**
+ *
+ * Copyright 2021 Florian Schmaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.tcp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.UnknownHostException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.jivesoftware.smack.SmackReactor.ChannelSelectedCallback;
+import org.jivesoftware.smack.c2s.internal.WalkStateGraphContext;
+import org.jivesoftware.smack.datatypes.UInt16;
+import org.jivesoftware.smack.fsm.ConnectionStateEvent;
+import org.jivesoftware.smack.fsm.State;
+import org.jivesoftware.smack.fsm.StateDescriptor;
+import org.jivesoftware.smack.fsm.StateTransitionResult;
+import org.jivesoftware.smack.tcp.rce.Rfc6120TcpRemoteConnectionEndpoint;
+import org.jivesoftware.smack.util.CloseableUtil;
+import org.jivesoftware.smack.util.rce.RemoteConnectionEndpoint;
+
+import org.junit.jupiter.api.Test;
+
+public class ConnectionAttemptStateTest {
+
+    private static final class TestEndpoint implements Rfc6120TcpRemoteConnectionEndpoint {
+        private final String host;
+        private final int port;
+        private final List<InetAddress> inetAddresses;
+
+        private TestEndpoint(String host, InetAddress... inetAddresses) {
+            this(host, 5222, inetAddresses);
+        }
+
+        private TestEndpoint(String host, int port, InetAddress... inetAddresses) {
+            this.host = host;
+            this.port = port;
+            this.inetAddresses = Arrays.asList(inetAddresses);
+        }
+
+        @Override
+        public CharSequence getHost() {
+            return host;
+        }
+
+        @Override
+        public UInt16 getPort() {
+            return UInt16.from(port);
+        }
+
+        @Override
+        public Collection<? extends InetAddress> getInetAddresses() {
+            return inetAddresses;
+        }
+
+        @Override
+        public String getDescription() {
+            return host;
+        }
+    }
+
+    /**
+     * Waits for the registered channels to become connectable, one selector per channel. The connection attempts to
+     * stalled ports are never selected, as if the remote endpoint was black-holed.
+     */
+    private static final class TestEnvironment implements ConnectionAttemptState.Environment {
+        private final Set<Integer> stalledPorts;
+
+        private final List<SocketChannel> channels = new CopyOnWriteArrayList<>();
+
+        private final List<ConnectionStateEvent> events = new CopyOnWriteArrayList<>();
+
+        private TestEnvironment(Integer... stalledPorts) {
+            this.stalledPorts = new HashSet<>(Arrays.asList(stalledPorts));
+        }
+
+        @Override
+        public void registerWithSelector(SocketChannel socketChannel, int ops, ChannelSelectedCallback callback) {
+            channels.add(socketChannel);
+
+            int port;
+            try {
+                port = ((InetSocketAddress) socketChannel.getRemoteAddress()).getPort();
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+            if (stalledPorts.contains(port)) {
+                return;
+            }
+
+            Thread selectorThread = new Thread(() -> {
+                try (Selector selector = Selector.open()) {
+                    SelectionKey selectionKey = socketChannel.register(selector, ops);
+                    while (selector.select() == 0) {
+                        if (!socketChannel.isOpen()) {
+                            return;
+                        }
+                    }
+                    callback.onChannelSelected(socketChannel, selectionKey);
+                } catch (IOException e) {
+                    // The attempt was cancelled.
+                }
+            });
+            selectorThread.setDaemon(true);
+            selectorThread.start();
+        }
+
+        @Override
+        public void invokeConnectionStateMachineListener(ConnectionStateEvent connectionStateEvent) {
+            events.add(connectionStateEvent);
+        }
+
+        private List<String> describeEvents() {
+            List<String> descriptions = new ArrayList<>(events.size());
+            for (ConnectionStateEvent event : events) {
+                TcpHostEvent tcpHostEvent = (TcpHostEvent) event;
+                descriptions.add(tcpHostEvent.getClass().getSimpleName() + ' '
+                                + tcpHostEvent.getAddress().getInetSocketAddress().getPort());
+            }
+            return descriptions;
+        }
+    }
+
+    private static final State ESTABLISHING_TCP_CONNECTION_STATE = new State(new StateDescriptor() { }, null) {
+        @Override
+        public StateTransitionResult.AttemptResult transitionInto(WalkStateGraphContext walkStateGraphContext) {
+            throw new UnsupportedOperationException();
+        }
+    };
+
+    private static InetAddress address(String address) throws UnknownHostException {
+        return InetAddress.getByName(address);
+    }
+
+    private static ConnectionAttemptState createConnectionAttemptState(TestEnvironment environment,
+                    long connectionAttemptDelayMillis, long attemptTimeoutMillis, int... ports) {
+        List<Rfc6120TcpRemoteConnectionEndpoint> endpoints = new ArrayList<>(ports.length);
+        for (int port : ports) {
+            endpoints.add(new TestEndpoint("localhost", port, InetAddress.getLoopbackAddress()));
+        }
+        return new ConnectionAttemptState(environment, endpoints, Collections.emptyList(),
+                        ESTABLISHING_TCP_CONNECTION_STATE, connectionAttemptDelayMillis, attemptTimeoutMillis);
+    }
+
+    /**
+     * Get a port nobody listens on. Connection attempts to this port are either refused or, if the port is stalled by
+     * the test environment, never complete.
+     */
+    private static int unusedPort() throws IOException {
+        try (ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            return serverSocket.getLocalPort();
+        }
+    }
+
+    private static int port(SocketChannel socketChannel) throws IOException {
+        return ((InetSocketAddress) socketChannel.getRemoteAddress()).getPort();
+    }
+
+    @Test
+    public void addressFamiliesAreInterleaved() throws UnknownHostException {
+        List<InetAddress> addresses = Arrays.asList(address("2001:db8::1"), address("2001:db8::2"),
+                        address("192.0.2.1"), address("192.0.2.2"), address("192.0.2.3"));
+
+        List<InetAddress> interleaved = ConnectionAttemptState.interleaveAddressFamilies(addresses);
+
+        assertEquals(Arrays.asList(address("2001:db8::1"), address("192.0.2.1"), address("2001:db8::2"),
+                        address("192.0.2.2"), address("192.0.2.3")), interleaved);
+    }
+
+    @Test
+    public void familyOfFirstAddressIsPreferred() throws UnknownHostException {
+        List<InetAddress> addresses = Arrays.asList(address("192.0.2.1"), address("192.0.2.2"),
+                        address("2001:db8::1"));
+
+        List<InetAddress> interleaved = ConnectionAttemptState.interleaveAddressFamilies(addresses);
+
+        assertEquals(Arrays.asList(address("192.0.2.1"), address("2001:db8::1"), address("192.0.2.2")), interleaved);
+    }
+
+    @Test
+    public void endpointOrderIsRetained() throws UnknownHostException {
+        TestEndpoint primary = new TestEndpoint("primary.example.org", address("192.0.2.1"), address("2001:db8::1"),
+                        address("192.0.2.2"));
+        TestEndpoint secondary = new TestEndpoint("secondary.example.org", address("2001:db8::2"));
+
+        List<RemoteConnectionEndpoint.InetSocketAddressCoupling<Rfc6120TcpRemoteConnectionEndpoint>> ordered = ConnectionAttemptState.orderAddresses(
+                        Arrays.<Rfc6120TcpRemoteConnectionEndpoint>asList(primary, secondary));
+
+        List<String> descriptions = new ArrayList<>();
+        for (RemoteConnectionEndpoint.InetSocketAddressCoupling<Rfc6120TcpRemoteConnectionEndpoint> coupling : ordered) {
+            descriptions.add(coupling.getRemoteConnectionEndpoint().getHost() + " "
+                            + coupling.getInetSocketAddress().getAddress().getHostAddress());
+        }
+        assertEquals(Arrays.asList(
+                        "primary.example.org 192.0.2.1",
+                        "primary.example.org 2001:db8:0:0:0:0:0:1",
+                        "primary.example.org 192.0.2.2",
+                        "secondary.example.org 2001:db8:0:0:0:0:0:2"), descriptions);
+    }
+
+    @Test
+    public void firstSuccessfulAttemptWins() throws IOException, InterruptedException {
+        try (ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            int stalledPort = unusedPort();
+            int listeningPort = serverSocket.getLocalPort();
+            TestEnvironment environment = new TestEnvironment(stalledPort);
+            ConnectionAttemptState connectionAttemptState = createConnectionAttemptState(environment, 50, 10000,
+                            stalledPort, listeningPort);
+
+            StateTransitionResult.Failure failure = connectionAttemptState.establishTcpConnection();
+
+            try {
+                assertNull(failure);
+                assertEquals(listeningPort, port(connectionAttemptState.socketChannel));
+                assertEquals(Arrays.asList(
+                                "ConnectingToHostEvent " + stalledPort,
+                                "ConnectingToHostEvent " + listeningPort,
+                                "ConnectedToHostEvent " + listeningPort,
+                                "ConnectionToHostCancelledEvent " + stalledPort),
+                                environment.describeEvents());
+
+                // The losing attempt was closed.
+                assertEquals(2, environment.channels.size());
+                assertFalse(environment.channels.get(0).isOpen());
+                assertTrue(connectionAttemptState.socketChannel.isOpen());
+            } finally {
+                CloseableUtil.maybeClose(connectionAttemptState.socketChannel);
+            }
+        }
+    }
+
+    @Test
+    public void nextAttemptIsStartedAfterConnectionAttemptDelay() throws IOException, InterruptedException {
+        final long connectionAttemptDelayMillis = 300;
+        int firstStalledPort = unusedPort();
+        int secondStalledPort = unusedPort();
+        TestEnvironment environment = new TestEnvironment(firstStalledPort, secondStalledPort);
+        ConnectionAttemptState connectionAttemptState = createConnectionAttemptState(environment,
+                        connectionAttemptDelayMillis, 2 * connectionAttemptDelayMillis, firstStalledPort,
+                        secondStalledPort);
+
+        StateTransitionResult.Failure failure = connectionAttemptState.establishTcpConnection();
+
+        assertTrue(failure instanceof StateTransitionResult.FailureCausedByTimeout);
+        assertEquals(Arrays.asList(
+                        "ConnectingToHostEvent " + firstStalledPort,
+                        "ConnectingToHostEvent " + secondStalledPort,
+                        "ConnectionToHostCancelledEvent " + firstStalledPort,
+                        "ConnectionToHostCancelledEvent " + secondStalledPort),
+                        environment.describeEvents());
+
+        long delay = environment.events.get(1).getTimestamp() - environment.events.get(0).getTimestamp();
+        assertTrue(delay >= connectionAttemptDelayMillis, "Next attempt started after only " + delay + "ms");
+
+        // Both pending attempts were closed once the deadline passed.
+        assertEquals(2, environment.channels.size());
+        for (SocketChannel channel : environment.channels) {
+            assertFalse(channel.isOpen());
+        }
+    }
+
+    @Test
+    public void failedAttemptStartsNextAttemptImmediately() throws IOException, InterruptedException {
+        try (ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            int refusingPort = unusedPort();
+            int listeningPort = serverSocket.getLocalPort();
+            TestEnvironment environment = new TestEnvironment();
+            // A connection attempt delay longer than the timeout, so that only the failure of the first attempt can
+            // start the second attempt.
+            ConnectionAttemptState connectionAttemptState = createConnectionAttemptState(environment, 60000, 10000,
+                            refusingPort, listeningPort);
+
+            StateTransitionResult.Failure failure = connectionAttemptState.establishTcpConnection();
+
+            try {
+                assertNull(failure);
+                assertEquals(listeningPort, port(connectionAttemptState.socketChannel));
+                assertEquals(Arrays.asList(
+                                "ConnectingToHostEvent " + refusingPort,
+                                "ConnectionToHostFailedEvent " + refusingPort,
+                                "ConnectingToHostEvent " + listeningPort,
+                                "ConnectedToHostEvent " + listeningPort),
+                                environment.describeEvents());
+            } finally {
+                CloseableUtil.maybeClose(connectionAttemptState.socketChannel);
+            }
+        }
+    }
+
+    @Test
+    public void interruptCancelsPendingAttempts() throws IOException, InterruptedException {
+        int firstStalledPort = unusedPort();
+        int secondStalledPort = unusedPort();
+        TestEnvironment environment = new TestEnvironment(firstStalledPort, secondStalledPort);
+        ConnectionAttemptState connectionAttemptState = createConnectionAttemptState(environment, 60000, 60000,
+                        firstStalledPort, secondStalledPort);
+
+        List<Exception> exceptions = new CopyOnWriteArrayList<>();
+        Thread connectingThread = new Thread(() -> {
+            try {
+                connectionAttemptState.establishTcpConnection();
+            } catch (InterruptedException e) {
+                exceptions.add(e);
+            }
+        });
+        connectingThread.start();
+
+        // Interrupt the thread once the first attempt is pending.
+        while (environment.channels.isEmpty()) {
+            Thread.sleep(10);
+        }
+        connectingThread.interrupt();
+        connectingThread.join(10000);
+
+        assertFalse(connectingThread.isAlive());
+        assertEquals(1, exceptions.size());
+        assertTrue(exceptions.get(0) instanceof InterruptedException);
+        assertEquals(Arrays.asList(
+                        "ConnectingToHostEvent " + firstStalledPort,
+                        "ConnectionToHostCancelledEvent " + firstStalledPort),
+                        environment.describeEvents());
+        assertEquals(1, environment.channels.size());
+        assertFalse(environment.channels.get(0).isOpen());
+    }
+}
@@ -0,0 +1,351 @@
+/**
+ *
+ * Copyright 2021 Florian Schmaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.tcp;
+
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.jivesoftware.smack.ConnectionConfiguration.SecurityMode;
+import org.jivesoftware.smack.ConnectionFarm;
+import org.jivesoftware.smack.test.util.SmackTestSuite;
+
+import org.junit.jupiter.api.Disabled;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+/**
+ * A load test of {@link ConnectionFarm}. A local stand-in server, which implements just enough of XMPP to let clients
+ * authenticate via SCRAM-SHA-1 and bind a resource, is used to log in a large number of accounts through a farm.
+ * Afterwards the stand-in server drops all connections at once, simulating an outage, and the time it takes the
+ * farm to reconnect all accounts is measured. The health of the farm is reported every second.
+ * <p>
+ * The test is disabled, as it takes long and requires many resources. It is run manually, and configured with the
+ * system properties {@code smack.connectionFarmLoadTest.accounts}, {@code .maxLoginsPerSecond},
+ * {@code .maxConcurrentLogins} and {@code .maxReconnectDelaySeconds}. Note that every account requires multiple threads
+ * and file descriptors, hence the limits of those may need to be raised.
+ * </p>
+ */
+public class ConnectionFarmLoadTest extends SmackTestSuite {
+
+    private static final String DOMAIN = "example.org";
+
+    private static final String PASSWORD = "password";
+
+    private static final int SCRAM_ITERATIONS = 4096;
+
+    private static final long PHASE_TIMEOUT_SECONDS = 120;
+
+    private static final Logger SMACK_LOGGER = Logger.getLogger("org.jivesoftware.smack");
+
+    private static final Pattern ID_PATTERN = Pattern.compile("id=['\"]([^'\"]+)['\"]");
+
+    /**
+     * The derived SCRAM keys of an account, as a server would store them.
+     */
+    private static final class StoredCredentials {
+        private final byte[] salt;
+        private final byte[] storedKey;
+        private final byte[] serverKey;
+
+        private StoredCredentials(String username) throws GeneralSecurityException {
+            salt = ("salt-" + username).getBytes(StandardCharsets.UTF_8);
+            SecretKeyFactory keyFactory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1");
+            byte[] saltedPassword = keyFactory.generateSecret(
+                            new PBEKeySpec(PASSWORD.toCharArray(), salt, SCRAM_ITERATIONS, 160)).getEncoded();
+            storedKey = MessageDigest.getInstance("SHA-1").digest(hmac(saltedPassword, "Client Key"));
+            serverKey = hmac(saltedPassword, "Server Key");
+        }
+    }
+
+    private static byte[] hmac(byte[] key, String string) throws GeneralSecurityException {
+        Mac mac = Mac.getInstance("HmacSHA1");
+        mac.init(new SecretKeySpec(key, "HmacSHA1"));
+        return mac.doFinal(string.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static final class StandInServer extends Thread {
+        private final ServerSocket serverSocket;
+        private final Set<Socket> sockets = ConcurrentHashMap.newKeySet();
+        private final Map<String, StoredCredentials> credentials = new ConcurrentHashMap<>();
+        private final AtomicLong streamIds = new AtomicLong();
+
+        private StandInServer() throws IOException {
+            super("Stand-in Server");
+            setDaemon(true);
+            serverSocket = new ServerSocket(0, 4096, InetAddress.getLoopbackAddress());
+        }
+
+        @Override
+        public void run() {
+            while (!serverSocket.isClosed()) {
+                try {
+                    Socket socket = serverSocket.accept();
+                    sockets.add(socket);
+                    Thread session = new Thread(() -> serve(socket), "Stand-in Server Session");
+                    session.setDaemon(true);
+                    session.start();
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        }
+
+        private void dropAllConnections() {
+            for (Socket socket : sockets) {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // Ignore, the socket is gone anyway.
+                }
+            }
+        }
+
+        private void serve(Socket socket) {
+            try {
+                Session session = new Session(socket);
+                session.negotiate();
+                session.discardUntilStreamClose();
+            } catch (IOException | GeneralSecurityException e) {
+                // The client disconnected, or the server dropped the connection.
+            } finally {
+                sockets.remove(socket);
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // Ignore.
+                }
+            }
+        }
+
+        private final class Session {
+            private final Reader reader;
+            private final OutputStream outputStream;
+            private final StringBuilder buffer = new StringBuilder();
+            private final char[] readBuffer = new char[4096];
+
+            private Session(Socket socket) throws IOException {
+                reader = new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8);
+                outputStream = socket.getOutputStream();
+            }
+
+            private void negotiate() throws IOException, GeneralSecurityException {
+                awaitStreamOpen();
+                send(streamOpen() + "<stream:features><mechanisms xmlns='urn:ietf:params:xml:ns:xmpp-sasl'>"
+                                + "<mechanism>SCRAM-SHA-1</mechanism></mechanisms></stream:features>");
+
+                // client-first-message := gs2-header client-first-message-bare, with gs2-header being "n,,".
+                String clientFirstMessage = decode(textOf(awaitElement("</auth>")));
+                String clientFirstMessageBare = clientFirstMessage.substring(3);
+                String username = attribute(clientFirstMessageBare, 'n');
+                StoredCredentials storedCredentials = credentials.get(username);
+                if (storedCredentials == null) {
+                    storedCredentials = new StoredCredentials(username);
+                    credentials.put(username, storedCredentials);
+                }
+                String serverFirstMessage = "r=" + attribute(clientFirstMessageBare, 'r') + "stand-in-nonce"
+                                + ",s=" + Base64.getEncoder().encodeToString(storedCredentials.salt)
+                                + ",i=" + SCRAM_ITERATIONS;
+                send("<challenge xmlns='urn:ietf:params:xml:ns:xmpp-sasl'>" + encode(serverFirstMessage)
+                                + "</challenge>");
+
+                String clientFinalMessage = decode(textOf(awaitElement("</response>")));
+                int proofIndex = clientFinalMessage.indexOf(",p=");
+                String authMessage = clientFirstMessageBare + ',' + serverFirstMessage + ','
+                                + clientFinalMessage.substring(0, proofIndex);
+                byte[] clientProof = Base64.getDecoder().decode(clientFinalMessage.substring(proofIndex + 3));
+                byte[] clientSignature = hmac(storedCredentials.storedKey, authMessage);
+                for (int i = 0; i < clientProof.length; i++) {
+                    clientProof[i] ^= clientSignature[i];
+                }
+                if (!MessageDigest.isEqual(storedCredentials.storedKey,
+                                MessageDigest.getInstance("SHA-1").digest(clientProof))) {
+                    send("<failure xmlns='urn:ietf:params:xml:ns:xmpp-sasl'><not-authorized/></failure>");
+                    throw new IOException("Authentication of " + username + " failed");
+                }
+                String serverFinalMessage = "v="
+                                + Base64.getEncoder().encodeToString(hmac(storedCredentials.serverKey, authMessage));
+                send("<success xmlns='urn:ietf:params:xml:ns:xmpp-sasl'>" + encode(serverFinalMessage)
+                                + "</success>");
+
+                awaitStreamOpen();
+                send(streamOpen()
+                                + "<stream:features><bind xmlns='urn:ietf:params:xml:ns:xmpp-bind'/></stream:features>");
+
+                Matcher matcher = ID_PATTERN.matcher(awaitElement("</iq>"));
+                if (!matcher.find()) {
+                    throw new IOException("Resource binding request without ID");
+                }
+                send("<iq type='result' id='" + matcher.group(1) + "'><bind xmlns='urn:ietf:params:xml:ns:xmpp-bind'>"
+                                + "<jid>" + username + '@' + DOMAIN + "/farm</jid></bind></iq>");
+            }
+
+            private void discardUntilStreamClose() throws IOException {
+                awaitElement("</stream:stream>");
+                send("</stream:stream>");
+            }
+
+            private String streamOpen() {
+                return "<?xml version='1.0'?><stream:stream xmlns='jabber:client'"
+                                + " xmlns:stream='http://etherx.jabber.org/streams' id='stand-in-"
+                                + streamIds.incrementAndGet() + "' from='" + DOMAIN + "' version='1.0' xml:lang='en'>";
+            }
+
+            private void awaitStreamOpen() throws IOException {
+                int streamOpenIndex;
+                while ((streamOpenIndex = buffer.indexOf("<stream:stream")) < 0
+                                || buffer.indexOf(">", streamOpenIndex) < 0) {
+                    read();
+                }
+                buffer.delete(0, buffer.indexOf(">", streamOpenIndex) + 1);
+            }
+
+            private String awaitElement(String endTag) throws IOException {
+                int endTagIndex;
+                while ((endTagIndex = buffer.indexOf(endTag)) < 0) {
+                    read();
+                }
+                int elementEnd = endTagIndex + endTag.length();
+                String element = buffer.substring(0, elementEnd);
+                buffer.delete(0, elementEnd);
+                return element;
+            }
+
+            private void read() throws IOException {
+                int read = reader.read(readBuffer);
+                if (read < 0) {
+                    throw new IOException("End of stream");
+                }
+                buffer.append(readBuffer, 0, read);
+            }
+
+            private void send(String string) throws IOException {
+                outputStream.write(string.getBytes(StandardCharsets.UTF_8));
+                outputStream.flush();
+            }
+        }
+    }
+
+    private static String textOf(String element) {
+        return element.substring(element.indexOf('>') + 1, element.lastIndexOf('<'));
+    }
+
+    private static String attribute(String scramMessage, char name) {
+        for (String attribute : scramMessage.split(",")) {
+            if (attribute.length() > 1 && attribute.charAt(0) == name && attribute.charAt(1) == '=') {
+                return attribute.substring(2);
+            }
+        }
+        throw new IllegalArgumentException("No attribute " + name + " in " + scramMessage);
+    }
+
+    private static String decode(String base64) {
+        return new String(Base64.getDecoder().decode(base64), StandardCharsets.UTF_8);
+    }
+
+    private static String encode(String string) {
+        return Base64.getEncoder().encodeToString(string.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void awaitLogins(ConnectionFarm farm, int accounts, long successfulLogins, String phase)
+                    throws InterruptedException {
+        long startNanos = System.nanoTime();
+        long deadlineNanos = startNanos + TimeUnit.SECONDS.toNanos(PHASE_TIMEOUT_SECONDS);
+        ConnectionFarm.Health health;
+        int polls = 0;
+        do {
+            if (System.nanoTime() - deadlineNanos > 0) {
+                fail(phase + " did not complete within " + PHASE_TIMEOUT_SECONDS + " seconds: " + farm.getHealth());
+            }
+            Thread.sleep(100);
+            health = farm.getHealth();
+            if (++polls % 10 == 0) {
+                // CHECKSTYLE:OFF
+                System.out.println(phase + ": " + health);
+                // CHECKSTYLE:ON
+            }
+        } while (health.getAuthenticatedConnections() < accounts || health.getSuccessfulLogins() < successfulLogins);
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        // CHECKSTYLE:OFF
+        System.out.println(phase + ": all " + accounts + " accounts authenticated after " + millis + "ms: " + health);
+        // CHECKSTYLE:ON
+    }
+
+    @Test
+    @Disabled("A load test, which is run manually")
+    @Timeout(value = 2 * PHASE_TIMEOUT_SECONDS + 60, unit = TimeUnit.SECONDS)
+    public void reconnectAllAccountsAfterOutage() throws Exception {
+        int accounts = Integer.getInteger("smack.connectionFarmLoadTest.accounts", 1000);
+        int maxLoginsPerSecond = Integer.getInteger("smack.connectionFarmLoadTest.maxLoginsPerSecond", 200);
+        int maxConcurrentLogins = Integer.getInteger("smack.connectionFarmLoadTest.maxConcurrentLogins", 16);
+        int maxReconnectDelaySeconds = Integer.getInteger("smack.connectionFarmLoadTest.maxReconnectDelaySeconds", 5);
+
+        // Every connection dropped by the stand-in server would otherwise log a warning.
+        SMACK_LOGGER.setLevel(Level.SEVERE);
+
+        StandInServer server = new StandInServer();
+        server.start();
+
+        ConnectionFarm farm = ConnectionFarm.builder()
+                        .setMaxLoginsPerSecond(maxLoginsPerSecond)
+                        .setMaxConcurrentLogins(maxConcurrentLogins)
+                        .setReconnectDelay(1, maxReconnectDelaySeconds, TimeUnit.SECONDS)
+                        .build();
+        try {
+            for (int i = 0; i < accounts; i++) {
+                XMPPTCPConnectionConfiguration.Builder builder = XMPPTCPConnectionConfiguration.builder()
+                                .setXmppDomain(DOMAIN)
+                                .setHostAddress(InetAddress.getLoopbackAddress())
+                                .setPort(server.serverSocket.getLocalPort())
+                                .setSecurityMode(SecurityMode.disabled)
+                                .setUsernameAndPassword("account" + i, PASSWORD);
+                farm.add(new XMPPTCPConnection(farm.configure(builder).build()));
+            }
+            awaitLogins(farm, accounts, accounts, "initial login");
+
+            server.dropAllConnections();
+            awaitLogins(farm, accounts, 2 * accounts, "reconnect after outage");
+        } finally {
+            farm.shutdown();
+            server.serverSocket.close();
+        }
+    }
+}
@@ -0,0 +1,479 @@
+/**
+ *
+ * Copyright 2021 Florian Schmaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.tcp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.jivesoftware.smack.ConnectionConfiguration.SecurityMode;
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.packet.StanzaBuilder;
+import org.jivesoftware.smack.sm.OutboundStanzaSpool;
+import org.jivesoftware.smack.sm.packet.StreamManagement.AckRequest;
+import org.jivesoftware.smack.test.util.SmackTestSuite;
+import org.jivesoftware.smack.test.util.Whitebox;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+import org.jxmpp.stringprep.XmppStringprepException;
+
+/**
+ * Tests how {@link XMPPTCPConnection} records outgoing stanzas in an {@link OutboundStanzaSpool} and releases or replays
+ * them. A scripted server, which implements just enough of XMPP to let clients authenticate via SASL ANONYMOUS, bind a
+ * resource and enable Stream Management, is used as transport.
+ */
+@Timeout(value = 60, unit = TimeUnit.SECONDS)
+public class OutboundStanzaSpoolWiringTest extends SmackTestSuite {
+
+    private static final String DOMAIN = "example.org";
+
+    private static final long AWAIT_TIMEOUT_MILLIS = 30000;
+
+    private static final Pattern ID_PATTERN = Pattern.compile("\\sid=['\"]([^'\"]+)['\"]");
+
+    private static final class ScriptedServer extends Thread {
+        private final ServerSocket serverSocket;
+        private final BlockingQueue<Session> sessions = new LinkedBlockingQueue<>();
+
+        /**
+         * If Stream Management is announced in the stream features of new sessions.
+         */
+        private volatile boolean streamManagement = true;
+
+        /**
+         * If the acknowledgement requests of the client are answered.
+         */
+        private volatile boolean answerAckRequests = true;
+
+        private ScriptedServer() throws IOException {
+            super("Scripted Server");
+            setDaemon(true);
+            serverSocket = new ServerSocket(0, 16, InetAddress.getLoopbackAddress());
+        }
+
+        @Override
+        public void run() {
+            while (!serverSocket.isClosed()) {
+                try {
+                    Socket socket = serverSocket.accept();
+                    Session session = new Session(socket);
+                    sessions.add(session);
+                    Thread thread = new Thread(session::serve, "Scripted Server Session");
+                    thread.setDaemon(true);
+                    thread.start();
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        }
+
+        private Session nextSession() throws InterruptedException {
+            Session session = sessions.poll(AWAIT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            if (session == null) {
+                fail("No session was established");
+            }
+            return session;
+        }
+
+        private final class Session {
+            private final Socket socket;
+            private final Reader reader;
+            private final OutputStream outputStream;
+            private final StringBuilder buffer = new StringBuilder();
+            private final char[] readBuffer = new char[4096];
+
+            /**
+             * The IDs of the messages received within this session, in the order they were received.
+             */
+            private final List<String> messageIds = new CopyOnWriteArrayList<>();
+
+            private boolean authenticated;
+
+            /**
+             * The number of stanzas handled since Stream Management was enabled.
+             */
+            private long handledStanzas;
+
+            private Session(Socket socket) throws IOException {
+                this.socket = socket;
+                reader = new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8);
+                outputStream = socket.getOutputStream();
+            }
+
+            private void serve() {
+                try {
+                    while (true) {
+                        String element = nextElement();
+                        if (element.startsWith("<?xml")) {
+                            continue;
+                        } else if (element.startsWith("<stream:stream")) {
+                            sendStreamOpenAndFeatures();
+                        } else if (element.startsWith("</stream:stream")) {
+                            send("</stream:stream>");
+                            return;
+                        } else if (element.startsWith("<auth")) {
+                            authenticated = true;
+                            send("<success xmlns='urn:ietf:params:xml:ns:xmpp-sasl'/>");
+                        } else if (element.startsWith("<enable")) {
+                            synchronized (this) {
+                                handledStanzas = 0;
+                            }
+                            send("<enabled xmlns='urn:xmpp:sm:3' id='sm-1' resume='true' max='60'/>");
+                        } else if (element.startsWith("<resume")) {
+                            send("<failed xmlns='urn:xmpp:sm:3'/>");
+                        } else if (element.startsWith("<r ") || element.startsWith("<r/")) {
+                            if (answerAckRequests) {
+                                acknowledge();
+                            }
+                        } else if (element.startsWith("<iq")) {
+                            stanzaHandled();
+                            String id = idOf(element);
+                            if (element.contains("urn:ietf:params:xml:ns:xmpp-bind")) {
+                                send("<iq type='result' id='" + id + "'><bind xmlns='urn:ietf:params:xml:ns:xmpp-bind'>"
+                                                + "<jid>anonymous@" + DOMAIN + "/spool</jid></bind></iq>");
+                            } else {
+                                send("<iq type='result' id='" + id + "'/>");
+                            }
+                        } else if (element.startsWith("<message")) {
+                            messageIds.add(idOf(element));
+                            stanzaHandled();
+                        } else if (element.startsWith("<presence")) {
+                            stanzaHandled();
+                        }
+                    }
+                } catch (IOException e) {
+                    // The client disconnected, or the test dropped the connection.
+                } finally {
+                    drop();
+                }
+            }
+
+            private void sendStreamOpenAndFeatures() throws IOException {
+                String features;
+                if (!authenticated) {
+                    features = "<mechanisms xmlns='urn:ietf:params:xml:ns:xmpp-sasl'>"
+                                    + "<mechanism>ANONYMOUS</mechanism></mechanisms>";
+                } else {
+                    features = "<bind xmlns='urn:ietf:params:xml:ns:xmpp-bind'/>";
+                    if (streamManagement) {
+                        features += "<sm xmlns='urn:xmpp:sm:3'/>";
+                    }
+                }
+                send("<stream:stream xmlns='jabber:client' xmlns:stream='http://etherx.jabber.org/streams'"
+                                + " id='scripted' from='" + DOMAIN + "' version='1.0' xml:lang='en'>"
+                                + "<stream:features>" + features + "</stream:features>");
+            }
+
+            private synchronized void stanzaHandled() {
+                handledStanzas++;
+            }
+
+            private synchronized void acknowledge() throws IOException {
+                send("<a xmlns='urn:xmpp:sm:3' h='" + handledStanzas + "'/>");
+            }
+
+            private void sendStreamError() throws IOException {
+                send("<stream:error><conflict xmlns='urn:ietf:params:xml:ns:xmpp-streams'/></stream:error>"
+                                + "</stream:stream>");
+                drop();
+            }
+
+            private void drop() {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // Ignore, the socket is gone anyway.
+                }
+            }
+
+            private void awaitMessage(String id) throws InterruptedException {
+                await(() -> messageIds.contains(id), "message " + id + " was not received");
+            }
+
+            /**
+             * Get the next top-level element, or the stream open or close tag, sent by the client.
+             */
+            private String nextElement() throws IOException {
+                int elementEnd;
+                while ((elementEnd = topLevelElementEnd()) < 0) {
+                    int read = reader.read(readBuffer);
+                    if (read < 0) {
+                        throw new IOException("End of stream");
+                    }
+                    buffer.append(readBuffer, 0, read);
+                }
+                String element = buffer.substring(0, elementEnd).trim();
+                buffer.delete(0, elementEnd);
+                return element;
+            }
+
+            private int topLevelElementEnd() {
+                int depth = 0;
+                int index = 0;
+                while (true) {
+                    int tagStart = buffer.indexOf("<", index);
+                    if (tagStart < 0) {
+                        return -1;
+                    }
+                    int tagEnd = buffer.indexOf(">", tagStart);
+                    if (tagEnd < 0) {
+                        return -1;
+                    }
+                    char first = buffer.charAt(tagStart + 1);
+                    if (first == '/') {
+                        depth--;
+                    } else if (first != '?' && buffer.charAt(tagEnd - 1) != '/'
+                                    && buffer.indexOf("<stream:stream", tagStart) != tagStart) {
+                        depth++;
+                    }
+                    index = tagEnd + 1;
+                    if (depth <= 0) {
+                        return index;
+                    }
+                }
+            }
+
+            private synchronized void send(String string) throws IOException {
+                outputStream.write(string.getBytes(StandardCharsets.UTF_8));
+                outputStream.flush();
+            }
+        }
+    }
+
+    private static String idOf(String element) {
+        Matcher matcher = ID_PATTERN.matcher(element.substring(0, element.indexOf('>')));
+        if (!matcher.find()) {
+            throw new IllegalArgumentException("No ID in " + element);
+        }
+        return matcher.group(1);
+    }
+
+    private static void await(BooleanSupplier condition, String message) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + AWAIT_TIMEOUT_MILLIS;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                fail(message);
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    private static Message message(String id) throws XmppStringprepException {
+        return StanzaBuilder.buildMessage(id).to("peer@" + DOMAIN).setBody(id).build();
+    }
+
+    private ScriptedServer server;
+
+    @BeforeEach
+    public void startServer() throws IOException {
+        server = new ScriptedServer();
+        server.start();
+    }
+
+    @AfterEach
+    public void stopServer() throws IOException {
+        server.serverSocket.close();
+    }
+
+    private XMPPTCPConnection connect(OutboundStanzaSpool spool) throws Exception {
+        XMPPTCPConnectionConfiguration config = XMPPTCPConnectionConfiguration.builder()
+                        .setXmppDomain(DOMAIN)
+                        .setHostAddress(InetAddress.getLoopbackAddress())
+                        .setPort(server.serverSocket.getLocalPort())
+                        .setSecurityMode(SecurityMode.disabled)
+                        .setSendPresence(false)
+                        // SASL ANONYMOUS is only considered if a password is configured.
+                        .setUsernameAndPassword("spool", "password")
+                        .performSaslAnonymousAuthentication()
+                        .setOutboundStanzaSpool(spool)
+                        .build();
+        XMPPTCPConnection connection = new XMPPTCPConnection(config);
+        connection.connect().login();
+        return connection;
+    }
+
+    @Test
+    public void releasedOnStreamManagementAcknowledgementTest(@TempDir File directory) throws Exception {
+        server.answerAckRequests = false;
+        try (OutboundStanzaSpool spool = OutboundStanzaSpool.open(directory)) {
+            XMPPTCPConnection connection = connect(spool);
+            ScriptedServer.Session session = server.nextSession();
+
+            connection.sendStanza(message("m1"));
+            session.awaitMessage("m1");
+            // Writing the stanza to the socket does not release it, as long as it is not acknowledged.
+            assertEquals(1, spool.getLiveRecordCount());
+
+            session.acknowledge();
+            await(() -> spool.getLiveRecordCount() == 0, "the acknowledged stanza was not released");
+
+            connection.disconnect();
+        }
+    }
+
+    @Test
+    public void releasedAfterSocketWriteWithoutStreamManagementTest(@TempDir File directory) throws Exception {
+        server.streamManagement = false;
+        try (OutboundStanzaSpool spool = OutboundStanzaSpool.open(directory)) {
+            XMPPTCPConnection connection = connect(spool);
+            ScriptedServer.Session session = server.nextSession();
+
+            connection.sendStanza(message("m1"));
+            session.awaitMessage("m1");
+            await(() -> spool.getLiveRecordCount() == 0, "the written stanza was not released");
+            assertEquals(1, spool.getStats().appendedRecords);
+
+            connection.disconnect();
+        }
+    }
+
+    @Test
+    public void replayedAfterReopeningSpoolTest(@TempDir File directory) throws Exception {
+        server.answerAckRequests = false;
+        try (OutboundStanzaSpool spool = OutboundStanzaSpool.open(directory)) {
+            XMPPTCPConnection connection = connect(spool);
+            ScriptedServer.Session session = server.nextSession();
+
+            connection.sendStanza(message("m1"));
+            session.awaitMessage("m1");
+            connection.disconnect();
+            assertEquals(1, spool.getLiveRecordCount());
+        }
+
+        server.answerAckRequests = true;
+        try (OutboundStanzaSpool spool = OutboundStanzaSpool.open(directory)) {
+            assertEquals(1, spool.getLiveRecordCount());
+            XMPPTCPConnection connection = connect(spool);
+            ScriptedServer.Session session = server.nextSession();
+
+            session.awaitMessage("m1");
+            await(() -> spool.getLiveRecordCount() == 0, "the replayed stanza was not released");
+            // The replayed stanza was already spooled, hence it must not have been appended again.
+            assertEquals(0, spool.getStats().appendedRecords);
+
+            connection.disconnect();
+        }
+    }
+
+    @Test
+    public void notResentTwiceAfterFailedResumptionTest(@TempDir File directory) throws Exception {
+        notResentTwiceAfterConnectionLoss(directory, false);
+    }
+
+    @Test
+    public void notResentTwiceAfterStreamErrorTest(@TempDir File directory) throws Exception {
+        notResentTwiceAfterConnectionLoss(directory, true);
+    }
+
+    /**
+     * Loses the connection while a spooled stanza is not acknowledged, which makes both the stanzas to replay of the
+     * spool and the unacknowledged stanzas of the previous Stream Management session candidates to resend it on the
+     * next session.
+     */
+    private void notResentTwiceAfterConnectionLoss(File directory, boolean streamError) throws Exception {
+        server.answerAckRequests = false;
+        try (OutboundStanzaSpool spool = OutboundStanzaSpool.open(directory)) {
+            XMPPTCPConnection connection = connect(spool);
+            ScriptedServer.Session session = server.nextSession();
+
+            connection.sendStanza(message("m1"));
+            session.awaitMessage("m1");
+            if (streamError) {
+                session.sendStreamError();
+            } else {
+                session.drop();
+            }
+            await(() -> !connection.isConnected(), "the connection was not closed");
+
+            server.answerAckRequests = true;
+            connection.connect().login();
+            session = server.nextSession();
+            connection.sendStanza(message("m2"));
+            session.awaitMessage("m2");
+
+            assertEquals(1, Collections.frequency(session.messageIds, "m1"), session.messageIds.toString());
+            await(() -> spool.getLiveRecordCount() == 0, "the resent stanza was not released");
+            assertEquals(2, spool.getStats().appendedRecords);
+
+            connection.disconnect();
+        }
+    }
+
+    @Test
+    public void releasedIfSendingFailsTest(@TempDir File directory) throws Exception {
+        try (OutboundStanzaSpool spool = OutboundStanzaSpool.open(directory)) {
+            XMPPTCPConnection connection = connect(spool);
+            server.nextSession();
+
+            // Shut down the writer and fill its queue. As the stream is resumable, sendStanza() passes the connection
+            // checks, spools the stanza and then blocks in sendStreamElement() until it is interrupted.
+            connection.packetWriter.shutdown(true);
+            // Wait for the writer thread, which drains its queue into the unacknowledged stanzas once it exits.
+            String writerThreadName = Whitebox.getInternalState(connection.packetWriter, "threadName", String.class);
+            for (Thread thread : Thread.getAllStackTraces().keySet()) {
+                if (thread.getName().equals(writerThreadName)) {
+                    thread.join();
+                }
+            }
+            for (int i = 0; i < XMPPTCPConnection.PacketWriter.QUEUE_SIZE; i++) {
+                connection.sendNonza(AckRequest.INSTANCE);
+            }
+            AtomicReference<Exception> exception = new AtomicReference<>();
+            Thread sender = new Thread(() -> {
+                try {
+                    connection.sendStanza(message("m1"));
+                } catch (Exception e) {
+                    exception.set(e);
+                }
+            }, "Spooling Sender");
+            sender.start();
+            await(() -> spool.getStats().appendedRecords == 1, "the stanza was not spooled");
+            sender.interrupt();
+            sender.join();
+
+            assertTrue(exception.get() instanceof InterruptedException, String.valueOf(exception.get()));
+            assertEquals(1, spool.getStats().acknowledgedRecords);
+            assertEquals(0, spool.getLiveRecordCount());
+
+            connection.instantShutdown();
+        }
+    }
+}
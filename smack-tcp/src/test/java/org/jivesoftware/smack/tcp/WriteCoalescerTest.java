@@ -0,0 +1,73 @@
+/**
+ *
+ * Copyright 2021 Florian Schmaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.tcp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+public class WriteCoalescerTest {
+
+    @Test
+    public void disabledCoalescerDoesNotCoalesceTest() {
+        WriteCoalescer writeCoalescer = new WriteCoalescer(0, 0);
+        assertFalse(writeCoalescer.mayCoalesce());
+
+        writeCoalescer.onElementEncoded(100);
+        assertFalse(writeCoalescer.mayCoalesce());
+    }
+
+    @Test
+    public void byteBudgetEndsBatchTest() {
+        WriteCoalescer writeCoalescer = new WriteCoalescer(1000, Integer.MAX_VALUE);
+        assertTrue(writeCoalescer.mayCoalesce());
+
+        writeCoalescer.onElementEncoded(600);
+        assertTrue(writeCoalescer.mayCoalesce());
+
+        writeCoalescer.onElementEncoded(600);
+        assertFalse(writeCoalescer.mayCoalesce());
+
+        writeCoalescer.onWrite();
+        writeCoalescer.onBatchFlushed();
+        assertTrue(writeCoalescer.mayCoalesce());
+
+        writeCoalescer.onElementEncoded(100);
+        writeCoalescer.onWrite();
+        writeCoalescer.onBatchFlushed();
+
+        WriteCoalescer.Stats stats = writeCoalescer.getStats();
+        assertEquals(3, stats.elements);
+        assertEquals(2, stats.batches);
+        assertEquals(2, stats.writes);
+        assertEquals(1.5, stats.elementsPerBatch);
+    }
+
+    @Test
+    public void timeBudgetEndsBatchTest() throws InterruptedException {
+        WriteCoalescer writeCoalescer = new WriteCoalescer(1000, 1);
+        writeCoalescer.onElementEncoded(10);
+
+        Thread.sleep(1);
+        assertFalse(writeCoalescer.mayCoalesce());
+
+        writeCoalescer.onBatchFlushed();
+        assertTrue(writeCoalescer.mayCoalesce());
+    }
+}
@@ -0,0 +1,166 @@
+/**
+ *
+ * Copyright 2021 Florian Schmaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.xml.xmpp;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decodes UTF-8 from an {@link InputStream} directly into the character buffer of the parser, without the need for an
+ * intermediate {@link java.io.Reader}. Malformed input is replaced by U+FFFD.
+ * <p>
+ * Like a Reader, this decoder only blocks on the input stream if it was not yet able to decode a single character.
+ * </p>
+ */
+final class Utf8InputDecoder {
+
+    private static final char REPLACEMENT_CHARACTER = '\uFFFD';
+
+    private static final int BYTE_BUFFER_SIZE = 8192;
+
+    private final InputStream inputStream;
+
+    private final byte[] bytes;
+
+    private int bytesPosition;
+
+    private int bytesEnd;
+
+    private boolean endOfStream;
+
+    Utf8InputDecoder(InputStream inputStream) {
+        this.inputStream = inputStream;
+        this.bytes = new byte[BYTE_BUFFER_SIZE];
+    }
+
+    /**
+     * Decode characters into the given array.
+     *
+     * @param chars the destination array.
+     * @param offset the offset at which the characters are stored.
+     * @param length the maximum number of characters to decode, must be at least 2.
+     * @return the number of decoded characters, or -1 if the end of the stream was reached.
+     * @throws IOException if an I/O error occurred.
+     */
+    int read(char[] chars, int offset, int length) throws IOException {
+        assert length >= 2;
+        int charsPosition = offset;
+        final int charsEnd = offset + length;
+
+        while (true) {
+            charsPosition = decode(chars, charsPosition, charsEnd);
+            if (charsPosition > offset) {
+                return charsPosition - offset;
+            }
+
+            if (!fillBytes()) {
+                if (bytesPosition < bytesEnd) {
+                    // A truncated sequence at the end of the stream.
+                    bytesPosition = bytesEnd;
+                    chars[offset] = REPLACEMENT_CHARACTER;
+                    return 1;
+                }
+                return -1;
+            }
+        }
+    }
+
+    private boolean fillBytes() throws IOException {
+        if (endOfStream) {
+            return false;
+        }
+        // Move a possibly incomplete sequence to the start of the buffer.
+        int remaining = bytesEnd - bytesPosition;
+        if (remaining > 0 && bytesPosition > 0) {
+            System.arraycopy(bytes, bytesPosition, bytes, 0, remaining);
+        }
+        bytesPosition = 0;
+        bytesEnd = remaining;
+
+        int read = inputStream.read(bytes, bytesEnd, bytes.length - bytesEnd);
+        if (read < 0) {
+            endOfStream = true;
+            return false;
+        }
+        bytesEnd += read;
+        return true;
+    }
+
+    private int decode(char[] chars, int charsPosition, final int charsEnd) {
+        final byte[] bytes = this.bytes;
+        int bytesPosition = this.bytesPosition;
+        final int bytesEnd = this.bytesEnd;
+
+        // Leave room for a surrogate pair.
+        while (charsPosition < charsEnd - 1 && bytesPosition < bytesEnd) {
+            int b = bytes[bytesPosition];
+            if (b >= 0) {
+                chars[charsPosition++] = (char) b;
+                bytesPosition++;
+                continue;
+            }
+
+            int sequenceLength;
+            int codePoint;
+            int minimumCodePoint;
+            if ((b & 0xE0) == 0xC0) {
+                sequenceLength = 2;
+                codePoint = b & 0x1F;
+                minimumCodePoint = 0x80;
+            } else if ((b & 0xF0) == 0xE0) {
+                sequenceLength = 3;
+                codePoint = b & 0x0F;
+                minimumCodePoint = 0x800;
+            } else if ((b & 0xF8) == 0xF0) {
+                sequenceLength = 4;
+                codePoint = b & 0x07;
+                minimumCodePoint = 0x10000;
+            } else {
+                chars[charsPosition++] = REPLACEMENT_CHARACTER;
+                bytesPosition++;
+                continue;
+            }
+
+            if (bytesEnd - bytesPosition < sequenceLength) {
+                // Truncated sequence, more bytes are required.
+                break;
+            }
+
+            boolean malformed = false;
+            for (int i = 1; i < sequenceLength; i++) {
+                int continuation = bytes[bytesPosition + i];
+                if ((continuation & 0xC0) != 0x80) {
+                    malformed = true;
+                    break;
+                }
+                codePoint = (codePoint << 6) | (continuation & 0x3F);
+            }
+            if (malformed || codePoint < minimumCodePoint || codePoint > Character.MAX_CODE_POINT
+                            || (codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE)) {
+                chars[charsPosition++] = REPLACEMENT_CHARACTER;
+                bytesPosition++;
+                continue;
+            }
+
+            bytesPosition += sequenceLength;
+            charsPosition += Character.toChars(codePoint, chars, charsPosition);
+        }
+
+        this.bytesPosition = bytesPosition;
+        return charsPosition;
+    }
+}
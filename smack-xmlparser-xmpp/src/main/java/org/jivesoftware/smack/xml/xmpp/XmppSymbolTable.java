@@ -0,0 +1,248 @@
+/**
+ *
+ * Copyright 2021 Florian Schmaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.xml.xmpp;
+
+/**
+ * A table of symbols, i.e. element names, attribute names, prefixes and namespaces, used to obtain a String for a
+ * sequence of characters without allocating a new String every time.
+ * <p>
+ * The table is initialized with a fixed vocabulary of symbols commonly found in XMPP. Every table is able to learn
+ * a bounded number of further symbols, so that the symbols of extensions which are not part of the fixed vocabulary
+ * are also only allocated once. Once the table is full, further unknown symbols are allocated on every lookup.
+ * </p>
+ * <p>
+ * Instances of this class are not thread-safe.
+ * </p>
+ */
+final class XmppSymbolTable {
+
+    static final String XML = "xml";
+    static final String XMLNS = "xmlns";
+    static final String XML_NAMESPACE = "http://www.w3.org/XML/1998/namespace";
+    static final String XMLNS_NAMESPACE = "http://www.w3.org/2000/xmlns/";
+
+    private static final String[] VOCABULARY = {
+        // Prefixes and the namespaces bound to them.
+        XML, XMLNS, XML_NAMESPACE, XMLNS_NAMESPACE, "stream",
+
+        // Stream namespaces.
+        "jabber:client",
+        "jabber:server",
+        "http://etherx.jabber.org/streams",
+        "urn:ietf:params:xml:ns:xmpp-streams",
+        "urn:ietf:params:xml:ns:xmpp-stanzas",
+        "urn:ietf:params:xml:ns:xmpp-tls",
+        "urn:ietf:params:xml:ns:xmpp-sasl",
+        "urn:ietf:params:xml:ns:xmpp-bind",
+        "urn:ietf:params:xml:ns:xmpp-session",
+        "urn:xmpp:sm:3",
+        "urn:xmpp:csi:0",
+        "http://jabber.org/features/compress",
+        "http://jabber.org/protocol/compress",
+        "urn:xmpp:features:rosterver",
+        "urn:xmpp:features:pre-approval",
+
+        // Common extension namespaces.
+        "jabber:iq:roster",
+        "jabber:iq:version",
+        "jabber:iq:private",
+        "jabber:iq:last",
+        "jabber:x:data",
+        "jabber:x:conference",
+        "jabber:x:oob",
+        "vcard-temp",
+        "vcard-temp:x:update",
+        "http://jabber.org/protocol/caps",
+        "http://jabber.org/protocol/chatstates",
+        "http://jabber.org/protocol/disco#info",
+        "http://jabber.org/protocol/disco#items",
+        "http://jabber.org/protocol/muc",
+        "http://jabber.org/protocol/muc#user",
+        "http://jabber.org/protocol/muc#admin",
+        "http://jabber.org/protocol/muc#owner",
+        "http://jabber.org/protocol/pubsub",
+        "http://jabber.org/protocol/pubsub#event",
+        "http://jabber.org/protocol/pubsub#owner",
+        "http://jabber.org/protocol/rsm",
+        "http://jabber.org/protocol/nick",
+        "http://jabber.org/protocol/address",
+        "http://jabber.org/protocol/xhtml-im",
+        "http://www.w3.org/1999/xhtml",
+        "urn:xmpp:delay",
+        "urn:xmpp:receipts",
+        "urn:xmpp:chat-markers:0",
+        "urn:xmpp:ping",
+        "urn:xmpp:time",
+        "urn:xmpp:forward:0",
+        "urn:xmpp:carbons:2",
+        "urn:xmpp:mam:2",
+        "urn:xmpp:sid:0",
+        "urn:xmpp:hints",
+        "urn:xmpp:message-correct:0",
+        "urn:xmpp:eme:0",
+        "urn:xmpp:idle:1",
+        "urn:xmpp:avatar:data",
+        "urn:xmpp:avatar:metadata",
+        "urn:xmpp:bookmarks:1",
+        "urn:xmpp:http:upload:0",
+        "urn:xmpp:jingle:1",
+        "urn:xmpp:omemo:1",
+        "eu.siacs.conversations.axolotl",
+
+        // Stream level elements.
+        "features", "error", "starttls", "proceed", "required", "optional", "mechanisms", "mechanism", "auth",
+        "challenge", "response", "success", "failure", "abort", "bind", "session", "resource", "jid", "compression",
+        "method", "compress", "compressed", "ver", "sub", "c", "register",
+
+        // Stream management elements.
+        "sm", "enable", "enabled", "resume", "resumed", "failed", "r", "a",
+
+        // Stanzas and their common child elements.
+        "message", "presence", "iq", "body", "subject", "thread", "show", "status", "priority", "query", "item",
+        "items", "x", "text", "delay", "active", "composing", "paused", "inactive", "gone", "request", "received",
+        "markable", "displayed", "acknowledged", "ping", "pubsub", "event", "publish", "retract", "forwarded",
+        "result", "fin", "set", "first", "last", "count", "before", "after", "max", "index", "identity", "feature",
+        "stanza-id", "origin-id", "store", "no-store", "no-copy", "no-permanent-store", "private", "sent", "html",
+        "field", "value", "option", "desc", "title", "instructions", "reported", "group", "nick", "photo", "time",
+        "tzo", "utc", "idle", "encrypted", "header", "key", "payload", "encryption", "replace", "addresses",
+        "address", "destroy", "invite", "decline", "reason", "actor", "continue", "password", "history",
+
+        // Stanza error conditions.
+        "bad-request", "conflict", "feature-not-implemented", "forbidden", "gone", "internal-server-error",
+        "item-not-found", "jid-malformed", "not-acceptable", "not-allowed", "not-authorized", "policy-violation",
+        "recipient-unavailable", "redirect", "registration-required", "remote-server-not-found",
+        "remote-server-timeout", "resource-constraint", "service-unavailable", "subscription-required",
+        "undefined-condition", "unexpected-request",
+
+        // Attribute names.
+        "id", "to", "from", "type", "lang", "version", "h", "previd", "location", "stamp", "name", "node", "var",
+        "category", "hash", "ext", "subscription", "ask", "code", "by", "label", "role", "affiliation", "sid",
+        "rid", "action", "seconds", "since", "queryid", "approved",
+    };
+
+    private static final int STATIC_TABLE_SIZE = 1024;
+
+    private static final String[] STATIC_TABLE = new String[STATIC_TABLE_SIZE];
+
+    static {
+        for (String symbol : VOCABULARY) {
+            int index = symbol.hashCode() & (STATIC_TABLE_SIZE - 1);
+            while (STATIC_TABLE[index] != null) {
+                if (STATIC_TABLE[index].equals(symbol)) {
+                    break;
+                }
+                index = (index + 1) & (STATIC_TABLE_SIZE - 1);
+            }
+            STATIC_TABLE[index] = symbol;
+        }
+    }
+
+    static final int DEFAULT_MAX_LEARNED_SYMBOLS = 256;
+
+    private static final int MAX_LEARNED_SYMBOL_LENGTH = 128;
+
+    private final int maxLearnedSymbols;
+
+    private String[] learnedTable;
+
+    private int learnedSymbols;
+
+    XmppSymbolTable() {
+        this(DEFAULT_MAX_LEARNED_SYMBOLS);
+    }
+
+    XmppSymbolTable(int maxLearnedSymbols) {
+        this.maxLearnedSymbols = maxLearnedSymbols;
+    }
+
+    /**
+     * Get the symbol for the given characters.
+     *
+     * @param chars the array holding the characters.
+     * @param start the index of the first character.
+     * @param length the number of characters.
+     * @return the symbol, which equals the given characters.
+     */
+    String lookup(char[] chars, int start, int length) {
+        int hash = 0;
+        final int end = start + length;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + chars[i];
+        }
+
+        String symbol = lookup(STATIC_TABLE, hash, chars, start, length);
+        if (symbol != null) {
+            return symbol;
+        }
+
+        if (learnedTable != null) {
+            symbol = lookup(learnedTable, hash, chars, start, length);
+            if (symbol != null) {
+                return symbol;
+            }
+        }
+
+        symbol = new String(chars, start, length);
+        learn(symbol, hash);
+        return symbol;
+    }
+
+    private static String lookup(String[] table, int hash, char[] chars, int start, int length) {
+        final int mask = table.length - 1;
+        int index = hash & mask;
+        while (true) {
+            String candidate = table[index];
+            if (candidate == null) {
+                return null;
+            }
+            if (candidate.hashCode() == hash && equals(candidate, chars, start, length)) {
+                return candidate;
+            }
+            index = (index + 1) & mask;
+        }
+    }
+
+    private void learn(String symbol, int hash) {
+        if (learnedSymbols >= maxLearnedSymbols || symbol.length() > MAX_LEARNED_SYMBOL_LENGTH) {
+            return;
+        }
+        if (learnedTable == null) {
+            // Keep the load factor of the table at or below 0.5.
+            int tableSize = Integer.highestOneBit(Math.max(maxLearnedSymbols, 8) - 1) << 2;
+            learnedTable = new String[tableSize];
+        }
+        final int mask = learnedTable.length - 1;
+        int index = hash & mask;
+        while (learnedTable[index] != null) {
+            index = (index + 1) & mask;
+        }
+        learnedTable[index] = symbol;
+        learnedSymbols++;
+    }
+
+    static boolean equals(String string, char[] chars, int start, int length) {
+        if (string.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (string.charAt(i) != chars[start + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
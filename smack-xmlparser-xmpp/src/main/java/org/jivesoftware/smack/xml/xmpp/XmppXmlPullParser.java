@@ -0,0 +1,1322 @@
+/**
+ *
+ * Copyright 2021 Florian Schmaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.xml.xmpp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.Arrays;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+
+import org.jivesoftware.smack.xml.XmlPullParser;
+import org.jivesoftware.smack.xml.XmlPullParserException;
+
+/**
+ * An XML pull parser specialized for the restricted XML used by XMPP.
+ * <p>
+ * XMPP only uses a subset of XML: there are no document type declarations, no processing instructions and no
+ * entities besides the predefined ones (RFC 6120 section 11.1). This allows for a small and fast parser, which avoids most
+ * of the allocations performed by general purpose parsers:
+ * </p>
+ * <ul>
+ *  <li>Element names, attribute names, prefixes and namespaces are obtained from a symbol
+ *  table, which is initialized with the common XMPP vocabulary and learns a bounded number of further symbols.</li>
+ *  <li>Attribute values and text are only turned into Strings once requested. {@link #getAttributeValueCharSequence(int)}
+ *  and {@link #getTextCharSequence()} provide views which do not allocate at all.</li>
+ *  <li>Byte input is decoded as UTF-8 directly into the parser's buffer, see
+ *  {@link XmppXmlPullParserFactory#newXmlPullParser(InputStream)}.</li>
+ * </ul>
+ * <p>
+ * The parser behaves like XPP3 with namespace processing and the XML roundtrip feature enabled. That is, namespace
+ * declarations are not reported as attributes, the text of CDATA sections and of entity references is reported as
+ * part of {@link Event#TEXT_CHARACTERS}, comments are skipped, and {@link #getText()} returns the raw element tag on
+ * {@link Event#START_ELEMENT} and {@link Event#END_ELEMENT}. Document type declarations and processing
+ * instructions, other than the XML declaration, cause an {@link XmlPullParserException}.
+ * </p>
+ * <p>
+ * The parser never reads ahead beyond the current event, hence it is possible to feed it a stream of top-level
+ * elements using a reader which only provides complete elements.
+ * </p>
+ *
+ * @since 4.5.0
+ */
+public final class XmppXmlPullParser implements XmlPullParser {
+
+    private static final int INITIAL_BUFFER_SIZE = 8192;
+
+    /**
+     * The maximum size of the buffer retained after an event was parsed which required to grow the buffer.
+     */
+    private static final int MAX_RETAINED_BUFFER_SIZE = 8 * INITIAL_BUFFER_SIZE;
+
+    private final Reader reader;
+
+    private final Utf8InputDecoder utf8InputDecoder;
+
+    private final XmppSymbolTable symbolTable = new XmppSymbolTable();
+
+    private char[] buffer = new char[INITIAL_BUFFER_SIZE];
+    private int position;
+    private int bufferEnd;
+
+    private int discardedLines;
+    private int discardedColumns;
+
+    private Event eventType = Event.START_DOCUMENT;
+    private int depth;
+    private boolean seenRootElement;
+
+    /**
+     * If the current START_ELEMENT is an empty element, in which case the next event is its END_ELEMENT.
+     */
+    private boolean emptyElement;
+
+    private String[] elementNames = new String[16];
+    private String[] elementPrefixes = new String[16];
+    private String[] elementNamespaces = new String[16];
+
+    /**
+     * The number of namespace declarations in scope of the element at the given depth.
+     */
+    private int[] elementNamespaceCount = new int[16];
+
+    private String[] namespacePrefixes = new String[8];
+    private String[] namespaceUris = new String[8];
+    private int namespaceCount;
+
+    private int attributeCount;
+    private String[] attributePrefixes = new String[8];
+    private String[] attributeNames = new String[8];
+    private String[] attributeNamespaces = new String[8];
+    private int[] attributeValueStarts = new int[8];
+    private int[] attributeValueLengths = new int[8];
+    private boolean[] attributeValuesDecoded = new boolean[8];
+    private String[] attributeValueStrings = new String[8];
+    private CharSequenceView[] attributeValueViews = new CharSequenceView[8];
+
+    /**
+     * The characters of the current text, or of the raw element tag in case of START_ELEMENT and END_ELEMENT. They
+     * are either in the buffer, or, if they needed to be decoded, in the decode buffer.
+     */
+    private boolean hasText;
+    private boolean textDecoded;
+    private int textStart;
+    private int textLength;
+    private String textString;
+    private CharSequenceView textView;
+
+    /**
+     * Holds the decoded characters of text and attribute values containing entity references or line breaks, and of
+     * text which was interrupted by comments or CDATA sections.
+     */
+    private char[] decodeBuffer = new char[256];
+    private int decodeLength;
+
+    XmppXmlPullParser(Reader reader) {
+        this.reader = reader;
+        this.utf8InputDecoder = null;
+    }
+
+    XmppXmlPullParser(InputStream inputStream) {
+        this.reader = null;
+        this.utf8InputDecoder = new Utf8InputDecoder(inputStream);
+    }
+
+    @Override
+    public Object getProperty(String name) {
+        return null;
+    }
+
+    @Override
+    public String getInputEncoding() {
+        if (utf8InputDecoder != null) {
+            return "UTF-8";
+        }
+        return null;
+    }
+
+    @Override
+    public int getNamespaceCount() {
+        return namespaceCount;
+    }
+
+    @Override
+    public String getNamespacePrefix(int pos) throws XmlPullParserException {
+        checkNamespacePosition(pos);
+        return namespacePrefixes[pos];
+    }
+
+    @Override
+    public String getNamespaceUri(int pos) throws XmlPullParserException {
+        checkNamespacePosition(pos);
+        return namespaceUris[pos];
+    }
+
+    private void checkNamespacePosition(int pos) throws XmlPullParserException {
+        if (pos < 0 || pos >= namespaceCount) {
+            throw new XmlPullParserException(
+                            "Position " + pos + " exceeds the number of available namespaces " + namespaceCount);
+        }
+    }
+
+    @Override
+    public String getNamespace(String prefix) {
+        for (int i = namespaceCount - 1; i >= 0; i--) {
+            String namespacePrefix = namespacePrefixes[i];
+            if (prefix == null ? namespacePrefix == null : prefix.equals(namespacePrefix)) {
+                return namespaceUris[i];
+            }
+        }
+        if (XmppSymbolTable.XML.equals(prefix)) {
+            return XmppSymbolTable.XML_NAMESPACE;
+        }
+        if (XmppSymbolTable.XMLNS.equals(prefix)) {
+            return XmppSymbolTable.XMLNS_NAMESPACE;
+        }
+        return null;
+    }
+
+    @Override
+    public int getDepth() {
+        return depth;
+    }
+
+    @Override
+    public String getPositionDescription() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(eventType);
+        if (isOnElement()) {
+            sb.append(" <");
+            String prefix = elementPrefixes[depth];
+            if (prefix != null) {
+                sb.append(prefix).append(':');
+            }
+            sb.append(elementNames[depth]).append('>');
+        }
+        sb.append(" @").append(getLineNumber()).append(':').append(getColumnNumber());
+        return sb.toString();
+    }
+
+    @Override
+    public int getLineNumber() {
+        int lines = discardedLines;
+        for (int i = 0; i < position; i++) {
+            if (buffer[i] == '\n') {
+                lines++;
+            }
+        }
+        return lines + 1;
+    }
+
+    @Override
+    public int getColumnNumber() {
+        for (int i = position - 1; i >= 0; i--) {
+            if (buffer[i] == '\n') {
+                return position - i;
+            }
+        }
+        return discardedColumns + position + 1;
+    }
+
+    @Override
+    public boolean isWhiteSpace() throws XmlPullParserException {
+        if (eventType != Event.TEXT_CHARACTERS) {
+            throw new XmlPullParserException("No content available to check for whitespace");
+        }
+        final char[] chars = textChars();
+        final int end = textStart + textLength;
+        for (int i = textStart; i < end; i++) {
+            if (!isWhitespace(chars[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String getText() {
+        if (!hasText) {
+            return null;
+        }
+        if (textString == null) {
+            textString = new String(textChars(), textStart, textLength);
+        }
+        return textString;
+    }
+
+    /**
+     * Get the text of the current event as a view into the parser's buffers, which is only valid until the parser is
+     * advanced. See {@link #getText()}.
+     *
+     * @return the text of the current event, or <code>null</code>.
+     */
+    public CharSequence getTextCharSequence() {
+        if (!hasText) {
+            return null;
+        }
+        if (textView == null) {
+            textView = new CharSequenceView();
+        }
+        textView.set(textDecoded, textStart, textLength);
+        return textView;
+    }
+
+    @Override
+    public String getNamespace() {
+        if (!isOnElement()) {
+            return null;
+        }
+        return elementNamespaces[depth];
+    }
+
+    @Override
+    public String getName() {
+        if (!isOnElement()) {
+            return null;
+        }
+        return elementNames[depth];
+    }
+
+    @Override
+    public QName getQName() {
+        String prefix = getPrefix();
+        if (prefix == null) {
+            prefix = XMLConstants.DEFAULT_NS_PREFIX;
+        }
+        return new QName(getNamespace(), getName(), prefix);
+    }
+
+    @Override
+    public String getPrefix() {
+        if (!isOnElement()) {
+            return null;
+        }
+        return elementPrefixes[depth];
+    }
+
+    @Override
+    public int getAttributeCount() {
+        if (eventType != Event.START_ELEMENT) {
+            return -1;
+        }
+        return attributeCount;
+    }
+
+    private boolean isAttributeIndex(int index) {
+        return eventType == Event.START_ELEMENT && index >= 0 && index < attributeCount;
+    }
+
+    @Override
+    public String getAttributeNamespace(int index) {
+        if (!isAttributeIndex(index)) {
+            return null;
+        }
+        return attributeNamespaces[index];
+    }
+
+    @Override
+    public String getAttributeName(int index) {
+        if (!isAttributeIndex(index)) {
+            return null;
+        }
+        return attributeNames[index];
+    }
+
+    @Override
+    public QName getAttributeQName(int index) {
+        if (!isAttributeIndex(index)) {
+            return null;
+        }
+        return new QName(attributeNamespaces[index], attributeNames[index], getAttributePrefix(index));
+    }
+
+    @Override
+    public String getAttributePrefix(int index) {
+        if (!isAttributeIndex(index)) {
+            return null;
+        }
+        String prefix = attributePrefixes[index];
+        if (prefix == null) {
+            return XMLConstants.DEFAULT_NS_PREFIX;
+        }
+        return prefix;
+    }
+
+    @Override
+    public String getAttributeType(int index) {
+        if (!isAttributeIndex(index)) {
+            return null;
+        }
+        return "CDATA";
+    }
+
+    @Override
+    public String getAttributeValue(int index) {
+        if (!isAttributeIndex(index)) {
+            return null;
+        }
+        String value = attributeValueStrings[index];
+        if (value == null) {
+            char[] chars = attributeValuesDecoded[index] ? decodeBuffer : buffer;
+            value = new String(chars, attributeValueStarts[index], attributeValueLengths[index]);
+            attributeValueStrings[index] = value;
+        }
+        return value;
+    }
+
+    @Override
+    public String getAttributeValue(String namespace, String name) {
+        int index = getAttributeIndex(namespace, name);
+        if (index < 0) {
+            return null;
+        }
+        return getAttributeValue(index);
+    }
+
+    /**
+     * Get the value of the attribute with the given index as a view into the parser's buffers, which is only valid
+     * until the parser is advanced. See {@link #getAttributeValue(int)}.
+     *
+     * @param index the attribute index.
+     * @return the value of the attribute, or <code>null</code>.
+     */
+    public CharSequence getAttributeValueCharSequence(int index) {
+        if (!isAttributeIndex(index)) {
+            return null;
+        }
+        CharSequenceView view = attributeValueViews[index];
+        if (view == null) {
+            view = new CharSequenceView();
+            attributeValueViews[index] = view;
+        }
+        view.set(attributeValuesDecoded[index], attributeValueStarts[index], attributeValueLengths[index]);
+        return view;
+    }
+
+    /**
+     * Get the value of the attribute with the given namespace and name as a view into the parser's buffers, which is
+     * only valid until the parser is advanced. See {@link #getAttributeValue(String, String)}.
+     *
+     * @param namespace the namespace of the attribute, or <code>null</code>.
+     * @param name the name of the attribute.
+     * @return the value of the attribute, or <code>null</code>.
+     */
+    public CharSequence getAttributeValueCharSequence(String namespace, String name) {
+        int index = getAttributeIndex(namespace, name);
+        if (index < 0) {
+            return null;
+        }
+        return getAttributeValueCharSequence(index);
+    }
+
+    private int getAttributeIndex(String namespace, String name) {
+        if (eventType != Event.START_ELEMENT) {
+            return -1;
+        }
+        if (namespace != null && namespace.isEmpty()) {
+            namespace = null;
+        }
+        for (int i = 0; i < attributeCount; i++) {
+            if (!name.equals(attributeNames[i])) {
+                continue;
+            }
+            String attributeNamespace = attributeNamespaces[i];
+            if (namespace == null ? attributeNamespace == null : namespace.equals(attributeNamespace)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public Event getEventType() {
+        return eventType;
+    }
+
+    @Override
+    public Event next() throws IOException, XmlPullParserException {
+        switch (eventType) {
+        case END_ELEMENT:
+            popElement();
+            break;
+        case END_DOCUMENT:
+            return eventType;
+        default:
+            break;
+        }
+
+        if (emptyElement) {
+            // Like XPP3, report the raw tag of the empty element as text of its END_ELEMENT.
+            emptyElement = false;
+            attributeCount = 0;
+            return eventType = Event.END_ELEMENT;
+        }
+
+        resetEvent();
+
+        compactBuffer();
+
+        while (true) {
+            if (position == bufferEnd && !fillBuffer()) {
+                return endOfInput();
+            }
+
+            final char c = buffer[position];
+            if (c != '<') {
+                if (depth == 0) {
+                    if (!isWhitespace(c)) {
+                        throw error("Only whitespace is allowed outside of the root element");
+                    }
+                    position++;
+                    continue;
+                }
+                parseText();
+                continue;
+            }
+
+            if (!ensureAvailable(2)) {
+                throw unexpectedEndOfInput();
+            }
+            final char next = buffer[position + 1];
+            if (next == '!') {
+                if (startsWith("<!--")) {
+                    skipComment();
+                    continue;
+                }
+                if (depth > 0 && startsWith("<![CDATA[")) {
+                    parseCdata();
+                    continue;
+                }
+                throw error("Document type declarations are not allowed in XMPP");
+            }
+
+            if (hasText) {
+                return eventType = Event.TEXT_CHARACTERS;
+            }
+
+            switch (next) {
+            case '?':
+                skipXmlDeclaration();
+                continue;
+            case '/':
+                parseEndTag();
+                return eventType = Event.END_ELEMENT;
+            default:
+                parseStartTag();
+                return eventType = Event.START_ELEMENT;
+            }
+        }
+    }
+
+    @Override
+    public String nextText() throws IOException, XmlPullParserException {
+        if (eventType != Event.START_ELEMENT) {
+            throw error("Parser must be on START_ELEMENT to read the next text");
+        }
+        Event event = next();
+        if (event == Event.TEXT_CHARACTERS) {
+            String text = getText();
+            event = next();
+            if (event != Event.END_ELEMENT) {
+                throw error("TEXT_CHARACTERS must be immediately followed by END_ELEMENT");
+            }
+            return text;
+        } else if (event == Event.END_ELEMENT) {
+            return "";
+        }
+        throw error("Parser must be on START_ELEMENT or TEXT_CHARACTERS to read text");
+    }
+
+    @Override
+    public TagEvent nextTag() throws IOException, XmlPullParserException {
+        Event event = next();
+        if (event == Event.TEXT_CHARACTERS && isWhiteSpace()) {
+            event = next();
+        }
+        switch (event) {
+        case START_ELEMENT:
+            return TagEvent.START_ELEMENT;
+        case END_ELEMENT:
+            return TagEvent.END_ELEMENT;
+        default:
+            throw error("Expected START_ELEMENT or END_ELEMENT");
+        }
+    }
+
+    @Override
+    public boolean supportsRoundtrip() {
+        return true;
+    }
+
+    private boolean isOnElement() {
+        return eventType == Event.START_ELEMENT || eventType == Event.END_ELEMENT;
+    }
+
+    private void resetEvent() {
+        attributeCount = 0;
+        hasText = false;
+        textDecoded = false;
+        textStart = 0;
+        textLength = 0;
+        textString = null;
+        decodeLength = 0;
+    }
+
+    private Event endOfInput() throws XmlPullParserException {
+        if (depth > 0) {
+            throw unexpectedEndOfInput();
+        }
+        if (!seenRootElement) {
+            throw error("The input does not contain a root element");
+        }
+        return eventType = Event.END_DOCUMENT;
+    }
+
+    private void popElement() {
+        depth--;
+        namespaceCount = elementNamespaceCount[depth];
+    }
+
+    private void parseStartTag() throws IOException, XmlPullParserException {
+        if (depth == 0 && seenRootElement) {
+            throw error("Only a single root element is allowed");
+        }
+
+        final int rawStart = position;
+        // Skip '<'.
+        position++;
+
+        final int nameStart = position;
+        final int colon = scanName();
+        final int nameEnd = position;
+        final String prefix, name;
+        if (colon < 0) {
+            prefix = null;
+            name = symbolTable.lookup(buffer, nameStart, nameEnd - nameStart);
+        } else {
+            prefix = symbolTable.lookup(buffer, nameStart, colon - nameStart);
+            name = symbolTable.lookup(buffer, colon + 1, nameEnd - colon - 1);
+        }
+
+        final int parentNamespaceCount = namespaceCount;
+        while (true) {
+            boolean whitespace = skipWhitespace();
+            char c = buffer[position];
+            if (c == '>') {
+                position++;
+                break;
+            }
+            if (c == '/') {
+                position++;
+                requireChar('>');
+                emptyElement = true;
+                break;
+            }
+            if (!whitespace) {
+                throw error("Expected whitespace before attribute");
+            }
+            parseAttribute();
+        }
+
+        final String namespace;
+        if (prefix == null) {
+            String defaultNamespace = getNamespace(null);
+            if (defaultNamespace == null) {
+                defaultNamespace = XMLConstants.NULL_NS_URI;
+            }
+            namespace = defaultNamespace;
+        } else {
+            namespace = resolvePrefix(prefix);
+        }
+
+        for (int i = 0; i < attributeCount; i++) {
+            String attributePrefix = attributePrefixes[i];
+            if (attributePrefix != null) {
+                attributeNamespaces[i] = resolvePrefix(attributePrefix);
+            } else {
+                attributeNamespaces[i] = null;
+            }
+            String attributeName = attributeNames[i];
+            String attributeNamespace = attributeNamespaces[i];
+            for (int j = 0; j < i; j++) {
+                if (attributeName.equals(attributeNames[j]) && (attributeNamespace == null
+                                ? attributeNamespaces[j] == null : attributeNamespace.equals(attributeNamespaces[j]))) {
+                    throw error("Duplicate attribute '" + attributeName + "'");
+                }
+            }
+        }
+
+        depth++;
+        if (depth >= elementNames.length) {
+            int newLength = 2 * elementNames.length;
+            elementNames = Arrays.copyOf(elementNames, newLength);
+            elementPrefixes = Arrays.copyOf(elementPrefixes, newLength);
+            elementNamespaces = Arrays.copyOf(elementNamespaces, newLength);
+            elementNamespaceCount = Arrays.copyOf(elementNamespaceCount, newLength);
+        }
+        elementNames[depth] = name;
+        elementPrefixes[depth] = prefix;
+        elementNamespaces[depth] = namespace;
+        elementNamespaceCount[depth - 1] = parentNamespaceCount;
+        elementNamespaceCount[depth] = namespaceCount;
+        seenRootElement = true;
+
+        hasText = true;
+        textStart = rawStart;
+        textLength = position - rawStart;
+    }
+
+    private void parseAttribute() throws IOException, XmlPullParserException {
+        final int nameStart = position;
+        final int colon = scanName();
+        final int nameEnd = position;
+
+        skipWhitespace();
+        requireChar('=');
+        skipWhitespace();
+
+        final char quote = buffer[position];
+        if (quote != '"' && quote != '\'') {
+            throw error("Expected quote character");
+        }
+        position++;
+
+        final int valueStart = position;
+        boolean decode = false;
+        while (true) {
+            if (position == bufferEnd && !fillBuffer()) {
+                throw unexpectedEndOfInput();
+            }
+            char c = buffer[position];
+            if (c == quote) {
+                break;
+            }
+            switch (c) {
+            case '<':
+                throw error("Attribute values must not contain '<'");
+            case '&':
+            case '\t':
+            case '\n':
+            case '\r':
+                decode = true;
+                break;
+            default:
+                break;
+            }
+            position++;
+        }
+        final int valueEnd = position;
+        // Skip the closing quote.
+        position++;
+
+        final String prefix, name;
+        if (colon < 0) {
+            prefix = null;
+            name = symbolTable.lookup(buffer, nameStart, nameEnd - nameStart);
+        } else {
+            prefix = symbolTable.lookup(buffer, nameStart, colon - nameStart);
+            name = symbolTable.lookup(buffer, colon + 1, nameEnd - colon - 1);
+        }
+
+        final char[] valueChars;
+        int start = valueStart;
+        int length = valueEnd - valueStart;
+        if (decode) {
+            int decodeStart = decodeLength;
+            decodeAttributeValue(valueStart, valueEnd);
+            valueChars = decodeBuffer;
+            start = decodeStart;
+            length = decodeLength - decodeStart;
+        } else {
+            valueChars = buffer;
+        }
+
+        if (prefix == null && name.equals(XmppSymbolTable.XMLNS)) {
+            declareNamespace(null, symbolTable.lookup(valueChars, start, length));
+            return;
+        }
+        if (XmppSymbolTable.XMLNS.equals(prefix)) {
+            if (length == 0) {
+                throw error("The namespace of prefix '" + name + "' must not be empty");
+            }
+            declareNamespace(name, symbolTable.lookup(valueChars, start, length));
+            return;
+        }
+
+        final int index = attributeCount;
+        if (index == attributeNames.length) {
+            int newLength = 2 * index;
+            attributePrefixes = Arrays.copyOf(attributePrefixes, newLength);
+            attributeNames = Arrays.copyOf(attributeNames, newLength);
+            attributeNamespaces = Arrays.copyOf(attributeNamespaces, newLength);
+            attributeValueStarts = Arrays.copyOf(attributeValueStarts, newLength);
+            attributeValueLengths = Arrays.copyOf(attributeValueLengths, newLength);
+            attributeValuesDecoded = Arrays.copyOf(attributeValuesDecoded, newLength);
+            attributeValueStrings = Arrays.copyOf(attributeValueStrings, newLength);
+            attributeValueViews = Arrays.copyOf(attributeValueViews, newLength);
+        }
+        attributePrefixes[index] = prefix;
+        attributeNames[index] = name;
+        attributeValueStarts[index] = start;
+        attributeValueLengths[index] = length;
+        attributeValuesDecoded[index] = decode;
+        attributeValueStrings[index] = null;
+        attributeCount++;
+    }
+
+    private void declareNamespace(String prefix, String uri) {
+        if (namespaceCount == namespacePrefixes.length) {
+            int newLength = 2 * namespaceCount;
+            namespacePrefixes = Arrays.copyOf(namespacePrefixes, newLength);
+            namespaceUris = Arrays.copyOf(namespaceUris, newLength);
+        }
+        namespacePrefixes[namespaceCount] = prefix;
+        namespaceUris[namespaceCount] = uri;
+        namespaceCount++;
+    }
+
+    private String resolvePrefix(String prefix) throws XmlPullParserException {
+        String namespace = getNamespace(prefix);
+        if (namespace == null) {
+            throw error("Undeclared prefix '" + prefix + "'");
+        }
+        return namespace;
+    }
+
+    private void parseEndTag() throws IOException, XmlPullParserException {
+        final int rawStart = position;
+        // Skip "</".
+        position += 2;
+
+        final int nameStart = position;
+        final int colon = scanName();
+        final int nameEnd = position;
+        skipWhitespace();
+        requireChar('>');
+
+        if (depth == 0) {
+            throw error("Unexpected end tag");
+        }
+
+        final String expectedPrefix = elementPrefixes[depth];
+        final String expectedName = elementNames[depth];
+        final boolean matches;
+        if (colon < 0) {
+            matches = expectedPrefix == null
+                            && XmppSymbolTable.equals(expectedName, buffer, nameStart, nameEnd - nameStart);
+        } else {
+            matches = expectedPrefix != null
+                            && XmppSymbolTable.equals(expectedPrefix, buffer, nameStart, colon - nameStart)
+                            && XmppSymbolTable.equals(expectedName, buffer, colon + 1, nameEnd - colon - 1);
+        }
+        if (!matches) {
+            throw error("End tag '" + new String(buffer, nameStart, nameEnd - nameStart)
+                            + "' does not match the start tag");
+        }
+
+        hasText = true;
+        textStart = rawStart;
+        textLength = position - rawStart;
+    }
+
+    /**
+     * Scan a (qualified) name.
+     *
+     * @return the position of the colon separating the prefix and the local part, or -1.
+     */
+    private int scanName() throws IOException, XmlPullParserException {
+        final int nameStart = position;
+        int colon = -1;
+        while (true) {
+            if (position == bufferEnd && !fillBuffer()) {
+                throw unexpectedEndOfInput();
+            }
+            char c = buffer[position];
+            switch (c) {
+            case ' ':
+            case '\t':
+            case '\n':
+            case '\r':
+            case '>':
+            case '/':
+            case '=':
+            case '<':
+            case '"':
+            case '\'':
+                if (position == nameStart || colon == position - 1) {
+                    throw error("Invalid name");
+                }
+                return colon;
+            case ':':
+                if (colon >= 0 || position == nameStart) {
+                    throw error("Invalid name");
+                }
+                colon = position;
+                break;
+            default:
+                break;
+            }
+            position++;
+        }
+    }
+
+    private void parseText() throws IOException, XmlPullParserException {
+        int start = position;
+        while (true) {
+            if (position == bufferEnd && !fillBuffer()) {
+                break;
+            }
+            char c = buffer[position];
+            if (c == '<') {
+                break;
+            }
+            if (c == '&') {
+                appendRawText(start, position);
+                switchTextToDecoded();
+                int decodeStart = decodeLength;
+                if (!ensureEntityAvailable()) {
+                    throw unexpectedEndOfInput();
+                }
+                position = decodeEntity(position, bufferEnd);
+                textLength += decodeLength - decodeStart;
+                start = position;
+                continue;
+            }
+            if (c == '\r') {
+                appendRawText(start, position);
+                appendNormalizedLineBreak();
+                start = position;
+                continue;
+            }
+            position++;
+        }
+        appendRawText(start, position);
+    }
+
+    private void parseCdata() throws IOException, XmlPullParserException {
+        // Skip "<![CDATA[".
+        position += 9;
+        int start = position;
+        while (true) {
+            if (position == bufferEnd && !fillBuffer()) {
+                throw unexpectedEndOfInput();
+            }
+            char c = buffer[position];
+            if (c == ']') {
+                if (!ensureAvailable(3)) {
+                    throw unexpectedEndOfInput();
+                }
+                if (buffer[position + 1] == ']' && buffer[position + 2] == '>') {
+                    break;
+                }
+            } else if (c == '\r') {
+                appendRawText(start, position);
+                appendNormalizedLineBreak();
+                start = position;
+                continue;
+            }
+            position++;
+        }
+        appendRawText(start, position);
+        // Skip "]]>".
+        position += 3;
+    }
+
+    /**
+     * Append a line feed to the text for the carriage return at the current position, which may be followed by a line
+     * feed (XML 1.0 section 2.11).
+     */
+    private void appendNormalizedLineBreak() throws IOException {
+        position++;
+        if (ensureAvailable(1) && buffer[position] == '\n') {
+            position++;
+        }
+        switchTextToDecoded();
+        appendDecoded('\n');
+        textLength++;
+    }
+
+    private void appendRawText(int start, int end) {
+        final int length = end - start;
+        if (length == 0) {
+            return;
+        }
+        if (!hasText) {
+            hasText = true;
+            textDecoded = false;
+            textStart = start;
+            textLength = length;
+            return;
+        }
+        if (!textDecoded) {
+            if (textStart + textLength == start) {
+                textLength += length;
+                return;
+            }
+            switchTextToDecoded();
+        }
+        appendDecoded(buffer, start, length);
+        textLength += length;
+    }
+
+    private void switchTextToDecoded() {
+        if (!hasText) {
+            hasText = true;
+            textDecoded = true;
+            textStart = decodeLength;
+            textLength = 0;
+            return;
+        }
+        if (textDecoded) {
+            return;
+        }
+        int decodeStart = decodeLength;
+        appendDecoded(buffer, textStart, textLength);
+        textDecoded = true;
+        textStart = decodeStart;
+    }
+
+    private void decodeAttributeValue(int start, int end) throws XmlPullParserException {
+        int i = start;
+        while (i < end) {
+            char c = buffer[i];
+            switch (c) {
+            case '&':
+                i = decodeEntity(i, end);
+                continue;
+            case '\r':
+                if (i + 1 < end && buffer[i + 1] == '\n') {
+                    i++;
+                }
+                appendDecoded(' ');
+                break;
+            case '\t':
+            case '\n':
+                // Attribute value normalization (XML 1.0 section 3.3.3).
+                appendDecoded(' ');
+                break;
+            default:
+                appendDecoded(c);
+                break;
+            }
+            i++;
+        }
+    }
+
+    private static final int MAX_ENTITY_LENGTH = 10;
+
+    /**
+     * Ensure that the entity reference starting at the current position is completely in the buffer.
+     */
+    private boolean ensureEntityAvailable() throws IOException {
+        int i = position + 1;
+        while (true) {
+            if (i == bufferEnd && !fillBuffer()) {
+                return false;
+            }
+            if (buffer[i] == ';' || i - position > MAX_ENTITY_LENGTH) {
+                return true;
+            }
+            i++;
+        }
+    }
+
+    /**
+     * Decode the entity reference at the given index into the decode buffer.
+     *
+     * @param index the index of the '&amp;'.
+     * @param limit the index up to which the entity reference must end.
+     * @return the index after the entity reference.
+     */
+    private int decodeEntity(int index, int limit) throws XmlPullParserException {
+        final int nameStart = index + 1;
+        int nameEnd = nameStart;
+        while (nameEnd < limit && buffer[nameEnd] != ';') {
+            if (nameEnd - nameStart > MAX_ENTITY_LENGTH) {
+                break;
+            }
+            nameEnd++;
+        }
+        if (nameEnd >= limit || buffer[nameEnd] != ';') {
+            throw error("Unterminated entity reference");
+        }
+
+        final int length = nameEnd - nameStart;
+        if (length > 1 && buffer[nameStart] == '#') {
+            int codePoint = 0;
+            int radix = 10;
+            int i = nameStart + 1;
+            if (buffer[i] == 'x') {
+                radix = 16;
+                i++;
+            }
+            if (i == nameEnd) {
+                throw error("Invalid character reference");
+            }
+            for (; i < nameEnd; i++) {
+                int digit = Character.digit(buffer[i], radix);
+                if (digit < 0 || codePoint > Character.MAX_CODE_POINT) {
+                    throw error("Invalid character reference");
+                }
+                codePoint = codePoint * radix + digit;
+            }
+            if (!Character.isValidCodePoint(codePoint)
+                            || (codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE)) {
+                throw error("Invalid character reference");
+            }
+            ensureDecodeCapacity(2);
+            decodeLength += Character.toChars(codePoint, decodeBuffer, decodeLength);
+        } else if (matches("lt", nameStart, length)) {
+            appendDecoded('<');
+        } else if (matches("gt", nameStart, length)) {
+            appendDecoded('>');
+        } else if (matches("amp", nameStart, length)) {
+            appendDecoded('&');
+        } else if (matches("apos", nameStart, length)) {
+            appendDecoded('\'');
+        } else if (matches("quot", nameStart, length)) {
+            appendDecoded('"');
+        } else {
+            throw error("Undefined entity '" + new String(buffer, nameStart, length) + "'");
+        }
+        return nameEnd + 1;
+    }
+
+    private boolean matches(String string, int start, int length) {
+        return XmppSymbolTable.equals(string, buffer, start, length);
+    }
+
+    private void appendDecoded(char c) {
+        ensureDecodeCapacity(1);
+        decodeBuffer[decodeLength++] = c;
+    }
+
+    private void appendDecoded(char[] chars, int start, int length) {
+        ensureDecodeCapacity(length);
+        System.arraycopy(chars, start, decodeBuffer, decodeLength, length);
+        decodeLength += length;
+    }
+
+    private void ensureDecodeCapacity(int additional) {
+        int required = decodeLength + additional;
+        if (required > decodeBuffer.length) {
+            decodeBuffer = Arrays.copyOf(decodeBuffer, Math.max(required, 2 * decodeBuffer.length));
+        }
+    }
+
+    private void skipComment() throws IOException, XmlPullParserException {
+        // Skip "<!--".
+        position += 4;
+        while (true) {
+            if (!ensureAvailable(3)) {
+                throw unexpectedEndOfInput();
+            }
+            if (buffer[position] == '-' && buffer[position + 1] == '-' && buffer[position + 2] == '>') {
+                position += 3;
+                return;
+            }
+            position++;
+        }
+    }
+
+    private void skipXmlDeclaration() throws IOException, XmlPullParserException {
+        if (seenRootElement || !startsWith("<?xml") || !ensureAvailable(6) || !isWhitespace(buffer[position + 5])) {
+            throw error("Processing instructions are not allowed in XMPP");
+        }
+        position += 6;
+        while (true) {
+            if (!ensureAvailable(2)) {
+                throw unexpectedEndOfInput();
+            }
+            if (buffer[position] == '?' && buffer[position + 1] == '>') {
+                position += 2;
+                return;
+            }
+            position++;
+        }
+    }
+
+    /**
+     * Skip whitespace and ensure that a further character is available.
+     *
+     * @return <code>true</code> if whitespace was skipped.
+     */
+    private boolean skipWhitespace() throws IOException, XmlPullParserException {
+        boolean skipped = false;
+        while (true) {
+            if (position == bufferEnd && !fillBuffer()) {
+                throw unexpectedEndOfInput();
+            }
+            if (!isWhitespace(buffer[position])) {
+                return skipped;
+            }
+            position++;
+            skipped = true;
+        }
+    }
+
+    private void requireChar(char c) throws IOException, XmlPullParserException {
+        if (position == bufferEnd && !fillBuffer()) {
+            throw unexpectedEndOfInput();
+        }
+        if (buffer[position] != c) {
+            throw error("Expected '" + c + "' but found '" + buffer[position] + "'");
+        }
+        position++;
+    }
+
+    private boolean startsWith(String string) throws IOException {
+        final int length = string.length();
+        if (!ensureAvailable(length)) {
+            return false;
+        }
+        return matches(string, position, length);
+    }
+
+    private boolean ensureAvailable(int count) throws IOException {
+        while (bufferEnd - position < count) {
+            if (!fillBuffer()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Read further characters into the buffer. This never discards characters from the buffer, as the positions of
+     * the current event refer to them, instead the buffer is grown if required.
+     *
+     * @return <code>true</code> if further characters were read, <code>false</code> if the end of input was reached.
+     */
+    private boolean fillBuffer() throws IOException {
+        // The UTF-8 decoder requires room for a surrogate pair.
+        if (buffer.length - bufferEnd < 2) {
+            buffer = Arrays.copyOf(buffer, 2 * buffer.length);
+        }
+
+        int read;
+        do {
+            if (reader != null) {
+                read = reader.read(buffer, bufferEnd, buffer.length - bufferEnd);
+            } else {
+                read = utf8InputDecoder.read(buffer, bufferEnd, buffer.length - bufferEnd);
+            }
+        } while (read == 0);
+
+        if (read < 0) {
+            return false;
+        }
+        bufferEnd += read;
+        return true;
+    }
+
+    /**
+     * Discard the consumed characters of the previous event from the buffer.
+     */
+    private void compactBuffer() {
+        if (position == 0) {
+            return;
+        }
+
+        final int remaining = bufferEnd - position;
+        if (remaining > 0 && position < buffer.length / 2) {
+            return;
+        }
+
+        for (int i = 0; i < position; i++) {
+            if (buffer[i] == '\n') {
+                discardedLines++;
+                discardedColumns = 0;
+            } else {
+                discardedColumns++;
+            }
+        }
+
+        char[] destination = buffer;
+        if (buffer.length > MAX_RETAINED_BUFFER_SIZE && remaining < INITIAL_BUFFER_SIZE) {
+            destination = new char[INITIAL_BUFFER_SIZE];
+        }
+        System.arraycopy(buffer, position, destination, 0, remaining);
+        buffer = destination;
+        position = 0;
+        bufferEnd = remaining;
+    }
+
+    private char[] textChars() {
+        return textDecoded ? decodeBuffer : buffer;
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\n' || c == '\t' || c == '\r';
+    }
+
+    private XmlPullParserException unexpectedEndOfInput() {
+        return error("Unexpected end of input");
+    }
+
+    private XmlPullParserException error(String message) {
+        return new XmlPullParserException(message + " (" + getPositionDescription() + ')');
+    }
+
+    /**
+     * A view of characters in one of the parser's buffers.
+     */
+    private final class CharSequenceView implements CharSequence {
+
+        private boolean decoded;
+        private int start;
+        private int length;
+
+        private void set(boolean decoded, int start, int length) {
+            this.decoded = decoded;
+            this.start = start;
+            this.length = length;
+        }
+
+        private char[] characters() {
+            return decoded ? decodeBuffer : buffer;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= length) {
+                throw new IndexOutOfBoundsException();
+            }
+            return characters()[start + index];
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            if (start < 0 || end > length || start > end) {
+                throw new IndexOutOfBoundsException();
+            }
+            return new String(characters(), this.start + start, end - start);
+        }
+
+        @Override
+        public String toString() {
+            return new String(characters(), start, length);
+        }
+    }
+}
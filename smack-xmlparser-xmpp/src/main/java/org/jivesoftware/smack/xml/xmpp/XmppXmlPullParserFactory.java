@@ -0,0 +1,47 @@
+/**
+ *
+ * Copyright 2021 Florian Schmaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.xml.xmpp;
+
+import java.io.InputStream;
+import java.io.Reader;
+
+import org.jivesoftware.smack.xml.XmlPullParserFactory;
+
+/**
+ * Factory for {@link XmppXmlPullParser}s, the XML pull parser specialized for XMPP.
+ *
+ * @since 4.5.0
+ */
+public class XmppXmlPullParserFactory implements XmlPullParserFactory {
+
+    @Override
+    public XmppXmlPullParser newXmlPullParser(Reader reader) {
+        return new XmppXmlPullParser(reader);
+    }
+
+    /**
+     * Create a new parser which decodes the given UTF-8 encoded input directly, without an intermediate
+     * {@link Reader}.
+     *
+     * @param inputStream the UTF-8 encoded input.
+     * @return a new parser.
+     */
+    public XmppXmlPullParser newXmlPullParser(InputStream inputStream) {
+        return new XmppXmlPullParser(inputStream);
+    }
+
+}
@@ -0,0 +1,195 @@
+/**
+ *
+ * Copyright 2021 Florian Schmaus
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.smack.xml.xmpp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+
+import org.jivesoftware.smack.xml.XmlPullParser;
+import org.jivesoftware.smack.xml.XmlPullParserException;
+import org.jivesoftware.smack.xml.xpp3.Xpp3XmlPullParserFactory;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+public class XmppXmlPullParserTest {
+
+    private static final Xpp3XmlPullParserFactory XPP3_FACTORY = new Xpp3XmlPullParserFactory();
+
+    private static final XmppXmlPullParserFactory XMPP_FACTORY = new XmppXmlPullParserFactory();
+
+    @Test
+    public void factoryTest() throws XmlPullParserException, IOException {
+        XmlPullParser parser = XMPP_FACTORY.newXmlPullParser(new StringReader("<element/>"));
+        parser.next();
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+        "<message/>",
+        "<?xml version='1.0' encoding='UTF-8'?>\n<message xmlns='jabber:client' to='juliet@example.org' id='1'/>",
+        "<message xmlns='jabber:client' from='romeo@example.net/orchard' to='juliet@example.org' type='chat'>"
+            + "<body>Wherefore art thou, Romeo?</body>"
+            + "<thread>e0ffe42b28561960c6b12b944a092794b9683a38</thread>"
+            + "<active xmlns='http://jabber.org/protocol/chatstates'/>"
+            + "</message>",
+        "<iq type='result' id='disco1' xmlns='jabber:client'>\n"
+            + "  <query xmlns='http://jabber.org/protocol/disco#info'>\n"
+            + "    <identity category='client' type='pc' name='Smack'/>\n"
+            + "    <feature var='urn:xmpp:ping'/>\n"
+            + "  </query>\n"
+            + "</iq>",
+        "<stream:features xmlns:stream='http://etherx.jabber.org/streams'>"
+            + "<mechanisms xmlns='urn:ietf:params:xml:ns:xmpp-sasl'><mechanism>SCRAM-SHA-1</mechanism></mechanisms>"
+            + "</stream:features>",
+        "<message xml:lang='en' xmlns:foo='urn:example:foo' foo:bar='baz' a=\"x'y\"><body xml:lang='de'>Hallo</body>"
+            + "<foo:item foo:attr='1'/></message>",
+        "<body>a &lt; b &amp;&amp; c &gt; d &apos;&quot; &#65;&#x42; e</body>",
+        "<body a='&lt;&amp;&#x20;' b='line\nbreak\ttab'>text<![CDATA[<cdata & more>]]>after<!-- comment -->end</body>",
+        "<a>\r\nwindows\rmac\r\n<b c='d\r\ne'/></a>",
+        "<a xmlns='urn:a'><b xmlns=''><c/></b><d>text</d></a>",
+        "<a><!-- only a comment --></a>",
+        "<a>\u00E4\u00F6\u00FC \u20AC \uD83D\uDE00</a>",
+        "<a   b = 'c'  ></a  >",
+        "<a><b/> <c/>  text  <d></d></a>",
+    })
+    public void parityWithXpp3(String xml) throws XmlPullParserException, IOException {
+        XmlPullParser expected = XPP3_FACTORY.newXmlPullParser(new StringReader(xml));
+        XmlPullParser actual = XMPP_FACTORY.newXmlPullParser(new StringReader(xml));
+        assertSameEvents(expected, actual);
+
+        expected = XPP3_FACTORY.newXmlPullParser(new StringReader(xml));
+        actual = XMPP_FACTORY.newXmlPullParser(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+        assertSameEvents(expected, actual);
+    }
+
+    @Test
+    public void parityWithXpp3OnSmallReads() throws XmlPullParserException, IOException {
+        String xml = "<message xmlns='jabber:client' to='juliet@example.org'><body>a &amp; b\r\n"
+                        + "<![CDATA[c]]>d</body></message>";
+        XmlPullParser expected = XPP3_FACTORY.newXmlPullParser(new StringReader(xml));
+        XmlPullParser actual = XMPP_FACTORY.newXmlPullParser(new StringReader(xml) {
+            @Override
+            public int read(char[] cbuf, int off, int len) throws IOException {
+                return super.read(cbuf, off, Math.min(len, 2));
+            }
+        });
+        assertSameEvents(expected, actual);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+        "",
+        "text",
+        "<a>",
+        "<a></b>",
+        "<a><b></a></b>",
+        "<a x='1' x='2'/>",
+        "<p:a/>",
+        "<a>&unknown;</a>",
+        "<a b='<'/>",
+        "<a/><b/>",
+    })
+    public void malformedInput(String xml) throws XmlPullParserException, IOException {
+        assertThrows(Exception.class, () -> parseFully(XPP3_FACTORY.newXmlPullParser(new StringReader(xml))));
+        assertThrows(XmlPullParserException.class,
+                        () -> parseFully(XMPP_FACTORY.newXmlPullParser(new StringReader(xml))));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+        "<!DOCTYPE a><a/>",
+        "<a><?pi?></a>",
+        "<a/><?xml version='1.0'?>",
+    })
+    public void restrictedXml(String xml) {
+        assertThrows(XmlPullParserException.class,
+                        () -> parseFully(XMPP_FACTORY.newXmlPullParser(new StringReader(xml))));
+    }
+
+    @Test
+    public void supplementaryCharacterReference() throws XmlPullParserException, IOException {
+        XmlPullParser parser = XMPP_FACTORY.newXmlPullParser(new StringReader("<a>&#x1F600;</a>"));
+        parser.next();
+        parser.next();
+        assertEquals(new String(Character.toChars(0x1F600)), parser.getText());
+    }
+
+    @Test
+    public void charSequenceViews() throws XmlPullParserException, IOException {
+        XmppXmlPullParser parser = XMPP_FACTORY.newXmlPullParser(
+                        new StringReader("<a xmlns:p='urn:p' b='value' p:c='a&amp;b'>text</a>"));
+        parser.next();
+        assertEquals("value", parser.getAttributeValueCharSequence(0).toString());
+        assertEquals("a&b", parser.getAttributeValueCharSequence("urn:p", "c").toString());
+        assertEquals("al", parser.getAttributeValueCharSequence(null, "b").subSequence(1, 3));
+        parser.next();
+        CharSequence text = parser.getTextCharSequence();
+        assertEquals(4, text.length());
+        assertEquals('x', text.charAt(2));
+    }
+
+    private static void parseFully(XmlPullParser parser) throws XmlPullParserException, IOException {
+        while (parser.next() != XmlPullParser.Event.END_DOCUMENT) {
+            // Consume all events.
+        }
+    }
+
+    private static void assertSameEvents(XmlPullParser expected, XmlPullParser actual)
+                    throws XmlPullParserException, IOException {
+        XmlPullParser.Event event;
+        do {
+            event = expected.next();
+            assertEquals(event, actual.next());
+            String position = actual.getPositionDescription();
+            assertEquals(expected.getDepth(), actual.getDepth(), position);
+            assertEquals(expected.getName(), actual.getName(), position);
+            assertEquals(expected.getNamespace(), actual.getNamespace(), position);
+            assertEquals(expected.getPrefix(), actual.getPrefix(), position);
+            assertEquals(expected.getText(), actual.getText(), position);
+            assertEquals(expected.getNamespaceCount(), actual.getNamespaceCount(), position);
+            for (int i = 0; i < expected.getNamespaceCount(); i++) {
+                assertEquals(expected.getNamespacePrefix(i), actual.getNamespacePrefix(i), position);
+                assertEquals(expected.getNamespaceUri(i), actual.getNamespaceUri(i), position);
+            }
+            assertEquals(expected.getAttributeCount(), actual.getAttributeCount(), position);
+            for (int i = 0; i < expected.getAttributeCount(); i++) {
+                assertEquals(expected.getAttributeName(i), actual.getAttributeName(i), position);
+                assertEquals(expected.getAttributeNamespace(i), actual.getAttributeNamespace(i), position);
+                assertEquals(expected.getAttributePrefix(i), actual.getAttributePrefix(i), position);
+                assertEquals(expected.getAttributeValue(i), actual.getAttributeValue(i), position);
+                assertEquals(expected.getAttributeValue(expected.getAttributeNamespace(i),
+                                expected.getAttributeName(i)),
+                                actual.getAttributeValue(actual.getAttributeNamespace(i), actual.getAttributeName(i)),
+                                position);
+                assertEquals(expected.getAttributeQName(i), actual.getAttributeQName(i), position);
+            }
+            if (event == XmlPullParser.Event.START_ELEMENT || event == XmlPullParser.Event.END_ELEMENT) {
+                assertEquals(expected.getQName(), actual.getQName(), position);
+            }
+            if (event == XmlPullParser.Event.TEXT_CHARACTERS) {
+                assertEquals(expected.isWhiteSpace(), actual.isWhiteSpace(), position);
+            }
+        } while (event != XmlPullParser.Event.END_DOCUMENT);
+    }
+}